@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Regression check for the steady-state frame path not allocating: once warmed up,
+ * pushing a frame through must not allocate a single Java object, since on the robot
+ * every allocation eventually turns into an ART GC pause, which shows up as a frame
+ * time spike. Run by the allocationCheck task (part of 'check'), which exits non-zero
+ * if any case allocates.
+ *
+ *     ./gradlew :easyopencv-bench:allocationCheck
+ *
+ * This covers everything that runs on the host JVM. The Android half (viewport post
+ * and rendering) is built out of the same pieces: the framebuffer hand-off case below
+ * is what post() does, the annotation hand-off case is what post() does with the
+ * pipeline's annotations, and the stats text case is what the FPS meter draws.
+ */
+public class AllocationCheck
+{
+    private static final String RESOLUTION = "640x480";
+    private static final int WARMUP_FRAMES = 2000;
+    private static final int MEASURED_FRAMES = 1000;
+    private static final int ATTEMPTS = 3;
+
+    abstract static class Case
+    {
+        final String name;
+
+        Case(String name)
+        {
+            this.name = name;
+        }
+
+        void setup() {}
+        abstract void frame() throws Exception;
+        void teardown() {}
+    }
+
+    /*
+     * handleFrameUserCrashable()'s share of the frame path, as in FrameDispatchBenchmark
+     */
+    static class DispatchCase extends Case
+    {
+        private final OpenCvCameraRotation rotation;
+        private final OpenCvPipeline pipeline;
+        private final FrameDispatcher dispatcher = new FrameDispatcher();
+        private Mat frame;
+        private long timestamp;
+
+        DispatchCase(String name, OpenCvCameraRotation rotation, OpenCvPipeline pipeline)
+        {
+            super(name);
+            this.rotation = rotation;
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        void setup()
+        {
+            frame = BenchmarkFrames.rgba(BenchmarkFrames.width(RESOLUTION), BenchmarkFrames.height(RESOLUTION));
+            dispatcher.reset(BenchmarkFrames.rotateCode(rotation));
+            pipeline.MEMLEAK_DETECTION_ENABLED = false;
+        }
+
+        @Override
+        void frame()
+        {
+            FrameStatistics statistics = dispatcher.getStatistics();
+            statistics.markFrameProcessingStart();
+            statistics.markFrameArrival();
+
+            Mat rotated = dispatcher.rotate(frame);
+            dispatcher.process(pipeline, rotated, timestamp++);
+
+            statistics.updateAverages();
+            statistics.markFrameProcessingEnd();
+        }
+
+        @Override
+        void teardown()
+        {
+            frame.release();
+        }
+    }
+
+    /*
+     * Returns a cropped single channel frame, which takes the
+     * color conversion branch of the cropped output path
+     */
+    static class GrayCroppingPipeline extends OpenCvPipeline
+    {
+        private Mat gray;
+        private Mat half;
+
+        @Override
+        public void init(Mat input)
+        {
+            gray = new Mat(input.rows(), input.cols(), CvType.CV_8UC1);
+            half = gray.submat(0, input.rows() / 2, 0, input.cols() / 2);
+        }
+
+        @Override
+        public Mat processFrame(Mat input)
+        {
+            Imgproc.cvtColor(input, gray, Imgproc.COLOR_RGBA2GRAY);
+            return half;
+        }
+    }
+
+    /*
+     * Times a couple of (nested) sections with the profiler enabled
+     */
+    static class ProfiledPipeline extends OpenCvPipeline
+    {
+        private final Mat gray = new Mat();
+
+        @Override
+        public void init(Mat input)
+        {
+            profiler.setEnabled(true);
+        }
+
+        @Override
+        public Mat processFrame(Mat input)
+        {
+            profiler.begin("convert");
+            profiler.begin("gray");
+            Imgproc.cvtColor(input, gray, Imgproc.COLOR_RGBA2GRAY);
+            profiler.end();
+            profiler.end();
+
+            profiler.begin("threshold");
+            Imgproc.threshold(gray, gray, 128, 255, Imgproc.THRESH_BINARY);
+            profiler.end();
+
+            return input;
+        }
+    }
+
+    /*
+     * Records one of each kind of annotation, as though the viewport were showing them
+     */
+    static class AnnotatedPipeline extends OpenCvPipeline
+    {
+        private final Scalar color = new Scalar(0, 255, 0);
+        private final Rect rect = new Rect(40, 40, 200, 100);
+        private final Point from = new Point(0, 0);
+        private final Point to = new Point(320, 240);
+        private MatOfPoint contour;
+
+        @Override
+        public void init(Mat input)
+        {
+            annotations.setEnabled(true);
+            contour = new MatOfPoint(new Point(10, 10), new Point(60, 12), new Point(50, 70), new Point(8, 40));
+        }
+
+        @Override
+        public Mat processFrame(Mat input)
+        {
+            annotations.rect(rect, color, 2)
+                    .line(from, to, color, 1)
+                    .circle(to, 25, color, -1)
+                    .text("Target", from, 20, color)
+                    .contour(contour, color, 2);
+
+            return input;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        BenchmarkFrames.loadOpenCv();
+
+        if(threadAllocatedBytes() < 0)
+        {
+            throw new IllegalStateException("This JVM can't report per-thread allocation, so can't run the allocation check");
+        }
+
+        checkTextLine();
+
+        List<Case> cases = new ArrayList<>();
+        cases.add(new DispatchCase("dispatch", OpenCvCameraRotation.SENSOR_NATIVE, new FrameDispatchBenchmark.NoOpPipeline()));
+        cases.add(new DispatchCase("dispatch, rotated", OpenCvCameraRotation.SIDEWAYS_LEFT, new FrameDispatchBenchmark.NoOpPipeline()));
+        cases.add(new DispatchCase("dispatch, cropped RGBA output", OpenCvCameraRotation.SENSOR_NATIVE, new FrameDispatchBenchmark.CroppingPipeline()));
+        cases.add(new DispatchCase("dispatch, cropped gray output", OpenCvCameraRotation.SENSOR_NATIVE, new GrayCroppingPipeline()));
+        cases.add(new DispatchCase("dispatch, profiled pipeline", OpenCvCameraRotation.SENSOR_NATIVE, new ProfiledPipeline()));
+        cases.add(new DispatchCase("dispatch, annotated pipeline", OpenCvCameraRotation.SENSOR_NATIVE, new AnnotatedPipeline()));
+        cases.add(new Case("framebuffer hand-off")
+        {
+            private final MatRecycler framebufferRecycler = new MatRecycler(4);
+            private final Object context = new Object();
+            private Mat frame;
+
+            @Override
+            void setup()
+            {
+                frame = BenchmarkFrames.rgba(BenchmarkFrames.width(RESOLUTION), BenchmarkFrames.height(RESOLUTION));
+            }
+
+            @Override
+            void frame() throws Exception
+            {
+                MatRecycler.RecyclableMat matToCopyTo = framebufferRecycler.takeMat();
+                frame.copyTo(matToCopyTo);
+                matToCopyTo.setContext(context);
+                framebufferRecycler.returnMat(matToCopyTo);
+            }
+
+            @Override
+            void teardown()
+            {
+                frame.release();
+            }
+        });
+        cases.add(new Case("annotation hand-off")
+        {
+            private final AnnotatedPipeline pipeline = new AnnotatedPipeline();
+            private final OpenCvAnnotations copy = new OpenCvAnnotations();
+            private Mat frame;
+
+            @Override
+            void setup()
+            {
+                frame = BenchmarkFrames.rgba(BenchmarkFrames.width(RESOLUTION), BenchmarkFrames.height(RESOLUTION));
+                pipeline.MEMLEAK_DETECTION_ENABLED = false;
+            }
+
+            @Override
+            void frame()
+            {
+                pipeline.processFrameInternal(frame);
+                copy.copyFrom(pipeline.getAnnotations());
+            }
+
+            @Override
+            void teardown()
+            {
+                frame.release();
+            }
+        });
+        cases.add(new Case("stats text")
+        {
+            private final TextLine fpsText = new TextLine(64);
+            private final TextLine timingText = new TextLine(64);
+            private int n;
+
+            @Override
+            void frame()
+            {
+                n++;
+                fpsText.clear().append("FPS@").append(640).append('x').append(480).append(": ").append(n * 0.37f, 2);
+                timingText.clear().append("Pipeline: ").append(n % 40).append("ms - Overhead: ").append(n % 7).append("ms");
+            }
+        });
+
+        // What measuring costs by itself, e.g. if the MXBean boxes anything
+        long baseline = measure(new Case("baseline")
+        {
+            @Override
+            void frame() {}
+        });
+
+        int failures = 0;
+
+        for(Case c : cases)
+        {
+            c.setup();
+
+            try
+            {
+                long bytes = Math.max(0, measure(c) - baseline);
+                boolean ok = bytes == 0;
+
+                System.out.println(String.format(Locale.US, "%-32s %8.1f B/frame  %s", c.name, (double) bytes / MEASURED_FRAMES, ok ? "OK" : "ALLOCATES"));
+
+                if(!ok)
+                {
+                    failures++;
+                }
+            }
+            finally
+            {
+                c.teardown();
+            }
+        }
+
+        if(failures > 0)
+        {
+            System.err.println(failures + " case(s) allocate on the steady-state frame path");
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Bytes allocated over MEASURED_FRAMES after warming up. We take the best of a few
+     * attempts, since one-off things like class loading can land in a measurement.
+     */
+    private static long measure(Case c) throws Exception
+    {
+        for(int i = 0; i < WARMUP_FRAMES; i++)
+        {
+            c.frame();
+        }
+
+        long best = Long.MAX_VALUE;
+
+        for(int attempt = 0; attempt < ATTEMPTS; attempt++)
+        {
+            long before = threadAllocatedBytes();
+
+            for(int i = 0; i < MEASURED_FRAMES; i++)
+            {
+                c.frame();
+            }
+
+            best = Math.min(best, threadAllocatedBytes() - before);
+        }
+
+        return best;
+    }
+
+    /*
+     * The FPS meter used to be drawn with String.format(); make sure it still reads the same
+     */
+    private static void checkTextLine()
+    {
+        TextLine line = new TextLine(64);
+        float[] values = {0f, -0.001f, 0.004f, 0.005f, 1.5f, 9.999f, 29.97f, 30f, 123.456f};
+
+        for(float v : values)
+        {
+            String expected = String.format(Locale.US, "FPS@%dx%d: %.2f", 640, 480, v);
+            String actual = line.clear().append("FPS@").append(640).append('x').append(480).append(": ").append(v, 2).toString();
+
+            if(!expected.equals(actual))
+            {
+                throw new IllegalStateException("TextLine formatted \"" + actual + "\", expected \"" + expected + "\"");
+            }
+        }
+
+        String expected = String.format(Locale.US, "Pipeline: %dms - Overhead: %dms", 12, -3);
+        String actual = line.clear().append("Pipeline: ").append(12).append("ms - Overhead: ").append(-3).append("ms").toString();
+
+        if(!expected.equals(actual))
+        {
+            throw new IllegalStateException("TextLine formatted \"" + actual + "\", expected \"" + expected + "\"");
+        }
+    }
+
+    private static long threadAllocatedBytes()
+    {
+        try
+        {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        catch (ClassCastException | UnsupportedOperationException e)
+        {
+            return -1;
+        }
+    }
+}
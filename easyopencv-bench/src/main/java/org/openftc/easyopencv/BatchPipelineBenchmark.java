@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One frame from each of N cameras through the same color threshold detector:
+ * N separate pipelines, vs. one OpenCvBatchPipeline which runs the detector once
+ * over all the frames (paying for copying them into the batch).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchPipelineBenchmark
+{
+    @Param({"320x240", "640x480"})
+    public String resolution;
+
+    @Param({"2", "4"})
+    public int cameras;
+
+    private Mat frame;
+    private FrameDispatcher[] dispatchers;
+    private OpenCvPipeline[] separate;
+    private OpenCvPipeline[] batchInputs;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        frame = BenchmarkFrames.rgba(BenchmarkFrames.width(resolution), BenchmarkFrames.height(resolution));
+
+        dispatchers = new FrameDispatcher[cameras];
+        separate = new OpenCvPipeline[cameras];
+        batchInputs = new OpenCvPipeline[cameras];
+
+        BatchedThresholdPipeline batched = new BatchedThresholdPipeline(cameras);
+
+        for(int i = 0; i < cameras; i++)
+        {
+            dispatchers[i] = new FrameDispatcher();
+            dispatchers[i].reset(BenchmarkFrames.rotateCode(OpenCvCameraRotation.SENSOR_NATIVE));
+
+            separate[i] = new ThresholdPipeline();
+            separate[i].MEMLEAK_DETECTION_ENABLED = false;
+
+            batchInputs[i] = batched.getCameraPipeline(i);
+            batchInputs[i].MEMLEAK_DETECTION_ENABLED = false;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown()
+    {
+        frame.release();
+    }
+
+    @Benchmark
+    public void separatePipelines()
+    {
+        timestamp++;
+
+        for(int i = 0; i < cameras; i++)
+        {
+            dispatchers[i].process(separate[i], frame, timestamp);
+        }
+    }
+
+    @Benchmark
+    public void batchedPipeline()
+    {
+        timestamp++;
+
+        for(int i = 0; i < cameras; i++)
+        {
+            dispatchers[i].process(batchInputs[i], frame, timestamp);
+        }
+    }
+
+    private static final Scalar LOWER = new Scalar(20, 100, 100);
+    private static final Scalar UPPER = new Scalar(35, 255, 255);
+
+    static class ThresholdPipeline extends OpenCvPipeline
+    {
+        private final Mat rgb = new Mat();
+        private final Mat hsv = new Mat();
+        private final Mat mask = new Mat();
+
+        @Override
+        public Mat processFrame(Mat input)
+        {
+            Imgproc.cvtColor(input, rgb, Imgproc.COLOR_RGBA2RGB);
+            Imgproc.cvtColor(rgb, hsv, Imgproc.COLOR_RGB2HSV);
+            Core.inRange(hsv, LOWER, UPPER, mask);
+            return input;
+        }
+    }
+
+    static class BatchedThresholdPipeline extends OpenCvBatchPipeline
+    {
+        private final Mat rgb = new Mat();
+        private final Mat hsv = new Mat();
+        private final Mat mask = new Mat();
+
+        BatchedThresholdPipeline(int cameras)
+        {
+            super(cameras, Long.MAX_VALUE);
+        }
+
+        @Override
+        public void processBatch(Mat batch, Mat[] frames, long[] captureTimesNanos)
+        {
+            Imgproc.cvtColor(batch, rgb, Imgproc.COLOR_RGBA2RGB);
+            Imgproc.cvtColor(rgb, hsv, Imgproc.COLOR_RGB2HSV);
+            Core.inRange(hsv, LOWER, UPPER, mask);
+        }
+    }
+}
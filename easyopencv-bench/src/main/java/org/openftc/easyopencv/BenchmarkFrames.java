@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Shared setup for the benchmarks: loading OpenCV, and producing input frames
+ * in each of the formats the cameras hand us. Frames are the synthetic test
+ * pattern with some noise on top (so that e.g. JPEG doesn't get an unrealistically
+ * easy time of it), or a real image if -Deocv.bench.image=/path/to/image is set.
+ */
+final class BenchmarkFrames
+{
+    static final String[] RESOLUTIONS = {"320x240", "640x480", "1280x720", "1920x1080"};
+
+    private static boolean openCvLoaded;
+
+    private BenchmarkFrames()
+    {
+    }
+
+    static synchronized void loadOpenCv()
+    {
+        if(openCvLoaded)
+        {
+            return;
+        }
+
+        try
+        {
+            // The bundled openpnp build knows how to unpack its own natives
+            Class.forName("nu.pattern.OpenCV").getMethod("loadLocally").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        }
+
+        openCvLoaded = true;
+    }
+
+    static int width(String resolution)
+    {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int height(String resolution)
+    {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /*
+     * An RGBA frame, as the frame path sees it after color conversion
+     */
+    static Mat rgba(int width, int height)
+    {
+        loadOpenCv();
+
+        Mat rgba = new Mat(height, width, CvType.CV_8UC4);
+        String imagePath = System.getProperty("eocv.bench.image");
+
+        if(imagePath != null)
+        {
+            Mat bgr = Imgcodecs.imread(imagePath);
+
+            if(bgr.empty())
+            {
+                throw new IllegalArgumentException("Unable to read " + imagePath);
+            }
+
+            Imgproc.resize(bgr, bgr, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+            Imgproc.cvtColor(bgr, rgba, Imgproc.COLOR_BGR2RGBA);
+            bgr.release();
+            return rgba;
+        }
+
+        OpenCvFrameSource source = OpenCvFrameSources.synthetic(width, height, 30, 0);
+
+        try
+        {
+            source.open();
+
+            // Advance a bit so the moving box isn't in its start position
+            for(int i = 0; i < 10; i++)
+            {
+                source.nextFrame(rgba);
+            }
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            source.close();
+        }
+
+        Mat noise = new Mat(height, width, CvType.CV_8UC4);
+        Core.randu(noise, 0, 24);
+        Core.add(rgba, noise, rgba);
+        noise.release();
+
+        return rgba;
+    }
+
+    /*
+     * Packed YUY2 (Y0 U Y1 V), as a UVC webcam sends it
+     */
+    static Mat yuy2(Mat rgba)
+    {
+        Mat yuv = new Mat();
+        Imgproc.cvtColor(rgba, yuv, Imgproc.COLOR_RGB2YUV);
+
+        int width = rgba.cols();
+        int height = rgba.rows();
+
+        byte[] src = new byte[width * height * 3];
+        yuv.get(0, 0, src);
+        yuv.release();
+
+        byte[] dst = new byte[width * height * 2];
+
+        for(int i = 0, px = 0; px < width * height; px += 2, i += 4)
+        {
+            int a = px * 3;
+            int b = (px + 1) * 3;
+
+            dst[i] = src[a];
+            dst[i + 1] = (byte) (((src[a + 1] & 0xFF) + (src[b + 1] & 0xFF)) / 2);
+            dst[i + 2] = src[b];
+            dst[i + 3] = (byte) (((src[a + 2] & 0xFF) + (src[b + 2] & 0xFF)) / 2);
+        }
+
+        Mat yuy2 = new Mat(height, width, CvType.CV_8UC2);
+        yuy2.put(0, 0, dst);
+        return yuy2;
+    }
+
+    /*
+     * JPEG bytes, as a webcam in MJPEG mode sends them. Continuous CV_8UC1 so
+     * that dataAddr() can stand in for the UVC driver's buffer pointer.
+     */
+    static Mat mjpeg(Mat rgba)
+    {
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(rgba, bgr, Imgproc.COLOR_RGBA2BGR);
+
+        MatOfByte jpeg = new MatOfByte();
+        Imgcodecs.imencode(".jpg", bgr, jpeg);
+        bgr.release();
+
+        return jpeg;
+    }
+
+    /*
+     * Semi-planar 4:2:0, as Camera2 sends it. Returns {Y plane, interleaved chroma plane}.
+     * For NV12 the chroma is U,V,U,V...; for NV21 it's V,U,V,U...
+     */
+    static ByteBuffer[] semiPlanar(Mat rgba, boolean nv21)
+    {
+        int width = rgba.cols();
+        int height = rgba.rows();
+
+        Mat i420 = new Mat();
+        Imgproc.cvtColor(rgba, i420, Imgproc.COLOR_RGBA2YUV_I420);
+
+        byte[] planar = new byte[width * height * 3 / 2];
+        i420.get(0, 0, planar);
+        i420.release();
+
+        int ySize = width * height;
+        int chromaSize = ySize / 4;
+
+        ByteBuffer y = ByteBuffer.allocateDirect(ySize);
+        y.put(planar, 0, ySize);
+        y.flip();
+
+        ByteBuffer uv = ByteBuffer.allocateDirect(chromaSize * 2);
+
+        for(int i = 0; i < chromaSize; i++)
+        {
+            byte u = planar[ySize + i];
+            byte v = planar[ySize + chromaSize + i];
+
+            uv.put(nv21 ? v : u);
+            uv.put(nv21 ? u : v);
+        }
+
+        uv.flip();
+
+        return new ByteBuffer[] {y, uv};
+    }
+
+    /*
+     * The same rotate codes OpenCvWebcamImpl uses
+     */
+    static int rotateCode(OpenCvCameraRotation rotation)
+    {
+        switch (rotation)
+        {
+            case SIDEWAYS_LEFT:
+                return Core.ROTATE_90_COUNTERCLOCKWISE;
+
+            case SIDEWAYS_RIGHT:
+                return Core.ROTATE_90_CLOCKWISE;
+
+            case UPSIDE_DOWN:
+                return Core.ROTATE_180;
+
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The camera -> RGBA conversions: YUY2 and MJPEG from webcams, and NV12/NV21
+ * from Camera2's colorConversion(). These go through the same native kernels
+ * the robot uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorConversionBenchmark
+{
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private Mat rgba;
+    private Mat yuy2;
+    private Mat mjpeg;
+    private long decompressor;
+    private ByteBuffer nv12Y;
+    private ByteBuffer nv12U;
+    private ByteBuffer nv12V;
+    private ByteBuffer nv21Y;
+    private ByteBuffer nv21U;
+    private ByteBuffer nv21V;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        width = BenchmarkFrames.width(resolution);
+        height = BenchmarkFrames.height(resolution);
+
+        Mat source = BenchmarkFrames.rgba(width, height);
+        yuy2 = BenchmarkFrames.yuy2(source);
+        mjpeg = BenchmarkFrames.mjpeg(source);
+
+        /*
+         * Camera2 reports the U and V planes separately, but they're really
+         * views into one interleaved buffer, offset by one byte. Which one
+         * comes first is how the kernel tells NV12 from NV21.
+         */
+        ByteBuffer[] nv12 = BenchmarkFrames.semiPlanar(source, false);
+        nv12Y = nv12[0];
+        nv12U = slice(nv12[1], 0);
+        nv12V = slice(nv12[1], 1);
+
+        ByteBuffer[] nv21 = BenchmarkFrames.semiPlanar(source, true);
+        nv21Y = nv21[0];
+        nv21V = slice(nv21[1], 0);
+        nv21U = slice(nv21[1], 1);
+
+        source.release();
+
+        rgba = new Mat(height, width, CvType.CV_8UC4);
+        decompressor = NativeKernels.createJpegDecompressor();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset)
+    {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        return dup.slice();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown()
+    {
+        NativeKernels.destroyJpegDecompressor(decompressor);
+        rgba.release();
+        yuy2.release();
+        mjpeg.release();
+    }
+
+    @Benchmark
+    public Mat yuy2BufToRgbaMat()
+    {
+        NativeKernels.yuy2ToRgba(yuy2.dataAddr(), width, height, rgba.nativeObj);
+        return rgba;
+    }
+
+    @Benchmark
+    public Mat mjpegBufToRgbaMat()
+    {
+        NativeKernels.mjpegToRgba(decompressor, mjpeg.dataAddr(), (int) mjpeg.total(), rgba.nativeObj);
+        return rgba;
+    }
+
+    @Benchmark
+    public Mat nv12ColorConversion()
+    {
+        NativeKernels.semiPlanarYuvToRgba(nv12Y, nv12U, nv12V, width, height, width, rgba.nativeObj);
+        return rgba;
+    }
+
+    @Benchmark
+    public Mat nv21ColorConversion()
+    {
+        NativeKernels.semiPlanarYuvToRgba(nv21Y, nv21U, nv21V, width, height, width, rgba.nativeObj);
+        return rgba;
+    }
+}
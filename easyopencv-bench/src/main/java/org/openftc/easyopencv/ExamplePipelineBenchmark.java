@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The pipelines from the examples module, as reference "real" workloads. They're
+ * nested in OpModes, which we can't load here, so the pipeline classes themselves
+ * are loaded reflectively out of the compiled examples (they only use OpenCV).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExamplePipelineBenchmark
+{
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({
+            "org.firstinspires.ftc.teamcode.SkystoneDeterminationExample$SkystoneDeterminationPipeline",
+            "org.firstinspires.ftc.teamcode.StoneOrientationExample$StoneOrientationAnalysisPipeline"})
+    public String pipelineClass;
+
+    private Mat frame;
+    private Mat input;
+    private FrameDispatcher dispatcher;
+    private OpenCvPipeline pipeline;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        frame = BenchmarkFrames.rgba(BenchmarkFrames.width(resolution), BenchmarkFrames.height(resolution));
+        input = new Mat();
+        dispatcher = new FrameDispatcher();
+        dispatcher.reset(-1);
+
+        Constructor<?> constructor;
+
+        try
+        {
+            constructor = Class.forName(pipelineClass).getDeclaredConstructor();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Example pipelines not on the classpath; build the examples module first", e);
+        }
+
+        constructor.setAccessible(true);
+        pipeline = (OpenCvPipeline) constructor.newInstance();
+        pipeline.MEMLEAK_DETECTION_ENABLED = false;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown()
+    {
+        frame.release();
+        input.release();
+    }
+
+    @Benchmark
+    public Mat processFrame()
+    {
+        // The examples draw on their input, so give them a fresh copy each time like a camera would
+        frame.copyTo(input);
+        return dispatcher.process(pipeline, input, 0);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * What handleFrameUserCrashable() costs on top of the user's pipeline: statistics,
+ * rotation, pipeline dispatch and output normalization, with a pipeline that does
+ * nothing. The viewport / recording taps are Android-side; see ViewportPostBenchmark
+ * for the viewport's share.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDispatchBenchmark
+{
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"SENSOR_NATIVE", "SIDEWAYS_LEFT"})
+    public OpenCvCameraRotation rotation;
+
+    /*
+     * Whether the pipeline returns a cropped frame, which
+     * sends us down the copy-onto-a-full-size-Mat path
+     */
+    @Param({"false", "true"})
+    public boolean cropped;
+
+    private Mat frame;
+    private FrameDispatcher dispatcher;
+    private OpenCvPipeline pipeline;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        frame = BenchmarkFrames.rgba(BenchmarkFrames.width(resolution), BenchmarkFrames.height(resolution));
+        dispatcher = new FrameDispatcher();
+        dispatcher.reset(BenchmarkFrames.rotateCode(rotation));
+
+        pipeline = cropped ? new CroppingPipeline() : new NoOpPipeline();
+        pipeline.MEMLEAK_DETECTION_ENABLED = false;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown()
+    {
+        frame.release();
+    }
+
+    @Benchmark
+    public Mat handleFrame()
+    {
+        FrameStatistics statistics = dispatcher.getStatistics();
+        statistics.markFrameProcessingStart();
+        statistics.markFrameArrival();
+
+        Mat rotated = dispatcher.rotate(frame);
+        Mat output = dispatcher.process(pipeline, rotated, timestamp++);
+
+        statistics.updateAverages();
+        statistics.markFrameProcessingEnd();
+
+        return output;
+    }
+
+    static class NoOpPipeline extends OpenCvPipeline
+    {
+        @Override
+        public Mat processFrame(Mat input)
+        {
+            return input;
+        }
+    }
+
+    static class CroppingPipeline extends OpenCvPipeline
+    {
+        private Mat half;
+
+        @Override
+        public void init(Mat input)
+        {
+            half = input.submat(0, input.rows() / 2, 0, input.cols() / 2);
+        }
+
+        @Override
+        public Mat processFrame(Mat input)
+        {
+            return half;
+        }
+    }
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * Pushes a set of frames through an OpenCvPipeline as fast as it will go, to size
+ * resolution and pipeline complexity before going anywhere near a robot.
+ *
+ *     ./gradlew :easyopencv-bench:runPipeline -PpipelineClasspath=/path/to/classes \
+ *         -PrunnerArgs="--images /path/to/frames --pipeline com.example.MyPipeline --workers 4 \
+ *                       --resolutions 320x240,640x480,1280x720 --formats RGBA,YUY2,MJPEG"
+ *
+ * Frames come from a directory of images (--images) or a replay recording (--replay),
+ * and are all decoded into memory up front so that disk speed doesn't factor in. Each
+ * worker thread gets its own pipeline instance and cycles through the frames. For each
+ * resolution x format combination we report sustainable FPS across all workers,
+ * per-frame latency percentiles, native memory growth and the Java allocation rate.
+ *
+ * The format is what the "camera" hands over: RGBA skips conversion, while YUY2 / MJPEG
+ * (webcams) and NV12 / NV21 (Camera2) include the same conversion kernel the robot runs,
+ * so the numbers reflect the whole frame path rather than just processFrame().
+ */
+public class PipelineThroughputRunner
+{
+    enum InputFormat
+    {
+        RGBA,
+        YUY2,
+        MJPEG,
+        NV12,
+        NV21
+    }
+
+    static class Options
+    {
+        String imageDirectory;
+        String replayPath;
+        String pipelineClass = FrameDispatchBenchmark.NoOpPipeline.class.getName();
+        int workers = 1;
+        int maxFrames = 200;
+        int warmupFrames = 30;
+        int framesPerWorker = 300;
+        double seconds = 0;
+        List<String> resolutions = new ArrayList<>();
+        List<InputFormat> formats = new ArrayList<>(Arrays.asList(InputFormat.RGBA));
+        String csvPath;
+    }
+
+    /*
+     * One source frame, pre-encoded in the format under test
+     */
+    static class InputFrame
+    {
+        Mat raw;
+        ByteBuffer yPlane;
+        ByteBuffer uPlane;
+        ByteBuffer vPlane;
+    }
+
+    static class TrialResult
+    {
+        String resolution;
+        InputFormat format;
+        long frames;
+        double wallSeconds;
+        long[] latenciesNanos;
+        long nativeGrowthBytes;
+        long allocatedBytes;
+
+        double fps()
+        {
+            return frames / wallSeconds;
+        }
+
+        double percentileMs(double p)
+        {
+            int idx = (int) Math.min(latenciesNanos.length - 1, Math.ceil(p / 100.0 * latenciesNanos.length) - 1);
+            return latenciesNanos[Math.max(0, idx)] / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Options opts;
+
+        try
+        {
+            opts = parse(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+            return;
+        }
+
+        BenchmarkFrames.loadOpenCv();
+
+        List<Mat> frames = loadFrames(opts);
+
+        if(frames.isEmpty())
+        {
+            System.err.println("No frames to run");
+            System.exit(1);
+        }
+
+        if(opts.resolutions.isEmpty())
+        {
+            opts.resolutions.add(frames.get(0).cols() + "x" + frames.get(0).rows());
+        }
+
+        System.out.printf(Locale.US, "%s: %d frames, %d worker(s)%n%n", opts.pipelineClass, frames.size(), opts.workers);
+        System.out.printf(Locale.US, "%-10s %-6s %9s %9s %9s %9s %9s %12s %12s %12s%n",
+                "size", "format", "fps", "p50 ms", "p90 ms", "p99 ms", "max ms", "native MB", "alloc MB/s", "alloc B/frm");
+
+        PrintWriter csv = null;
+
+        if(opts.csvPath != null)
+        {
+            csv = new PrintWriter(new FileWriter(opts.csvPath));
+            csv.println("resolution,format,workers,frames,fps,p50_ms,p90_ms,p99_ms,max_ms,native_growth_bytes,alloc_bytes_per_sec,alloc_bytes_per_frame");
+        }
+
+        try
+        {
+            for(String resolution : opts.resolutions)
+            {
+                for(InputFormat format : opts.formats)
+                {
+                    TrialResult r = runTrial(opts, frames, resolution, format);
+
+                    double allocPerSecond = r.allocatedBytes < 0 ? -1 : r.allocatedBytes / r.wallSeconds;
+                    double allocPerFrame = r.allocatedBytes < 0 ? -1 : (double) r.allocatedBytes / r.frames;
+
+                    System.out.printf(Locale.US, "%-10s %-6s %9.1f %9.2f %9.2f %9.2f %9.2f %12.1f %12.2f %12.0f%n",
+                            r.resolution, r.format, r.fps(), r.percentileMs(50), r.percentileMs(90), r.percentileMs(99), r.percentileMs(100),
+                            r.nativeGrowthBytes / (1024.0*1024.0), allocPerSecond / (1024.0*1024.0), allocPerFrame);
+
+                    if(csv != null)
+                    {
+                        csv.printf(Locale.US, "%s,%s,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%d,%.0f,%.1f%n",
+                                r.resolution, r.format, opts.workers, r.frames, r.fps(), r.percentileMs(50), r.percentileMs(90), r.percentileMs(99), r.percentileMs(100),
+                                r.nativeGrowthBytes, allocPerSecond, allocPerFrame);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if(csv != null)
+            {
+                csv.close();
+            }
+        }
+    }
+
+    static void usage()
+    {
+        System.err.println("Usage: PipelineThroughputRunner (--images DIR | --replay FILE) [--pipeline CLASS] [--workers N]\n" +
+                "       [--max-frames N] [--warmup N] [--frames N | --seconds S] [--resolutions WxH,...]\n" +
+                "       [--formats RGBA,YUY2,MJPEG,NV12,NV21] [--csv FILE]");
+    }
+
+    static Options parse(String[] args)
+    {
+        Options opts = new Options();
+
+        for(int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+
+            if(i + 1 >= args.length)
+            {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+
+            String value = args[++i];
+
+            switch (arg)
+            {
+                case "--images": opts.imageDirectory = value; break;
+                case "--replay": opts.replayPath = value; break;
+                case "--pipeline": opts.pipelineClass = value; break;
+                case "--workers": opts.workers = positive(arg, value); break;
+                case "--max-frames": opts.maxFrames = positive(arg, value); break;
+                case "--warmup": opts.warmupFrames = Integer.parseInt(value); break;
+                case "--frames": opts.framesPerWorker = positive(arg, value); break;
+                case "--seconds": opts.seconds = Double.parseDouble(value); break;
+                case "--csv": opts.csvPath = value; break;
+
+                case "--resolutions":
+                    for(String res : value.split(","))
+                    {
+                        int w = BenchmarkFrames.width(res);
+                        int h = BenchmarkFrames.height(res);
+
+                        if(w <= 0 || h <= 0 || w % 2 != 0 || h % 2 != 0)
+                        {
+                            throw new IllegalArgumentException("Resolutions must be even: " + res);
+                        }
+
+                        opts.resolutions.add(res);
+                    }
+                    break;
+
+                case "--formats":
+                    opts.formats.clear();
+                    for(String format : value.split(","))
+                    {
+                        opts.formats.add(InputFormat.valueOf(format.trim().toUpperCase(Locale.US)));
+                    }
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        if((opts.imageDirectory == null) == (opts.replayPath == null))
+        {
+            throw new IllegalArgumentException("Exactly one of --images or --replay is required");
+        }
+
+        return opts;
+    }
+
+    private static int positive(String arg, String value)
+    {
+        int v = Integer.parseInt(value);
+
+        if(v <= 0)
+        {
+            throw new IllegalArgumentException(arg + " must be positive");
+        }
+
+        return v;
+    }
+
+    /*
+     * Everything gets normalized to RGBA here, since that's what the frame
+     * path hands pipelines; the formats under test are derived from it
+     */
+    static List<Mat> loadFrames(Options opts) throws IOException, InterruptedException
+    {
+        OpenCvFrameSource source = opts.imageDirectory != null
+                ? OpenCvFrameSources.imageDirectory(opts.imageDirectory, 30, 4)
+                : OpenCvFrameSources.replayFile(opts.replayPath);
+
+        List<Mat> frames = new ArrayList<>();
+        Mat frame = new Mat();
+
+        source.open();
+
+        try
+        {
+            while (frames.size() < opts.maxFrames && source.nextFrame(frame) >= 0)
+            {
+                Mat rgba = new Mat();
+
+                switch (frame.channels())
+                {
+                    case 1: Imgproc.cvtColor(frame, rgba, Imgproc.COLOR_GRAY2RGBA); break;
+                    case 3: Imgproc.cvtColor(frame, rgba, Imgproc.COLOR_RGB2RGBA); break;
+                    default: frame.copyTo(rgba); break;
+                }
+
+                frames.add(rgba);
+            }
+        }
+        finally
+        {
+            source.close();
+            frame.release();
+        }
+
+        return frames;
+    }
+
+    static List<InputFrame> prepareInputs(List<Mat> frames, int width, int height, InputFormat format)
+    {
+        List<InputFrame> inputs = new ArrayList<>();
+        Mat resized = new Mat();
+
+        for(Mat frame : frames)
+        {
+            if(frame.cols() == width && frame.rows() == height)
+            {
+                frame.copyTo(resized);
+            }
+            else
+            {
+                Imgproc.resize(frame, resized, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+            }
+
+            InputFrame input = new InputFrame();
+
+            switch (format)
+            {
+                case RGBA:
+                    input.raw = resized.clone();
+                    break;
+
+                case YUY2:
+                    input.raw = BenchmarkFrames.yuy2(resized);
+                    break;
+
+                case MJPEG:
+                    input.raw = BenchmarkFrames.mjpeg(resized);
+                    break;
+
+                case NV12:
+                case NV21:
+                {
+                    boolean nv21 = format == InputFormat.NV21;
+                    ByteBuffer[] planes = BenchmarkFrames.semiPlanar(resized, nv21);
+                    input.yPlane = planes[0];
+
+                    // Camera2 hands the chroma over as two views into the one interleaved plane
+                    ByteBuffer first = planes[1].duplicate();
+                    ByteBuffer second = planes[1].duplicate();
+                    second.position(1);
+                    input.uPlane = nv21 ? second.slice() : first.slice();
+                    input.vPlane = nv21 ? first.slice() : second.slice();
+                    break;
+                }
+            }
+
+            inputs.add(input);
+        }
+
+        resized.release();
+        return inputs;
+    }
+
+    static TrialResult runTrial(final Options opts, List<Mat> frames, String resolution, final InputFormat format) throws Exception
+    {
+        final int width = BenchmarkFrames.width(resolution);
+        final int height = BenchmarkFrames.height(resolution);
+        final List<InputFrame> inputs = prepareInputs(frames, width, height, format);
+
+        final Worker[] workers = new Worker[opts.workers];
+        final CountDownLatch warmedUp = new CountDownLatch(opts.workers);
+        final CountDownLatch go = new CountDownLatch(1);
+
+        for(int i = 0; i < workers.length; i++)
+        {
+            workers[i] = new Worker(opts, inputs, width, height, format, createPipeline(opts.pipelineClass), i, warmedUp, go);
+            workers[i].start();
+        }
+
+        warmedUp.await();
+        System.gc();
+
+        Platform platform = Platform.get();
+        long nativeBefore = platform.getNativeHeapAllocatedBytes();
+        long start = System.nanoTime();
+        go.countDown();
+
+        for(Worker worker : workers)
+        {
+            worker.join();
+        }
+
+        long wallNanos = System.nanoTime() - start;
+        long nativeAfter = platform.getNativeHeapAllocatedBytes();
+
+        TrialResult result = new TrialResult();
+        result.resolution = resolution;
+        result.format = format;
+        result.wallSeconds = wallNanos / 1e9;
+        result.nativeGrowthBytes = nativeBefore < 0 || nativeAfter < 0 ? 0 : nativeAfter - nativeBefore;
+
+        long frameTotal = 0;
+        long allocated = 0;
+
+        for(Worker worker : workers)
+        {
+            if(worker.failure != null)
+            {
+                throw new RuntimeException("Pipeline failed on worker " + worker.index, worker.failure);
+            }
+
+            frameTotal += worker.framesDone;
+            allocated = (allocated < 0 || worker.allocatedBytes < 0) ? -1 : allocated + worker.allocatedBytes;
+        }
+
+        if(frameTotal == 0)
+        {
+            throw new IllegalStateException("No frames were processed; use more --frames or --seconds");
+        }
+
+        result.frames = frameTotal;
+        result.allocatedBytes = allocated;
+        result.latenciesNanos = new long[(int) frameTotal];
+
+        int pos = 0;
+
+        for(Worker worker : workers)
+        {
+            System.arraycopy(worker.latencies, 0, result.latenciesNanos, pos, worker.framesDone);
+            pos += worker.framesDone;
+        }
+
+        Arrays.sort(result.latenciesNanos);
+
+        for(InputFrame input : inputs)
+        {
+            if(input.raw != null)
+            {
+                input.raw.release();
+            }
+        }
+
+        return result;
+    }
+
+    static OpenCvPipeline createPipeline(String className) throws Exception
+    {
+        Constructor<?> constructor = Class.forName(className).getDeclaredConstructor();
+        constructor.setAccessible(true);
+        OpenCvPipeline pipeline = (OpenCvPipeline) constructor.newInstance();
+
+        // We measure native growth ourselves; don't have it polling the heap every frame
+        pipeline.MEMLEAK_DETECTION_ENABLED = false;
+
+        return pipeline;
+    }
+
+    static class Worker extends Thread
+    {
+        // Only cycle through this many latency samples when running by time
+        private static final int MAX_TIMED_SAMPLES = 1_000_000;
+
+        final Options opts;
+        final List<InputFrame> inputs;
+        final int width;
+        final int height;
+        final InputFormat format;
+        final OpenCvPipeline pipeline;
+        final int index;
+        final CountDownLatch warmedUp;
+        final CountDownLatch go;
+
+        final FrameDispatcher dispatcher = new FrameDispatcher();
+        final Mat rgba;
+        long decompressor;
+        long[] latencies;
+        int framesDone;
+        long allocatedBytes = -1;
+        Throwable failure;
+        int next;
+
+        Worker(Options opts, List<InputFrame> inputs, int width, int height, InputFormat format, OpenCvPipeline pipeline, int index, CountDownLatch warmedUp, CountDownLatch go)
+        {
+            super("PipelineThroughputWorker-" + index);
+            this.opts = opts;
+            this.inputs = inputs;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.pipeline = pipeline;
+            this.index = index;
+            this.warmedUp = warmedUp;
+            this.go = go;
+            this.rgba = new Mat(height, width, CvType.CV_8UC4);
+
+            // Stagger the workers so they aren't all on the same frame
+            this.next = index * inputs.size() / Math.max(1, opts.workers);
+        }
+
+        @Override
+        public void run()
+        {
+            boolean timed = opts.seconds > 0;
+            latencies = new long[timed ? MAX_TIMED_SAMPLES : opts.framesPerWorker];
+            dispatcher.reset(-1);
+
+            if(format == InputFormat.MJPEG)
+            {
+                decompressor = NativeKernels.createJpegDecompressor();
+            }
+
+            try
+            {
+                for(int i = 0; i < opts.warmupFrames; i++)
+                {
+                    processOne();
+                }
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+            finally
+            {
+                warmedUp.countDown();
+            }
+
+            try
+            {
+                go.await();
+
+                if(failure != null)
+                {
+                    return;
+                }
+
+                long allocBefore = threadAllocatedBytes();
+                long deadline = System.nanoTime() + (long) (opts.seconds * 1e9);
+
+                while (framesDone < latencies.length && (!timed || System.nanoTime() < deadline))
+                {
+                    long start = System.nanoTime();
+                    processOne();
+                    latencies[framesDone++] = System.nanoTime() - start;
+                }
+
+                long allocAfter = threadAllocatedBytes();
+                allocatedBytes = allocBefore < 0 || allocAfter < 0 ? -1 : allocAfter - allocBefore;
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+            finally
+            {
+                if(decompressor != 0)
+                {
+                    NativeKernels.destroyJpegDecompressor(decompressor);
+                }
+
+                rgba.release();
+            }
+        }
+
+        /*
+         * What one camera frame costs: conversion to RGBA, then dispatch
+         */
+        private void processOne()
+        {
+            InputFrame input = inputs.get(next);
+            next = (next + 1) % inputs.size();
+
+            switch (format)
+            {
+                case RGBA:
+                    input.raw.copyTo(rgba);
+                    break;
+
+                case YUY2:
+                    NativeKernels.yuy2ToRgba(input.raw.dataAddr(), width, height, rgba.nativeObj);
+                    break;
+
+                case MJPEG:
+                    NativeKernels.mjpegToRgba(decompressor, input.raw.dataAddr(), (int) input.raw.total(), rgba.nativeObj);
+                    break;
+
+                case NV12:
+                case NV21:
+                    NativeKernels.semiPlanarYuvToRgba(input.yPlane, input.uPlane, input.vPlane, width, height, width, rgba.nativeObj);
+                    break;
+            }
+
+            dispatcher.process(pipeline, rgba, System.nanoTime());
+        }
+
+        private static long threadAllocatedBytes()
+        {
+            try
+            {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            catch (ClassCastException | UnsupportedOperationException e)
+            {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The frame thread's side of OpenCvViewport#post(): grab a framebuffer from the
+ * recycler, copy the frame into it and attach the draw hook context. The hand-off
+ * queue to the render thread is an FTC SDK class, so here the "render thread"
+ * just returns the framebuffer straight away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportPostBenchmark
+{
+    @Param({"320x240", "640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    // Same as OpenCvSurfaceViewViewport's
+    private static final int FRAMEBUFFER_RECYCLER_CAPACITY = 2 + 2;
+
+    private Mat frame;
+    private MatRecycler framebufferRecycler;
+    private final Object context = new Object();
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        frame = BenchmarkFrames.rgba(BenchmarkFrames.width(resolution), BenchmarkFrames.height(resolution));
+        framebufferRecycler = new MatRecycler(FRAMEBUFFER_RECYCLER_CAPACITY);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown()
+    {
+        frame.release();
+    }
+
+    @Benchmark
+    public Mat post() throws InterruptedException
+    {
+        MatRecycler.RecyclableMat matToCopyTo = framebufferRecycler.takeMat();
+        frame.copyTo(matToCopyTo);
+        matToCopyTo.setContext(context);
+        framebufferRecycler.returnMat(matToCopyTo);
+        return matToCopyTo;
+    }
+}
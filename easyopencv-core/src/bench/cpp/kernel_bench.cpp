@@ -0,0 +1,978 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/*
+ * Microbenchmark + reference check harness for the native kernels in kernels.cpp.
+ * Every kernel is first checked against a straightforward scalar reference (or,
+ * for lossy JPEG paths, a PSNR floor against the source image) for each resolution
+ * and layout, and then timed with 1..N threads each running their own instance.
+ *
+ * Exits non-zero if any reference check fails, so this doubles as a test.
+ *
+ *     kernel_bench [--iterations N] [--threads 1,2,4] [--resolutions 320x240,640x480]
+ *                  [--cv-threads N] [--filter substring] [--csv results.csv] [--check-only]
+ */
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <condition_variable>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <sstream>
+#include <string>
+#include <thread>
+#include <vector>
+#include <opencv2/core.hpp>
+#include <opencv2/imgproc.hpp>
+#include "kernels.hpp"
+
+using namespace cv;
+
+namespace
+{
+    /*
+     * ---------------------------------------------------------------------
+     * Test images
+     * ---------------------------------------------------------------------
+     */
+
+    uint8_t clamp8(int v)
+    {
+        return (uint8_t) std::min(255, std::max(0, v));
+    }
+
+    /*
+     * Smooth gradients with some deterministic noise on top, so that color
+     * conversion sees a wide range of values and JPEG isn't trivially easy
+     */
+    Mat makeRgba(int width, int height, uint32_t seed)
+    {
+        Mat rgba(height, width, CV_8UC4);
+        uint32_t lcg = seed;
+
+        for(int y = 0; y < height; y++)
+        {
+            uint8_t* row = rgba.ptr<uint8_t>(y);
+
+            for(int x = 0; x < width; x++)
+            {
+                lcg = lcg * 1664525u + 1013904223u;
+                int noise = (int) ((lcg >> 24) & 0x1F) - 16;
+
+                row[x*4]     = clamp8(x * 255 / std::max(1, width - 1) + noise);
+                row[x*4 + 1] = clamp8(y * 255 / std::max(1, height - 1) - noise);
+                row[x*4 + 2] = clamp8(((x + y) * 2) % 256 + noise);
+                row[x*4 + 3] = 255;
+            }
+        }
+
+        return rgba;
+    }
+
+    /*
+     * BT.601 "video range", which is what the camera formats use and what
+     * OpenCV's YUY2 / NV12 / NV21 conversions assume
+     */
+    void rgbToYuv(int r, int g, int b, int& y, int& u, int& v)
+    {
+        y = clamp8((int) std::lround( 0.257*r + 0.504*g + 0.098*b + 16));
+        u = clamp8((int) std::lround(-0.148*r - 0.291*g + 0.439*b + 128));
+        v = clamp8((int) std::lround( 0.439*r - 0.368*g - 0.071*b + 128));
+    }
+
+    void yuvToRgb(int y, int u, int v, int& r, int& g, int& b)
+    {
+        double c = 1.164 * (y - 16);
+        r = clamp8((int) std::lround(c + 1.596*(v - 128)));
+        g = clamp8((int) std::lround(c - 0.392*(u - 128) - 0.813*(v - 128)));
+        b = clamp8((int) std::lround(c + 2.017*(u - 128)));
+    }
+
+    // Fixed point rounding differences between OpenCV's SIMD paths and the float reference
+    const int YUV_TOLERANCE = 3;
+
+    // Floors for the lossy paths
+    const double JPEG_MIN_PSNR = 30;
+
+    bool checkAgainstYuvReference(const Mat& rgba, const std::function<void(int, int, int&, int&, int&)>& yuvAt, std::string& why)
+    {
+        int worst = 0;
+
+        for(int y = 0; y < rgba.rows; y++)
+        {
+            const uint8_t* row = rgba.ptr<uint8_t>(y);
+
+            for(int x = 0; x < rgba.cols; x++)
+            {
+                int Y, U, V, r, g, b;
+                yuvAt(x, y, Y, U, V);
+                yuvToRgb(Y, U, V, r, g, b);
+
+                worst = std::max(worst, std::abs(row[x*4] - r));
+                worst = std::max(worst, std::abs(row[x*4 + 1] - g));
+                worst = std::max(worst, std::abs(row[x*4 + 2] - b));
+
+                if(row[x*4 + 3] != 255)
+                {
+                    why = "alpha not 255";
+                    return false;
+                }
+            }
+        }
+
+        if(worst > YUV_TOLERANCE)
+        {
+            std::ostringstream ss;
+            ss << "max channel error " << worst << " exceeds " << YUV_TOLERANCE;
+            why = ss.str();
+            return false;
+        }
+
+        return true;
+    }
+
+    double rgbPsnr(const Mat& a, int aCode, const Mat& b, int bCode)
+    {
+        Mat a3, b3;
+
+        if(aCode >= 0) cvtColor(a, a3, aCode); else a3 = a;
+        if(bCode >= 0) cvtColor(b, b3, bCode); else b3 = b;
+
+        return PSNR(a3, b3);
+    }
+
+    std::vector<uint8_t> encodeJpeg(const Mat& rgba, int quality)
+    {
+        tjhandle compressor = eocv::createJpegCompressor(quality);
+        std::vector<uint8_t> jpeg(eocv::maxJpegSize(rgba.cols, rgba.rows));
+        long size = eocv::compressJpeg(compressor, rgba, jpeg.data(), jpeg.size());
+        tj3Destroy(compressor);
+
+        jpeg.resize(size < 0 ? 0 : (size_t) size);
+        return jpeg;
+    }
+
+    /*
+     * ---------------------------------------------------------------------
+     * Kernel cases. Each thread gets its own instance, so nothing is shared.
+     * ---------------------------------------------------------------------
+     */
+
+    class KernelCase
+    {
+    public:
+        virtual ~KernelCase() {}
+        virtual void prepare(int width, int height) = 0;
+        virtual bool check(std::string& why) = 0;
+        virtual void run() = 0;
+    };
+
+    struct CaseSpec
+    {
+        std::string kernel;
+        std::string variant;
+        std::function<KernelCase*()> create;
+    };
+
+    class Yuy2Case : public KernelCase
+    {
+        int width = 0, height = 0;
+        std::vector<uint8_t> yuy2;
+        Mat rgba;
+
+    public:
+        void prepare(int w, int h) override
+        {
+            width = w;
+            height = h;
+            Mat src = makeRgba(w, h, 1);
+            yuy2.resize((size_t) w * h * 2);
+
+            for(int y = 0; y < h; y++)
+            {
+                const uint8_t* row = src.ptr<uint8_t>(y);
+                uint8_t* out = &yuy2[(size_t) y * w * 2];
+
+                for(int x = 0; x < w; x += 2)
+                {
+                    int y0, u0, v0, y1, u1, v1;
+                    rgbToYuv(row[x*4], row[x*4 + 1], row[x*4 + 2], y0, u0, v0);
+                    rgbToYuv(row[x*4 + 4], row[x*4 + 5], row[x*4 + 6], y1, u1, v1);
+
+                    out[x*2]     = (uint8_t) y0;
+                    out[x*2 + 1] = (uint8_t) ((u0 + u1 + 1) / 2);
+                    out[x*2 + 2] = (uint8_t) y1;
+                    out[x*2 + 3] = (uint8_t) ((v0 + v1 + 1) / 2);
+                }
+            }
+
+            rgba.create(h, w, CV_8UC4);
+        }
+
+        bool check(std::string& why) override
+        {
+            run();
+
+            return checkAgainstYuvReference(rgba, [this](int x, int y, int& Y, int& U, int& V)
+            {
+                const uint8_t* pair = &yuy2[((size_t) y * width + (x & ~1)) * 2];
+                Y = pair[(x & 1) * 2];
+                U = pair[1];
+                V = pair[3];
+            }, why);
+        }
+
+        void run() override
+        {
+            eocv::yuy2ToRgba(yuy2.data(), width, height, rgba);
+        }
+    };
+
+    class SemiPlanarCase : public KernelCase
+    {
+        bool nv21;
+        int strideSlack;
+        int width = 0, height = 0, stride = 0;
+        std::vector<uint8_t> yPlane;
+        std::vector<uint8_t> uvPlane;
+        Mat y, uv1, uv2, rgba;
+
+    public:
+        SemiPlanarCase(bool nv21, int strideSlack) : nv21(nv21), strideSlack(strideSlack) {}
+
+        void prepare(int w, int h) override
+        {
+            width = w;
+            height = h;
+            stride = w + strideSlack;
+
+            Mat src = makeRgba(w, h, 2);
+
+            // +1 so the chroma plane that starts one byte in still has a whole last row
+            yPlane.assign((size_t) stride * h, 0);
+            uvPlane.assign((size_t) stride * (h / 2) + 1, 0);
+
+            for(int row = 0; row < h; row++)
+            {
+                for(int x = 0; x < w; x++)
+                {
+                    const uint8_t* px = src.ptr<uint8_t>(row) + x*4;
+                    int Y, U, V;
+                    rgbToYuv(px[0], px[1], px[2], Y, U, V);
+                    yPlane[(size_t) row * stride + x] = (uint8_t) Y;
+                }
+            }
+
+            for(int row = 0; row < h / 2; row++)
+            {
+                for(int x = 0; x < w / 2; x++)
+                {
+                    int sumU = 0, sumV = 0;
+
+                    for(int dy = 0; dy < 2; dy++)
+                    {
+                        for(int dx = 0; dx < 2; dx++)
+                        {
+                            const uint8_t* px = src.ptr<uint8_t>(row*2 + dy) + (x*2 + dx)*4;
+                            int Y, U, V;
+                            rgbToYuv(px[0], px[1], px[2], Y, U, V);
+                            sumU += U;
+                            sumV += V;
+                        }
+                    }
+
+                    uint8_t* out = &uvPlane[(size_t) row * stride + x*2];
+                    out[nv21 ? 1 : 0] = (uint8_t) ((sumU + 2) / 4);
+                    out[nv21 ? 0 : 1] = (uint8_t) ((sumV + 2) / 4);
+                }
+            }
+
+            /*
+             * Laid out the way Camera2 hands us YUV_420_888 planes: plane 1 is U and
+             * plane 2 is V, both views into the one interleaved buffer
+             */
+            uint8_t* uStart = uvPlane.data() + (nv21 ? 1 : 0);
+            uint8_t* vStart = uvPlane.data() + (nv21 ? 0 : 1);
+
+            y = Mat(h, w, CV_8UC1, yPlane.data(), (size_t) stride);
+            uv1 = Mat(h / 2, w / 2, CV_8UC2, uStart, (size_t) stride);
+            uv2 = Mat(h / 2, w / 2, CV_8UC2, vStart, (size_t) stride);
+            rgba.create(h, w, CV_8UC4);
+        }
+
+        bool check(std::string& why) override
+        {
+            run();
+
+            int uOffset = nv21 ? 1 : 0;
+            int vOffset = nv21 ? 0 : 1;
+
+            return checkAgainstYuvReference(rgba, [&](int x, int row, int& Y, int& U, int& V)
+            {
+                Y = yPlane[(size_t) row * stride + x];
+                const uint8_t* chroma = &uvPlane[(size_t) (row / 2) * stride + (x / 2) * 2];
+                U = chroma[uOffset];
+                V = chroma[vOffset];
+            }, why);
+        }
+
+        void run() override
+        {
+            eocv::semiPlanarYuvToRgba(y, uv1, uv2, rgba);
+        }
+    };
+
+    class MjpegDecodeCase : public KernelCase
+    {
+        Mat source, rgba;
+        std::vector<uint8_t> jpeg;
+        tjhandle decompressor = NULL;
+
+    public:
+        ~MjpegDecodeCase() override
+        {
+            if(decompressor != NULL)
+            {
+                tj3Destroy(decompressor);
+            }
+        }
+
+        void prepare(int w, int h) override
+        {
+            source = makeRgba(w, h, 3);
+            jpeg = encodeJpeg(source, 90);
+            rgba.create(h, w, CV_8UC4);
+            decompressor = tj3Init(TJINIT_DECOMPRESS);
+        }
+
+        bool check(std::string& why) override
+        {
+            if(jpeg.empty() || !eocv::mjpegToRgba(decompressor, jpeg.data(), jpeg.size(), rgba))
+            {
+                why = "decode failed";
+                return false;
+            }
+
+            double psnr = rgbPsnr(source, COLOR_RGBA2RGB, rgba, COLOR_RGBA2RGB);
+
+            if(psnr < JPEG_MIN_PSNR)
+            {
+                why = "PSNR " + std::to_string(psnr) + " dB against source";
+                return false;
+            }
+
+            return true;
+        }
+
+        void run() override
+        {
+            eocv::mjpegToRgba(decompressor, jpeg.data(), jpeg.size(), rgba);
+        }
+    };
+
+    class JpegCompressCase : public KernelCase
+    {
+        int channels;
+        Mat source;
+        std::vector<uint8_t> jpeg;
+        tjhandle compressor = NULL;
+
+    public:
+        explicit JpegCompressCase(int channels) : channels(channels) {}
+
+        ~JpegCompressCase() override
+        {
+            if(compressor != NULL)
+            {
+                tj3Destroy(compressor);
+            }
+        }
+
+        void prepare(int w, int h) override
+        {
+            Mat rgba = makeRgba(w, h, 4);
+
+            switch (channels)
+            {
+                case 1: cvtColor(rgba, source, COLOR_RGBA2GRAY); break;
+                case 3: cvtColor(rgba, source, COLOR_RGBA2RGB); break;
+                default: source = rgba; break;
+            }
+
+            compressor = eocv::createJpegCompressor(85);
+            jpeg.resize(eocv::maxJpegSize(w, h));
+        }
+
+        bool check(std::string& why) override
+        {
+            long size = eocv::compressJpeg(compressor, source, jpeg.data(), jpeg.size());
+
+            if(size <= 0)
+            {
+                why = "compression failed";
+                return false;
+            }
+
+            tjhandle decompressor = tj3Init(TJINIT_DECOMPRESS);
+            Mat decoded(source.rows, source.cols, channels == 1 ? CV_8UC1 : CV_8UC3);
+            int pf = channels == 1 ? TJPF_GRAY : TJPF_RGB;
+            int ret = tj3Decompress8(decompressor, jpeg.data(), (size_t) size, decoded.data, (int) decoded.step, pf);
+            tj3Destroy(decompressor);
+
+            if(ret != 0)
+            {
+                why = "output does not decode";
+                return false;
+            }
+
+            double psnr = channels == 4 ? rgbPsnr(source, COLOR_RGBA2RGB, decoded, -1) : rgbPsnr(source, -1, decoded, -1);
+
+            if(psnr < JPEG_MIN_PSNR)
+            {
+                why = "PSNR " + std::to_string(psnr) + " dB against source";
+                return false;
+            }
+
+            return true;
+        }
+
+        void run() override
+        {
+            eocv::compressJpeg(compressor, source, jpeg.data(), jpeg.size());
+        }
+    };
+
+    /*
+     * The blit into a locked ANativeWindow buffer (nativeCopyMatToSurface). The
+     * layouts cover the stride != width case (Android pads rows, commonly to 64
+     * pixels), and a source that's bigger / smaller than the buffer, which is
+     * clipped. Everything the kernel shouldn't touch is a canary value.
+     */
+    class RgbaBlitCase : public KernelCase
+    {
+    public:
+        enum Layout { PACKED, PADDED, SRC_LARGER, SRC_SMALLER };
+
+    private:
+        // Plain value rather than a static member; std::fill() and assign() take it by reference
+        enum { CANARY = 0xCD };
+
+        int channels;
+        Layout layout;
+        Mat source;
+        int bufWidth = 0, bufHeight = 0, bufStride = 0;
+        std::vector<uint8_t> buffer;
+
+    public:
+        RgbaBlitCase(int channels, Layout layout) : channels(channels), layout(layout) {}
+
+        void prepare(int w, int h) override
+        {
+            Mat rgba = makeRgba(w, h, 5);
+
+            switch (channels)
+            {
+                case 1: cvtColor(rgba, source, COLOR_RGBA2GRAY); break;
+                case 3: cvtColor(rgba, source, COLOR_RGBA2RGB); break;
+                default: source = rgba; break;
+            }
+
+            bufWidth = w;
+            bufHeight = h;
+
+            switch (layout)
+            {
+                case PACKED:      bufStride = w; break;
+                case PADDED:      bufStride = (w + 63) / 64 * 64 + 64; break;
+                case SRC_LARGER:  bufWidth = w - 16; bufHeight = h - 8; bufStride = bufWidth; break;
+                case SRC_SMALLER: bufWidth = w + 32; bufHeight = h + 16; bufStride = bufWidth + 8; break;
+            }
+
+            buffer.assign((size_t) bufStride * bufHeight * 4, (uint8_t) CANARY);
+        }
+
+        bool check(std::string& why) override
+        {
+            std::fill(buffer.begin(), buffer.end(), (uint8_t) CANARY);
+            run();
+
+            int rows = std::min(source.rows, bufHeight);
+            int cols = std::min(source.cols, bufWidth);
+
+            for(int y = 0; y < bufHeight; y++)
+            {
+                const uint8_t* out = &buffer[(size_t) y * bufStride * 4];
+
+                for(int x = 0; x < bufStride; x++)
+                {
+                    const uint8_t* px = out + x*4;
+
+                    if(y < rows && x < cols)
+                    {
+                        const uint8_t* in = source.ptr<uint8_t>(y) + x*channels;
+                        uint8_t r = in[0];
+                        uint8_t g = channels == 1 ? in[0] : in[1];
+                        uint8_t b = channels == 1 ? in[0] : in[2];
+                        uint8_t a = channels == 4 ? in[3] : 255;
+
+                        if(px[0] != r || px[1] != g || px[2] != b || px[3] != a)
+                        {
+                            why = "pixel mismatch at (" + std::to_string(x) + "," + std::to_string(y) + ")";
+                            return false;
+                        }
+                    }
+                    else if(px[0] != CANARY || px[1] != CANARY || px[2] != CANARY || px[3] != CANARY)
+                    {
+                        why = "wrote outside the source area at (" + std::to_string(x) + "," + std::to_string(y) + ")";
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        void run() override
+        {
+            eocv::copyToRgbaBuffer(source, buffer.data(), bufWidth, bufHeight, bufStride);
+        }
+    };
+
+    /*
+     * The native viewport's blit: the frame at half size (so the sample positions are
+     * exact and the reference below can't disagree about rounding), letterboxed into
+     * a larger window buffer, at each rotation.
+     */
+    class ViewportBlitCase : public KernelCase
+    {
+        static const int MARGIN = 12;
+
+        int channels;
+        int rotation;
+        Mat source;
+        Rect dstRect;
+        int bufWidth = 0, bufHeight = 0, bufStride = 0;
+        std::vector<uint8_t> buffer;
+        Scalar background = Scalar(239, 239, 239, 255);
+
+    public:
+        ViewportBlitCase(int channels, int rotation) : channels(channels), rotation(rotation) {}
+
+        void prepare(int w, int h) override
+        {
+            Mat rgba = makeRgba(w, h, 6);
+
+            switch (channels)
+            {
+                case 1: cvtColor(rgba, source, COLOR_RGBA2GRAY); break;
+                case 3: cvtColor(rgba, source, COLOR_RGBA2RGB); break;
+                default: source = rgba; break;
+            }
+
+            bool swapped = rotation == 90 || rotation == 270;
+            int drawnWidth = (swapped ? h : w) / 2;
+            int drawnHeight = (swapped ? w : h) / 2;
+
+            dstRect = Rect(MARGIN, MARGIN/2, drawnWidth, drawnHeight);
+            bufWidth = drawnWidth + 2*MARGIN;
+            bufHeight = drawnHeight + MARGIN;
+            bufStride = bufWidth + 16;
+            buffer.assign((size_t) bufStride * bufHeight * 4, 0);
+        }
+
+        bool check(std::string& why) override
+        {
+            run();
+
+            int rotatedCols = rotation == 90 || rotation == 270 ? source.rows : source.cols;
+            int rotatedRows = rotation == 90 || rotation == 270 ? source.cols : source.rows;
+
+            for(int y = 0; y < bufHeight; y++)
+            {
+                for(int x = 0; x < bufWidth; x++)
+                {
+                    const uint8_t* px = &buffer[((size_t) y * bufStride + x) * 4];
+                    uint8_t expected[4];
+
+                    if(dstRect.contains(Point(x, y)))
+                    {
+                        // Center of the output pixel, in the rotated source
+                        int u = (int) ((x - dstRect.x + 0.5) * rotatedCols / dstRect.width);
+                        int v = (int) ((y - dstRect.y + 0.5) * rotatedRows / dstRect.height);
+                        int sx, sy;
+
+                        switch (rotation)
+                        {
+                            case 90:  sx = v; sy = source.rows - 1 - u; break;
+                            case 180: sx = source.cols - 1 - u; sy = source.rows - 1 - v; break;
+                            case 270: sx = source.cols - 1 - v; sy = u; break;
+                            default:  sx = u; sy = v; break;
+                        }
+
+                        const uint8_t* in = source.ptr<uint8_t>(sy) + sx*channels;
+                        expected[0] = in[0];
+                        expected[1] = channels == 1 ? in[0] : in[1];
+                        expected[2] = channels == 1 ? in[0] : in[2];
+                        expected[3] = 255;
+                    }
+                    else
+                    {
+                        for(int c = 0; c < 4; c++)
+                        {
+                            expected[c] = (uint8_t) background[c];
+                        }
+                    }
+
+                    if(memcmp(px, expected, 4) != 0)
+                    {
+                        why = "pixel mismatch at (" + std::to_string(x) + "," + std::to_string(y) + ")";
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        void run() override
+        {
+            eocv::blitToRgbaBuffer(source, buffer.data(), bufWidth, bufHeight, bufStride, dstRect, rotation, background);
+        }
+    };
+
+    std::vector<CaseSpec> allCases()
+    {
+        std::vector<CaseSpec> cases;
+
+        cases.push_back({"yuy2ToRgba", "", [] { return (KernelCase*) new Yuy2Case(); }});
+        cases.push_back({"mjpegToRgba", "q90", [] { return (KernelCase*) new MjpegDecodeCase(); }});
+
+        for(int nv21 = 0; nv21 < 2; nv21++)
+        {
+            for(int slack : {0, 64})
+            {
+                std::string variant = std::string(nv21 ? "NV21" : "NV12") + (slack ? " stride+64" : " packed");
+                cases.push_back({"semiPlanarYuvToRgba", variant, [nv21, slack] { return (KernelCase*) new SemiPlanarCase(nv21 != 0, slack); }});
+            }
+        }
+
+        for(int channels : {1, 3, 4})
+        {
+            cases.push_back({"compressJpeg", std::to_string(channels) + "ch q85", [channels] { return (KernelCase*) new JpegCompressCase(channels); }});
+        }
+
+        const char* layoutNames[] = {"packed", "padded stride", "src larger", "src smaller"};
+
+        for(int channels : {1, 3, 4})
+        {
+            for(int layout = RgbaBlitCase::PACKED; layout <= RgbaBlitCase::SRC_SMALLER; layout++)
+            {
+                std::string variant = std::to_string(channels) + "ch " + layoutNames[layout];
+                cases.push_back({"copyToRgbaBuffer", variant, [channels, layout] { return (KernelCase*) new RgbaBlitCase(channels, (RgbaBlitCase::Layout) layout); }});
+            }
+        }
+
+        for(int channels : {1, 3, 4})
+        {
+            for(int rotation : {0, 90, 180, 270})
+            {
+                std::string variant = std::to_string(channels) + "ch rot" + std::to_string(rotation);
+                cases.push_back({"blitToRgbaBuffer", variant, [channels, rotation] { return (KernelCase*) new ViewportBlitCase(channels, rotation); }});
+            }
+        }
+
+        return cases;
+    }
+
+    /*
+     * ---------------------------------------------------------------------
+     * Driver
+     * ---------------------------------------------------------------------
+     */
+
+    struct Options
+    {
+        int iterations = 200;
+        int cvThreads = -1;
+        bool checkOnly = false;
+        std::string filter;
+        std::string csvPath;
+        std::vector<int> threadCounts;
+        std::vector<std::pair<int, int>> resolutions;
+    };
+
+    std::vector<std::string> split(const std::string& s, char delim)
+    {
+        std::vector<std::string> out;
+        std::stringstream ss(s);
+        std::string item;
+
+        while (std::getline(ss, item, delim))
+        {
+            if(!item.empty())
+            {
+                out.push_back(item);
+            }
+        }
+
+        return out;
+    }
+
+    bool parseOptions(int argc, char** argv, Options& opts)
+    {
+        std::string threads;
+        std::string resolutions = "320x240,640x480,1280x720,1920x1080";
+
+        for(int i = 1; i < argc; i++)
+        {
+            std::string arg = argv[i];
+            bool hasValue = i + 1 < argc;
+
+            if(arg == "--iterations" && hasValue) opts.iterations = std::max(1, atoi(argv[++i]));
+            else if(arg == "--threads" && hasValue) threads = argv[++i];
+            else if(arg == "--resolutions" && hasValue) resolutions = argv[++i];
+            else if(arg == "--cv-threads" && hasValue) opts.cvThreads = atoi(argv[++i]);
+            else if(arg == "--filter" && hasValue) opts.filter = argv[++i];
+            else if(arg == "--csv" && hasValue) opts.csvPath = argv[++i];
+            else if(arg == "--check-only") opts.checkOnly = true;
+            else
+            {
+                fprintf(stderr, "Usage: %s [--iterations N] [--threads 1,2,4] [--resolutions WxH,...] "
+                                "[--cv-threads N] [--filter substring] [--csv path] [--check-only]\n", argv[0]);
+                return false;
+            }
+        }
+
+        if(threads.empty())
+        {
+            int hw = (int) std::max(1u, std::thread::hardware_concurrency());
+
+            for(int t = 1; t < hw; t *= 2)
+            {
+                opts.threadCounts.push_back(t);
+            }
+
+            opts.threadCounts.push_back(hw);
+        }
+        else
+        {
+            for(const std::string& t : split(threads, ','))
+            {
+                opts.threadCounts.push_back(std::max(1, atoi(t.c_str())));
+            }
+        }
+
+        for(const std::string& r : split(resolutions, ','))
+        {
+            int w, h;
+
+            if(sscanf(r.c_str(), "%dx%d", &w, &h) != 2 || w < 64 || h < 32 || (w & 1) || (h & 1))
+            {
+                fprintf(stderr, "Bad resolution '%s' (must be even, at least 64x32)\n", r.c_str());
+                return false;
+            }
+
+            opts.resolutions.push_back(std::make_pair(w, h));
+        }
+
+        return true;
+    }
+
+    struct Timing
+    {
+        double usPerOp;       // mean over threads of each thread's mean time per op
+        double opsPerSecond;  // aggregate over all threads
+    };
+
+    Timing timeCase(const CaseSpec& spec, int width, int height, int threads, int iterations)
+    {
+        std::vector<std::unique_ptr<KernelCase>> instances;
+
+        for(int t = 0; t < threads; t++)
+        {
+            instances.emplace_back(spec.create());
+            instances.back()->prepare(width, height);
+        }
+
+        std::mutex lock;
+        std::condition_variable cv;
+        bool go = false;
+        std::vector<double> perThreadNanos(threads);
+        std::vector<std::thread> workers;
+
+        int warmup = std::max(1, iterations / 10);
+
+        for(int t = 0; t < threads; t++)
+        {
+            workers.emplace_back([&, t]
+            {
+                KernelCase* instance = instances[t].get();
+
+                for(int i = 0; i < warmup; i++)
+                {
+                    instance->run();
+                }
+
+                {
+                    std::unique_lock<std::mutex> l(lock);
+                    cv.wait(l, [&] { return go; });
+                }
+
+                auto start = std::chrono::steady_clock::now();
+
+                for(int i = 0; i < iterations; i++)
+                {
+                    instance->run();
+                }
+
+                auto end = std::chrono::steady_clock::now();
+                perThreadNanos[t] = (double) std::chrono::duration_cast<std::chrono::nanoseconds>(end - start).count();
+            });
+        }
+
+        auto wallStart = std::chrono::steady_clock::now();
+
+        {
+            std::lock_guard<std::mutex> l(lock);
+            go = true;
+            wallStart = std::chrono::steady_clock::now();
+        }
+
+        cv.notify_all();
+
+        for(std::thread& w : workers)
+        {
+            w.join();
+        }
+
+        double wallNanos = (double) std::chrono::duration_cast<std::chrono::nanoseconds>(std::chrono::steady_clock::now() - wallStart).count();
+
+        double sum = 0;
+
+        for(double n : perThreadNanos)
+        {
+            sum += n / iterations;
+        }
+
+        Timing timing;
+        timing.usPerOp = sum / threads / 1000.0;
+        timing.opsPerSecond = (double) threads * iterations / (wallNanos / 1e9);
+        return timing;
+    }
+}
+
+int main(int argc, char** argv)
+{
+    Options opts;
+
+    if(!parseOptions(argc, argv, opts))
+    {
+        return 2;
+    }
+
+    if(opts.cvThreads >= 0)
+    {
+        setNumThreads(opts.cvThreads);
+    }
+
+    FILE* csv = NULL;
+
+    if(!opts.csvPath.empty())
+    {
+        csv = fopen(opts.csvPath.c_str(), "w");
+
+        if(csv == NULL)
+        {
+            fprintf(stderr, "Unable to open %s\n", opts.csvPath.c_str());
+            return 2;
+        }
+
+        fprintf(csv, "kernel,variant,width,height,threads,us_per_op,ops_per_second\n");
+    }
+
+    printf("OpenCV %s, %d OpenCV threads, %d iterations per measurement\n\n", CV_VERSION, getNumThreads(), opts.iterations);
+    printf("%-20s %-22s %-10s %7s %12s %14s\n", "kernel", "variant", "size", "threads", "us/op", "ops/s");
+
+    int failures = 0;
+
+    for(const CaseSpec& spec : allCases())
+    {
+        std::string fullName = spec.kernel + " " + spec.variant;
+
+        if(!opts.filter.empty() && fullName.find(opts.filter) == std::string::npos)
+        {
+            continue;
+        }
+
+        for(const std::pair<int, int>& res : opts.resolutions)
+        {
+            std::string size = std::to_string(res.first) + "x" + std::to_string(res.second);
+
+            std::unique_ptr<KernelCase> reference(spec.create());
+            reference->prepare(res.first, res.second);
+
+            std::string why;
+
+            if(!reference->check(why))
+            {
+                printf("%-20s %-22s %-10s FAILED: %s\n", spec.kernel.c_str(), spec.variant.c_str(), size.c_str(), why.c_str());
+                failures++;
+                continue;
+            }
+
+            if(opts.checkOnly)
+            {
+                printf("%-20s %-22s %-10s ok\n", spec.kernel.c_str(), spec.variant.c_str(), size.c_str());
+                continue;
+            }
+
+            for(int threads : opts.threadCounts)
+            {
+                Timing timing = timeCase(spec, res.first, res.second, threads, opts.iterations);
+
+                printf("%-20s %-22s %-10s %7d %12.1f %14.0f\n", spec.kernel.c_str(), spec.variant.c_str(), size.c_str(), threads, timing.usPerOp, timing.opsPerSecond);
+
+                if(csv != NULL)
+                {
+                    fprintf(csv, "%s,%s,%d,%d,%d,%.3f,%.1f\n", spec.kernel.c_str(), spec.variant.c_str(), res.first, res.second, threads, timing.usPerOp, timing.opsPerSecond);
+                }
+            }
+        }
+    }
+
+    if(csv != NULL)
+    {
+        fclose(csv);
+    }
+
+    if(failures != 0)
+    {
+        printf("\n%d reference check(s) FAILED\n", failures);
+        return 1;
+    }
+
+    return 0;
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include <algorithm>
+#include <opencv2/imgproc.hpp>
+#include "kernels.hpp"
+
+#ifdef __ANDROID__
+#include <android/log.h>
+#define EOCV_LOG(...) __android_log_print(ANDROID_LOG_DEBUG, "EasyOpenCV", __VA_ARGS__)
+#else
+#include <cstdio>
+#define EOCV_LOG(...) (fprintf(stderr, "EasyOpenCV: " __VA_ARGS__), fputc('\n', stderr))
+#endif
+
+using namespace cv;
+
+namespace eocv
+{
+    void yuy2ToRgba(const uint8_t* buf, int width, int height, Mat& rgba)
+    {
+        Mat rawSensorMat(height, width, CV_8UC2, (void*) buf);
+        cvtColor(rawSensorMat, rgba, COLOR_YUV2RGBA_YUY2, 4);
+    }
+
+    bool mjpegToRgba(tjhandle decompressor, const uint8_t* buf, size_t size, Mat& rgba)
+    {
+        // We decompress DIRECTLY into the image buffer of the mat
+        if(tj3Decompress8(decompressor, buf, size, rgba.data, (int) rgba.step, TJPF_RGBA) != 0)
+        {
+            EOCV_LOG("JPEG decompression failed: %s", tj3GetErrorStr(decompressor));
+            return false;
+        }
+
+        return true;
+    }
+
+    void semiPlanarYuvToRgba(const Mat& y, const Mat& uv1, const Mat& uv2, Mat& rgba)
+    {
+        /*
+         * Actually do the color conversion. Found on the interwebs. I think what's going on here is that
+         * the data from the camera is sent as the Y plane and then the Cr and Cb planes interleaved.
+         */
+        long addr_diff = uv2.data - uv1.data;
+        if (addr_diff > 0)
+        {
+            //assert(addr_diff == 1);
+            cvtColorTwoPlane(y, uv1, rgba, COLOR_YUV2RGBA_NV12);
+        }
+        else
+        {
+            //assert(addr_diff == -1);
+            cvtColorTwoPlane(y, uv2, rgba, COLOR_YUV2RGBA_NV21);
+        }
+    }
+
+    /*
+     * Each compression thread owns its own compressor handle, so
+     * there's no per-frame tj3Init()/tj3Destroy() overhead.
+     */
+    tjhandle createJpegCompressor(int quality)
+    {
+        tjhandle compressor = tj3Init(TJINIT_COMPRESS);
+
+        if(compressor == NULL)
+        {
+            return NULL;
+        }
+
+        tj3Set(compressor, TJPARAM_QUALITY, quality);
+        tj3Set(compressor, TJPARAM_SUBSAMP, TJSAMP_420);
+        tj3Set(compressor, TJPARAM_NOREALLOC, 1);
+
+        return compressor;
+    }
+
+    size_t maxJpegSize(int width, int height)
+    {
+        return tj3JPEGBufSize(width, height, TJSAMP_420);
+    }
+
+    long compressJpeg(tjhandle compressor, const Mat& mat, uint8_t* dst, size_t capacity)
+    {
+        int pixelFormat;
+
+        switch (mat.channels())
+        {
+            case 1:
+                pixelFormat = TJPF_GRAY;
+                tj3Set(compressor, TJPARAM_SUBSAMP, TJSAMP_GRAY);
+                break;
+
+            case 3:
+                pixelFormat = TJPF_RGB;
+                tj3Set(compressor, TJPARAM_SUBSAMP, TJSAMP_420);
+                break;
+
+            case 4:
+                pixelFormat = TJPF_RGBA;
+                tj3Set(compressor, TJPARAM_SUBSAMP, TJSAMP_420);
+                break;
+
+            default:
+                EOCV_LOG("Aborting compression due to unsupported Mat format");
+                return -1;
+        }
+
+        unsigned char* jpegBuf = dst;
+        size_t jpegSize = capacity;
+
+        if(tj3Compress8(compressor, mat.data, mat.cols, (int) mat.step, mat.rows, pixelFormat, &jpegBuf, &jpegSize) != 0)
+        {
+            EOCV_LOG("Compression failed: %s", tj3GetErrorStr(compressor));
+            return -1;
+        }
+
+        return (long) jpegSize;
+    }
+
+    /*
+     * The destination buffer is wrapped in a Mat header with its stride as the row
+     * step, so OpenCV handles any stride/width mismatch itself, and color conversion
+     * writes directly into the buffer; no intermediate Mat is allocated.
+     */
+    void copyToRgbaBuffer(const Mat& src, void* bits, int width, int height, int stride)
+    {
+        int rows = std::min(src.rows, height);
+        int cols = std::min(src.cols, width);
+
+        Mat dst(height, width, CV_8UC4, bits, (size_t) stride*4);
+        Mat dstRoi = dst(Rect(0, 0, cols, rows));
+        Mat srcRoi = src(Rect(0, 0, cols, rows));
+
+        /*
+         *  We must put RGBA data into the destination buffer
+         */
+        switch (src.channels())
+        {
+            case 1:
+                cvtColor(srcRoi, dstRoi, COLOR_GRAY2RGBA);
+                break;
+
+            case 3:
+                cvtColor(srcRoi, dstRoi, COLOR_RGB2RGBA);
+                break;
+
+            case 4:
+                srcRoi.copyTo(dstRoi);
+                break;
+        }
+    }
+
+    /*
+     * One row of blitToRgbaBuffer(): the n source pixels sampled for the row are
+     * at base + (u >> 16)*delta, for u = uStart, uStart+uStep, ... (16.16 fixed point)
+     */
+    template<int CN>
+    static void blitRow(const uint8_t* base, ptrdiff_t delta, int64_t uStart, int64_t uStep, uint8_t* out, int n)
+    {
+        int64_t u = uStart;
+
+        for(int i = 0; i < n; i++, u += uStep, out += 4)
+        {
+            const uint8_t* p = base + (ptrdiff_t) (u >> 16) * delta;
+
+            if(CN == 1)
+            {
+                out[0] = out[1] = out[2] = p[0];
+            }
+            else
+            {
+                out[0] = p[0];
+                out[1] = p[1];
+                out[2] = p[2];
+            }
+
+            // Opaque regardless of what the pipeline left in the alpha channel
+            out[3] = 255;
+        }
+    }
+
+    void blitToRgbaBuffer(const Mat& src, void* bits, int width, int height, int stride,
+                          const Rect& dstRect, int rotationDegrees, const Scalar& background)
+    {
+        Mat dst(height, width, CV_8UC4, bits, (size_t) stride*4);
+        Rect visible = dstRect & Rect(0, 0, width, height);
+
+        // Letterboxing; the (up to) four bands around the image
+        if(visible.empty())
+        {
+            dst.setTo(background);
+            return;
+        }
+
+        dst.rowRange(0, visible.y).setTo(background);
+        dst.rowRange(visible.y + visible.height, height).setTo(background);
+        dst(Rect(0, visible.y, visible.x, visible.height)).setTo(background);
+        dst(Rect(visible.x + visible.width, visible.y, width - visible.x - visible.width, visible.height)).setTo(background);
+
+        int rotation = ((rotationDegrees % 360) + 360) % 360;
+        bool swapped = rotation == 90 || rotation == 270;
+
+        // Size of the source as it appears onscreen
+        int rotatedCols = swapped ? src.rows : src.cols;
+        int rotatedRows = swapped ? src.cols : src.rows;
+
+        int cn = src.channels();
+        ptrdiff_t step = (ptrdiff_t) src.step[0];
+
+        // Sample pixel centers; start half a step in, then skip any clipped-off part of dstRect
+        int64_t uStep = ((int64_t) rotatedCols << 16) / dstRect.width;
+        int64_t vStep = ((int64_t) rotatedRows << 16) / dstRect.height;
+        int64_t uStart = uStep/2 + uStep*(visible.x - dstRect.x);
+        int64_t v = vStep/2 + vStep*(visible.y - dstRect.y);
+
+        for(int y = visible.y; y < visible.y + visible.height; y++, v += vStep)
+        {
+            int vi = (int) (v >> 16);
+            const uint8_t* base;
+            ptrdiff_t delta;
+
+            /*
+             * Walking along a row of the output walks along a row (0 / 180)
+             * or a column (90 / 270) of the source, forwards or backwards
+             */
+            switch (rotation)
+            {
+                case 90:
+                    base = src.ptr<uint8_t>(src.rows - 1) + vi*cn;
+                    delta = -step;
+                    break;
+
+                case 180:
+                    base = src.ptr<uint8_t>(src.rows - 1 - vi) + (src.cols - 1)*cn;
+                    delta = -cn;
+                    break;
+
+                case 270:
+                    base = src.ptr<uint8_t>(0) + (src.cols - 1 - vi)*cn;
+                    delta = step;
+                    break;
+
+                default:
+                    base = src.ptr<uint8_t>(vi);
+                    delta = cn;
+                    break;
+            }
+
+            uint8_t* out = dst.ptr<uint8_t>(y) + visible.x*4;
+
+            if(cn == 1)
+            {
+                blitRow<1>(base, delta, uStart, uStep, out, visible.width);
+            }
+            else
+            {
+                blitRow<3>(base, delta, uStart, uStep, out, visible.width);
+            }
+        }
+    }
+}
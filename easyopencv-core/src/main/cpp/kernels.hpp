@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#ifndef EASYOPENCV_KERNELS_HPP
+#define EASYOPENCV_KERNELS_HPP
+
+#include <cstddef>
+#include <cstdint>
+#include <opencv2/core.hpp>
+#include "turbojpeg.h"
+
+/*
+ * The platform-independent native half of the frame path: color conversion of
+ * raw camera buffers, JPEG encode/decode, and blitting into RGBA window buffers.
+ * Nothing in here may depend on Android; the same sources are built into
+ * libEasyOpenCV for the robot and for a desktop host (see easyopencv-core/CMakeLists.txt).
+ */
+namespace eocv
+{
+    /*
+     * Packed YUY2 (as delivered by UVC webcams) to RGBA
+     */
+    void yuy2ToRgba(const uint8_t* buf, int width, int height, cv::Mat& rgba);
+
+    /*
+     * Decompresses a JPEG directly into the (pre-allocated, continuous) RGBA Mat.
+     * Returns false on failure.
+     */
+    bool mjpegToRgba(tjhandle decompressor, const uint8_t* buf, size_t size, cv::Mat& rgba);
+
+    /*
+     * Semi-planar YUV 4:2:0 (as delivered by Camera2's YUV_420_888 on every device
+     * we've seen) to RGBA. uv1 and uv2 are the 2nd and 3rd planes as reported by
+     * the camera; which one comes first in memory tells us NV12 vs. NV21.
+     */
+    void semiPlanarYuvToRgba(const cv::Mat& y, const cv::Mat& uv1, const cv::Mat& uv2, cv::Mat& rgba);
+
+    tjhandle createJpegCompressor(int quality);
+    size_t maxJpegSize(int width, int height);
+
+    /*
+     * Compresses an 8 bit, 1/3/4 channel Mat into the provided buffer, which must be
+     * at least maxJpegSize() bytes. Returns the size of the JPEG, or -1 on failure.
+     */
+    long compressJpeg(tjhandle compressor, const cv::Mat& mat, uint8_t* dst, size_t capacity);
+
+    /*
+     * Converts (if needed) and copies a 1/3/4 channel Mat into an RGBA buffer with
+     * the given row stride (in pixels), clipping to whichever is smaller.
+     */
+    void copyToRgbaBuffer(const cv::Mat& src, void* bits, int width, int height, int stride);
+
+    /*
+     * Draws a 1/3/4 channel Mat into an RGBA buffer the way the viewport shows it:
+     * scaled (nearest neighbour) into dstRect, rotated clockwise by rotationDegrees
+     * (0, 90, 180 or 270 / -90) and with everything outside dstRect filled with the
+     * background color, in one pass and without any intermediate Mats. dstRect may
+     * extend past the buffer, in which case it's clipped.
+     */
+    void blitToRgbaBuffer(const cv::Mat& src, void* bits, int width, int height, int stride,
+                          const cv::Rect& dstRect, int rotationDegrees, const cv::Scalar& background);
+}
+
+#endif //EASYOPENCV_KERNELS_HPP
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+#include <jni.h>
+#include <opencv2/core.hpp>
+#include "kernels.hpp"
+
+#ifdef __linux__
+#include <sched.h>
+#include <sys/resource.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#endif
+
+using namespace cv;
+
+/*
+ * JNI bindings for org.openftc.easyopencv.NativeKernels. Deliberately nothing
+ * Android-specific in here, so that this builds for the host too.
+ */
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_org_openftc_easyopencv_NativeKernels_yuy2ToRgba(JNIEnv *env, jclass clazz,
+                                                      jlong buf, jint width, jint height, jlong rgbaMatPtr)
+{
+    eocv::yuy2ToRgba((const uint8_t*) buf, width, height, *(Mat*) rgbaMatPtr);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_org_openftc_easyopencv_NativeKernels_createJpegDecompressor(JNIEnv *env, jclass clazz)
+{
+    return (jlong) tj3Init(TJINIT_DECOMPRESS);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_org_openftc_easyopencv_NativeKernels_destroyJpegDecompressor(JNIEnv *env, jclass clazz, jlong handle)
+{
+    tj3Destroy((tjhandle) handle);
+}
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_org_openftc_easyopencv_NativeKernels_mjpegToRgba(JNIEnv *env, jclass clazz,
+                                                       jlong decompressor, jlong buf, jint bufSize, jlong rgbaMatPtr)
+{
+    return (jboolean) eocv::mjpegToRgba((tjhandle) decompressor, (const uint8_t*) buf, (size_t) bufSize, *(Mat*) rgbaMatPtr);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_org_openftc_easyopencv_NativeKernels_semiPlanarYuvToRgba(JNIEnv *env, jclass clazz,
+                                                               jobject yPlane, jobject uvPlane1, jobject uvPlane2,
+                                                               jint width, jint height, jint rowStride, jlong rgbaMatPtr)
+{
+    // Headers only; these point straight at the direct buffers' memory
+    Mat y(height, width, CV_8UC1, env->GetDirectBufferAddress(yPlane), (size_t) rowStride);
+    Mat uv1(height / 2, width / 2, CV_8UC2, env->GetDirectBufferAddress(uvPlane1), (size_t) rowStride);
+    Mat uv2(height / 2, width / 2, CV_8UC2, env->GetDirectBufferAddress(uvPlane2), (size_t) rowStride);
+
+    eocv::semiPlanarYuvToRgba(y, uv1, uv2, *(Mat*) rgbaMatPtr);
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_org_openftc_easyopencv_NativeKernels_createJpegCompressor(JNIEnv *env, jclass clazz, jint quality)
+{
+    return (jlong) eocv::createJpegCompressor(quality);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_org_openftc_easyopencv_NativeKernels_destroyJpegCompressor(JNIEnv *env, jclass clazz, jlong handle)
+{
+    tj3Destroy((tjhandle) handle);
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_org_openftc_easyopencv_NativeKernels_maxJpegSize(JNIEnv *env, jclass clazz, jint width, jint height)
+{
+    return (jint) eocv::maxJpegSize(width, height);
+}
+
+/*
+ * Compresses the Mat directly into the provided direct ByteBuffer,
+ * returning the size of the JPEG, or -1 on failure.
+ */
+extern "C"
+JNIEXPORT jint JNICALL
+Java_org_openftc_easyopencv_NativeKernels_compressJpeg(JNIEnv *env, jclass clazz, jlong handle, jlong matPtr, jobject dst)
+{
+    uint8_t* jpegBuf = (uint8_t*) env->GetDirectBufferAddress(dst);
+    size_t capacity = (size_t) env->GetDirectBufferCapacity(dst);
+
+    return (jint) eocv::compressJpeg((tjhandle) handle, *(Mat*) matPtr, jpegBuf, capacity);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_org_openftc_easyopencv_NativeKernels_copyToRgbaBuffer(JNIEnv *env, jclass clazz, jlong matPtr, jobject dst,
+                                                            jint width, jint height, jint stride)
+{
+    eocv::copyToRgbaBuffer(*(Mat*) matPtr, env->GetDirectBufferAddress(dst), width, height, stride);
+}
+
+/*
+ * Restrict the calling thread to the CPUs set in cpuMask (bit N = CPU N), or
+ * let it run anywhere if the mask is 0. Returns false if that's not possible here.
+ */
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_org_openftc_easyopencv_NativeKernels_setCurrentThreadAffinity(JNIEnv *env, jclass clazz, jlong cpuMask)
+{
+#ifdef __linux__
+    cpu_set_t set;
+    CPU_ZERO(&set);
+
+    for(int cpu = 0; cpu < 64 && cpu < CPU_SETSIZE; cpu++)
+    {
+        if(cpuMask == 0 || (cpuMask & (1LL << cpu)))
+        {
+            CPU_SET(cpu, &set);
+        }
+    }
+
+    // pid 0 means the calling thread
+    return sched_setaffinity(0, sizeof(set), &set) == 0 ? JNI_TRUE : JNI_FALSE;
+#else
+    return JNI_FALSE;
+#endif
+}
+
+/*
+ * The kernel's id for the calling thread (as in /proc/self/task/<tid>), or -1 if unknown
+ */
+extern "C"
+JNIEXPORT jint JNICALL
+Java_org_openftc_easyopencv_NativeKernels_getCurrentThreadId(JNIEnv *env, jclass clazz)
+{
+#ifdef __linux__
+    return (jint) syscall(SYS_gettid);
+#else
+    return -1;
+#endif
+}
+
+/*
+ * Set the nice value (-20 to 19, lower runs first) of the calling thread, the same
+ * scale as android.os.Process.setThreadPriority(). Returns false if refused.
+ */
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_org_openftc_easyopencv_NativeKernels_setCurrentThreadNice(JNIEnv *env, jclass clazz, jint nice)
+{
+#ifdef __linux__
+    // On Linux, PRIO_PROCESS with a tid applies to just that thread
+    return setpriority(PRIO_PROCESS, (id_t) syscall(SYS_gettid), nice) == 0 ? JNI_TRUE : JNI_FALSE;
+#else
+    return JNI_FALSE;
+#endif
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ * Minimal AVI 1.0 (RIFF) writer for a single MJPEG video stream.
+ *
+ * Layout:
+ *
+ *   RIFF 'AVI '
+ *     LIST 'hdrl'
+ *       'avih' (main header)
+ *       LIST 'strl'
+ *         'strh' (stream header, 'vids'/'MJPG')
+ *         'strf' (BITMAPINFOHEADER)
+ *     LIST 'movi'
+ *       '00dc' JPEG ... (one per frame, padded to even length)
+ *     'idx1' (one entry per frame, every frame is a keyframe)
+ *
+ * The header is written with placeholder values up front and rewritten with
+ * the real frame count/sizes by close(). Since AVI 1.0 uses 32 bit sizes (and
+ * many readers only handle the first gigabyte), write() refuses frames once
+ * the file reaches MAX_FILE_SIZE.
+ */
+class AviMjpegWriter
+{
+    static final long MAX_FILE_SIZE = 1L << 30;
+
+    private static final int HEADER_SIZE = 224;
+    private static final int MOVI_FOURCC_OFFSET = HEADER_SIZE - 4;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIIF_KEYFRAME = 0x10;
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int frameRate;
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer padding = ByteBuffer.allocate(1);
+    private final ByteBuffer[] chunk = new ByteBuffer[3];
+
+    private long position = HEADER_SIZE;
+    private long moviEnd = HEADER_SIZE;
+    private int frameCount;
+    private int maxFrameSize;
+    private int[] indexOffsets = new int[1024];
+    private int[] indexSizes = new int[1024];
+
+    AviMjpegWriter(File file, int width, int height, int frameRate)
+    {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+    }
+
+    void open() throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+
+        if(parent != null && !parent.exists() && !parent.mkdirs())
+        {
+            throw new IOException("Unable to create directory " + parent.getAbsolutePath());
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try
+        {
+            randomAccessFile.setLength(0);
+            channel = randomAccessFile.getChannel();
+
+            writeHeader();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            randomAccessFile.close();
+            channel = null;
+            randomAccessFile = null;
+            throw e;
+        }
+    }
+
+    /*
+     * Appends one JPEG frame (the remaining bytes of the buffer).
+     * Returns false, without writing anything, if the frame would push
+     * the file past MAX_FILE_SIZE.
+     */
+    boolean write(ByteBuffer jpeg) throws IOException
+    {
+        int size = jpeg.remaining();
+        int paddedSize = size + (size & 1);
+
+        if(position + CHUNK_HEADER_SIZE + paddedSize + (long) (frameCount + 1) * INDEX_ENTRY_SIZE + CHUNK_HEADER_SIZE > MAX_FILE_SIZE)
+        {
+            return false;
+        }
+
+        if(frameCount == indexOffsets.length)
+        {
+            int[] newOffsets = new int[indexOffsets.length * 2];
+            int[] newSizes = new int[indexSizes.length * 2];
+            System.arraycopy(indexOffsets, 0, newOffsets, 0, frameCount);
+            System.arraycopy(indexSizes, 0, newSizes, 0, frameCount);
+            indexOffsets = newOffsets;
+            indexSizes = newSizes;
+        }
+
+        chunkHeader.clear();
+        putFourCC(chunkHeader, "00dc");
+        chunkHeader.putInt(size);
+        chunkHeader.flip();
+
+        padding.clear();
+
+        chunk[0] = chunkHeader;
+        chunk[1] = jpeg;
+        chunk[2] = padding;
+
+        if((size & 1) == 0)
+        {
+            padding.limit(0);
+        }
+
+        while (chunkHeader.hasRemaining() || jpeg.hasRemaining() || padding.hasRemaining())
+        {
+            channel.write(chunk);
+        }
+
+        indexOffsets[frameCount] = (int) (position - MOVI_FOURCC_OFFSET);
+        indexSizes[frameCount] = size;
+        frameCount++;
+        maxFrameSize = Math.max(maxFrameSize, size);
+        position += CHUNK_HEADER_SIZE + paddedSize;
+        moviEnd = position;
+
+        return true;
+    }
+
+    void close() throws IOException
+    {
+        if(channel == null)
+        {
+            return;
+        }
+
+        try
+        {
+            ByteBuffer index = ByteBuffer.allocate(CHUNK_HEADER_SIZE + frameCount * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            putFourCC(index, "idx1");
+            index.putInt(frameCount * INDEX_ENTRY_SIZE);
+
+            for(int i = 0; i < frameCount; i++)
+            {
+                putFourCC(index, "00dc");
+                index.putInt(AVIIF_KEYFRAME);
+                index.putInt(indexOffsets[i]);
+                index.putInt(indexSizes[i]);
+            }
+
+            index.flip();
+            channel.position(position);
+
+            while (index.hasRemaining())
+            {
+                channel.write(index);
+            }
+
+            position += CHUNK_HEADER_SIZE + frameCount * INDEX_ENTRY_SIZE;
+            writeHeader();
+        }
+        finally
+        {
+            randomAccessFile.close();
+            channel = null;
+            randomAccessFile = null;
+        }
+    }
+
+    int getFrameCount()
+    {
+        return frameCount;
+    }
+
+    long getSize()
+    {
+        return position;
+    }
+
+    private void writeHeader() throws IOException
+    {
+        int microSecPerFrame = 1000000 / Math.max(1, frameRate);
+        int moviSize = (int) (moviEnd - MOVI_FOURCC_OFFSET);
+
+        header.clear();
+
+        putFourCC(header, "RIFF");
+        header.putInt((int) (Math.max(position, HEADER_SIZE) - 8));
+        putFourCC(header, "AVI ");
+
+        putFourCC(header, "LIST");
+        header.putInt(192);
+        putFourCC(header, "hdrl");
+
+        putFourCC(header, "avih");
+        header.putInt(56);
+        header.putInt(microSecPerFrame);
+        header.putInt(maxFrameSize * Math.max(1, frameRate)); // dwMaxBytesPerSec
+        header.putInt(0);                                      // dwPaddingGranularity
+        header.putInt(AVIF_HASINDEX);                          // dwFlags
+        header.putInt(frameCount);                             // dwTotalFrames
+        header.putInt(0);                                      // dwInitialFrames
+        header.putInt(1);                                      // dwStreams
+        header.putInt(maxFrameSize);                           // dwSuggestedBufferSize
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+
+        putFourCC(header, "LIST");
+        header.putInt(116);
+        putFourCC(header, "strl");
+
+        putFourCC(header, "strh");
+        header.putInt(56);
+        putFourCC(header, "vids");
+        putFourCC(header, "MJPG");
+        header.putInt(0);                                      // dwFlags
+        header.putShort((short) 0);                            // wPriority
+        header.putShort((short) 0);                            // wLanguage
+        header.putInt(0);                                      // dwInitialFrames
+        header.putInt(1);                                      // dwScale
+        header.putInt(Math.max(1, frameRate));                 // dwRate
+        header.putInt(0);                                      // dwStart
+        header.putInt(frameCount);                             // dwLength
+        header.putInt(maxFrameSize);                           // dwSuggestedBufferSize
+        header.putInt(-1);                                     // dwQuality
+        header.putInt(0);                                      // dwSampleSize
+        header.putShort((short) 0);                            // rcFrame
+        header.putShort((short) 0);
+        header.putShort((short) width);
+        header.putShort((short) height);
+
+        putFourCC(header, "strf");
+        header.putInt(40);
+        header.putInt(40);                                     // biSize
+        header.putInt(width);
+        header.putInt(height);
+        header.putShort((short) 1);                            // biPlanes
+        header.putShort((short) 24);                           // biBitCount
+        putFourCC(header, "MJPG");                             // biCompression
+        header.putInt(width * height * 3);                     // biSizeImage
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+
+        putFourCC(header, "LIST");
+        header.putInt(moviSize);
+        putFourCC(header, "movi");
+
+        header.flip();
+        channel.position(0);
+
+        while (header.hasRemaining())
+        {
+            channel.write(header);
+        }
+
+        channel.position(position);
+    }
+
+    private static void putFourCC(ByteBuffer buffer, String fourCC)
+    {
+        for(int i = 0; i < 4; i++)
+        {
+            buffer.put((byte) fourCC.charAt(i));
+        }
+    }
+}
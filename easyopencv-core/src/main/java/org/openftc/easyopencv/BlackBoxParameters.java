@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+public class BlackBoxParameters
+{
+    public final double durationSeconds;
+    public final long maxMemoryBytes;
+    public final FrameCaptureParameters.Source source;
+    public final Format format;
+    public final int jpegQuality;
+    public final int rawSubsampling;
+    public final double maxFramesPerSecond;
+    public final boolean dumpOnEStop;
+    public final String dumpDirectory;
+
+    public enum Format
+    {
+        /*
+         * Frames are held as JPEGs. Fits many more frames in
+         * the same amount of memory than RAW, but costs more CPU.
+         */
+        JPEG,
+
+        /*
+         * Frames are held as uncompressed pixels, optionally subsampled
+         * (see {@link Builder#setRawSubsampling(int)}). Cheap on CPU,
+         * but memory hungry.
+         */
+        RAW
+    }
+
+    public BlackBoxParameters(double durationSeconds, long maxMemoryBytes, FrameCaptureParameters.Source source, Format format, int jpegQuality, int rawSubsampling, double maxFramesPerSecond, boolean dumpOnEStop, String dumpDirectory)
+    {
+        // The Builder checks these too, but this constructor is public
+        checkDuration(durationSeconds);
+        checkMaxMemory(maxMemoryBytes);
+        checkJpegQuality(jpegQuality);
+        checkRawSubsampling(rawSubsampling);
+        checkMaxFramesPerSecond(maxFramesPerSecond);
+
+        this.durationSeconds = durationSeconds;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.source = source;
+        this.format = format;
+        this.jpegQuality = jpegQuality;
+        this.rawSubsampling = rawSubsampling;
+        this.maxFramesPerSecond = maxFramesPerSecond;
+        this.dumpOnEStop = dumpOnEStop;
+        this.dumpDirectory = dumpDirectory;
+    }
+
+    private static void checkDuration(double durationSeconds)
+    {
+        if(durationSeconds <= 0)
+        {
+            throw new IllegalArgumentException("Duration must be > 0");
+        }
+    }
+
+    /*
+     * The black box's arena is a single byte array
+     */
+    private static void checkMaxMemory(long maxMemoryBytes)
+    {
+        if(maxMemoryBytes <= 0 || maxMemoryBytes > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Max memory must be > 0 and < 2GB");
+        }
+    }
+
+    private static void checkJpegQuality(int jpegQuality)
+    {
+        if(jpegQuality < 0 || jpegQuality > 100)
+        {
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 100");
+        }
+    }
+
+    private static void checkRawSubsampling(int rawSubsampling)
+    {
+        if(rawSubsampling < 1)
+        {
+            throw new IllegalArgumentException("Subsampling factor must be >= 1");
+        }
+    }
+
+    private static void checkMaxFramesPerSecond(double maxFramesPerSecond)
+    {
+        if(maxFramesPerSecond < 0)
+        {
+            throw new IllegalArgumentException("Max frames per second must be >= 0");
+        }
+    }
+
+    public static class Builder
+    {
+        private double durationSeconds = 5;
+        private long maxMemoryBytes = 24*FrameCaptureParameters.SizeUnits.MB.scalar;
+        private FrameCaptureParameters.Source source = FrameCaptureParameters.Source.RAW;
+        private Format format = Format.JPEG;
+        private int jpegQuality = 75;
+        private int rawSubsampling = 2;
+        private double maxFramesPerSecond = 0;
+        private boolean dumpOnEStop = true;
+        private String dumpDirectory = "/sdcard/EasyOpenCV";
+
+        /***
+         * @param durationSeconds how far back the black box should remember. If the
+         *                        memory ceiling is hit first, the oldest frames are
+         *                        dropped early.
+         */
+        public Builder setDuration(double durationSeconds)
+        {
+            checkDuration(durationSeconds);
+            this.durationSeconds = durationSeconds;
+            return this;
+        }
+
+        /***
+         * @param size the amount of memory reserved for holding frames. This is
+         *             allocated up-front when the black box is started and never grows.
+         */
+        public Builder setMaxMemory(long size, FrameCaptureParameters.SizeUnits units)
+        {
+            // Checked before multiplying, so a huge size can't overflow into range
+            checkMaxMemory(size > Integer.MAX_VALUE / units.scalar ? Long.MAX_VALUE : size*units.scalar);
+            this.maxMemoryBytes = size*units.scalar;
+            return this;
+        }
+
+        public Builder setSource(FrameCaptureParameters.Source source)
+        {
+            this.source = source;
+            return this;
+        }
+
+        public Builder setFormat(Format format)
+        {
+            this.format = format;
+            return this;
+        }
+
+        /***
+         * @param jpegQuality 0-100, only used with {@link Format#JPEG}
+         */
+        public Builder setJpegQuality(int jpegQuality)
+        {
+            checkJpegQuality(jpegQuality);
+            this.jpegQuality = jpegQuality;
+            return this;
+        }
+
+        /***
+         * @param rawSubsampling only used with {@link Format#RAW}; frames are shrunk by
+         *                       this factor in each dimension before being stored
+         */
+        public Builder setRawSubsampling(int rawSubsampling)
+        {
+            checkRawSubsampling(rawSubsampling);
+            this.rawSubsampling = rawSubsampling;
+            return this;
+        }
+
+        /***
+         * @param maxFramesPerSecond the maximum rate at which frames are put into the
+         *                           black box. 0 means every frame.
+         */
+        public Builder setMaxFramesPerSecond(double maxFramesPerSecond)
+        {
+            checkMaxFramesPerSecond(maxFramesPerSecond);
+            this.maxFramesPerSecond = maxFramesPerSecond;
+            return this;
+        }
+
+        /***
+         * @param dumpOnEStop whether to automatically dump the black box to disk if
+         *                    the pipeline throws an exception and the OpMode is stopped
+         */
+        public Builder setDumpOnEStop(boolean dumpOnEStop)
+        {
+            this.dumpOnEStop = dumpOnEStop;
+            return this;
+        }
+
+        /***
+         * @param dumpDirectory each dump is written to a new timestamped
+         *                      directory inside of this directory
+         */
+        public Builder setDumpDirectory(String dumpDirectory)
+        {
+            this.dumpDirectory = dumpDirectory;
+            return this;
+        }
+
+        public BlackBoxParameters build()
+        {
+            return new BlackBoxParameters(durationSeconds, maxMemoryBytes, source, format, jpegQuality, rawSubsampling, maxFramesPerSecond, dumpOnEStop, dumpDirectory);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+/*
+ * Writes frames into a set of chunked, append-only archive files.
+ *
+ * Each chunk "chunk_NNNNN.eocvcap" starts with the 8 byte magic "EOCVCAP\0" and an int format
+ * version, followed by back-to-back records. All values are big endian:
+ *
+ *     int   record magic 'FRME'
+ *     long  capture timestamp (ns, as handed to TimestampedOpenCvPipeline)
+ *     int   frame number
+ *     byte  rotation (OpenCvCameraRotation ordinal)
+ *     long  exposure (ns, -1 if unknown)
+ *     int   gain (-1 if unknown)
+ *     byte  where exposure and gain came from (0 = reported by the camera for this frame,
+ *           1 = polled from the camera now and again, so approximate)
+ *     int   width
+ *     int   height
+ *     int   OpenCV type of the pixel data (e.g. CV_8UC4)
+ *     byte  compression (0 = none, 1 = PNG, 2 = JPEG)
+ *     int   payload length
+ *     ...   payload
+ *
+ * Uncompressed payloads are tightly packed rows in the channel order of the frame (RGB/RGBA).
+ * Compressed payloads are standard PNG/JPEG files (BGR, alpha dropped).
+ *
+ * Next to each chunk a "chunk_NNNNN.csv" sidecar holds the same metadata with the byte offset
+ * of each record, so frames can be located without parsing the whole chunk. Its
+ * exposure_gain_source column is "frame" or "polled" to match the byte above; polled
+ * values may lag the frame by a few hundred ms, including across exposure changes.
+ *
+ * Not thread safe.
+ */
+class FrameArchiveWriter
+{
+    static final byte[] FILE_MAGIC = {'E', 'O', 'C', 'V', 'C', 'A', 'P', 0};
+    static final int FILE_VERSION = 2;
+    static final int RECORD_MAGIC = 0x46524D45; // 'FRME'
+    static final int RECORD_HEADER_SIZE = 4+8+4+1+8+4+1+4+4+4+1+4;
+    private static final int FILE_HEADER_SIZE = FILE_MAGIC.length + 4;
+
+    private final File directory;
+    private final long maxChunkSizeBytes;
+
+    private int chunkIndex = -1;
+    private DataOutputStream chunkStream;
+    private BufferedWriter sidecarWriter;
+    private long chunkBytes;
+    private long totalBytes;
+    private int framesWritten;
+
+    static class FrameInfo
+    {
+        long timestamp;
+        int frameNumber;
+        OpenCvCameraRotation rotation;
+        long exposureNanos;
+        int gain;
+        boolean exposureGainPolled;
+        int width;
+        int height;
+        int type;
+
+        void copyFrom(FrameInfo other)
+        {
+            timestamp = other.timestamp;
+            frameNumber = other.frameNumber;
+            rotation = other.rotation;
+            exposureNanos = other.exposureNanos;
+            gain = other.gain;
+            exposureGainPolled = other.exposureGainPolled;
+            width = other.width;
+            height = other.height;
+            type = other.type;
+        }
+    }
+
+    FrameArchiveWriter(File directory, long maxChunkSizeBytes)
+    {
+        this.directory = directory;
+        this.maxChunkSizeBytes = maxChunkSizeBytes;
+    }
+
+    void createDirectory() throws IOException
+    {
+        if(!directory.exists() && !directory.mkdirs())
+        {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath());
+        }
+    }
+
+    static long recordSize(int payloadLength)
+    {
+        return RECORD_HEADER_SIZE + payloadLength;
+    }
+
+    /*
+     * Total bytes that writing a record with the given payload would add to
+     * the archive, including the header of a new chunk if one would be started
+     */
+    long bytesRequiredFor(int payloadLength)
+    {
+        return recordSize(payloadLength) + (needsNewChunkFor(payloadLength) ? FILE_HEADER_SIZE : 0);
+    }
+
+    void write(FrameInfo info, FrameCaptureParameters.Compression compression, byte[] payload, int payloadLength) throws IOException
+    {
+        write(info, compression, payload, 0, payloadLength);
+    }
+
+    void write(FrameInfo info, FrameCaptureParameters.Compression compression, byte[] payload, int payloadOffset, int payloadLength) throws IOException
+    {
+        long recordSize = recordSize(payloadLength);
+
+        if(needsNewChunkFor(payloadLength))
+        {
+            openNextChunk();
+        }
+
+        long offset = chunkBytes;
+
+        chunkStream.writeInt(RECORD_MAGIC);
+        chunkStream.writeLong(info.timestamp);
+        chunkStream.writeInt(info.frameNumber);
+        chunkStream.writeByte(info.rotation.ordinal());
+        chunkStream.writeLong(info.exposureNanos);
+        chunkStream.writeInt(info.gain);
+        chunkStream.writeByte(info.exposureGainPolled ? 1 : 0);
+        chunkStream.writeInt(info.width);
+        chunkStream.writeInt(info.height);
+        chunkStream.writeInt(info.type);
+        chunkStream.writeByte(compression.id);
+        chunkStream.writeInt(payloadLength);
+        chunkStream.write(payload, payloadOffset, payloadLength);
+
+        sidecarWriter.write(String.format(Locale.US, "%d,%d,%s,%d,%d,%s,%d,%d,%d,%s,%d,%d\n",
+                info.frameNumber, info.timestamp, info.rotation, info.exposureNanos, info.gain,
+                info.exposureGainPolled ? "polled" : "frame", info.width, info.height, info.type, compression, offset, recordSize));
+
+        chunkBytes += recordSize;
+        totalBytes += recordSize;
+        framesWritten++;
+    }
+
+    void close()
+    {
+        try
+        {
+            if(chunkStream != null)
+            {
+                chunkStream.close();
+            }
+
+            if(sidecarWriter != null)
+            {
+                sidecarWriter.close();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            chunkStream = null;
+            sidecarWriter = null;
+        }
+    }
+
+    long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    int getFramesWritten()
+    {
+        return framesWritten;
+    }
+
+    int getChunkCount()
+    {
+        return chunkIndex+1;
+    }
+
+    File getDirectory()
+    {
+        return directory;
+    }
+
+    private boolean needsNewChunkFor(int payloadLength)
+    {
+        // A record which is by itself larger than the max chunk size still gets written,
+        // it just gets a chunk all to itself
+        return chunkStream == null || (chunkBytes > FILE_HEADER_SIZE && chunkBytes + recordSize(payloadLength) > maxChunkSizeBytes);
+    }
+
+    private void openNextChunk() throws IOException
+    {
+        close();
+
+        chunkIndex++;
+        String baseName = String.format(Locale.US, "chunk_%05d", chunkIndex);
+
+        chunkStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, baseName + ".eocvcap")), 1 << 16));
+        sidecarWriter = new BufferedWriter(new FileWriter(new File(directory, baseName + ".csv")));
+
+        chunkStream.write(FILE_MAGIC);
+        chunkStream.writeInt(FILE_VERSION);
+        chunkBytes = FILE_HEADER_SIZE;
+        totalBytes += FILE_HEADER_SIZE;
+
+        sidecarWriter.write("frame_number,capture_timestamp_ns,rotation,exposure_ns,gain,exposure_gain_source,width,height,cv_type,compression,record_offset,record_length\n");
+    }
+}
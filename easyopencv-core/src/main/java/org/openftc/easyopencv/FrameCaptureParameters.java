@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+public class FrameCaptureParameters
+{
+    public final String directory;
+    public final Source source;
+    public final Compression compression;
+    public final int jpegQuality;
+    public final double maxFramesPerSecond;
+    public final long maxChunkSizeBytes;
+    public final long maxDiskUsageBytes;
+    public final int compressionThreads;
+
+    public enum Source
+    {
+        /*
+         * Frames as delivered to the pipeline (i.e. after rotation),
+         * captured before the pipeline has a chance to draw on them
+         */
+        RAW,
+
+        /*
+         * Frames as returned by the pipeline, i.e. the same
+         * image that is shown on the viewport
+         */
+        PIPELINE_OUTPUT
+    }
+
+    public enum Compression
+    {
+        /*
+         * Pixel data is written as-is. Largest files, but cheapest on CPU
+         */
+        NONE(0),
+
+        /*
+         * Lossless
+         */
+        PNG(1),
+
+        /*
+         * Lossy; quality controlled by {@link Builder#setJpegQuality(int)}
+         */
+        JPEG(2);
+
+        final int id;
+
+        Compression(int id)
+        {
+            this.id = id;
+        }
+    }
+
+    public enum SizeUnits
+    {
+        B(1),
+        KB(1024),
+        MB(1024*1024),
+        GB(1024*1024*1024);
+
+        final long scalar;
+
+        SizeUnits(long scalar)
+        {
+            this.scalar = scalar;
+        }
+    }
+
+    public FrameCaptureParameters(String directory, Source source, Compression compression, int jpegQuality, double maxFramesPerSecond, long maxChunkSizeBytes, long maxDiskUsageBytes, int compressionThreads)
+    {
+        this.directory = directory;
+        this.source = source;
+        this.compression = compression;
+        this.jpegQuality = jpegQuality;
+        this.maxFramesPerSecond = maxFramesPerSecond;
+        this.maxChunkSizeBytes = maxChunkSizeBytes;
+        this.maxDiskUsageBytes = maxDiskUsageBytes;
+        this.compressionThreads = compressionThreads;
+    }
+
+    public static class Builder
+    {
+        private String directory = "/sdcard/EasyOpenCV/frame_capture_"+new SimpleDateFormat("dd-MM-yyyy_HH:mm:ss", Locale.getDefault()).format(new Date());
+        private Source source = Source.RAW;
+        private Compression compression = Compression.JPEG;
+        private int jpegQuality = 90;
+        private double maxFramesPerSecond = 0;
+        private long maxChunkSizeBytes = 64*SizeUnits.MB.scalar;
+        private long maxDiskUsageBytes = 0;
+        private int compressionThreads = 2;
+
+        /***
+         * @param directory the directory in which the archive chunks (and their
+         *                  metadata sidecars) will be written. Created if it
+         *                  does not already exist.
+         */
+        public Builder setDirectory(String directory)
+        {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder setSource(Source source)
+        {
+            this.source = source;
+            return this;
+        }
+
+        public Builder setCompression(Compression compression)
+        {
+            this.compression = compression;
+            return this;
+        }
+
+        /***
+         * @param jpegQuality 0-100, only used with {@link Compression#JPEG}
+         */
+        public Builder setJpegQuality(int jpegQuality)
+        {
+            if(jpegQuality < 0 || jpegQuality > 100)
+            {
+                throw new IllegalArgumentException("JPEG quality must be between 0 and 100");
+            }
+
+            this.jpegQuality = jpegQuality;
+            return this;
+        }
+
+        /***
+         * @param maxFramesPerSecond the maximum rate at which frames will be captured.
+         *                           Frames arriving faster than this are skipped. 0 means
+         *                           capture every frame.
+         */
+        public Builder setMaxFramesPerSecond(double maxFramesPerSecond)
+        {
+            if(maxFramesPerSecond < 0)
+            {
+                throw new IllegalArgumentException("Max frames per second must be >= 0");
+            }
+
+            this.maxFramesPerSecond = maxFramesPerSecond;
+            return this;
+        }
+
+        /***
+         * @param size once a chunk file grows past this size, a new chunk is started
+         */
+        public Builder setMaxChunkSize(long size, SizeUnits units)
+        {
+            if(size <= 0)
+            {
+                throw new IllegalArgumentException("Max chunk size must be > 0");
+            }
+
+            this.maxChunkSizeBytes = size*units.scalar;
+            return this;
+        }
+
+        /***
+         * @param size once this much data has been written, capture stops (the
+         *             streaming session itself carries on). 0 means no limit.
+         */
+        public Builder setMaxDiskUsage(long size, SizeUnits units)
+        {
+            if(size < 0)
+            {
+                throw new IllegalArgumentException("Max disk usage must be >= 0");
+            }
+
+            this.maxDiskUsageBytes = size*units.scalar;
+            return this;
+        }
+
+        /***
+         * @param compressionThreads number of background threads used to compress frames
+         */
+        public Builder setCompressionThreads(int compressionThreads)
+        {
+            if(compressionThreads < 1)
+            {
+                throw new IllegalArgumentException("Must use at least one compression thread");
+            }
+
+            this.compressionThreads = compressionThreads;
+            return this;
+        }
+
+        public FrameCaptureParameters build()
+        {
+            return new FrameCaptureParameters(directory, source, compression, jpegQuality, maxFramesPerSecond, maxChunkSizeBytes, maxDiskUsageBytes, compressionThreads);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * The platform-independent middle of the frame path: rotate the incoming frame,
+ * run the user's pipeline on it, and normalize whatever the pipeline returned into
+ * a frame of the size the pipeline was given that can be displayed / recorded. OpenCvCameraBase
+ * wraps this with the viewport and the various recording taps, but it's just as
+ * usable on its own, e.g. to drive pipelines from a desktop JVM.
+ *
+ * Not thread safe; the caller is expected to serialize frames.
+ */
+class FrameDispatcher
+{
+    private final FrameStatistics statistics = new FrameStatistics(30);
+    private int rotateCode = -1;
+    private Mat rotatedMat = new Mat();
+    private Mat matToUseIfPipelineReturnedCropped;
+    private Mat croppedRegion;
+    private Mat brownFill;
+    private Mat croppedColorCvtedMat = new Mat();
+    private Scalar brown = new Scalar(82, 61, 46, 255);
+    private int downscale = 1;
+    private ResolutionLadder resolutionLadder;
+    private long lastPipelineNanos;
+    private volatile long clockOffsetNanos;
+    private Mat downscaledMat = new Mat();
+    private Mat upscaledMat = new Mat();
+    private final Size downscaledSize = new Size();
+    private final Size fullSize = new Size();
+    private Mat lastOutput;
+    private boolean outputShrunk;
+    private boolean upscaledMatStale;
+
+    /*
+     * Get ready for a new stream
+     *
+     * @param rotateCode the OpenCV rotate code to apply to incoming frames, or -1 for none
+     */
+    void reset(int rotateCode)
+    {
+        this.rotateCode = rotateCode;
+        matToUseIfPipelineReturnedCropped = null;
+        croppedRegion = null;
+        brownFill = null;
+        statistics.reset();
+
+        if(resolutionLadder != null)
+        {
+            resolutionLadder.reset();
+        }
+    }
+
+    /*
+     * Shrink frames by this factor in each dimension before the pipeline sees them.
+     * What the pipeline returns is handed on at that smaller size; only consumers
+     * which really need the original size should use getFullSizeOutput().
+     */
+    void setDownscale(int downscale)
+    {
+        this.downscale = downscale;
+    }
+
+    /*
+     * Step the scale at which frames are handed to the pipeline down (and back up)
+     * a ladder of scales to keep its run time within a budget. On top of the fixed
+     * downscale factor above, if any; whichever is smaller wins. Null for none.
+     */
+    void setResolutionLadder(ResolutionLadder resolutionLadder)
+    {
+        this.resolutionLadder = resolutionLadder;
+    }
+
+    /*
+     * What to add to the timestamps of frames to put them on the System.nanoTime()
+     * clock; passed on to timestamped pipelines alongside each timestamp
+     */
+    void setClockOffset(long clockOffsetNanos)
+    {
+        this.clockOffsetNanos = clockOffsetNanos;
+    }
+
+    FrameStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /*
+     * Returns the frame as the pipeline should see it. NB: this may
+     * be a buffer owned by the dispatcher, valid until the next frame.
+     */
+    Mat rotate(Mat frame)
+    {
+        if(rotateCode != -1)
+        {
+            /*
+             * Rotate onto another Mat rather than doing so in-place.
+             *
+             * This does two things:
+             *     1) It seems that rotating by 90 or 270 in-place
+             *        causes the backing buffer to be re-allocated
+             *        since the width/height becomes swapped. This
+             *        causes a problem for user code which makes a
+             *        submat from the input Mat, because after the
+             *        parent Mat is re-allocated the submat is no
+             *        longer tied to it. Thus, by rotating onto
+             *        another Mat (which is never re-allocated) we
+             *        remove that issue.
+             *
+             *     2) Since the backing buffer does need need to be
+             *        re-allocated for each frame, we reduce overhead
+             *        time by about 1ms.
+             */
+            Core.rotate(frame, rotatedMat, rotateCode);
+            return rotatedMat;
+        }
+
+        return frame;
+    }
+
+    /*
+     * Runs the pipeline (if there is one) on an already rotated frame, and returns
+     * the Mat which should be sent on to the display. That is the input frame itself
+     * if there's no pipeline; otherwise it's the pipeline's output, copied onto a
+     * buffer of the size the pipeline was given first if the pipeline cropped it.
+     * If the frame was shrunk for the pipeline, so is this; the viewport and recorders
+     * scale it to fit anyway, so there's no point spending time scaling it back up.
+     */
+    Mat process(OpenCvPipeline pipeline, Mat frame, long timestamp)
+    {
+        outputShrunk = false;
+        upscaledMatStale = false;
+
+        if(pipeline == null)
+        {
+            lastOutput = frame;
+            return frame;
+        }
+
+        Mat input = frame;
+        double scale = 1.0 / downscale;
+        boolean ladderApplied = false;
+
+        if(resolutionLadder != null && resolutionLadder.getScale() <= scale)
+        {
+            scale = resolutionLadder.getScale();
+            ladderApplied = true;
+        }
+
+        if(scale < 1)
+        {
+            downscaledSize.width = Math.max(1, Math.round(frame.cols() * scale));
+            downscaledSize.height = Math.max(1, Math.round(frame.rows() * scale));
+            Imgproc.resize(frame, downscaledMat, downscaledSize, 0, 0, Imgproc.INTER_AREA);
+            input = downscaledMat;
+
+            // What the pipeline actually got, after rounding
+            scale = downscaledSize.width / frame.cols();
+        }
+
+        pipeline.setInputScale(scale);
+        Mat output = runPipeline(pipeline, input, timestamp);
+
+        /*
+         * The ladder's decisions are based on how long the pipeline takes at its scale,
+         * so a run at some other (smaller) scale imposed by the fixed downscale would
+         * only mislead it. Nor does the frame after a scale change count, since that
+         * time includes init() being re-run, and would push the ladder straight back.
+         */
+        if(ladderApplied && !pipeline.didInitLastFrame())
+        {
+            resolutionLadder.addSample(lastPipelineNanos);
+        }
+
+        if(input != frame)
+        {
+            fullSize.width = frame.cols();
+            fullSize.height = frame.rows();
+            outputShrunk = true;
+            upscaledMatStale = true;
+        }
+
+        lastOutput = output;
+        return output;
+    }
+
+    /*
+     * The Mat the last call to process() returned, scaled back up to the size of the
+     * frame passed in if need be. For consumers which can't cope with the frame size
+     * changing. The scaling is only done the first time this is called for a frame.
+     * NB: may be a buffer owned by the dispatcher, valid until the next frame.
+     */
+    Mat getFullSizeOutput()
+    {
+        if(upscaledMatStale)
+        {
+            Imgproc.resize(lastOutput, upscaledMat, fullSize, 0, 0, Imgproc.INTER_LINEAR);
+            upscaledMatStale = false;
+        }
+
+        return outputShrunk ? upscaledMat : lastOutput;
+    }
+
+    private Mat runPipeline(OpenCvPipeline pipeline, Mat frame, long timestamp)
+    {
+        if(pipeline instanceof TimestampedOpenCvPipeline)
+        {
+            ((TimestampedOpenCvPipeline) pipeline).setTimestamp(timestamp);
+            ((TimestampedOpenCvPipeline) pipeline).setClockOffset(clockOffsetNanos);
+        }
+
+        long pipelineStart = System.nanoTime();
+        Mat userProcessedFrame = pipeline.processFrameInternal(frame);
+        lastPipelineNanos = System.nanoTime() - pipelineStart;
+        statistics.addPipelineTime(lastPipelineNanos);
+
+        if(userProcessedFrame == null)
+        {
+            throw new OpenCvCameraException("User pipeline returned null");
+        }
+        else if(userProcessedFrame.empty())
+        {
+            throw new OpenCvCameraException("User pipeline returned empty mat");
+        }
+        else if(userProcessedFrame.cols() != frame.cols() || userProcessedFrame.rows() != frame.rows())
+        {
+            /*
+             * The user didn't return the same size image from their pipeline as we gave them,
+             * ugh. This makes our lives interesting because we can't just send an arbitrary
+             * frame size to the viewport. It re-uses framebuffers that are of a fixed resolution.
+             * So, we copy the user's Mat onto a Mat of the correct size, and then send that other
+             * Mat to the viewport.
+             */
+
+            if(userProcessedFrame.cols() > frame.cols() || userProcessedFrame.rows() > frame.rows())
+            {
+                /*
+                 * What on earth was this user thinking?! They returned a Mat that's BIGGER in
+                 * a dimension than the one we gave them!
+                 */
+
+                throw new OpenCvCameraException("User pipeline returned frame of unexpected size");
+            }
+
+            //We re-use this buffer, only create if needed
+            if(matToUseIfPipelineReturnedCropped == null || matToUseIfPipelineReturnedCropped.cols() != frame.cols() || matToUseIfPipelineReturnedCropped.rows() != frame.rows())
+            {
+                // Only happens if the scale changed
+                if(matToUseIfPipelineReturnedCropped != null)
+                {
+                    matToUseIfPipelineReturnedCropped.release();
+                }
+
+                if(croppedRegion != null)
+                {
+                    croppedRegion.release();
+                    croppedRegion = null;
+                }
+
+                if(brownFill != null)
+                {
+                    brownFill.release();
+                }
+
+                matToUseIfPipelineReturnedCropped = frame.clone();
+                brownFill = new Mat(frame.rows(), frame.cols(), frame.type(), brown);
+            }
+
+            /*
+             * Set to brown to indicate to the user the areas which they cropped off.
+             * Copied from a pre-filled buffer because the Java setTo() hands back a
+             * new Mat wrapper on every call.
+             */
+            brownFill.copyTo(matToUseIfPipelineReturnedCropped);
+
+            int usrFrmTyp = userProcessedFrame.type();
+
+            if(usrFrmTyp == CvType.CV_8UC1)
+            {
+                /*
+                 * Handle 8UC1 returns (masks and single channels of images);
+                 *
+                 * We have to color convert onto a different mat (rather than
+                 * doing so in place) to avoid breaking any of the user's submats
+                 */
+                Imgproc.cvtColor(userProcessedFrame, croppedColorCvtedMat, Imgproc.COLOR_GRAY2RGBA);
+                userProcessedFrame = croppedColorCvtedMat; //Doesn't affect user's handle, only ours
+            }
+            else if(usrFrmTyp != CvType.CV_8UC4 && usrFrmTyp != CvType.CV_8UC3)
+            {
+                /*
+                 * Oof, we don't know how to handle the type they gave us
+                 */
+                throw new OpenCvCameraException("User pipeline returned a frame of an illegal type. Valid types are CV_8UC1, CV_8UC3, and CV_8UC4");
+            }
+
+            /*
+             * The region of that buffer the user's frame goes into. The crop size is
+             * practically always the same from frame to frame, so we hang on to the
+             * submat rather than making a new one (and a Rect for it) every frame.
+             */
+            if(croppedRegion == null || croppedRegion.cols() != userProcessedFrame.cols() || croppedRegion.rows() != userProcessedFrame.rows())
+            {
+                if(croppedRegion != null)
+                {
+                    croppedRegion.release();
+                }
+
+                croppedRegion = matToUseIfPipelineReturnedCropped.submat(
+                        new Rect(0,0,userProcessedFrame.cols(), userProcessedFrame.rows()));
+            }
+
+            //Copy the user's frame onto a Mat of the correct size
+            userProcessedFrame.copyTo(croppedRegion);
+
+            //Send that correct size Mat on instead
+            return matToUseIfPipelineReturnedCropped;
+        }
+        else
+        {
+            /*
+             * Yay, smart user! They gave us the frame size we were expecting!
+             * Go ahead and send it right on over.
+             */
+            return userProcessedFrame;
+        }
+    }
+}
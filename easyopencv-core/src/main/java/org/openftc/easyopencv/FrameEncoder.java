@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * Turns a frame into the payload bytes of a frame archive record (see
+ * FrameArchiveWriter). Holds on to its scratch buffers between calls so
+ * that steady-state encoding doesn't allocate. Not thread safe; give each
+ * thread its own.
+ */
+class FrameEncoder
+{
+    private final FrameCaptureParameters.Compression compression;
+    private final String extension;
+    private final MatOfInt params;
+    private final Mat bgr = new Mat();
+    private final MatOfByte encoded = new MatOfByte();
+
+    private byte[] payload = new byte[0];
+    private int payloadLength;
+
+    FrameEncoder(FrameCaptureParameters.Compression compression, int jpegQuality)
+    {
+        this.compression = compression;
+
+        switch (compression)
+        {
+            case PNG:
+                extension = ".png";
+                params = new MatOfInt();
+                break;
+
+            case JPEG:
+                extension = ".jpg";
+                params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, jpegQuality);
+                break;
+
+            default:
+                extension = null;
+                params = null;
+                break;
+        }
+    }
+
+    /***
+     * Encode a frame
+     * @param frame the frame to encode; must be continuous
+     * @return the length of the payload, which is in {@link #getPayload()}
+     */
+    int encode(Mat frame)
+    {
+        if(compression == FrameCaptureParameters.Compression.NONE)
+        {
+            int len = (int) (frame.total() * frame.elemSize());
+            ensurePayloadCapacity(len);
+            frame.get(0, 0, payload);
+            payloadLength = len;
+            return len;
+        }
+
+        Mat toEncode;
+        int channels = frame.channels();
+
+        if(channels == 4)
+        {
+            Imgproc.cvtColor(frame, bgr, Imgproc.COLOR_RGBA2BGR);
+            toEncode = bgr;
+        }
+        else if(channels == 3)
+        {
+            Imgproc.cvtColor(frame, bgr, Imgproc.COLOR_RGB2BGR);
+            toEncode = bgr;
+        }
+        else
+        {
+            toEncode = frame;
+        }
+
+        Imgcodecs.imencode(extension, toEncode, encoded, params);
+
+        int len = (int) encoded.total();
+        ensurePayloadCapacity(len);
+        encoded.get(0, 0, payload);
+        payloadLength = len;
+        return len;
+    }
+
+    byte[] getPayload()
+    {
+        return payload;
+    }
+
+    int getPayloadLength()
+    {
+        return payloadLength;
+    }
+
+    FrameCaptureParameters.Compression getCompression()
+    {
+        return compression;
+    }
+
+    void release()
+    {
+        bgr.release();
+        encoded.release();
+
+        if(params != null)
+        {
+            params.release();
+        }
+    }
+
+    private void ensurePayloadCapacity(int len)
+    {
+        if(payload.length < len)
+        {
+            payload = new byte[len];
+        }
+    }
+}
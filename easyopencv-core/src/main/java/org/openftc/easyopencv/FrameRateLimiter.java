@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/*
+ * Decides whether a frame arriving at a given time should be accepted
+ * in order to hold a target rate. Frames from the camera do not arrive
+ * on a perfect cadence, so a naive "has 1/fps elapsed since the last
+ * accepted frame" check would reject a frame that came in a hair early
+ * and then wait for the *next* one, roughly halving the achieved rate.
+ * Instead we keep a schedule and allow a bit of slack against it.
+ *
+ * Not thread safe; intended to be used from a single frame thread.
+ */
+class FrameRateLimiter
+{
+    private long minIntervalNanos;
+    private long nextAcceptNanos;
+
+    FrameRateLimiter()
+    {
+        this(0);
+    }
+
+    FrameRateLimiter(double maxFps)
+    {
+        setMaxFps(maxFps);
+    }
+
+    /***
+     * @param maxFps the maximum rate at which {@link #accept(long)} will
+     *               return true. 0 means no limit.
+     */
+    void setMaxFps(double maxFps)
+    {
+        minIntervalNanos = maxFps > 0 ? (long) (1e9 / maxFps) : 0;
+        nextAcceptNanos = 0;
+    }
+
+    boolean isLimiting()
+    {
+        return minIntervalNanos != 0;
+    }
+
+    boolean accept(long nowNanos)
+    {
+        if(minIntervalNanos == 0)
+        {
+            return true;
+        }
+
+        if(nextAcceptNanos != 0 && nowNanos < nextAcceptNanos - minIntervalNanos/4)
+        {
+            return false;
+        }
+
+        if(nextAcceptNanos == 0 || nowNanos - nextAcceptNanos > minIntervalNanos)
+        {
+            // First frame, or we fell far behind schedule (e.g. the camera
+            // stalled); re-anchor rather than trying to "catch up" with a burst
+            nextAcceptNanos = nowNanos + minIntervalNanos;
+        }
+        else
+        {
+            nextAcceptNanos += minIntervalNanos;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+
+/*
+ * Pulls frames from an OpenCvFrameSource on its own thread and hands them to a sink,
+ * paced by a clock, optionally looping. This is the platform-independent part of a
+ * frame source camera: the Android camera (OpenCvFrameSourceCameraImpl) sinks frames
+ * into its camera base, and OpenCvFrameSourceDriver straight into a FrameDispatcher.
+ *
+ * The owner supplies the lock which guards the source and its frame path. start() and
+ * stop() must be called with it held; the pump thread only touches the source or the
+ * sink while holding it, and after checking it hasn't been stopped in the meantime,
+ * so stop() doesn't need to (and can't, since the thread may be waiting on the lock)
+ * join the thread.
+ */
+class FrameSourcePump
+{
+    /*
+     * Called on the pump thread with the owner's lock held. The frame is only valid until this returns.
+     */
+    interface Sink
+    {
+        void onFrame(Mat frame, long timestamp);
+    }
+
+    private final OpenCvFrameSource source;
+    private final Object lock;
+    private final Sink sink;
+    private final String threadName;
+
+    private volatile OpenCvFrameClock clock = OpenCvFrameClock.SYSTEM;
+    private volatile boolean loop = false;
+    private volatile boolean running = false;
+    private Mat frameMat;
+    private PumpThread pumpThread;
+
+    private final Object endOfSourceLock = new Object();
+    private boolean endOfSource = false;
+    private RuntimeException failure;
+
+    FrameSourcePump(OpenCvFrameSource source, Object lock, Sink sink, String threadName)
+    {
+        this.source = source;
+        this.lock = lock;
+        this.sink = sink;
+        this.threadName = threadName;
+    }
+
+    void setClock(OpenCvFrameClock clock)
+    {
+        if(clock == null)
+        {
+            throw new IllegalArgumentException("clock cannot be null");
+        }
+
+        this.clock = clock;
+    }
+
+    void setLooping(boolean loop)
+    {
+        this.loop = loop;
+    }
+
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    /*
+     * Rewind the source and start delivering frames from the top. Owner's lock held.
+     */
+    void start() throws IOException
+    {
+        if(running)
+        {
+            stop();
+        }
+
+        source.rewind();
+        frameMat = new Mat();
+
+        synchronized (endOfSourceLock)
+        {
+            endOfSource = false;
+            failure = null;
+        }
+
+        running = true;
+        pumpThread = new PumpThread();
+        pumpThread.start();
+    }
+
+    /*
+     * Stop delivering frames. Owner's lock held.
+     */
+    void stop()
+    {
+        running = false;
+
+        if(pumpThread != null)
+        {
+            pumpThread.interrupt();
+            pumpThread = null;
+        }
+
+        if(frameMat != null)
+        {
+            frameMat.release();
+            frameMat = null;
+        }
+
+        markEndOfSource(null);
+    }
+
+    /*
+     * Block until the source runs out (and isn't looping), the pump is stopped,
+     * or the sink throws. In that last case, that exception is returned.
+     */
+    RuntimeException waitForEndOfSource() throws InterruptedException
+    {
+        synchronized (endOfSourceLock)
+        {
+            while (!endOfSource)
+            {
+                endOfSourceLock.wait();
+            }
+
+            return failure;
+        }
+    }
+
+    private void markEndOfSource(RuntimeException failure)
+    {
+        synchronized (endOfSourceLock)
+        {
+            if(!endOfSource)
+            {
+                this.failure = failure;
+            }
+
+            endOfSource = true;
+            endOfSourceLock.notifyAll();
+        }
+    }
+
+    private class PumpThread extends Thread
+    {
+        private OpenCvFrameClock anchorClock;
+        private long anchorPresentationTime;
+        private long anchorClockTime;
+
+        PumpThread()
+        {
+            super(threadName);
+        }
+
+        @Override
+        public void run()
+        {
+            RuntimeException failure = null;
+
+            try
+            {
+                while (true)
+                {
+                    long presentationTime = readFrame();
+
+                    if(presentationTime == -2)
+                    {
+                        return; // Streaming was stopped
+                    }
+                    else if(presentationTime == -1)
+                    {
+                        if(loop && rewind())
+                        {
+                            anchorClock = null;
+                            continue;
+                        }
+
+                        return;
+                    }
+
+                    /*
+                     * Schedule relative to the first frame delivered with the current clock,
+                     * so changing the clock (or looping) mid-stream doesn't cause a huge stall
+                     */
+                    OpenCvFrameClock clock = FrameSourcePump.this.clock;
+
+                    if(clock != anchorClock)
+                    {
+                        anchorClock = clock;
+                        anchorPresentationTime = presentationTime;
+                        anchorClockTime = clock.nanoTime();
+                    }
+
+                    long deliveryTime = anchorClockTime + (presentationTime - anchorPresentationTime);
+                    clock.sleepUntil(deliveryTime);
+
+                    if(!deliverFrame(deliveryTime))
+                    {
+                        return;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Streaming was stopped
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+            catch (RuntimeException e)
+            {
+                // The sink crashed; let whoever's waiting know why
+                failure = e;
+            }
+            finally
+            {
+                /*
+                 * Only if we're still the current run. If we were stopped, stop() already
+                 * marked the end, and start() may since have reset it for a new thread.
+                 */
+                synchronized (lock)
+                {
+                    if(stillCurrent())
+                    {
+                        markEndOfSource(failure);
+                    }
+                }
+            }
+        }
+
+        private boolean stillCurrent()
+        {
+            return running && pumpThread == this;
+        }
+
+        /*
+         * Returns the presentation time of the frame, -1 if the
+         * source has run out, or -2 if streaming has been stopped
+         */
+        private long readFrame() throws IOException, InterruptedException
+        {
+            synchronized (lock)
+            {
+                if(!stillCurrent())
+                {
+                    return -2;
+                }
+
+                return source.nextFrame(frameMat);
+            }
+        }
+
+        private boolean rewind() throws IOException
+        {
+            synchronized (lock)
+            {
+                if(!stillCurrent())
+                {
+                    return false;
+                }
+
+                source.rewind();
+                return true;
+            }
+        }
+
+        private boolean deliverFrame(long timestamp)
+        {
+            synchronized (lock)
+            {
+                if(!stillCurrent())
+                {
+                    return false;
+                }
+
+                sink.onFrame(frameMat, timestamp);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/*
+ * Rolling averages of frame interval, pipeline time, and total frame processing
+ * time, which back the FPS meter and OpenCvCamera's stats getters. Written to by
+ * the frame thread only; the derived values are published through volatiles so
+ * that the getters may be called from any thread.
+ */
+class FrameStatistics
+{
+    private final RollingMean frameIntervalMs;
+    private final RollingMean pipelineTimeMs;
+    private final RollingMean totalFrameTimeMs;
+
+    private long lastFrameArrivalNanos;
+    private volatile long frameProcessingStartNanos;
+
+    private volatile float avgFps;
+    private volatile int avgPipelineTime;
+    private volatile int avgOverheadTime;
+    private volatile int avgTotalFrameTime;
+
+    FrameStatistics(int windowSize)
+    {
+        frameIntervalMs = new RollingMean(windowSize);
+        pipelineTimeMs = new RollingMean(windowSize);
+        totalFrameTimeMs = new RollingMean(windowSize);
+        reset();
+    }
+
+    void reset()
+    {
+        frameIntervalMs.clear();
+        pipelineTimeMs.clear();
+        totalFrameTimeMs.clear();
+        lastFrameArrivalNanos = System.nanoTime();
+        frameProcessingStartNanos = lastFrameArrivalNanos;
+        avgFps = 0;
+        avgPipelineTime = 0;
+        avgOverheadTime = 0;
+        avgTotalFrameTime = 0;
+    }
+
+    /*
+     * Called by the camera implementation as soon as it has a frame in hand,
+     * before doing any conversion work on it
+     */
+    void markFrameProcessingStart()
+    {
+        frameProcessingStartNanos = System.nanoTime();
+    }
+
+    /*
+     * Called when the frame reaches the dispatcher
+     */
+    void markFrameArrival()
+    {
+        long now = System.nanoTime();
+        frameIntervalMs.add((now - lastFrameArrivalNanos) / 1e6);
+        lastFrameArrivalNanos = now;
+
+        double secondsPerFrame = frameIntervalMs.getMean() / 1000d;
+        avgFps = (float) (1d/secondsPerFrame);
+    }
+
+    void addPipelineTime(long nanos)
+    {
+        pipelineTimeMs.add(nanos / 1e6);
+    }
+
+    /*
+     * Publishes the pipeline / overhead / total averages. This is done before
+     * the current frame's total time is known, so those lag by a frame; that's
+     * how it has always worked and nobody looking at an FPS meter can tell.
+     */
+    void updateAverages()
+    {
+        int pipeline = (int) Math.round(pipelineTimeMs.getMean());
+        int total = (int) Math.round(totalFrameTimeMs.getMean());
+
+        avgPipelineTime = pipeline;
+        avgTotalFrameTime = total;
+        avgOverheadTime = total - pipeline;
+    }
+
+    void markFrameProcessingEnd()
+    {
+        totalFrameTimeMs.add((System.nanoTime() - frameProcessingStartNanos) / 1e6);
+    }
+
+    float getFps()
+    {
+        return avgFps;
+    }
+
+    int getPipelineTimeMs()
+    {
+        return avgPipelineTime;
+    }
+
+    int getOverheadTimeMs()
+    {
+        return avgOverheadTime;
+    }
+
+    int getTotalFrameTimeMs()
+    {
+        return avgTotalFrameTime;
+    }
+
+    /*
+     * Fixed-window mean over a ring buffer; no allocation after construction
+     */
+    static class RollingMean
+    {
+        private final double[] samples;
+        private int index;
+        private int count;
+        private double sum;
+
+        RollingMean(int windowSize)
+        {
+            if(windowSize < 1)
+            {
+                throw new IllegalArgumentException("windowSize must be >= 1");
+            }
+
+            samples = new double[windowSize];
+        }
+
+        void add(double sample)
+        {
+            if(count == samples.length)
+            {
+                sum -= samples[index];
+            }
+            else
+            {
+                count++;
+            }
+
+            samples[index] = sample;
+            sum += sample;
+            index = (index + 1) % samples.length;
+        }
+
+        double getMean()
+        {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        void clear()
+        {
+            index = 0;
+            count = 0;
+            sum = 0;
+        }
+    }
+}
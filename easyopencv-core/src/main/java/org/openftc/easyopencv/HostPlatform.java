@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+/*
+ * Platform implementation for a plain (Linux) JVM. There's no direct equivalent
+ * of Android's Debug.getNativeHeapAllocatedSize(), so we approximate it as the
+ * resident set size minus the committed Java heap. That's good enough for the
+ * pipeline leak detector, which only ever looks at how the number changes.
+ *
+ * The procfs files are kept open and re-read from the start each time, so
+ * that polling them once per frame doesn't allocate.
+ */
+class HostPlatform extends Platform
+{
+    /*
+     * procfs reports statm in pages; every Linux x86_64 / arm64
+     * host we care about uses 4K pages.
+     */
+    private static final long PAGE_SIZE = 4096;
+
+    private RandomAccessFile statm;
+    private RandomAccessFile meminfo;
+    private final byte[] buf = new byte[4096];
+
+    HostPlatform()
+    {
+        statm = open("/proc/self/statm");
+        meminfo = open("/proc/meminfo");
+    }
+
+    private static RandomAccessFile open(String path)
+    {
+        try
+        {
+            return new RandomAccessFile(path, "r");
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    synchronized long getNativeHeapAllocatedBytes()
+    {
+        int len = read(statm);
+
+        if(len <= 0)
+        {
+            return -1;
+        }
+
+        // Second field is the resident set size
+        int pos = skipField(0, len);
+        long residentPages = parseLong(pos, len);
+
+        if(residentPages < 0)
+        {
+            return -1;
+        }
+
+        return residentPages*PAGE_SIZE - Runtime.getRuntime().totalMemory();
+    }
+
+    @Override
+    synchronized float getAvailableMemoryPercent()
+    {
+        int len = read(meminfo);
+
+        if(len <= 0)
+        {
+            return -1;
+        }
+
+        long total = findMeminfoField("MemTotal:", len);
+        long available = findMeminfoField("MemAvailable:", len);
+
+        if(total <= 0 || available < 0)
+        {
+            return -1;
+        }
+
+        return ((float) available / (float) total)*100;
+    }
+
+    @Override
+    String getDefaultSavePath()
+    {
+        return System.getProperty("user.home") + File.separator + "EasyOpenCV";
+    }
+
+    @Override
+    void logInfo(String tag, String format, Object... args)
+    {
+        System.out.println(tag + ": " + String.format(Locale.US, format, args));
+    }
+
+    @Override
+    void logWarning(String tag, String format, Object... args)
+    {
+        System.err.println(tag + ": " + String.format(Locale.US, format, args));
+    }
+
+    private int read(RandomAccessFile file)
+    {
+        if(file == null)
+        {
+            return -1;
+        }
+
+        try
+        {
+            file.seek(0);
+
+            int total = 0;
+            int n;
+
+            while (total < buf.length && (n = file.read(buf, total, buf.length - total)) > 0)
+            {
+                total += n;
+            }
+
+            return total;
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    private long findMeminfoField(String name, int len)
+    {
+        outer:
+        for(int i = 0; i + name.length() <= len; i++)
+        {
+            if(i != 0 && buf[i-1] != '\n')
+            {
+                continue;
+            }
+
+            for(int j = 0; j < name.length(); j++)
+            {
+                if(buf[i+j] != name.charAt(j))
+                {
+                    continue outer;
+                }
+            }
+
+            // Reported in kB
+            long kb = parseLong(i + name.length(), len);
+            return kb < 0 ? -1 : kb*1024;
+        }
+
+        return -1;
+    }
+
+    private int skipField(int pos, int len)
+    {
+        while (pos < len && buf[pos] != ' ')
+        {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private long parseLong(int pos, int len)
+    {
+        while (pos < len && buf[pos] == ' ')
+        {
+            pos++;
+        }
+
+        if(pos >= len || buf[pos] < '0' || buf[pos] > '9')
+        {
+            return -1;
+        }
+
+        long val = 0;
+
+        while (pos < len && buf[pos] >= '0' && buf[pos] <= '9')
+        {
+            val = val*10 + (buf[pos] - '0');
+            pos++;
+        }
+
+        return val;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * Plays back a directory of JPEG/PNG images (in file name order) at a fixed rate.
+ *
+ * Decoding is done ahead of time by a prefetch thread into a small pool of Mats, so
+ * the camera thread only ever does a copy. All images are delivered at the size of
+ * the first one; any which differ are resized.
+ */
+class ImageDirectoryFrameSource implements OpenCvFrameSource
+{
+    private final File directory;
+    private final long frameIntervalNanos;
+    private final int prefetchDepth;
+
+    private File[] files;
+    private int width;
+    private int height;
+    private Size size;
+
+    private Mat[] pool;
+    private ArrayBlockingQueue<Mat> freeMats;
+    private ArrayBlockingQueue<Mat> decodedMats;
+    private final Mat endOfFiles = new Mat();
+    private PrefetchThread prefetchThread;
+    private long framesDelivered;
+
+    ImageDirectoryFrameSource(String directory, double fps, int prefetchDepth)
+    {
+        if(fps <= 0 || prefetchDepth < 1)
+        {
+            throw new IllegalArgumentException("fps and prefetch depth must be positive");
+        }
+
+        this.directory = new File(directory);
+        this.frameIntervalNanos = (long) (1e9 / fps);
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    @Override
+    public void open() throws IOException
+    {
+        files = directory.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                String name = file.getName().toLowerCase(Locale.US);
+                return file.isFile() && (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png"));
+            }
+        });
+
+        if(files == null || files.length == 0)
+        {
+            throw new IOException("No JPEG or PNG images found in " + directory.getAbsolutePath());
+        }
+
+        Arrays.sort(files);
+
+        Mat first = Imgcodecs.imread(files[0].getAbsolutePath());
+
+        if(first.empty())
+        {
+            throw new IOException("Unable to decode " + files[0].getAbsolutePath());
+        }
+
+        width = first.cols();
+        height = first.rows();
+        size = new Size(width, height);
+        first.release();
+
+        pool = new Mat[prefetchDepth];
+        freeMats = new ArrayBlockingQueue<>(prefetchDepth);
+        decodedMats = new ArrayBlockingQueue<>(prefetchDepth + 1); // +1 for the end marker
+
+        for(int i = 0; i < prefetchDepth; i++)
+        {
+            pool[i] = new Mat();
+            freeMats.add(pool[i]);
+        }
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    @Override
+    public void rewind()
+    {
+        stopPrefetching();
+
+        framesDelivered = 0;
+        prefetchThread = new PrefetchThread();
+        prefetchThread.start();
+    }
+
+    @Override
+    public long nextFrame(Mat dst) throws IOException, InterruptedException
+    {
+        Mat decoded = decodedMats.take();
+
+        if(decoded == endOfFiles)
+        {
+            // Put it back so that we keep reporting the end until rewound
+            decodedMats.add(endOfFiles);
+            return -1;
+        }
+
+        decoded.copyTo(dst);
+        freeMats.add(decoded);
+
+        return framesDelivered++ * frameIntervalNanos;
+    }
+
+    @Override
+    public void close()
+    {
+        stopPrefetching();
+
+        if(pool != null)
+        {
+            for(Mat m : pool)
+            {
+                m.release();
+            }
+
+            pool = null;
+        }
+    }
+
+    private void stopPrefetching()
+    {
+        if(prefetchThread != null)
+        {
+            prefetchThread.interrupt();
+            Util.joinUninterruptibly(prefetchThread);
+            prefetchThread = null;
+        }
+
+        Mat m;
+
+        while ((m = decodedMats.poll()) != null)
+        {
+            if(m != endOfFiles)
+            {
+                freeMats.add(m);
+            }
+        }
+    }
+
+    private class PrefetchThread extends Thread
+    {
+        PrefetchThread()
+        {
+            super("ImageDirectoryPrefetchThread");
+        }
+
+        @Override
+        public void run()
+        {
+            Mat bgr = new Mat();
+            Mat dst = null;
+
+            try
+            {
+                for(File file : files)
+                {
+                    dst = freeMats.take();
+
+                    bgr.release();
+                    bgr = Imgcodecs.imread(file.getAbsolutePath());
+
+                    if(bgr.empty())
+                    {
+                        Platform.get().logWarning("EasyOpenCV", "Unable to decode %s, skipping", file.getAbsolutePath());
+                        freeMats.add(dst);
+                        dst = null;
+                        continue;
+                    }
+
+                    if(bgr.cols() != width || bgr.rows() != height)
+                    {
+                        Imgproc.resize(bgr, bgr, size, 0, 0, Imgproc.INTER_AREA);
+                    }
+
+                    Imgproc.cvtColor(bgr, dst, Imgproc.COLOR_BGR2RGBA);
+                    decodedMats.put(dst);
+                    dst = null;
+                }
+
+                decodedMats.put(endOfFiles);
+            }
+            catch (InterruptedException e)
+            {
+                // Rewound or closed
+            }
+            finally
+            {
+                // Don't lose a pooled Mat if we were stopped while holding one
+                if(dst != null)
+                {
+                    freeMats.add(dst);
+                }
+
+                bgr.release();
+            }
+        }
+    }
+}
@@ -21,8 +21,6 @@
 
 package org.openftc.easyopencv;
 
-import android.util.Log;
-
 import org.opencv.core.Mat;
 
 import java.util.concurrent.ArrayBlockingQueue;
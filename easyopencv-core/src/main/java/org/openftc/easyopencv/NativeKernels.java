@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.nio.ByteBuffer;
+
+/*
+ * The platform-independent natives of the frame path: color conversion of raw
+ * camera buffers, JPEG encode/decode, and RGBA blits. These live in libEasyOpenCV
+ * alongside the Android-only bits on the robot; on a desktop JVM, build the host
+ * flavor of the library from easyopencv-core/CMakeLists.txt and put it on
+ * java.library.path.
+ *
+ * Mats are passed by their nativeObj, and must already be allocated at the
+ * right size / type where noted, since these write straight into them.
+ */
+class NativeKernels
+{
+    static
+    {
+        System.loadLibrary("EasyOpenCV");
+    }
+
+    private NativeKernels()
+    {
+    }
+
+    /*
+     * Packed YUY2 at rawDataPtr to RGBA
+     */
+    static native void yuy2ToRgba(long rawDataPtr, int width, int height, long rgbaMatPtr);
+
+    static native long createJpegDecompressor();
+    static native void destroyJpegDecompressor(long handle);
+
+    /*
+     * Decompresses a JPEG straight into rgbaMat, which must already be CV_8UC4 of
+     * the image's size. Returns false if the JPEG could not be decoded.
+     */
+    static native boolean mjpegToRgba(long decompressor, long rawDataPtr, int bufSize, long rgbaMatPtr);
+
+    /*
+     * Semi-planar YUV 4:2:0 (NV12 or NV21; figured out from how the two chroma
+     * planes are laid out in memory) to RGBA. The planes must be direct buffers.
+     */
+    static native void semiPlanarYuvToRgba(ByteBuffer yPlane, ByteBuffer uvPlane1, ByteBuffer uvPlane2, int width, int height, int rowStride, long rgbaMatPtr);
+
+    /*
+     * JPEG compression. Compressors are not thread safe; give each thread its own.
+     */
+    static native long createJpegCompressor(int quality);
+    static native void destroyJpegCompressor(long handle);
+    static native int maxJpegSize(int width, int height);
+
+    /*
+     * Compresses a CV_8UC1/3/4 Mat into the direct buffer dst, which must be at least
+     * maxJpegSize() bytes. Returns the size of the JPEG, or -1 on failure.
+     */
+    static native int compressJpeg(long compressor, long matPtr, ByteBuffer dst);
+
+    /*
+     * Converts (if needed) and copies a CV_8UC1/3/4 Mat into the direct buffer dst,
+     * treated as RGBA pixels with a row stride of 'stride' pixels
+     */
+    static native void copyToRgbaBuffer(long matPtr, ByteBuffer dst, int width, int height, int stride);
+
+    /*
+     * Restricts the calling thread to the CPUs set in cpuMask (bit N = CPU N),
+     * or undoes that if the mask is 0. Returns false if unsupported or refused.
+     */
+    static native boolean setCurrentThreadAffinity(long cpuMask);
+
+    /*
+     * The kernel's id for the calling thread, or -1 if unknown
+     */
+    static native int getCurrentThreadId();
+
+    /*
+     * Sets the nice value (-20 to 19) of the calling thread. Returns false if refused.
+     */
+    static native boolean setCurrentThreadNice(int nice);
+}
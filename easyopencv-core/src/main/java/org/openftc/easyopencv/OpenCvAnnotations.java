@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A list of shapes and text to show on top of a frame, as an alternative to drawing
+ * them into the frame with Imgproc.rectangle() and friends. Recording an annotation
+ * just stores its coordinates; nothing is drawn until something that displays the
+ * frame (the viewport, the DS preview, a pipeline output recording) draws it, at
+ * whatever resolution that happens to be. So your frame stays clean, and if nobody
+ * is watching (e.g. during a match) the annotations cost next to nothing.
+ *
+ * Every pipeline has one, accessible as {@link OpenCvPipeline#annotations} or via
+ * {@link OpenCvPipeline#getAnnotations()}. It's cleared before each call to processFrame(),
+ * so just record whatever you want shown for the current frame:
+ *
+ * <pre>
+ *     annotations.rect(boundingRect, GREEN, 2);
+ *     annotations.text("Cone", boundingRect.tl(), 20, GREEN);
+ * </pre>
+ *
+ * All coordinates and sizes are in pixels of the frame passed to processFrame().
+ * Annotations are always drawn opaque. A negative thickness fills the shape, the
+ * same as with Imgproc.
+ */
+public class OpenCvAnnotations
+{
+    static final int RECT = 0;
+    static final int LINE = 1;
+    static final int CIRCLE = 2;
+    static final int TEXT = 3;
+    static final int POLYGON = 4;
+
+    // Roughly the height in pixels of FONT_HERSHEY_SIMPLEX capitals at a fontScale of 1
+    private static final double HERSHEY_PX_PER_SCALE = 22;
+
+    private volatile boolean enabled;
+
+    /*
+     * One entry per annotation in the parallel arrays, whose coordinates
+     * live in 'coords' starting from coordStart: x,y pairs for polygons
+     * and lines, x,y,w,h for rects, x,y,r for circles, x,y,size for text
+     */
+    private int count;
+    private int[] types = new int[16];
+    private int[] colors = new int[16];
+    private float[] thicknesses = new float[16];
+    private int[] coordStarts = new int[16];
+    private int[] coordCounts = new int[16];
+    private String[] texts = new String[16];
+    private float[] coords = new float[128];
+    private int coordCount;
+
+    // Scratch for contour() and drawOnto(Mat)
+    private int[] pointScratch = new int[64];
+    private final Point p1 = new Point();
+    private final Point p2 = new Point();
+    private final Scalar scalar = new Scalar(0, 0, 0, 255);
+    private MatOfPoint polygon;
+    private List<MatOfPoint> polygonList;
+
+    /**
+     * Whether anything is going to display these annotations. When not, recording
+     * them does nothing, and you can skip any work you only do to annotate.
+     *
+     * @return whether annotations recorded now will be shown
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /*
+     * Set by whoever is running the pipeline, according to whether
+     * there's anything consuming the annotations
+     */
+    void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Outline (or fill, with a negative thickness) a rectangle
+     */
+    public OpenCvAnnotations rect(Rect rect, Scalar color, double thickness)
+    {
+        return rect(rect.x, rect.y, rect.width, rect.height, color, thickness);
+    }
+
+    /**
+     * Outline (or fill, with a negative thickness) a rectangle
+     */
+    public OpenCvAnnotations rect(double x, double y, double width, double height, Scalar color, double thickness)
+    {
+        if(enabled)
+        {
+            add(RECT, color, thickness, null, 4);
+            addCoords(x, y);
+            addCoords(width, height);
+        }
+
+        return this;
+    }
+
+    /**
+     * Draw a line between two points
+     */
+    public OpenCvAnnotations line(Point from, Point to, Scalar color, double thickness)
+    {
+        if(enabled)
+        {
+            add(LINE, color, thickness, null, 4);
+            addCoords(from.x, from.y);
+            addCoords(to.x, to.y);
+        }
+
+        return this;
+    }
+
+    /**
+     * Outline (or fill, with a negative thickness) a circle
+     */
+    public OpenCvAnnotations circle(Point center, double radius, Scalar color, double thickness)
+    {
+        if(enabled)
+        {
+            add(CIRCLE, color, thickness, null, 3);
+            addCoords(center.x, center.y);
+            coords[coordCount++] = (float) radius;
+        }
+
+        return this;
+    }
+
+    /**
+     * Write some text
+     *
+     * @param text the text
+     * @param bottomLeft where the text starts, on its baseline
+     * @param height roughly how tall capital letters should be
+     * @param color the color
+     */
+    public OpenCvAnnotations text(String text, Point bottomLeft, double height, Scalar color)
+    {
+        if(enabled)
+        {
+            add(TEXT, color, 0, text, 3);
+            addCoords(bottomLeft.x, bottomLeft.y);
+            coords[coordCount++] = (float) height;
+        }
+
+        return this;
+    }
+
+    /**
+     * Outline (or fill, with a negative thickness) a contour, e.g. one from Imgproc.findContours().
+     * The contour's points are copied, so it's fine to release or reuse it afterwards.
+     */
+    public OpenCvAnnotations contour(MatOfPoint contour, Scalar color, double thickness)
+    {
+        if(enabled)
+        {
+            int points = (int) contour.total();
+
+            if(points == 0)
+            {
+                return this;
+            }
+
+            if(pointScratch.length < points*2)
+            {
+                pointScratch = new int[Math.max(points*2, pointScratch.length*2)];
+            }
+
+            contour.get(0, 0, pointScratch);
+
+            add(POLYGON, color, thickness, null, points*2);
+
+            for(int i = 0; i < points*2; i++)
+            {
+                coords[coordCount++] = pointScratch[i];
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Remove all annotations. Called for you before each processFrame().
+     */
+    public void clear()
+    {
+        count = 0;
+        coordCount = 0;
+
+        // Don't hang on to the strings
+        Arrays.fill(texts, null);
+    }
+
+    /**
+     * @return how many annotations have been recorded
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Draw the annotations onto a Mat with Imgproc, e.g. to bake them into
+     * a recording. Colors are written in the Mat's own channel order.
+     *
+     * @param mat the Mat to draw on
+     * @param scale how many of the Mat's pixels there are per frame pixel
+     *              (i.e. 0.5 for a half resolution copy of the frame)
+     */
+    public void drawOnto(Mat mat, double scale)
+    {
+        for(int i = 0; i < count; i++)
+        {
+            int color = colors[i];
+            scalar.val[0] = (color >> 16) & 0xFF;
+            scalar.val[1] = (color >> 8) & 0xFF;
+            scalar.val[2] = color & 0xFF;
+            scalar.val[3] = 255;
+
+            int thickness = thicknesses[i] < 0 ? Imgproc.FILLED : Math.max(1, (int) Math.round(thicknesses[i] * scale));
+            int c = coordStarts[i];
+
+            switch (types[i])
+            {
+                case RECT:
+                {
+                    p1.x = coords[c] * scale;
+                    p1.y = coords[c+1] * scale;
+                    p2.x = (coords[c] + coords[c+2]) * scale;
+                    p2.y = (coords[c+1] + coords[c+3]) * scale;
+                    Imgproc.rectangle(mat, p1, p2, scalar, thickness);
+                    break;
+                }
+
+                case LINE:
+                {
+                    p1.x = coords[c] * scale;
+                    p1.y = coords[c+1] * scale;
+                    p2.x = coords[c+2] * scale;
+                    p2.y = coords[c+3] * scale;
+                    Imgproc.line(mat, p1, p2, scalar, Math.max(1, thickness));
+                    break;
+                }
+
+                case CIRCLE:
+                {
+                    p1.x = coords[c] * scale;
+                    p1.y = coords[c+1] * scale;
+                    Imgproc.circle(mat, p1, (int) Math.round(coords[c+2] * scale), scalar, thickness);
+                    break;
+                }
+
+                case TEXT:
+                {
+                    p1.x = coords[c] * scale;
+                    p1.y = coords[c+1] * scale;
+                    double fontScale = coords[c+2] * scale / HERSHEY_PX_PER_SCALE;
+                    Imgproc.putText(mat, texts[i], p1, Imgproc.FONT_HERSHEY_SIMPLEX, fontScale, scalar, Math.max(1, (int) Math.round(fontScale * 2)));
+                    break;
+                }
+
+                case POLYGON:
+                {
+                    drawPolygon(mat, c, coordCounts[i] / 2, scale, thickness);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void drawPolygon(Mat mat, int start, int points, double scale, int thickness)
+    {
+        if(points == 0)
+        {
+            return;
+        }
+
+        if(polygon == null)
+        {
+            polygon = new MatOfPoint();
+            polygonList = new ArrayList<>(1);
+            polygonList.add(polygon);
+        }
+
+        polygon.create(points, 1, CvType.CV_32SC2);
+
+        if(pointScratch.length < points*2)
+        {
+            pointScratch = new int[points*2];
+        }
+
+        for(int i = 0; i < points*2; i++)
+        {
+            pointScratch[i] = (int) Math.round(coords[start+i] * scale);
+        }
+
+        polygon.put(0, 0, pointScratch);
+
+        if(thickness == Imgproc.FILLED)
+        {
+            Imgproc.fillPoly(mat, polygonList, scalar);
+        }
+        else
+        {
+            Imgproc.polylines(mat, polygonList, true, scalar, thickness);
+        }
+    }
+
+    /*
+     * Replace our annotations with a copy of another list's (or nothing, if null);
+     * used to hand a frame's annotations off to another thread along with the frame
+     */
+    void copyFrom(OpenCvAnnotations other)
+    {
+        clear();
+
+        if(other == null || other.count == 0)
+        {
+            return;
+        }
+
+        ensureCapacity(other.count, other.coordCount);
+
+        System.arraycopy(other.types, 0, types, 0, other.count);
+        System.arraycopy(other.colors, 0, colors, 0, other.count);
+        System.arraycopy(other.thicknesses, 0, thicknesses, 0, other.count);
+        System.arraycopy(other.coordStarts, 0, coordStarts, 0, other.count);
+        System.arraycopy(other.coordCounts, 0, coordCounts, 0, other.count);
+        System.arraycopy(other.texts, 0, texts, 0, other.count);
+        System.arraycopy(other.coords, 0, coords, 0, other.coordCount);
+
+        count = other.count;
+        coordCount = other.coordCount;
+    }
+
+    /*
+     * Accessors for drawing the annotations with something other than Imgproc
+     */
+    int getType(int i)
+    {
+        return types[i];
+    }
+
+    /*
+     * As 0xRRGGBB
+     */
+    int getColor(int i)
+    {
+        return colors[i];
+    }
+
+    float getThickness(int i)
+    {
+        return thicknesses[i];
+    }
+
+    float getCoord(int i, int n)
+    {
+        return coords[coordStarts[i] + n];
+    }
+
+    int getCoordCount(int i)
+    {
+        return coordCounts[i];
+    }
+
+    String getText(int i)
+    {
+        return texts[i];
+    }
+
+    private void add(int type, Scalar color, double thickness, String text, int numCoords)
+    {
+        ensureCapacity(count + 1, coordCount + numCoords);
+
+        types[count] = type;
+        colors[count] = ((int) color.val[0] & 0xFF) << 16 | ((int) color.val[1] & 0xFF) << 8 | ((int) color.val[2] & 0xFF);
+        thicknesses[count] = (float) thickness;
+        coordStarts[count] = coordCount;
+        coordCounts[count] = numCoords;
+        texts[count] = text;
+        count++;
+    }
+
+    private void addCoords(double a, double b)
+    {
+        coords[coordCount++] = (float) a;
+        coords[coordCount++] = (float) b;
+    }
+
+    /*
+     * Grow (by doubling) so that we allocate only while warming up
+     */
+    private void ensureCapacity(int annotations, int numCoords)
+    {
+        if(annotations > types.length)
+        {
+            int n = Math.max(annotations, types.length*2);
+            types = Arrays.copyOf(types, n);
+            colors = Arrays.copyOf(colors, n);
+            thicknesses = Arrays.copyOf(thicknesses, n);
+            coordStarts = Arrays.copyOf(coordStarts, n);
+            coordCounts = Arrays.copyOf(coordCounts, n);
+            texts = Arrays.copyOf(texts, n);
+        }
+
+        if(numCoords > coords.length)
+        {
+            coords = Arrays.copyOf(coords, Math.max(numCoords, coords.length*2));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * A pipeline which processes the latest frame from each of several cameras in a single
+ * call, for when the same detector runs on all of them. Rather than paying per-call
+ * overhead N times, the frames are laid out as tiles of one tall Mat (camera 0 on top),
+ * so most OpenCV operations (color conversion, thresholding, morphology...) can be run
+ * once over the whole batch.
+ *
+ * Set {@link #getCameraPipeline(int)} as the pipeline of each camera. Each camera's frames
+ * are copied into its tile as they arrive, replacing any older frame that hasn't been
+ * processed yet. Once every camera has delivered a new frame (or the oldest new frame has
+ * waited longer than the max wait, if a camera stalls), the batch is handed to
+ * {@link #processBatch(Mat, Mat[], long[])} on the thread of the camera whose frame
+ * completed it.
+ *
+ * All the cameras must stream at the same resolution.
+ */
+public abstract class OpenCvBatchPipeline
+{
+    private final int numCameras;
+    private volatile long maxWaitNanos;
+    private final CameraInput[] inputs;
+
+    /*
+     * 'lock' guards the staging batch, which cameras copy into; 'processLock'
+     * serializes processing, which works on the other batch so that cameras
+     * never wait on it
+     */
+    private final Object lock = new Object();
+    private final Object processLock = new Object();
+
+    private final Batch[] batches = new Batch[2];
+    private Batch staging;
+    private final boolean[] fresh;
+    private int freshCount;
+    private long firstFreshNanos;
+    private long batchesProcessed;
+    private final long[] framesReplaced;
+
+    private class Batch
+    {
+        Mat mat;
+        final Mat[] tiles = new Mat[numCameras];
+        final long[] timestamps = new long[numCameras];
+
+        void allocate(int rows, int cols, int type)
+        {
+            mat = new Mat(rows * numCameras, cols, type, new Scalar(0));
+
+            for(int i = 0; i < numCameras; i++)
+            {
+                tiles[i] = mat.rowRange(i * rows, (i + 1) * rows);
+            }
+        }
+    }
+
+    /**
+     * @param numCameras how many cameras' frames make up a batch
+     * @param maxWaitNanos how long to wait for a stalled camera before processing
+     *                     a batch without a new frame from it
+     */
+    public OpenCvBatchPipeline(int numCameras, long maxWaitNanos)
+    {
+        if(numCameras < 1)
+        {
+            throw new IllegalArgumentException("Need at least 1 camera");
+        }
+
+        setMaxWaitNanos(maxWaitNanos);
+
+        this.numCameras = numCameras;
+        inputs = new CameraInput[numCameras];
+        fresh = new boolean[numCameras];
+        framesReplaced = new long[numCameras];
+
+        for(int i = 0; i < numCameras; i++)
+        {
+            inputs[i] = new CameraInput(i);
+        }
+
+        batches[0] = new Batch();
+        batches[1] = new Batch();
+        staging = batches[0];
+    }
+
+    /**
+     * Process a batch of frames.
+     *
+     * @param batch all the frames, stacked vertically with camera 0 on top.
+     *              Only valid until this returns; copy anything you want to keep.
+     * @param frames each camera's frame, as a view into the batch
+     * @param captureTimesNanos the capture timestamp of each camera's frame. A frame
+     *                          carried over from the previous batch (because its camera
+     *                          stalled) has the same timestamp as last time; a camera
+     *                          which hasn't delivered any frame yet has 0 and a black tile.
+     */
+    public abstract void processBatch(Mat batch, Mat[] frames, long[] captureTimesNanos);
+
+    /**
+     * Get the pipeline to attach to a camera for it to feed this pipeline. It passes
+     * the camera's frames through unchanged, so the camera's viewport shows its feed.
+     *
+     * @param camera the index of the camera, 0 to numCameras-1
+     * @return the pipeline for that camera
+     */
+    public OpenCvPipeline getCameraPipeline(int camera)
+    {
+        if(camera < 0 || camera >= numCameras)
+        {
+            throw new IllegalArgumentException("No camera " + camera + "; this pipeline has " + numCameras);
+        }
+
+        return inputs[camera];
+    }
+
+    /**
+     * @param maxWaitNanos how long to wait for a stalled camera before processing
+     *                     a batch without a new frame from it
+     */
+    public void setMaxWaitNanos(long maxWaitNanos)
+    {
+        if(maxWaitNanos < 0)
+        {
+            throw new IllegalArgumentException("Max wait must be positive");
+        }
+
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    public long getMaxWaitNanos()
+    {
+        return maxWaitNanos;
+    }
+
+    /**
+     * @return how many batches have been passed to {@link #processBatch(Mat, Mat[], long[])}
+     */
+    public long getBatchCount()
+    {
+        synchronized (lock)
+        {
+            return batchesProcessed;
+        }
+    }
+
+    /**
+     * @param camera the index of the camera
+     * @return how many frames from that camera were replaced by a newer one before being processed
+     */
+    public long getReplacedFrameCount(int camera)
+    {
+        synchronized (lock)
+        {
+            return framesReplaced[camera];
+        }
+    }
+
+    private class CameraInput extends TimestampedOpenCvPipeline
+    {
+        private final int index;
+
+        CameraInput(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public Mat processFrame(Mat input, long captureTimeNanos)
+        {
+            boolean complete;
+
+            synchronized (lock)
+            {
+                complete = stage(index, input, captureTimeNanos);
+            }
+
+            if(complete)
+            {
+                process();
+            }
+
+            return input;
+        }
+    }
+
+    /*
+     * Copy a camera's frame into the staging batch. Returns whether the batch
+     * should now be processed. Called with the lock held.
+     */
+    private boolean stage(int camera, Mat frame, long timestamp)
+    {
+        if(staging.mat == null)
+        {
+            batches[0].allocate(frame.rows(), frame.cols(), frame.type());
+            batches[1].allocate(frame.rows(), frame.cols(), frame.type());
+        }
+
+        Mat tile = staging.tiles[camera];
+
+        if(frame.rows() != tile.rows() || frame.cols() != tile.cols() || frame.type() != tile.type())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Camera %d's frame is %dx%d (type %d), but the batch expects %dx%d (type %d); all cameras must stream at the same resolution",
+                    camera, frame.cols(), frame.rows(), frame.type(), tile.cols(), tile.rows(), tile.type()));
+        }
+
+        frame.copyTo(tile);
+        staging.timestamps[camera] = timestamp;
+
+        long now = System.nanoTime();
+
+        if(fresh[camera])
+        {
+            framesReplaced[camera]++;
+        }
+        else
+        {
+            if(freshCount == 0)
+            {
+                firstFreshNanos = now;
+            }
+
+            fresh[camera] = true;
+            freshCount++;
+        }
+
+        return isReady(now);
+    }
+
+    /*
+     * Called with the lock held
+     */
+    private boolean isReady(long now)
+    {
+        return freshCount == numCameras || (freshCount > 0 && now - firstFreshNanos > maxWaitNanos);
+    }
+
+    private void process()
+    {
+        synchronized (processLock)
+        {
+            Batch batch;
+
+            synchronized (lock)
+            {
+                // Someone else processed the batch while we waited for the process lock
+                if(!isReady(System.nanoTime()))
+                {
+                    return;
+                }
+
+                batch = staging;
+
+                /*
+                 * The other batch is the one we processed last time. Carry over the last
+                 * frames of any cameras which stalled, then start staging into it.
+                 */
+                Batch previous = batch == batches[0] ? batches[1] : batches[0];
+
+                for(int i = 0; i < numCameras; i++)
+                {
+                    if(!fresh[i])
+                    {
+                        previous.tiles[i].copyTo(batch.tiles[i]);
+                        batch.timestamps[i] = previous.timestamps[i];
+                    }
+
+                    fresh[i] = false;
+                }
+
+                staging = previous;
+
+                freshCount = 0;
+                batchesProcessed++;
+            }
+
+            processBatch(batch.mat, batch.tiles, batch.timestamps);
+        }
+    }
+}
@@ -27,4 +27,9 @@ public class OpenCvCameraException extends RuntimeException
     {
         super(msg);
     }
+
+    public OpenCvCameraException(String msg, Throwable cause)
+    {
+        super(msg, cause);
+    }
 }
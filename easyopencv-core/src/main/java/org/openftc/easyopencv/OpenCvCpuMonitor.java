@@ -0,0 +1,549 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Samples how much CPU EasyOpenCV's threads are using, and how busy the system is
+ * as a whole, so you can tell whether a low frame rate is because you're CPU bound.
+ *
+ * Once started, a background thread reads the kernel's per-thread CPU time counters
+ * (/proc/self/task/[tid]/stat) for every thread registered with {@link OpenCvThreadPolicy},
+ * along with the system's, at a low rate (once a second by default). That costs a handful
+ * of small file reads per second, so it's fine to leave running during matches.
+ *
+ * CPU usage is given as a percentage of one core, as in top, so a thread which keeps
+ * a core fully busy reads 100%, and a camera whose threads are busy on two cores 200%.
+ * Per camera figures are available from {@link OpenCvCamera#getCpuPercent()}, and can be
+ * shown on the viewport with {@link OpenCvCamera#showCpuUsageOnViewport(boolean)}.
+ */
+public final class OpenCvCpuMonitor
+{
+    /*
+     * The unit /proc reports CPU time in. USER_HZ is 100 on every
+     * Linux and Android build we care about.
+     */
+    private static final int CLOCK_TICKS_PER_SECOND = 100;
+
+    private static Thread samplerThread;
+    private static volatile int intervalMs = 1000;
+
+    private static volatile float systemCpuPercent = -1;
+    private static volatile float loadAverage = -1;
+    private static final Map<Object, float[]> cameraCpuPercent = new IdentityHashMap<>();
+
+    private OpenCvCpuMonitor()
+    {
+    }
+
+    /**
+     * Start sampling once a second, if not already
+     */
+    public static void start()
+    {
+        start(1000);
+    }
+
+    /**
+     * Start sampling, if not already
+     *
+     * @param intervalMs how often to sample; if already running, changes the rate
+     */
+    public static synchronized void start(int intervalMs)
+    {
+        if(intervalMs < 100)
+        {
+            throw new IllegalArgumentException("Sampling more often than every 100ms isn't useful, since /proc counts in 10ms ticks");
+        }
+
+        OpenCvCpuMonitor.intervalMs = intervalMs;
+
+        if(samplerThread == null)
+        {
+            samplerThread = new SamplerThread();
+            samplerThread.start();
+        }
+    }
+
+    /**
+     * Stop sampling. The figures read as -1 afterwards.
+     */
+    public static void stop()
+    {
+        Thread thread;
+
+        synchronized (OpenCvCpuMonitor.class)
+        {
+            thread = samplerThread;
+            samplerThread = null;
+        }
+
+        if(thread != null)
+        {
+            thread.interrupt();
+            Util.joinUninterruptibly(thread);
+        }
+    }
+
+    public static synchronized boolean isRunning()
+    {
+        return samplerThread != null;
+    }
+
+    /**
+     * @return how busy all the cores are, on average, as a percentage;
+     *         or -1 if not running or the system doesn't let us see that
+     */
+    public static float getSystemCpuPercent()
+    {
+        return systemCpuPercent;
+    }
+
+    /**
+     * @return the 1 minute load average (how many threads, on average, were running or
+     *         wanting to run); or -1 if not running or the system doesn't let us see that
+     */
+    public static float getLoadAverage()
+    {
+        return loadAverage;
+    }
+
+    /*
+     * The CPU use of the threads last working for a given camera, or -1 if unknown.
+     * Doesn't allocate, so cameras may call it every frame.
+     */
+    static float getCpuPercent(Object camera)
+    {
+        synchronized (cameraCpuPercent)
+        {
+            float[] percent = cameraCpuPercent.get(camera);
+            return percent != null ? percent[0] : -1;
+        }
+    }
+
+    /**
+     * Describe the CPU use of every registered EasyOpenCV thread, and of the system
+     *
+     * @return one line per thread, then a summary line
+     */
+    public static String getReport()
+    {
+        List<OpenCvThreadPolicy.ThreadRecord> threads = new ArrayList<>();
+        OpenCvThreadPolicy.getThreads(threads);
+
+        StringBuilder report = new StringBuilder();
+
+        for(OpenCvThreadPolicy.ThreadRecord thread : threads)
+        {
+            Object owner = thread.owner;
+
+            report.append(String.format(Locale.US, "%-36s %-10s %-24s %6.1f%%\n",
+                    thread.thread.getName(),
+                    thread.threadClass,
+                    owner != null ? owner.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(owner)) : "-",
+                    thread.cpuPercent));
+        }
+
+        report.append(String.format(Locale.US, "System: %.1f%% CPU, load average %.2f\n", systemCpuPercent, loadAverage));
+
+        return report.toString();
+    }
+
+    private static class SamplerThread extends Thread
+    {
+        private final List<OpenCvThreadPolicy.ThreadRecord> threads = new ArrayList<>();
+        private final List<OpenCvThreadPolicy.ThreadRecord> sampled = new ArrayList<>();
+        private final Map<Object, float[]> cameraTotals = new IdentityHashMap<>();
+        private final byte[] buf = new byte[1024];
+        private RandomAccessFile procStat;
+        private RandomAccessFile procLoadavg;
+        private long lastSystemBusy = -1;
+        private long lastSystemTotal = -1;
+        private long lastSampleNanos;
+
+        SamplerThread()
+        {
+            super("EasyOpenCV-CpuMonitor");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            procStat = open("/proc/stat");
+            procLoadavg = open("/proc/loadavg");
+
+            try
+            {
+                while (!isInterrupted())
+                {
+                    sample();
+
+                    try
+                    {
+                        Thread.sleep(intervalMs);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        break;
+                    }
+                }
+            }
+            finally
+            {
+                for(OpenCvThreadPolicy.ThreadRecord thread : sampled)
+                {
+                    close(thread.statFile);
+                    thread.statFile = null;
+                    thread.lastCpuTicks = -1;
+                    thread.cpuPercent = -1;
+                }
+
+                close(procStat);
+                close(procLoadavg);
+
+                synchronized (cameraCpuPercent)
+                {
+                    cameraCpuPercent.clear();
+                }
+
+                systemCpuPercent = -1;
+                loadAverage = -1;
+            }
+        }
+
+        private void sample()
+        {
+            long now = System.nanoTime();
+            double elapsedTicks = lastSampleNanos != 0 ? (now - lastSampleNanos) / 1e9 * CLOCK_TICKS_PER_SECOND : 0;
+            lastSampleNanos = now;
+
+            OpenCvThreadPolicy.getThreads(threads);
+
+            // Let go of the files of threads which have exited
+            for(OpenCvThreadPolicy.ThreadRecord thread : sampled)
+            {
+                if(!threads.contains(thread))
+                {
+                    close(thread.statFile);
+                    thread.statFile = null;
+                }
+            }
+
+            sampled.clear();
+            sampled.addAll(threads);
+
+            // Marked unseen; any camera still unseen after this sample has gone away
+            for(float[] total : cameraTotals.values())
+            {
+                total[0] = -1;
+            }
+
+            for(OpenCvThreadPolicy.ThreadRecord thread : threads)
+            {
+                if(thread.tid <= 0)
+                {
+                    continue;
+                }
+
+                if(thread.statFile == null)
+                {
+                    thread.statFile = open("/proc/self/task/" + thread.tid + "/stat");
+                }
+
+                long ticks = readThreadCpuTicks(thread.statFile);
+                float[] total = null;
+
+                if(thread.owner != null)
+                {
+                    total = cameraTotals.get(thread.owner);
+
+                    if(total == null)
+                    {
+                        total = new float[1];
+                        cameraTotals.put(thread.owner, total);
+                    }
+                    else if(total[0] < 0)
+                    {
+                        total[0] = 0;
+                    }
+                }
+
+                if(ticks >= 0 && thread.lastCpuTicks >= 0 && elapsedTicks > 0)
+                {
+                    thread.cpuPercent = (float) ((ticks - thread.lastCpuTicks) / elapsedTicks * 100);
+
+                    if(total != null)
+                    {
+                        total[0] += thread.cpuPercent;
+                    }
+                }
+
+                thread.lastCpuTicks = ticks;
+            }
+
+            // Don't hang on to cameras which have been closed
+            for(Iterator<float[]> it = cameraTotals.values().iterator(); it.hasNext();)
+            {
+                if(it.next()[0] < 0)
+                {
+                    it.remove();
+                }
+            }
+
+            // Published in arrays of its own, so readers never see a sum in progress
+            synchronized (cameraCpuPercent)
+            {
+                cameraCpuPercent.keySet().retainAll(cameraTotals.keySet());
+
+                for(Map.Entry<Object, float[]> entry : cameraTotals.entrySet())
+                {
+                    float[] percent = cameraCpuPercent.get(entry.getKey());
+
+                    if(percent == null)
+                    {
+                        percent = new float[1];
+                        cameraCpuPercent.put(entry.getKey(), percent);
+                    }
+
+                    percent[0] = entry.getValue()[0];
+                }
+            }
+
+            sampleSystem();
+        }
+
+        /*
+         * utime + stime (fields 14 and 15) of a thread's stat file, or -1
+         */
+        private long readThreadCpuTicks(RandomAccessFile file)
+        {
+            int len = read(file);
+
+            if(len <= 0)
+            {
+                return -1;
+            }
+
+            // Skip past the thread name, which is in parentheses and may contain spaces
+            int pos = len - 1;
+
+            while (pos >= 0 && buf[pos] != ')')
+            {
+                pos--;
+            }
+
+            if(pos < 0)
+            {
+                return -1;
+            }
+
+            // Now just past the end of field 2; 12 fields on is field 14
+            pos = skipFields(pos + 1, len, 12);
+            long utime = parseLong(pos, len);
+            pos = skipFields(pos, len, 1);
+            long stime = parseLong(pos, len);
+
+            return utime >= 0 && stime >= 0 ? utime + stime : -1;
+        }
+
+        private void sampleSystem()
+        {
+            // First line of /proc/stat: cpu user nice system idle iowait irq softirq steal ...
+            int len = read(procStat);
+
+            if(len > 0)
+            {
+                int pos = skipFields(0, len, 1);
+                long total = 0;
+                long idle = 0;
+
+                for(int field = 0; field < 8; field++)
+                {
+                    long value = parseLong(pos, len);
+
+                    if(value < 0)
+                    {
+                        break;
+                    }
+
+                    total += value;
+
+                    // idle and iowait
+                    if(field == 3 || field == 4)
+                    {
+                        idle += value;
+                    }
+
+                    pos = skipFields(pos, len, 1);
+                }
+
+                long busy = total - idle;
+
+                if(lastSystemTotal >= 0 && total > lastSystemTotal)
+                {
+                    systemCpuPercent = (float) (busy - lastSystemBusy) / (total - lastSystemTotal) * 100;
+                }
+
+                lastSystemBusy = busy;
+                lastSystemTotal = total;
+            }
+
+            len = read(procLoadavg);
+
+            if(len > 0)
+            {
+                loadAverage = parseDecimal(0, len);
+            }
+        }
+
+        private int read(RandomAccessFile file)
+        {
+            if(file == null)
+            {
+                return -1;
+            }
+
+            try
+            {
+                file.seek(0);
+                int len = 0;
+                int n;
+
+                while (len < buf.length && (n = file.read(buf, len, buf.length - len)) > 0)
+                {
+                    len += n;
+                }
+
+                return len;
+            }
+            catch (IOException e)
+            {
+                return -1;
+            }
+        }
+
+        /*
+         * From a position within (or just before) a whitespace separated
+         * field, move to the start of the field 'count' fields later
+         */
+        private int skipFields(int pos, int len, int count)
+        {
+            for(int i = 0; i < count; i++)
+            {
+                while (pos < len && buf[pos] != ' ')
+                {
+                    pos++;
+                }
+
+                while (pos < len && buf[pos] == ' ')
+                {
+                    pos++;
+                }
+            }
+
+            return pos;
+        }
+
+        private long parseLong(int pos, int len)
+        {
+            long value = 0;
+            boolean any = false;
+
+            while (pos < len && buf[pos] >= '0' && buf[pos] <= '9')
+            {
+                value = value*10 + (buf[pos] - '0');
+                pos++;
+                any = true;
+            }
+
+            return any ? value : -1;
+        }
+
+        private float parseDecimal(int pos, int len)
+        {
+            long whole = parseLong(pos, len);
+
+            if(whole < 0)
+            {
+                return -1;
+            }
+
+            while (pos < len && buf[pos] != '.' && buf[pos] != ' ')
+            {
+                pos++;
+            }
+
+            float value = whole;
+
+            if(pos < len && buf[pos] == '.')
+            {
+                float scale = 0.1f;
+
+                for(pos++; pos < len && buf[pos] >= '0' && buf[pos] <= '9'; pos++)
+                {
+                    value += (buf[pos] - '0') * scale;
+                    scale /= 10;
+                }
+            }
+
+            return value;
+        }
+
+        private static RandomAccessFile open(String path)
+        {
+            try
+            {
+                return new RandomAccessFile(path, "r");
+            }
+            catch (IOException e)
+            {
+                return null;
+            }
+        }
+
+        private static void close(RandomAccessFile file)
+        {
+            if(file == null)
+            {
+                return;
+            }
+
+            try
+            {
+                file.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/***
+ * The clock used by a frame source camera to decide when to deliver frames, and
+ * to generate the timestamps handed to the pipeline. Use {@link #SYSTEM} to run in
+ * real time, or a {@link VirtualFrameClock} to run as fast as possible with
+ * deterministic timestamps.
+ */
+public interface OpenCvFrameClock
+{
+    /***
+     * @return the current time, in nanoseconds
+     */
+    long nanoTime();
+
+    /***
+     * Block until {@link #nanoTime()} reaches the given time
+     *
+     * @param nanoTime the time to wait for
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void sleepUntil(long nanoTime) throws InterruptedException;
+
+    /***
+     * Wall clock time (System.nanoTime())
+     */
+    OpenCvFrameClock SYSTEM = new OpenCvFrameClock()
+    {
+        @Override
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepUntil(long nanoTime) throws InterruptedException
+        {
+            long sleepNanos = nanoTime - System.nanoTime();
+
+            if(sleepNanos > 0)
+            {
+                Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            }
+        }
+    };
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+
+/***
+ * Something which produces frames for a frame source camera (see
+ * {@link OpenCvCameraFactory#createFrameSourceCamera(OpenCvFrameSource)}), in
+ * place of camera hardware. Built-in sources are available from {@link OpenCvFrameSources}.
+ *
+ * All methods are called from the camera's threads, never concurrently.
+ */
+public interface OpenCvFrameSource
+{
+    /***
+     * Acquire whatever resources are needed. Called when the camera is opened.
+     * After this returns, {@link #getWidth()} and {@link #getHeight()} must be valid.
+     *
+     * @throws IOException if the source could not be opened
+     */
+    void open() throws IOException;
+
+    /***
+     * @return the width of the frames produced by this source
+     */
+    int getWidth();
+
+    /***
+     * @return the height of the frames produced by this source
+     */
+    int getHeight();
+
+    /***
+     * Go back to the first frame. Called whenever streaming starts, and
+     * again each time the end is reached if the camera is set to loop.
+     *
+     * @throws IOException if the source could not be rewound
+     */
+    void rewind() throws IOException;
+
+    /***
+     * Produce the next frame, as CV_8UC4 RGBA of the size reported by
+     * {@link #getWidth()}/{@link #getHeight()}, into dst (which may be
+     * (re)allocated as required).
+     *
+     * @param dst the Mat to write the frame into
+     * @return the presentation time of the frame in nanoseconds, relative to the
+     *         first frame after the last rewind (which should be 0), or -1 if
+     *         there are no more frames
+     * @throws IOException if the frame could not be produced
+     * @throws InterruptedException if interrupted while waiting for a frame
+     */
+    long nextFrame(Mat dst) throws IOException, InterruptedException;
+
+    /***
+     * Release all resources. Called when the camera is closed.
+     */
+    void close();
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+
+/***
+ * Runs a pipeline on the frames from an {@link OpenCvFrameSource} on a plain desktop JVM,
+ * through the same frame path as a camera on the robot: the same rotation, the same
+ * pipeline time budget handling, and the same handling of whatever the pipeline returns.
+ * Together with {@link OpenCvFrameSources#replayFile(String)}, this plays a replay
+ * recording back through a pipeline off-device, just like the replay camera does on it:
+ *
+ * <pre>
+ *     OpenCvFrameSourceDriver driver = new OpenCvFrameSourceDriver(OpenCvFrameSources.replayFile(path));
+ *     driver.open();
+ *     driver.setPipeline(new MyPipeline());
+ *     driver.setClock(new VirtualFrameClock()); // as fast as possible
+ *     driver.startStreaming(OpenCvCameraRotation.SENSOR_NATIVE);
+ *     driver.waitForEndOfSource();
+ *     driver.close();
+ * </pre>
+ *
+ * There's no viewport or recording here; use {@link #setFrameListener(FrameListener)}
+ * to get at the output. The pipeline runs on every frame; its
+ * {@link OpenCvPipeline#setMaxFps(double)} and {@link OpenCvPipeline#setFrameDecimation(int)}
+ * only apply on the robot.
+ */
+public class OpenCvFrameSourceDriver
+{
+    private final OpenCvFrameSource source;
+    private final FrameDispatcher dispatcher = new FrameDispatcher();
+    private final FrameSourcePump pump;
+    private boolean sourceOpened = false;
+    private OpenCvPipeline pipeline;
+    private FrameListener frameListener;
+    private long frameCount;
+
+    /***
+     * Receives the output of every frame
+     */
+    public interface FrameListener
+    {
+        /***
+         * Called on the driver's thread after the pipeline has run
+         *
+         * @param output what the pipeline returned (normalized the same way as for the
+         *               viewport); only valid until this returns
+         * @param timestamp the timestamp the pipeline was given for this frame
+         */
+        void onFrame(Mat output, long timestamp);
+    }
+
+    /***
+     * @param source where to get frames from
+     */
+    public OpenCvFrameSourceDriver(OpenCvFrameSource source)
+    {
+        this.source = source;
+        this.pump = new FrameSourcePump(source, this, new FrameSourcePump.Sink()
+        {
+            @Override
+            public void onFrame(Mat frame, long timestamp)
+            {
+                handleFrame(frame, timestamp);
+            }
+        }, "FrameSourceDriverThread");
+    }
+
+    /***
+     * Open the source. After this, {@link #getSourceWidth()} and
+     * {@link #getSourceHeight()} are valid.
+     *
+     * @throws IOException if the source could not be opened
+     */
+    public synchronized void open() throws IOException
+    {
+        if(!sourceOpened)
+        {
+            source.open();
+            sourceOpened = true;
+        }
+    }
+
+    /***
+     * Stop streaming, if need be, and close the source
+     */
+    public synchronized void close()
+    {
+        if(sourceOpened)
+        {
+            if(pump.isRunning())
+            {
+                stopStreaming();
+            }
+
+            source.close();
+            sourceOpened = false;
+        }
+    }
+
+    /***
+     * Set the pipeline to run on each frame. May be changed at any time; null for none.
+     *
+     * @param pipeline see above
+     */
+    public synchronized void setPipeline(OpenCvPipeline pipeline)
+    {
+        this.pipeline = pipeline;
+    }
+
+    /***
+     * @param frameListener see {@link FrameListener}; null for none
+     */
+    public synchronized void setFrameListener(FrameListener frameListener)
+    {
+        this.frameListener = frameListener;
+    }
+
+    /***
+     * Same as {@link OpenCvFrameSourceCamera#setClock(OpenCvFrameClock)}
+     *
+     * @param clock see above
+     */
+    public void setClock(OpenCvFrameClock clock)
+    {
+        pump.setClock(clock);
+    }
+
+    /***
+     * Same as {@link OpenCvFrameSourceCamera#setLooping(boolean)}
+     *
+     * @param loop see above
+     */
+    public void setLooping(boolean loop)
+    {
+        pump.setLooping(loop);
+    }
+
+    /***
+     * Same as {@link OpenCvCamera#setPipelineTimeBudget(double)}
+     *
+     * @param budgetMs how long the pipeline may take per frame; 0 to turn this off
+     */
+    public void setPipelineTimeBudget(double budgetMs)
+    {
+        setPipelineTimeBudget(budgetMs, ResolutionLadder.DEFAULT_SCALES);
+    }
+
+    /***
+     * Same as {@link OpenCvCamera#setPipelineTimeBudget(double, double...)}
+     *
+     * @param budgetMs how long the pipeline may take per frame; 0 to turn this off
+     * @param scales the scales to step through, in decreasing order, none more than 1
+     */
+    public synchronized void setPipelineTimeBudget(double budgetMs, double... scales)
+    {
+        if(budgetMs < 0)
+        {
+            throw new IllegalArgumentException("Time budget must be positive, or 0 for none");
+        }
+
+        dispatcher.setResolutionLadder(budgetMs > 0 ? new ResolutionLadder(budgetMs, scales) : null);
+    }
+
+    /***
+     * @return the width of the frames from the source; only valid once opened
+     */
+    public synchronized int getSourceWidth()
+    {
+        throwIfNotOpened();
+        return source.getWidth();
+    }
+
+    /***
+     * @return the height of the frames from the source; only valid once opened
+     */
+    public synchronized int getSourceHeight()
+    {
+        throwIfNotOpened();
+        return source.getHeight();
+    }
+
+    /***
+     * Start delivering frames, from the first one in the source
+     *
+     * @param rotation how to rotate the frames before the pipeline sees them, as for a camera
+     */
+    public synchronized void startStreaming(OpenCvCameraRotation rotation)
+    {
+        throwIfNotOpened();
+
+        // May already be running; the pump stops it first
+        dispatcher.reset(rotateCodeFor(rotation));
+        frameCount = 0;
+
+        try
+        {
+            pump.start();
+        }
+        catch (IOException e)
+        {
+            throw new OpenCvCameraException("Unable to rewind frame source", e);
+        }
+    }
+
+    /***
+     * Stop delivering frames
+     */
+    public synchronized void stopStreaming()
+    {
+        throwIfNotOpened();
+        pump.stop();
+    }
+
+    /***
+     * Same as {@link OpenCvFrameSourceCamera#waitForEndOfSource()}, except that if
+     * the pipeline threw, that's rethrown here (streaming stops at that frame)
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws OpenCvCameraException if the pipeline threw an exception
+     */
+    public void waitForEndOfSource() throws InterruptedException
+    {
+        RuntimeException failure = pump.waitForEndOfSource();
+
+        if(failure != null)
+        {
+            throw new OpenCvCameraException("Pipeline threw an exception", failure);
+        }
+    }
+
+    /***
+     * @return how many frames have been run through the pipeline since streaming started
+     */
+    public synchronized long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /***
+     * @return the average rate at which frames are being processed
+     */
+    public float getFps()
+    {
+        return dispatcher.getStatistics().getFps();
+    }
+
+    /***
+     * @return the average time the pipeline is taking per frame, in milliseconds
+     */
+    public int getPipelineTimeMs()
+    {
+        return dispatcher.getStatistics().getPipelineTimeMs();
+    }
+
+    /*
+     * Frames from a source are treated as upright in their native orientation.
+     * (Replay files are recorded before rotation, so to get the same frames out of
+     * the pipeline as on the robot, stream with the same rotation that was used there.)
+     */
+    static int rotateCodeFor(OpenCvCameraRotation rotation)
+    {
+        if(rotation == OpenCvCameraRotation.UPSIDE_DOWN)
+        {
+            return Core.ROTATE_180;
+        }
+        else if(rotation == OpenCvCameraRotation.SIDEWAYS_LEFT)
+        {
+            return Core.ROTATE_90_COUNTERCLOCKWISE;
+        }
+        else if(rotation == OpenCvCameraRotation.SIDEWAYS_RIGHT)
+        {
+            return Core.ROTATE_90_CLOCKWISE;
+        }
+        else
+        {
+            return -1;
+        }
+    }
+
+    private void throwIfNotOpened()
+    {
+        if(!sourceOpened)
+        {
+            throw new OpenCvCameraException("Frame source is not opened!");
+        }
+    }
+
+    /*
+     * On the pump thread, with our lock held
+     */
+    private void handleFrame(Mat frame, long timestamp)
+    {
+        FrameStatistics statistics = dispatcher.getStatistics();
+        statistics.markFrameProcessingStart();
+        statistics.markFrameArrival();
+
+        Mat output = dispatcher.process(pipeline, dispatcher.rotate(frame), timestamp);
+        frameCount++;
+
+        if(frameListener != null)
+        {
+            frameListener.onFrame(output, timestamp);
+        }
+
+        statistics.markFrameProcessingEnd();
+        statistics.updateAverages();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/***
+ * Built-in {@link OpenCvFrameSource}s
+ */
+public final class OpenCvFrameSources
+{
+    private OpenCvFrameSources() {}
+
+    /***
+     * A generated test pattern (color bars, a moving box, and the frame number).
+     * Frame N is always identical, so runs are repeatable.
+     *
+     * @param width width of the frames
+     * @param height height of the frames
+     * @param fps rate at which frames are generated
+     * @param maxFrames number of frames before the source reports it has run out, or 0 for unlimited
+     * @return the source
+     */
+    public static OpenCvFrameSource synthetic(int width, int height, double fps, long maxFrames)
+    {
+        return new SyntheticFrameSource(width, height, fps, maxFrames);
+    }
+
+    /***
+     * Each JPEG/PNG image in a directory, in file name order. Images are decoded
+     * ahead of time on a background thread. All images are delivered at the size
+     * of the first one.
+     *
+     * @param directory the directory containing the images
+     * @param fps rate at which images are delivered
+     * @param prefetchDepth how many decoded images to keep ready ahead of time
+     * @return the source
+     */
+    public static OpenCvFrameSource imageDirectory(String directory, double fps, int prefetchDepth)
+    {
+        return new ImageDirectoryFrameSource(directory, fps, prefetchDepth);
+    }
+
+    /***
+     * A replay file recorded with {@link OpenCvCamera#startReplayRecording(String)},
+     * delivered with its original frame spacing.
+     *
+     * @param path the replay file
+     * @return the source
+     */
+    public static OpenCvFrameSource replayFile(String path)
+    {
+        return new ReplayFrameSource(path);
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+/**
+ * A pipeline which processes frames from several cameras at once, for things like
+ * stereo or fusing detections from multiple cameras, where you need frames that
+ * were captured at (about) the same moment.
+ *
+ * Set {@link #getCameraPipeline(int)} as the pipeline of each camera. Frames from each
+ * camera are copied into a small ring buffer, and whenever a frame arrives for which
+ * every other camera has a frame captured within the tolerance of it, that set of frames
+ * is handed to {@link #processFrames(Mat[], long[])}, on the thread of the camera whose
+ * frame completed the set. Frames which never make it into a set (because they fell out
+ * of the ring, or a newer set was matched first) are counted, see
+ * {@link #getUnmatchedFrameCount(int)}.
+ *
+ * Matching is by capture timestamp. Cameras whose timestamps aren't System.nanoTime()
+ * based (the internal Camera2 camera, when its sensor reports realtime timestamps) say
+ * how far off that clock they are, and their timestamps are moved onto it for matching,
+ * so the times handed to {@link #processFrames(Mat[], long[])} are all on System.nanoTime().
+ */
+public abstract class OpenCvMultiCameraPipeline
+{
+    private static final int FREE = 0;
+    private static final int READY = 1;
+    private static final int IN_USE = 2;
+
+    private final int numCameras;
+    private final int ringSize;
+    private volatile long toleranceNanos;
+    private final CameraInput[] inputs;
+
+    /*
+     * 'lock' guards the ring buffers and is only held briefly; 'processLock'
+     * serializes matching and processing, so sets are processed one at a
+     * time, in order, without blocking frames being added to the rings
+     */
+    private final Object lock = new Object();
+    private final Object processLock = new Object();
+
+    private final Mat[] matchedFrames;
+    private final long[] matchedTimestamps;
+    private final int[] matchedSlots;
+    private long matchedSets;
+
+    /**
+     * @param numCameras how many cameras' frames to match up
+     * @param toleranceNanos how far apart frames' capture times may be and still be matched
+     */
+    public OpenCvMultiCameraPipeline(int numCameras, long toleranceNanos)
+    {
+        this(numCameras, toleranceNanos, 3);
+    }
+
+    /**
+     * @param numCameras how many cameras' frames to match up
+     * @param toleranceNanos how far apart frames' capture times may be and still be matched
+     * @param ringSize how many recent frames to hold per camera while waiting for a match;
+     *                 more tolerates more latency between cameras, at the cost of memory
+     */
+    public OpenCvMultiCameraPipeline(int numCameras, long toleranceNanos, int ringSize)
+    {
+        if(numCameras < 2)
+        {
+            throw new IllegalArgumentException("Need at least 2 cameras");
+        }
+
+        if(ringSize < 2)
+        {
+            throw new IllegalArgumentException("Ring size must be at least 2");
+        }
+
+        setToleranceNanos(toleranceNanos);
+
+        this.numCameras = numCameras;
+        this.ringSize = ringSize;
+        inputs = new CameraInput[numCameras];
+
+        for(int i = 0; i < numCameras; i++)
+        {
+            inputs[i] = new CameraInput(i);
+        }
+
+        matchedFrames = new Mat[numCameras];
+        matchedTimestamps = new long[numCameras];
+        matchedSlots = new int[numCameras];
+    }
+
+    /**
+     * Process a set of frames captured at about the same moment.
+     *
+     * @param frames one frame per camera, indexed the same as {@link #getCameraPipeline(int)}.
+     *               Only valid until this returns; copy anything you want to keep.
+     * @param captureTimesNanos the capture timestamp of each frame, on the System.nanoTime() clock
+     */
+    public abstract void processFrames(Mat[] frames, long[] captureTimesNanos);
+
+    /**
+     * Get the pipeline to attach to a camera for it to feed this pipeline. It passes
+     * the camera's frames through unchanged, so the camera's viewport shows its feed.
+     *
+     * @param camera the index of the camera, 0 to numCameras-1
+     * @return the pipeline for that camera
+     */
+    public OpenCvPipeline getCameraPipeline(int camera)
+    {
+        if(camera < 0 || camera >= numCameras)
+        {
+            throw new IllegalArgumentException("No camera " + camera + "; this pipeline has " + numCameras);
+        }
+
+        return inputs[camera];
+    }
+
+    /**
+     * @param toleranceNanos how far apart frames' capture times may be and still be matched
+     */
+    public void setToleranceNanos(long toleranceNanos)
+    {
+        if(toleranceNanos < 0)
+        {
+            throw new IllegalArgumentException("Tolerance must be positive");
+        }
+
+        this.toleranceNanos = toleranceNanos;
+    }
+
+    public long getToleranceNanos()
+    {
+        return toleranceNanos;
+    }
+
+    /**
+     * @return how many sets of frames have been passed to {@link #processFrames(Mat[], long[])}
+     */
+    public long getMatchedSetCount()
+    {
+        synchronized (lock)
+        {
+            return matchedSets;
+        }
+    }
+
+    /**
+     * @param camera the index of the camera
+     * @return how many frames from that camera were dropped without being matched
+     */
+    public long getUnmatchedFrameCount(int camera)
+    {
+        synchronized (lock)
+        {
+            return inputs[camera].unmatched;
+        }
+    }
+
+    private class CameraInput extends TimestampedOpenCvPipeline
+    {
+        private final int index;
+        private final Mat[] frames = new Mat[ringSize];
+        private final long[] timestamps = new long[ringSize];
+        private final int[] states = new int[ringSize];
+        private long unmatched;
+
+        CameraInput(int index)
+        {
+            this.index = index;
+
+            for(int i = 0; i < ringSize; i++)
+            {
+                frames[i] = new Mat();
+            }
+        }
+
+        @Override
+        public Mat processFrame(Mat input, long captureTimeNanos)
+        {
+            long timestamp = captureTimeNanos + getClockOffsetNanos();
+            int slot;
+
+            synchronized (lock)
+            {
+                slot = store(input, timestamp);
+            }
+
+            synchronized (processLock)
+            {
+                matchAndProcess(index, slot, timestamp);
+            }
+
+            return input;
+        }
+
+        /*
+         * Copy a frame into a free slot, or else over the oldest frame still
+         * waiting for a match. Called with the lock held.
+         */
+        private int store(Mat frame, long timestamp)
+        {
+            int slot = -1;
+
+            for(int i = 0; i < ringSize; i++)
+            {
+                if(states[i] == FREE)
+                {
+                    slot = i;
+                    break;
+                }
+
+                if(states[i] == READY && (slot == -1 || timestamps[i] < timestamps[slot]))
+                {
+                    slot = i;
+                }
+            }
+
+            if(states[slot] == READY)
+            {
+                unmatched++;
+            }
+
+            frame.copyTo(frames[slot]);
+            timestamps[slot] = timestamp;
+            states[slot] = READY;
+
+            return slot;
+        }
+
+        /*
+         * The waiting frame closest in time to the given one,
+         * or -1 if none is within tolerance. Called with the lock held.
+         */
+        private int closest(long timestamp, long tolerance)
+        {
+            int best = -1;
+            long bestDelta = Long.MAX_VALUE;
+
+            for(int i = 0; i < ringSize; i++)
+            {
+                long delta = Math.abs(timestamps[i] - timestamp);
+
+                if(states[i] == READY && delta <= tolerance && delta < bestDelta)
+                {
+                    best = i;
+                    bestDelta = delta;
+                }
+            }
+
+            return best;
+        }
+
+        /*
+         * Drop waiting frames older than a matched one; they can
+         * never be part of a later set. Called with the lock held.
+         */
+        private void dropOlderThan(long timestamp)
+        {
+            for(int i = 0; i < ringSize; i++)
+            {
+                if(states[i] == READY && timestamps[i] < timestamp)
+                {
+                    states[i] = FREE;
+                    unmatched++;
+                }
+            }
+        }
+    }
+
+    /*
+     * Try to complete a set around the frame which just arrived. Called with the process lock held.
+     */
+    private void matchAndProcess(int anchorCamera, int anchorSlot, long anchorTimestamp)
+    {
+        synchronized (lock)
+        {
+            CameraInput anchor = inputs[anchorCamera];
+
+            // Already matched as part of another camera's set, or overwritten
+            if(anchor.states[anchorSlot] != READY || anchor.timestamps[anchorSlot] != anchorTimestamp)
+            {
+                return;
+            }
+
+            long tolerance = toleranceNanos;
+
+            for(int i = 0; i < numCameras; i++)
+            {
+                int slot = i == anchorCamera ? anchorSlot : inputs[i].closest(anchorTimestamp, tolerance);
+
+                if(slot == -1)
+                {
+                    return;
+                }
+
+                matchedSlots[i] = slot;
+            }
+
+            for(int i = 0; i < numCameras; i++)
+            {
+                CameraInput input = inputs[i];
+                input.states[matchedSlots[i]] = IN_USE;
+                matchedFrames[i] = input.frames[matchedSlots[i]];
+                matchedTimestamps[i] = input.timestamps[matchedSlots[i]];
+                input.dropOlderThan(matchedTimestamps[i]);
+            }
+
+            matchedSets++;
+        }
+
+        try
+        {
+            processFrames(matchedFrames, matchedTimestamps);
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                for(int i = 0; i < numCameras; i++)
+                {
+                    inputs[i].states[matchedSlots[i]] = FREE;
+                    matchedFrames[i] = null;
+                }
+            }
+        }
+    }
+}
@@ -21,13 +21,8 @@
 
 package org.openftc.easyopencv;
 
-import android.app.Activity;
-import android.app.ActivityManager;
-import android.content.Context;
 import android.graphics.Canvas;
-import android.os.Debug;
 
-import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
 import org.opencv.core.Mat;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
@@ -39,7 +34,7 @@ public abstract class OpenCvPipeline
 {
     private boolean isFirstFrame = true;
     private static final Semaphore saveSemaphore = new Semaphore(5);
-    private static final String defaultSavePath = "/sdcard/EasyOpenCV";
+    private static final String defaultSavePath = Platform.get().getDefaultSavePath();
 
     private long firstFrameTimestamp;
     protected boolean MEMLEAK_DETECTION_ENABLED = true;
@@ -56,10 +51,15 @@ public abstract class OpenCvPipeline
     private String lastLeakMsg = "";
     private long lastLeakMsgUpdateTime;
     private Object userContext = null;
-
-    private static final ActivityManager activityManager = (ActivityManager) AppUtil.getDefContext().getSystemService(Context.ACTIVITY_SERVICE);
-
-    private ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+    private final Platform platform = Platform.get();
+    protected final PipelineProfiler profiler = new PipelineProfiler();
+    protected final OpenCvAnnotations annotations = new OpenCvAnnotations();
+    private volatile double maxFps = 0;
+    private volatile int frameDecimation = 1;
+    private volatile double inputScale = 1;
+    private int initCols;
+    private int initRows;
+    private boolean initRanLastFrame;
 
     public OpenCvPipeline()
     {
@@ -76,18 +76,42 @@ public abstract class OpenCvPipeline
 
     Mat processFrameInternal(Mat input)
     {
-        if(isFirstFrame)
+        /*
+         * Frames can change size mid-stream (see getInputScale()), which
+         * would break any submats the user made in init(), so re-run it
+         */
+        initRanLastFrame = isFirstFrame || input.cols() != initCols || input.rows() != initRows;
+
+        if(initRanLastFrame)
         {
             init(input);
-            firstFrameTimestamp = System.currentTimeMillis();
-            isFirstFrame = false;
+            initCols = input.cols();
+            initRows = input.rows();
+
+            if(isFirstFrame)
+            {
+                firstFrameTimestamp = System.currentTimeMillis();
+                isFirstFrame = false;
+            }
         }
 
+        annotations.clear();
+        profiler.beginFrame();
         Mat ret = processFrame(input);
+        profiler.endFrame();
         leakDetection();
         return ret;
     }
 
+    /*
+     * Whether the last call to processFrameInternal() (re-)ran init(), and so
+     * took longer than processing a frame normally does
+     */
+    boolean didInitLastFrame()
+    {
+        return initRanLastFrame;
+    }
+
     private void leakDetection()
     {
         if(!MEMLEAK_DETECTION_ENABLED)
@@ -95,12 +119,18 @@ public abstract class OpenCvPipeline
             return;
         }
 
-        currentAlloc = Debug.getNativeHeapAllocatedSize();
+        currentAlloc = platform.getNativeHeapAllocatedBytes();
+
+        if(currentAlloc < 0)
+        {
+            // Can't tell on this platform
+            return;
+        }
 
         if(!settled && (System.currentTimeMillis() - firstFrameTimestamp) > MEMLEAK_DETECTION_PIPELINE_SETTLE_DELAY_SECONDS*1000)
         {
             settled = true;
-            nativeAllocFirstMonitoredFrame = Debug.getNativeHeapAllocatedSize();
+            nativeAllocFirstMonitoredFrame = currentAlloc;
             firstMonitoredFrameTimestamp = System.currentTimeMillis();
             return;
         }
@@ -143,8 +173,7 @@ public abstract class OpenCvPipeline
         // We use a fairly generous threshold before showing a warning to avoid false positives.
         if((absoluteDeltaAllocMB+gcLeakOffsetMb) > MEMLEAK_THRESHOLD_MB)
         {
-            activityManager.getMemoryInfo(memoryInfo);
-            float availMemPercent = ((float) memoryInfo.availMem / (float) memoryInfo.totalMem)*100;
+            float availMemPercent = platform.getAvailableMemoryPercent();
 
             leakMsg = String.format("OpenCV pipeline leaking memory @ approx. %dMB/sec; %d%% RAM currently free. DO NOT create new Mats or re-assign Mat variables inside processFrame()!", (int)leakRate, (int)availMemPercent);
         }
@@ -167,8 +196,110 @@ public abstract class OpenCvPipeline
     public abstract Mat processFrame(Mat input);
     public void onViewportTapped() {}
 
+    /**
+     * Called before the first frame is processed, with that frame, and again whenever
+     * the frames being processed change size (e.g. because they're being shrunk to keep
+     * within a time budget; see {@link #getInputScale()}). Submats of the input made
+     * here are valid until init() is called again, so just make them again then.
+     *
+     * @param mat the first frame to be processed at this size
+     */
     public void init(Mat mat) {}
 
+    /**
+     * Get the profiler for timing sections of this pipeline's processFrame().
+     * Also available to subclasses directly as {@link #profiler}.
+     *
+     * @return this pipeline's profiler
+     */
+    public PipelineProfiler getProfiler()
+    {
+        return profiler;
+    }
+
+    /**
+     * Get the annotations to be drawn over the output of this pipeline's processFrame().
+     * Also available to subclasses directly as {@link #annotations}.
+     *
+     * @return this pipeline's annotations
+     */
+    public OpenCvAnnotations getAnnotations()
+    {
+        return annotations;
+    }
+
+    /**
+     * Only run this pipeline on frames at up to a given rate. Frames in between are
+     * dropped as soon as they arrive from the camera, before any time is spent
+     * converting them (unless a replay or raw recording, or a RAW frame capture or
+     * black box, needs every frame; then only the pipeline is skipped), and the
+     * viewport keeps showing the last frame that was processed.
+     * Handy for e.g. detection during init, which rarely needs to run at 30FPS.
+     *
+     * @param maxFps the maximum rate; 0 means as fast as frames arrive
+     */
+    public void setMaxFps(double maxFps)
+    {
+        if(maxFps < 0)
+        {
+            throw new IllegalArgumentException("maxFps must be positive, or 0 for no limit");
+        }
+
+        this.maxFps = maxFps;
+    }
+
+    /**
+     * Only run this pipeline on every Nth frame from the camera. The others are
+     * dropped in the same way as with {@link #setMaxFps(double)}.
+     *
+     * @param n 1 to process every frame, 2 every other frame, and so on
+     */
+    public void setFrameDecimation(int n)
+    {
+        if(n < 1)
+        {
+            throw new IllegalArgumentException("Frame decimation must be >= 1");
+        }
+
+        this.frameDecimation = n;
+    }
+
+    /**
+     * Get the scale of the frame currently being processed, relative to the size the
+     * camera is streaming at. This is 1 unless frames are being shrunk before the
+     * pipeline sees them, either to keep it within a time budget (see
+     * {@link OpenCvCamera#setPipelineTimeBudget(double)}) or because the device is
+     * running hot (see {@link OpenCvThermalMonitor}). Divide coordinates in the frame
+     * by this to map them back to full resolution.
+     *
+     * The viewport and recordings show the shrunken frame (scaled up to fill the same
+     * area), so anything drawn with annotations or in
+     * {@link #onDrawFrame(Canvas, int, int, float, float, Object)} should use the
+     * coordinates of the frame as processFrame() got it, as usual.
+     * Whenever the scale changes, {@link #init(Mat)} is called again first.
+     *
+     * @return the scale of the frame passed to processFrame()
+     */
+    public double getInputScale()
+    {
+        return inputScale;
+    }
+
+    void setInputScale(double inputScale)
+    {
+        this.inputScale = inputScale;
+    }
+
+    double getMaxFps()
+    {
+        return maxFps;
+    }
+
+    int getFrameDecimation()
+    {
+        return frameDecimation;
+    }
+
     public Object getUserContextForDrawHook()
     {
         return userContext;
@@ -231,6 +362,8 @@ public abstract class OpenCvPipeline
             @Override
             public void run()
             {
+                OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.ENCODER);
+
                 try
                 {
                     Imgproc.cvtColor(clone, clone, Imgproc.COLOR_RGB2BGR);
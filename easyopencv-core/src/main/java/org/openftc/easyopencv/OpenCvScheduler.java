@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A process-wide pool of worker threads which runs the pipelines of every camera that
+ * has opted in with {@link OpenCvCamera#runPipelineOnSharedScheduler(int, double)}, instead
+ * of each camera running its pipeline on its own frame thread. With several cameras,
+ * that caps how many pipelines run at once, so they aren't all fighting over the same
+ * few cores, and lets the cameras that matter most go first.
+ *
+ * Each camera keeps at most one frame waiting for a worker; if a newer frame arrives
+ * before a worker gets to it, the older one is dropped. When a worker frees up, it takes
+ * the waiting frame from the highest priority camera (the one which has waited longest,
+ * among equals). A camera can also be given a maximum frame rate, in which case frames
+ * beyond it are dropped before they're even copied.
+ */
+public final class OpenCvScheduler
+{
+    private static OpenCvScheduler instance;
+    private static int desiredWorkerCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final Object lock = new Object();
+    private final List<Client> clients = new ArrayList<>();
+    private final Thread[] workers;
+
+    /*
+     * Called on a worker thread with the next frame for a client. The frame
+     * is only valid until this returns.
+     */
+    interface FrameHandler
+    {
+        void handleFrame(Mat frame, long timestamp);
+    }
+
+    /**
+     * Set how many worker threads the scheduler uses. Defaults to half the number of cores.
+     * Must be called before any camera starts using the scheduler.
+     *
+     * @param workers how many pipelines may run at the same time
+     * @throws IllegalArgumentException if workers is less than 1
+     * @throws IllegalStateException if the scheduler has already been started
+     */
+    public static synchronized void setWorkerCount(int workers)
+    {
+        if(workers < 1)
+        {
+            throw new IllegalArgumentException("Need at least one worker");
+        }
+
+        if(instance != null)
+        {
+            throw new IllegalStateException("The scheduler has already been started; set the worker count before any camera uses it");
+        }
+
+        desiredWorkerCount = workers;
+    }
+
+    /**
+     * @return how many worker threads the scheduler uses (or will use, once started)
+     */
+    public static synchronized int getWorkerCount()
+    {
+        return instance != null ? instance.workers.length : desiredWorkerCount;
+    }
+
+    static synchronized OpenCvScheduler get()
+    {
+        if(instance == null)
+        {
+            instance = new OpenCvScheduler(desiredWorkerCount);
+        }
+
+        return instance;
+    }
+
+    private OpenCvScheduler(int numWorkers)
+    {
+        workers = new Thread[numWorkers];
+
+        for(int i = 0; i < numWorkers; i++)
+        {
+            workers[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    workerLoop();
+                }
+            }, "EasyOpenCV-Worker-" + i);
+
+            // Must not keep the process alive
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    Client register(Object owner, int priority, double maxFps, FrameHandler handler)
+    {
+        Client client = new Client(owner, priority, maxFps, handler);
+
+        synchronized (lock)
+        {
+            clients.add(client);
+        }
+
+        return client;
+    }
+
+    /*
+     * One camera's slot in the scheduler
+     */
+    class Client
+    {
+        final Object owner;
+        private final FrameHandler handler;
+        private final FrameRateLimiter rateLimiter = new FrameRateLimiter();
+        private volatile double maxFps;
+        private double appliedMaxFps = -1;
+
+        /*
+         * Guarded by the scheduler lock. Frames are copied into one of two buffers,
+         * which move between being spare, pending (waiting for a worker), and running.
+         */
+        private int priority;
+        private Mat spare;
+        private Mat pending;
+        private long pendingTimestamp;
+        private long pendingSinceNanos;
+        private boolean running;
+        private boolean closed;
+        private long framesDropped;
+
+        private Client(Object owner, int priority, double maxFps, FrameHandler handler)
+        {
+            this.owner = owner;
+            this.priority = priority;
+            this.maxFps = maxFps;
+            this.handler = handler;
+        }
+
+        void setPriority(int priority)
+        {
+            synchronized (lock)
+            {
+                this.priority = priority;
+            }
+        }
+
+        void setMaxFps(double maxFps)
+        {
+            // Picked up by the submitting thread, which owns the rate limiter
+            this.maxFps = maxFps;
+        }
+
+        /*
+         * Called from the camera's frame thread. Copies the frame, so the
+         * caller can reuse it as soon as this returns. Never blocks on a worker.
+         */
+        void submit(Mat frame, long timestamp)
+        {
+            double fps = maxFps;
+
+            if(fps != appliedMaxFps)
+            {
+                rateLimiter.setMaxFps(fps);
+                appliedMaxFps = fps;
+            }
+
+            if(!rateLimiter.accept(System.nanoTime()))
+            {
+                return;
+            }
+
+            Mat buffer;
+
+            synchronized (lock)
+            {
+                if(closed)
+                {
+                    return;
+                }
+
+                if(pending != null)
+                {
+                    // The waiting frame has gone stale; overwrite it
+                    buffer = pending;
+                    pending = null;
+                    framesDropped++;
+                }
+                else
+                {
+                    buffer = spare;
+                    spare = null;
+                }
+            }
+
+            if(buffer == null)
+            {
+                // Only happens for the first couple of frames
+                buffer = new Mat();
+            }
+
+            frame.copyTo(buffer);
+
+            synchronized (lock)
+            {
+                if(closed)
+                {
+                    buffer.release();
+                    return;
+                }
+
+                pending = buffer;
+                pendingTimestamp = timestamp;
+                pendingSinceNanos = System.nanoTime();
+                lock.notify();
+            }
+        }
+
+        /*
+         * Drop the waiting frame, if any. A frame that's already running is left to finish.
+         */
+        void discardPending()
+        {
+            synchronized (lock)
+            {
+                if(pending != null)
+                {
+                    spare = pending;
+                    pending = null;
+                }
+            }
+        }
+
+        long getFramesDropped()
+        {
+            synchronized (lock)
+            {
+                return framesDropped;
+            }
+        }
+
+        /*
+         * Stop scheduling this client. Buffers not in use are freed now,
+         * the one in use (if any) when its frame finishes.
+         */
+        void close()
+        {
+            synchronized (lock)
+            {
+                closed = true;
+                clients.remove(this);
+
+                if(pending != null)
+                {
+                    pending.release();
+                    pending = null;
+                }
+
+                if(spare != null)
+                {
+                    spare.release();
+                    spare = null;
+                }
+            }
+        }
+    }
+
+    private void workerLoop()
+    {
+        while (true)
+        {
+            Client client;
+            Mat frame;
+            long timestamp;
+
+            synchronized (lock)
+            {
+                while ((client = pickClient()) == null)
+                {
+                    try
+                    {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Nobody should be interrupting us, but if they do, just keep going
+                    }
+                }
+
+                frame = client.pending;
+                timestamp = client.pendingTimestamp;
+                client.pending = null;
+                client.running = true;
+            }
+
+            // Noting which camera we're working for, for OpenCvCpuMonitor
+            OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.PIPELINE, 0, client.owner);
+
+            try
+            {
+                client.handler.handleFrame(frame, timestamp);
+            }
+            catch (RuntimeException e)
+            {
+                // The camera handles pipeline crashes itself; this is a last resort so the worker survives
+                e.printStackTrace();
+            }
+
+            synchronized (lock)
+            {
+                client.running = false;
+
+                /*
+                 * discardPending() may have made the waiting buffer the spare while
+                 * this frame ran, in which case we've got one buffer too many
+                 */
+                if(client.closed || client.spare != null)
+                {
+                    frame.release();
+                }
+                else
+                {
+                    client.spare = frame;
+                }
+
+                // This client may have another frame waiting, which we didn't let anyone else take
+                lock.notify();
+            }
+        }
+    }
+
+    /*
+     * The highest priority client with a frame waiting and no frame running,
+     * breaking ties by which has waited longest. Called with the lock held.
+     */
+    private Client pickClient()
+    {
+        Client best = null;
+
+        for(int i = 0; i < clients.size(); i++)
+        {
+            Client c = clients.get(i);
+
+            if(c.pending == null || c.running)
+            {
+                continue;
+            }
+
+            if(best == null || c.priority > best.priority || (c.priority == best.priority && c.pendingSinceNanos < best.pendingSinceNanos))
+            {
+                best = c;
+            }
+        }
+
+        return best;
+    }
+}
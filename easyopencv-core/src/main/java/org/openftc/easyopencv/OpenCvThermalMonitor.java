@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the device's temperature, and throttles every camera according to a
+ * {@link ThermalThrottlingPolicy} as it heats up, before the kernel starts pulling
+ * the CPU clocks down on its own (which shows up as sudden, unpredictable slowdowns).
+ *
+ * Once started, a background thread reads the Linux thermal zones
+ * (/sys/class/thermal/thermal_zone*) and the CPU clock speeds
+ * (/sys/devices/system/cpu/cpu*&#47;cpufreq) once a second by default. The hottest
+ * thermal zone decides the current {@link Level}; changes in level are reported to
+ * any {@link Listener}s, and how long has been spent at each level, along with how
+ * many frames throttling has skipped, is available for logging to telemetry.
+ *
+ * Throttling only happens while the monitor is running. Devices which don't expose
+ * their thermal zones to apps simply never leave {@link Level#NORMAL}.
+ */
+public final class OpenCvThermalMonitor
+{
+    public enum Level
+    {
+        NORMAL,
+        WARM,
+        HOT,
+        CRITICAL
+    }
+
+    public interface Listener
+    {
+        /*
+         * Called from the monitor's own thread, so don't dawdle
+         */
+        void onLevelChanged(Level previous, Level current, float temperatureCelsius);
+    }
+
+    private static final Level[] LEVELS = Level.values();
+
+    // Package-private so it can be pointed at a fake sysfs when testing on a desktop
+    static String sysfsRoot = "/sys";
+
+    private static Thread samplerThread;
+    private static volatile int intervalMs = 1000;
+    private static volatile ThermalThrottlingPolicy policy = new ThermalThrottlingPolicy.Builder().build();
+
+    private static volatile boolean active;
+    private static volatile Level level = Level.NORMAL;
+    private static volatile float temperatureCelsius = Float.NaN;
+    private static volatile float cpuFrequencyPercent = -1;
+    private static volatile float cpuFrequencyCapPercent = -1;
+    private static volatile int levelChangeCount;
+    private static final long[] nanosAtLevel = new long[LEVELS.length]; // guarded by itself
+    private static long levelEnteredNanos;
+    private static final AtomicLong pipelineFramesSkipped = new AtomicLong();
+    private static final AtomicLong viewportFramesSkipped = new AtomicLong();
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private OpenCvThermalMonitor()
+    {
+    }
+
+    /**
+     * Start monitoring once a second, if not already
+     */
+    public static void start()
+    {
+        start(1000);
+    }
+
+    /**
+     * Start monitoring, if not already
+     *
+     * @param intervalMs how often to read the temperature; if already running, changes the rate
+     */
+    public static synchronized void start(int intervalMs)
+    {
+        if(intervalMs < 100)
+        {
+            throw new IllegalArgumentException("Temperatures don't change fast enough to be worth reading more often than every 100ms");
+        }
+
+        OpenCvThermalMonitor.intervalMs = intervalMs;
+
+        if(samplerThread == null)
+        {
+            samplerThread = new SamplerThread();
+            samplerThread.start();
+        }
+    }
+
+    /**
+     * Stop monitoring, and with it, throttling
+     */
+    public static void stop()
+    {
+        Thread thread;
+
+        synchronized (OpenCvThermalMonitor.class)
+        {
+            thread = samplerThread;
+            samplerThread = null;
+        }
+
+        if(thread != null)
+        {
+            thread.interrupt();
+            Util.joinUninterruptibly(thread);
+        }
+    }
+
+    public static synchronized boolean isRunning()
+    {
+        return samplerThread != null;
+    }
+
+    /**
+     * Change the thresholds and what is done at each level. Takes
+     * effect from the next reading.
+     */
+    public static void setPolicy(ThermalThrottlingPolicy policy)
+    {
+        if(policy == null)
+        {
+            throw new IllegalArgumentException("Policy cannot be null");
+        }
+
+        OpenCvThermalMonitor.policy = policy;
+    }
+
+    public static ThermalThrottlingPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    public static void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the current level; always {@link Level#NORMAL} when not running
+     */
+    public static Level getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * @return the temperature of the hottest thermal zone, or NaN if not
+     *         running or the system doesn't let us see that
+     */
+    public static float getTemperatureCelsius()
+    {
+        return temperatureCelsius;
+    }
+
+    /**
+     * @return how fast the CPU cores are clocked right now, as a percentage of the
+     *         fastest they can go; or -1 if not running or the system doesn't let us see that
+     */
+    public static float getCpuFrequencyPercent()
+    {
+        return cpuFrequencyPercent;
+    }
+
+    /**
+     * @return the fastest the CPU cores are currently allowed to be clocked, as a percentage
+     *         of the fastest they can go. Less than 100 means the kernel is already throttling.
+     *         -1 if not running or the system doesn't let us see that.
+     */
+    public static float getCpuFrequencyCapPercent()
+    {
+        return cpuFrequencyCapPercent;
+    }
+
+    /**
+     * @return how many times the level has changed since the monitor was first started
+     */
+    public static int getLevelChangeCount()
+    {
+        return levelChangeCount;
+    }
+
+    /**
+     * @return how long has been spent at a given level since the monitor was first started
+     */
+    public static double getSecondsAtLevel(Level atLevel)
+    {
+        synchronized (nanosAtLevel)
+        {
+            long nanos = nanosAtLevel[atLevel.ordinal()];
+
+            if(active && atLevel == level)
+            {
+                nanos += System.nanoTime() - levelEnteredNanos;
+            }
+
+            return nanos / 1e9;
+        }
+    }
+
+    /**
+     * @return how many frames (across all cameras) have been dropped
+     *         before the pipeline due to throttling
+     */
+    public static long getPipelineFramesSkipped()
+    {
+        return pipelineFramesSkipped.get();
+    }
+
+    /**
+     * @return how many frames (across all cameras) were processed but
+     *         not sent to the viewport due to throttling
+     */
+    public static long getViewportFramesSkipped()
+    {
+        return viewportFramesSkipped.get();
+    }
+
+    /**
+     * Describe the thermal zones, the CPU clocks, and what throttling has been done
+     *
+     * @return a multi-line report
+     */
+    public static String getReport()
+    {
+        StringBuilder report = new StringBuilder();
+
+        for(File zone : listSysfs("class/thermal", "thermal_zone"))
+        {
+            String type = readTrimmed(new File(zone, "type"));
+            String temp = readTrimmed(new File(zone, "temp"));
+            float celsius = temp != null ? parseCelsius(temp) : Float.NaN;
+
+            report.append(String.format(Locale.US, "%-16s %-24s %6.1fC\n", zone.getName(), type != null ? type : "?", celsius));
+        }
+
+        for(File cpu : listSysfs("devices/system/cpu", "cpu"))
+        {
+            String cur = readTrimmed(new File(cpu, "cpufreq/scaling_cur_freq"));
+
+            if(cur != null)
+            {
+                report.append(String.format(Locale.US, "%-16s %s / %s kHz (max %s kHz)\n", cpu.getName(), cur,
+                        readTrimmed(new File(cpu, "cpufreq/scaling_max_freq")),
+                        readTrimmed(new File(cpu, "cpufreq/cpuinfo_max_freq"))));
+            }
+        }
+
+        report.append(String.format(Locale.US, "Level %s at %.1fC; CPU clocked at %.0f%% (capped at %.0f%%)\n",
+                level, temperatureCelsius, cpuFrequencyPercent, cpuFrequencyCapPercent));
+
+        for(Level l : LEVELS)
+        {
+            report.append(String.format(Locale.US, "%-8s %8.1fs\n", l, getSecondsAtLevel(l)));
+        }
+
+        report.append(String.format(Locale.US, "%d level changes; %d pipeline frames and %d viewport frames skipped\n",
+                levelChangeCount, pipelineFramesSkipped.get(), viewportFramesSkipped.get()));
+
+        return report.toString();
+    }
+
+    /*
+     * What cameras should currently be doing. No throttling when not running.
+     */
+    static double getPipelineFpsCap()
+    {
+        return active ? policy.getMaxPipelineFps(level) : 0;
+    }
+
+    static double getViewportFpsCap()
+    {
+        return active ? policy.getMaxViewportFps(level) : 0;
+    }
+
+    static int getDownscale()
+    {
+        return active ? policy.getDownscale(level) : 1;
+    }
+
+    static void notePipelineFrameSkipped()
+    {
+        pipelineFramesSkipped.incrementAndGet();
+    }
+
+    static void noteViewportFrameSkipped()
+    {
+        viewportFramesSkipped.incrementAndGet();
+    }
+
+    /*
+     * The level a temperature puts us at, given the level we're at now. Rising
+     * past a threshold moves up immediately, but we only drop back down a level
+     * once the temperature is below its threshold by the hysteresis.
+     */
+    static Level levelFor(float celsius, Level current, ThermalThrottlingPolicy policy)
+    {
+        Level result = Level.NORMAL;
+
+        for(Level l : LEVELS)
+        {
+            float threshold = policy.thresholdFor(l);
+
+            if(l.ordinal() <= current.ordinal())
+            {
+                threshold -= policy.hysteresisCelsius;
+            }
+
+            if(celsius >= threshold)
+            {
+                result = l;
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * Thermal zones report millidegrees on practically everything,
+     * but a few drivers report whole degrees
+     */
+    static float toCelsius(long raw)
+    {
+        return Math.abs(raw) >= 1000 ? raw / 1000f : raw;
+    }
+
+    private static float parseCelsius(String value)
+    {
+        try
+        {
+            return toCelsius(Long.parseLong(value));
+        }
+        catch (NumberFormatException e)
+        {
+            return Float.NaN;
+        }
+    }
+
+    private static String readTrimmed(File file)
+    {
+        String contents = OpenCvThreadPolicy.readProcFile(file.getPath());
+        return contents != null ? contents.trim() : null;
+    }
+
+    private static List<File> listSysfs(String dir, final String prefix)
+    {
+        File[] entries = new File(sysfsRoot, dir).listFiles();
+        List<File> matching = new ArrayList<>();
+
+        if(entries == null)
+        {
+            return matching;
+        }
+
+        Arrays.sort(entries);
+
+        for(File entry : entries)
+        {
+            String name = entry.getName();
+
+            // "cpu" + a number, not e.g. cpufreq or cpuidle
+            if(name.startsWith(prefix) && name.length() > prefix.length() && Character.isDigit(name.charAt(prefix.length())))
+            {
+                matching.add(entry);
+            }
+        }
+
+        return matching;
+    }
+
+    private static class SamplerThread extends Thread
+    {
+        private final byte[] buf = new byte[64];
+        private RandomAccessFile[] zoneTemps;
+        private RandomAccessFile[] cpuCurFreqs;
+        private RandomAccessFile[] cpuMaxFreqs;
+        private long[] cpuHardwareMaxFreqs;
+
+        SamplerThread()
+        {
+            super("EasyOpenCV-ThermalMonitor");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            openFiles();
+
+            synchronized (nanosAtLevel)
+            {
+                level = Level.NORMAL;
+                levelEnteredNanos = System.nanoTime();
+                active = true;
+            }
+
+            try
+            {
+                while (!isInterrupted())
+                {
+                    sample();
+
+                    try
+                    {
+                        Thread.sleep(intervalMs);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        break;
+                    }
+                }
+            }
+            finally
+            {
+                changeLevel(Level.NORMAL, temperatureCelsius);
+
+                synchronized (nanosAtLevel)
+                {
+                    nanosAtLevel[level.ordinal()] += System.nanoTime() - levelEnteredNanos;
+                    active = false;
+                }
+
+                closeAll(zoneTemps);
+                closeAll(cpuCurFreqs);
+                closeAll(cpuMaxFreqs);
+
+                temperatureCelsius = Float.NaN;
+                cpuFrequencyPercent = -1;
+                cpuFrequencyCapPercent = -1;
+            }
+        }
+
+        private void openFiles()
+        {
+            List<File> zones = listSysfs("class/thermal", "thermal_zone");
+            zoneTemps = new RandomAccessFile[zones.size()];
+
+            for(int i = 0; i < zoneTemps.length; i++)
+            {
+                zoneTemps[i] = open(new File(zones.get(i), "temp"));
+            }
+
+            List<File> cpus = listSysfs("devices/system/cpu", "cpu");
+            cpuCurFreqs = new RandomAccessFile[cpus.size()];
+            cpuMaxFreqs = new RandomAccessFile[cpus.size()];
+            cpuHardwareMaxFreqs = new long[cpus.size()];
+
+            for(int i = 0; i < cpus.size(); i++)
+            {
+                cpuCurFreqs[i] = open(new File(cpus.get(i), "cpufreq/scaling_cur_freq"));
+                cpuMaxFreqs[i] = open(new File(cpus.get(i), "cpufreq/scaling_max_freq"));
+
+                // Doesn't change, so only needs reading once
+                RandomAccessFile hardwareMax = open(new File(cpus.get(i), "cpufreq/cpuinfo_max_freq"));
+                cpuHardwareMaxFreqs[i] = readLong(hardwareMax);
+                close(hardwareMax);
+            }
+        }
+
+        private void sample()
+        {
+            float hottest = Float.NaN;
+
+            for(RandomAccessFile zone : zoneTemps)
+            {
+                long raw = readLong(zone);
+
+                if(raw == Long.MIN_VALUE)
+                {
+                    continue;
+                }
+
+                float celsius = toCelsius(raw);
+
+                // Disconnected sensors read all sorts of nonsense
+                if(celsius > -40 && celsius < 200 && !(celsius <= hottest))
+                {
+                    hottest = celsius;
+                }
+            }
+
+            long cur = 0;
+            long cap = 0;
+            long hardwareMax = 0;
+
+            for(int i = 0; i < cpuCurFreqs.length; i++)
+            {
+                long curFreq = readLong(cpuCurFreqs[i]);
+                long capFreq = readLong(cpuMaxFreqs[i]);
+
+                // Offline cores, or ones we can't see
+                if(curFreq <= 0 || capFreq <= 0 || cpuHardwareMaxFreqs[i] <= 0)
+                {
+                    continue;
+                }
+
+                cur += curFreq;
+                cap += capFreq;
+                hardwareMax += cpuHardwareMaxFreqs[i];
+            }
+
+            cpuFrequencyPercent = hardwareMax > 0 ? (float) cur / hardwareMax * 100 : -1;
+            cpuFrequencyCapPercent = hardwareMax > 0 ? (float) cap / hardwareMax * 100 : -1;
+            temperatureCelsius = hottest;
+
+            if(!Float.isNaN(hottest))
+            {
+                changeLevel(levelFor(hottest, level, policy), hottest);
+            }
+        }
+
+        private void changeLevel(Level next, float celsius)
+        {
+            Level previous = level;
+
+            if(next == previous)
+            {
+                return;
+            }
+
+            synchronized (nanosAtLevel)
+            {
+                long now = System.nanoTime();
+                nanosAtLevel[previous.ordinal()] += now - levelEnteredNanos;
+                levelEnteredNanos = now;
+                level = next;
+                levelChangeCount++;
+            }
+
+            Platform.get().logInfo("EasyOpenCV", "Thermal level %s -> %s at %.1fC (CPU clocks capped at %.0f%%)",
+                    previous, next, celsius, cpuFrequencyCapPercent);
+
+            for(Listener listener : listeners)
+            {
+                try
+                {
+                    listener.onLevelChanged(previous, next, celsius);
+                }
+                catch (RuntimeException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /*
+         * A sysfs attribute holding a single integer, or Long.MIN_VALUE
+         */
+        private long readLong(RandomAccessFile file)
+        {
+            if(file == null)
+            {
+                return Long.MIN_VALUE;
+            }
+
+            int len;
+
+            try
+            {
+                file.seek(0);
+                len = file.read(buf, 0, buf.length);
+            }
+            catch (IOException e)
+            {
+                return Long.MIN_VALUE;
+            }
+
+            int pos = 0;
+            boolean negative = false;
+
+            if(len > 0 && buf[0] == '-')
+            {
+                negative = true;
+                pos++;
+            }
+
+            long value = 0;
+            boolean any = false;
+
+            for(; pos < len && buf[pos] >= '0' && buf[pos] <= '9'; pos++)
+            {
+                value = value*10 + (buf[pos] - '0');
+                any = true;
+            }
+
+            if(!any)
+            {
+                return Long.MIN_VALUE;
+            }
+
+            return negative ? -value : value;
+        }
+
+        private static RandomAccessFile open(File file)
+        {
+            try
+            {
+                return new RandomAccessFile(file, "r");
+            }
+            catch (IOException e)
+            {
+                return null;
+            }
+        }
+
+        private static void closeAll(RandomAccessFile[] files)
+        {
+            if(files == null)
+            {
+                return;
+            }
+
+            for(RandomAccessFile file : files)
+            {
+                close(file);
+            }
+        }
+
+        private static void close(RandomAccessFile file)
+        {
+            if(file == null)
+            {
+                return;
+            }
+
+            try
+            {
+                file.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Core;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Controls how EasyOpenCV's threads share the CPU.
+ *
+ * Firstly, how many threads OpenCV's internal parallel backend uses for things like
+ * cvtColor(), resize() and morphology. By default OpenCV uses every core for every call,
+ * which is fine with one camera, but with two or three cameras streaming at once their
+ * pipelines end up fighting over the same cores, and frame times get spiky.
+ * Note OpenCV only has a single, process-wide thread count, so that's what this sets;
+ * it can't be different per camera. To keep cameras off each other's cores as well, see
+ * {@link OpenCvCamera#setCpuAffinity(int...)}.
+ *
+ * Secondly, the scheduling priority and CPU affinity of each {@link ThreadClass class}
+ * of EasyOpenCV thread, so that e.g. the pipeline can be kept ahead of the viewport, or
+ * recording kept off the cores the OpMode runs on. Threads pick up changes the next time
+ * they do some work. {@link #getThreadReport()} shows where they actually ran.
+ */
+public final class OpenCvThreadPolicy
+{
+    public enum Mode
+    {
+        /**
+         * Leave OpenCV's thread count alone (the default)
+         */
+        OPENCV_DEFAULT,
+
+        /**
+         * Split the cores evenly between the cameras which are streaming,
+         * updating the thread count as cameras start and stop
+         */
+        DIVIDE_AMONG_CAMERAS,
+
+        /**
+         * Use the thread count set with {@link #setFixedThreadCount(int)}
+         */
+        FIXED
+    }
+
+    public enum ThreadClass
+    {
+        /**
+         * Threads which talk to the camera hardware (internal camera 2's handler thread).
+         * These only pick up changes when the camera is next opened.
+         */
+        CAPTURE,
+
+        /**
+         * Threads which receive and convert frames, when the pipeline runs
+         * elsewhere (see {@link OpenCvCamera#runPipelineOnSharedScheduler(int, double)})
+         */
+        CONVERSION,
+
+        /**
+         * Threads which run pipelines: the shared scheduler's workers, and a camera's
+         * frame thread when it runs the pipeline itself (the default)
+         */
+        PIPELINE,
+
+        /**
+         * Viewport render threads
+         */
+        RENDER,
+
+        /**
+         * Recording, frame capture and black box encoder / writer threads
+         */
+        ENCODER
+    }
+
+    /**
+     * Pass to {@link #setThreadPriority(ThreadClass, int)} to leave a class's priority alone
+     */
+    public static final int PRIORITY_UNCHANGED = Integer.MIN_VALUE;
+
+    private static Mode mode = Mode.OPENCV_DEFAULT;
+    private static int fixedThreadCount = 1;
+    private static int activeCameras;
+    private static int defaultThreadCount = -1;
+    private static int appliedThreadCount = -1;
+
+    private static final int[] classPriorities = new int[ThreadClass.values().length];
+    private static final long[] classAffinities = new long[ThreadClass.values().length];
+    private static volatile int classSettingsGeneration;
+    private static final List<ThreadRecord> threads = new ArrayList<>();
+    private static final ThreadLocal<ThreadRecord> currentThread = new ThreadLocal<>();
+
+    static
+    {
+        for(int i = 0; i < classPriorities.length; i++)
+        {
+            classPriorities[i] = PRIORITY_UNCHANGED;
+        }
+    }
+
+    /*
+     * What we've done to a thread which has entered a class, and (for OpenCvCpuMonitor)
+     * which camera it was working for and how much CPU it's been using
+     */
+    static class ThreadRecord
+    {
+        final Thread thread;
+        final int tid;
+        volatile ThreadClass threadClass;
+        volatile Object owner;
+        int generation = -1;
+        long affinityOverride;
+        int appliedPriority = PRIORITY_UNCHANGED;
+        long appliedAffinity;
+        boolean refused;
+
+        // Owned by the CPU monitor's sampling thread
+        RandomAccessFile statFile;
+        long lastCpuTicks = -1;
+        volatile float cpuPercent = -1;
+
+        ThreadRecord(Thread thread, int tid)
+        {
+            this.thread = thread;
+            this.tid = tid;
+        }
+    }
+
+    private OpenCvThreadPolicy()
+    {
+    }
+
+    /**
+     * @param mode how to choose OpenCV's thread count from now on
+     */
+    public static synchronized void setMode(Mode mode)
+    {
+        if(mode == null)
+        {
+            throw new IllegalArgumentException("Mode may not be null");
+        }
+
+        OpenCvThreadPolicy.mode = mode;
+        apply();
+    }
+
+    public static synchronized Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Set the thread count used in {@link Mode#FIXED} mode (and switch to that mode)
+     *
+     * @param threads how many threads OpenCV may use for a single call; 1 disables its parallelism
+     */
+    public static synchronized void setFixedThreadCount(int threads)
+    {
+        if(threads < 1)
+        {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+
+        fixedThreadCount = threads;
+        setMode(Mode.FIXED);
+    }
+
+    /**
+     * @return how many threads OpenCV is currently set to use
+     */
+    public static synchronized int getThreadCount()
+    {
+        return Core.getNumThreads();
+    }
+
+    /**
+     * Set the scheduling priority of a class of threads
+     *
+     * @param threadClass which threads
+     * @param priority a Linux nice value, as used by android.os.Process.setThreadPriority(),
+     *                 e.g. Process.THREAD_PRIORITY_DISPLAY (-4); lower runs first. Or
+     *                 {@link #PRIORITY_UNCHANGED} to leave threads at the priority they started with.
+     */
+    public static synchronized void setThreadPriority(ThreadClass threadClass, int priority)
+    {
+        if(priority != PRIORITY_UNCHANGED && (priority < -20 || priority > 19))
+        {
+            throw new IllegalArgumentException("Priority must be a nice value, -20 to 19");
+        }
+
+        classPriorities[threadClass.ordinal()] = priority;
+        classSettingsGeneration++;
+    }
+
+    /**
+     * Restrict a class of threads to certain CPU cores
+     *
+     * @param threadClass which threads
+     * @param cores the indices of the cores to run on, 0 to (number of cores - 1),
+     *              or none to let them run anywhere
+     */
+    public static synchronized void setThreadAffinity(ThreadClass threadClass, int... cores)
+    {
+        classAffinities[threadClass.ordinal()] = coresToMask(cores);
+        classSettingsGeneration++;
+    }
+
+    static long coresToMask(int... cores)
+    {
+        int numCores = Runtime.getRuntime().availableProcessors();
+        long mask = 0;
+
+        for(int core : cores)
+        {
+            if(core < 0 || core >= numCores || core >= 64)
+            {
+                throw new IllegalArgumentException("No core " + core + "; this device has " + numCores);
+            }
+
+            mask |= 1L << core;
+        }
+
+        return mask;
+    }
+
+    /*
+     * Called by EasyOpenCV threads whenever they're about to do some work, to put
+     * themselves into a class. Only makes a syscall if something changed; otherwise
+     * this is a ThreadLocal lookup.
+     */
+    static void enterThreadClass(ThreadClass threadClass)
+    {
+        enterThreadClass(threadClass, 0);
+    }
+
+    /*
+     * As above, with an affinity mask which takes precedence over the class's (0 for none)
+     */
+    static void enterThreadClass(ThreadClass threadClass, long affinityOverride)
+    {
+        enterThreadClass(threadClass, affinityOverride, null);
+    }
+
+    /*
+     * As above, also noting which camera the thread is working for (null for none)
+     */
+    static void enterThreadClass(ThreadClass threadClass, long affinityOverride, Object owner)
+    {
+        ThreadRecord record = currentThread.get();
+
+        if(record != null && record.threadClass == threadClass && record.generation == classSettingsGeneration
+                && record.affinityOverride == affinityOverride && record.owner == owner)
+        {
+            return;
+        }
+
+        synchronized (OpenCvThreadPolicy.class)
+        {
+            if(record == null)
+            {
+                record = new ThreadRecord(Thread.currentThread(), nativeThreadId());
+                currentThread.set(record);
+                pruneDeadThreads();
+                threads.add(record);
+            }
+
+            record.threadClass = threadClass;
+            record.generation = classSettingsGeneration;
+            record.affinityOverride = affinityOverride;
+            record.owner = owner;
+            record.refused = false;
+
+            int priority = classPriorities[threadClass.ordinal()];
+
+            // If we changed it for a previous class, go back to the default
+            if(priority == PRIORITY_UNCHANGED && record.appliedPriority != PRIORITY_UNCHANGED)
+            {
+                priority = 0;
+            }
+
+            if(priority != PRIORITY_UNCHANGED && priority != record.appliedPriority)
+            {
+                record.refused |= !setNice(priority);
+                record.appliedPriority = priority == 0 ? PRIORITY_UNCHANGED : priority;
+            }
+
+            long affinity = affinityOverride != 0 ? affinityOverride : classAffinities[threadClass.ordinal()];
+
+            if(affinity != record.appliedAffinity)
+            {
+                record.refused |= !setAffinity(affinity);
+                record.appliedAffinity = affinity;
+            }
+        }
+    }
+
+    /*
+     * Copy out the live threads which have entered a class
+     */
+    static synchronized void getThreads(List<ThreadRecord> into)
+    {
+        pruneDeadThreads();
+        into.clear();
+        into.addAll(threads);
+    }
+
+    private static void pruneDeadThreads()
+    {
+        for(int i = threads.size() - 1; i >= 0; i--)
+        {
+            if(!threads.get(i).thread.isAlive())
+            {
+                threads.remove(i);
+            }
+        }
+    }
+
+    /*
+     * The natives aren't available everywhere (e.g. a host JVM without the library built)
+     */
+    private static int nativeThreadId()
+    {
+        try
+        {
+            return NativeKernels.getCurrentThreadId();
+        }
+        catch (LinkageError e)
+        {
+            return -1;
+        }
+    }
+
+    private static boolean setNice(int nice)
+    {
+        try
+        {
+            return NativeKernels.setCurrentThreadNice(nice);
+        }
+        catch (LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    static boolean setAffinity(long mask)
+    {
+        try
+        {
+            return NativeKernels.setCurrentThreadAffinity(mask);
+        }
+        catch (LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Describe every live EasyOpenCV thread which has been put in a class: what it was
+     * asked for, and what the kernel says about it (its nice value, the cores it's allowed
+     * on, and the core it last ran on).
+     *
+     * @return one line per thread
+     */
+    public static String getThreadReport()
+    {
+        List<ThreadRecord> snapshot = new ArrayList<>();
+        getThreads(snapshot);
+
+        StringBuilder report = new StringBuilder();
+
+        for(ThreadRecord record : snapshot)
+        {
+            String stat = record.tid > 0 ? readProcFile("/proc/self/task/" + record.tid + "/stat") : null;
+            String status = record.tid > 0 ? readProcFile("/proc/self/task/" + record.tid + "/status") : null;
+
+            report.append(String.format(Locale.US, "%-36s %-10s tid %-6d nice %-3s cpus %-8s last cpu %s%s\n",
+                    record.thread.getName(),
+                    record.threadClass,
+                    record.tid,
+                    statField(stat, 19),
+                    statusField(status, "Cpus_allowed_list:"),
+                    statField(stat, 39),
+                    record.refused ? "  (some settings were refused)" : ""));
+        }
+
+        return report.toString();
+    }
+
+    /*
+     * A field of /proc/<pid>/task/<tid>/stat, numbered from 1 as in proc(5).
+     * The second field (the thread name) is in parentheses and may contain spaces,
+     * so count from the closing parenthesis.
+     */
+    static String statField(String stat, int field)
+    {
+        if(stat == null)
+        {
+            return "?";
+        }
+
+        int pos = stat.lastIndexOf(')');
+
+        if(pos < 0)
+        {
+            return "?";
+        }
+
+        String[] fields = stat.substring(pos + 1).trim().split("\\s+");
+        int idx = field - 3;
+
+        return idx >= 0 && idx < fields.length ? fields[idx] : "?";
+    }
+
+    private static String statusField(String status, String name)
+    {
+        if(status == null)
+        {
+            return "?";
+        }
+
+        for(String line : status.split("\n"))
+        {
+            if(line.startsWith(name))
+            {
+                return line.substring(name.length()).trim();
+            }
+        }
+
+        return "?";
+    }
+
+    static String readProcFile(String path)
+    {
+        RandomAccessFile file = null;
+
+        try
+        {
+            file = new RandomAccessFile(path, "r");
+
+            // procfs files report a length of 0, so just read until EOF
+            byte[] buf = new byte[4096];
+            int len = 0;
+            int n;
+
+            while (len < buf.length && (n = file.read(buf, len, buf.length - len)) > 0)
+            {
+                len += n;
+            }
+
+            return new String(buf, 0, len, "US-ASCII");
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if(file != null)
+            {
+                try
+                {
+                    file.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+     * Called by cameras as they start and stop streaming
+     */
+    static synchronized void cameraStarted()
+    {
+        activeCameras++;
+        apply();
+    }
+
+    static synchronized void cameraStopped()
+    {
+        activeCameras = Math.max(0, activeCameras - 1);
+        apply();
+    }
+
+    /*
+     * The thread count for a given mode and number of streaming cameras,
+     * or -1 for whatever OpenCV used before we changed anything
+     */
+    static int threadCountFor(Mode mode, int cameras, int cores, int fixed)
+    {
+        switch (mode)
+        {
+            case DIVIDE_AMONG_CAMERAS:
+                return Math.max(1, cores / Math.max(1, cameras));
+
+            case FIXED:
+                return fixed;
+
+            default:
+                return -1;
+        }
+    }
+
+    private static void apply()
+    {
+        int threads = threadCountFor(mode, activeCameras, Runtime.getRuntime().availableProcessors(), fixedThreadCount);
+
+        if(threads == -1)
+        {
+            // Put back OpenCV's own default, if we ever changed it
+            if(defaultThreadCount == -1)
+            {
+                return;
+            }
+
+            threads = defaultThreadCount;
+        }
+        else if(defaultThreadCount == -1)
+        {
+            defaultThreadCount = Core.getNumThreads();
+        }
+
+        if(threads != appliedThreadCount)
+        {
+            Core.setNumThreads(threads);
+            appliedThreadCount = threads;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * The threading shared by everything which compresses frames and writes them out
+ * in order (frame captures, MJPEG recordings): the frame thread copies into a free
+ * job, a pool of compression threads compress jobs in parallel, and a single writer
+ * thread hands them to write() in the order they were submitted. If no job is free
+ * (i.e. the compressors or the disk can't keep up) the frame is dropped rather than
+ * stalling the frame thread.
+ *
+ * Subclasses supply the compression and the writing, and own whatever the jobs'
+ * payloads hold. Compression threads can keep some state of their own (e.g. a native
+ * compressor) via createThreadState() and destroyThreadState().
+ *
+ * submit() and obtain() must only be called from one thread at a time, and not
+ * concurrently with stop().
+ */
+abstract class OrderedCompressionPool<S, T>
+{
+    private final Job<S>[] jobs;
+    private final ArrayBlockingQueue<Job<S>> freeJobs;
+    private final ArrayBlockingQueue<Job<S>> pendingCompression;
+    private final Job<S>[] compressed; // indexed by seq % jobs.length; guarded by 'compressed'
+    private final Job<S> poison = new Job<>(null);
+
+    private final Thread[] compressionThreads;
+    private final Thread writerThread;
+    private final long writerTickMs;
+
+    // Submitting thread only
+    private long nextSeqToSubmit = 0;
+    private volatile long submittedCount = 0;
+    private volatile int framesDropped = 0;
+
+    // Writer thread only
+    private long nextSeqToWrite = 0;
+
+    private volatile boolean stopRequested = false;
+    private boolean writerStarted = false;
+
+    static class Job<S>
+    {
+        final S payload;
+        long seq;
+        boolean failed;
+
+        Job(S payload)
+        {
+            this.payload = payload;
+        }
+    }
+
+    /*
+     * @param name          prefix for the names of the threads
+     * @param payloads      one per job; there must be enough for every compression
+     *                      thread to have one while the frame thread fills another
+     * @param threads       how many compression threads to run
+     * @param writerTickMs  how often onWriterTick() is called at the least, even with nothing to write
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OrderedCompressionPool(String name, S[] payloads, int threads, long writerTickMs)
+    {
+        this.writerTickMs = writerTickMs;
+
+        jobs = new Job[payloads.length];
+        compressed = new Job[payloads.length];
+        freeJobs = new ArrayBlockingQueue<>(payloads.length);
+        pendingCompression = new ArrayBlockingQueue<>(payloads.length + threads);
+
+        for(int i = 0; i < payloads.length; i++)
+        {
+            jobs[i] = new Job<>(payloads[i]);
+            freeJobs.add(jobs[i]);
+        }
+
+        compressionThreads = new Thread[threads];
+
+        for(int i = 0; i < threads; i++)
+        {
+            compressionThreads[i] = new CompressionThread(name + "CompressionThread-" + i);
+        }
+
+        writerThread = new WriterThread(name + "WriterThread");
+    }
+
+    /*
+     * Compress a job's payload. Called from the compression threads, in parallel.
+     * Throwing marks the job as failed; write() is then skipped for it.
+     */
+    protected abstract void compress(S payload, T threadState) throws Exception;
+
+    /*
+     * Called from the writer thread, in the order the jobs were submitted
+     */
+    protected abstract void write(S payload);
+
+    protected T createThreadState()
+    {
+        return null;
+    }
+
+    protected void destroyThreadState(T threadState)
+    {
+    }
+
+    /*
+     * Called from the writer thread every time it wakes up, and at least every writerTickMs
+     */
+    protected void onWriterTick()
+    {
+    }
+
+    /*
+     * Called once the writer has written everything it's going to; e.g. to close files.
+     * If start() failed before the writer thread was running, called from stop() instead.
+     */
+    protected void onWriterExit()
+    {
+    }
+
+    /*
+     * If starting any thread fails, whatever was started is stopped again before rethrowing
+     */
+    void start()
+    {
+        try
+        {
+            for(Thread t : compressionThreads)
+            {
+                t.start();
+            }
+
+            writerThread.start();
+            writerStarted = true;
+        }
+        catch (RuntimeException | Error e)
+        {
+            stop();
+            throw e;
+        }
+    }
+
+    /*
+     * Returns a free job for the frame thread to fill, or null if the
+     * frame should be dropped. Never blocks.
+     */
+    Job<S> obtain()
+    {
+        if(stopRequested)
+        {
+            return null;
+        }
+
+        Job<S> job = freeJobs.poll();
+
+        if(job == null)
+        {
+            framesDropped++;
+        }
+
+        return job;
+    }
+
+    /*
+     * Hands a filled job off for compression. Never blocks.
+     */
+    void submit(Job<S> job)
+    {
+        job.seq = nextSeqToSubmit++;
+        job.failed = false;
+        pendingCompression.add(job);
+        submittedCount = nextSeqToSubmit;
+    }
+
+    /*
+     * Stops accepting new jobs and waits for everything already submitted
+     * to be written. Safe to call after a failed (or without a) start().
+     */
+    void stop()
+    {
+        stopRequested = true;
+
+        for(int i = 0; i < compressionThreads.length; i++)
+        {
+            pendingCompression.add(poison);
+        }
+
+        for(Thread t : compressionThreads)
+        {
+            Util.joinUninterruptibly(t);
+        }
+
+        synchronized (compressed)
+        {
+            compressed.notifyAll();
+        }
+
+        Util.joinUninterruptibly(writerThread);
+
+        if(!writerStarted)
+        {
+            onWriterExit();
+        }
+    }
+
+    boolean isStopRequested()
+    {
+        return stopRequested;
+    }
+
+    int getFramesDropped()
+    {
+        return framesDropped;
+    }
+
+    private class CompressionThread extends Thread
+    {
+        CompressionThread(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public void run()
+        {
+            OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.ENCODER);
+
+            T threadState = createThreadState();
+
+            try
+            {
+                while (true)
+                {
+                    Job<S> job;
+
+                    try
+                    {
+                        job = pendingCompression.take();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+
+                    if(job == poison)
+                    {
+                        break;
+                    }
+
+                    OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.ENCODER);
+
+                    try
+                    {
+                        compress(job.payload, threadState);
+                    }
+                    catch (Exception e)
+                    {
+                        e.printStackTrace();
+                        job.failed = true;
+                    }
+
+                    synchronized (compressed)
+                    {
+                        compressed[(int) (job.seq % compressed.length)] = job;
+                        compressed.notifyAll();
+                    }
+                }
+            }
+            finally
+            {
+                destroyThreadState(threadState);
+            }
+        }
+    }
+
+    private class WriterThread extends Thread
+    {
+        WriterThread(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.ENCODER);
+                    onWriterTick();
+
+                    Job<S> job;
+
+                    synchronized (compressed)
+                    {
+                        int idx = (int) (nextSeqToWrite % compressed.length);
+                        job = compressed[idx];
+
+                        if(job == null || job.seq != nextSeqToWrite)
+                        {
+                            if(stopRequested && nextSeqToWrite == submittedCount && !compressionThreadsAlive())
+                            {
+                                break;
+                            }
+
+                            try
+                            {
+                                compressed.wait(writerTickMs);
+                            }
+                            catch (InterruptedException e)
+                            {
+                                Thread.currentThread().interrupt();
+                                break;
+                            }
+                            continue;
+                        }
+
+                        compressed[idx] = null;
+                    }
+
+                    if(!job.failed)
+                    {
+                        write(job.payload);
+                    }
+
+                    nextSeqToWrite++;
+                    freeJobs.add(job);
+                }
+            }
+            finally
+            {
+                onWriterExit();
+            }
+        }
+
+        private boolean compressionThreadsAlive()
+        {
+            for(Thread t : compressionThreads)
+            {
+                if(t.isAlive())
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/**
+ * Times named sections of a pipeline's processFrame(), so that you can see which
+ * stage is actually worth optimizing rather than just the single number from
+ * {@code OpenCvCamera.getPipelineTimeMs()}. Every pipeline has one; get it
+ * with {@link OpenCvPipeline#getProfiler()} and enable it, then bracket the
+ * interesting parts of processFrame():
+ *
+ * <pre>
+ *     profiler.begin("threshold");
+ *     Core.inRange(hsv, lower, upper, mask);
+ *     profiler.end();
+ * </pre>
+ *
+ * When enabled, the per section times are shown on the viewport above the FPS meter,
+ * and can also be read from any thread via {@link #getSectionCount()} and
+ * {@link #getSection(int)}. When disabled (the default) begin() and end() return
+ * immediately, so they can be left in place for competition.
+ *
+ * Sections may be nested, in which case the outer section's time includes the
+ * inner one's. A section which is entered more than once in a frame is charged the
+ * total. Nothing is allocated per frame, only the first time a section is seen.
+ *
+ * If begin() and end() don't balance in a frame, that frame's times are thrown away
+ * and a warning is logged (once), rather than the pipeline being stopped for it.
+ */
+public class PipelineProfiler
+{
+    /**
+     * The most distinct sections a pipeline may use
+     */
+    public static final int MAX_SECTIONS = 16;
+
+    /**
+     * How deeply sections may be nested
+     */
+    public static final int MAX_DEPTH = 8;
+
+    private static final int WINDOW_SIZE = 30;
+
+    private volatile boolean enabled;
+    private volatile boolean resetRequested;
+    private boolean enabledThisFrame;
+
+    private final Section[] sections = new Section[MAX_SECTIONS];
+    private volatile int sectionCount;
+
+    private final Section[] stack = new Section[MAX_DEPTH];
+    private int depth;
+    private boolean unbalancedThisFrame;
+    private boolean warnedUnbalanced;
+
+    /**
+     * Timing statistics for one named section. The getters may be called from any
+     * thread; the values are updated once per frame, after processFrame() returns.
+     */
+    public static class Section
+    {
+        private final String name;
+        private final FrameStatistics.RollingMean frameNanos = new FrameStatistics.RollingMean(WINDOW_SIZE);
+
+        private long startNanos;
+        private long nanosThisFrame;
+        private int callsThisFrame;
+
+        private volatile long lastNanos;
+        private volatile long averageNanos;
+        private volatile long maxNanos;
+        private volatile int lastCalls;
+
+        private Section(String name)
+        {
+            this.name = name;
+        }
+
+        private void endFrame()
+        {
+            frameNanos.add(nanosThisFrame);
+
+            lastNanos = nanosThisFrame;
+            lastCalls = callsThisFrame;
+            averageNanos = (long) frameNanos.getMean();
+
+            if(nanosThisFrame > maxNanos)
+            {
+                maxNanos = nanosThisFrame;
+            }
+
+            nanosThisFrame = 0;
+            callsThisFrame = 0;
+        }
+
+        private void discardFrame()
+        {
+            nanosThisFrame = 0;
+            callsThisFrame = 0;
+        }
+
+        private void reset()
+        {
+            frameNanos.clear();
+            lastNanos = 0;
+            averageNanos = 0;
+            maxNanos = 0;
+            lastCalls = 0;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return the time spent in this section during the most recent frame
+         */
+        public long getLastNanos()
+        {
+            return lastNanos;
+        }
+
+        /**
+         * @return the time spent in this section per frame, averaged over the last
+         * 30 frames. Frames which didn't enter the section count as zero.
+         */
+        public long getAverageNanos()
+        {
+            return averageNanos;
+        }
+
+        /**
+         * @return the longest time spent in this section in one frame since the
+         * profiler was enabled or last reset
+         */
+        public long getMaxNanos()
+        {
+            return maxNanos;
+        }
+
+        /**
+         * @return how many times the section was entered during the most recent frame
+         */
+        public int getLastCalls()
+        {
+            return lastCalls;
+        }
+    }
+
+    /**
+     * Turn section timing on or off. Takes effect at the start of the next frame.
+     * @param enabled whether to time sections
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Start timing a section. Must be matched by a call to {@link #end()}
+     * before processFrame() returns.
+     *
+     * @param name the name of the section. Using a string literal (or some
+     *             other constant) makes looking the section up cheaper.
+     */
+    public void begin(String name)
+    {
+        if(!enabledThisFrame || unbalancedThisFrame)
+        {
+            return;
+        }
+
+        if(depth == MAX_DEPTH)
+        {
+            unbalanced("Profiler sections nested more than %d deep", MAX_DEPTH);
+            return;
+        }
+
+        Section section = findOrAddSection(name);
+        stack[depth++] = section;
+        section.callsThisFrame++;
+        section.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stop timing the section most recently started with {@link #begin(String)}
+     */
+    public void end()
+    {
+        if(!enabledThisFrame || unbalancedThisFrame)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        if(depth == 0)
+        {
+            unbalanced("Profiler end() called without a matching begin()");
+            return;
+        }
+
+        Section section = stack[--depth];
+        section.nanosThisFrame += now - section.startNanos;
+    }
+
+    /**
+     * @return how many distinct sections have been seen so far
+     */
+    public int getSectionCount()
+    {
+        return sectionCount;
+    }
+
+    /**
+     * @param index from 0 to {@link #getSectionCount()}-1, in the order the sections were first seen
+     * @return the statistics for that section
+     */
+    public Section getSection(int index)
+    {
+        if(index < 0 || index >= sectionCount)
+        {
+            throw new IllegalArgumentException("No profiler section at index " + index);
+        }
+
+        return sections[index];
+    }
+
+    /**
+     * Clear the statistics of all sections (the sections themselves are kept).
+     * Takes effect at the start of the next frame.
+     */
+    public void reset()
+    {
+        resetRequested = true;
+    }
+
+    /*
+     * Called by OpenCvPipeline around processFrame()
+     */
+    void beginFrame()
+    {
+        boolean wasEnabled = enabledThisFrame;
+        enabledThisFrame = enabled;
+        depth = 0;
+        unbalancedThisFrame = false;
+
+        if(resetRequested || (enabledThisFrame && !wasEnabled))
+        {
+            resetRequested = false;
+            int count = sectionCount;
+
+            for(int i = 0; i < count; i++)
+            {
+                sections[i].reset();
+            }
+        }
+    }
+
+    void endFrame()
+    {
+        if(!enabledThisFrame)
+        {
+            return;
+        }
+
+        if(!unbalancedThisFrame && depth != 0)
+        {
+            unbalanced("Profiler section \"%s\" was not ended before processFrame() returned", stack[depth-1].name);
+        }
+
+        int count = sectionCount;
+
+        for(int i = 0; i < count; i++)
+        {
+            if(unbalancedThisFrame)
+            {
+                sections[i].discardFrame();
+            }
+            else
+            {
+                sections[i].endFrame();
+            }
+        }
+
+        depth = 0;
+        unbalancedThisFrame = false;
+    }
+
+    /*
+     * The times for this frame can't be trusted; stop timing for the rest of it,
+     * and drop what we have at the end of it. Only worth telling the user once.
+     */
+    private void unbalanced(String format, Object... args)
+    {
+        unbalancedThisFrame = true;
+
+        if(!warnedUnbalanced)
+        {
+            warnedUnbalanced = true;
+            Platform.get().logWarning("EasyOpenCV", format + "; discarding that frame's profile", args);
+        }
+    }
+
+    private Section findOrAddSection(String name)
+    {
+        int count = sectionCount;
+
+        // Literals are interned, so the identity check nearly always hits first time
+        for(int i = 0; i < count; i++)
+        {
+            if(sections[i].name == name)
+            {
+                return sections[i];
+            }
+        }
+
+        for(int i = 0; i < count; i++)
+        {
+            if(sections[i].name.equals(name))
+            {
+                return sections[i];
+            }
+        }
+
+        if(name == null)
+        {
+            throw new IllegalArgumentException("Profiler section name may not be null");
+        }
+
+        if(count == MAX_SECTIONS)
+        {
+            throw new IllegalStateException("Pipelines may use at most " + MAX_SECTIONS + " profiler sections");
+        }
+
+        sections[count] = new Section(name);
+
+        // Publish the new section to readers on other threads
+        sectionCount = count + 1;
+
+        return sections[count];
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import java.lang.reflect.InvocationTargetException;
+
+/*
+ * The handful of things the frame path needs to ask of whatever it's
+ * running on. On the robot this is AndroidPlatform, which lives in the
+ * Android module; anywhere else (e.g. off-device benchmarks on a desktop
+ * JVM) we fall back to HostPlatform. Looked up reflectively so that the
+ * core module never has to link against anything Android.
+ */
+abstract class Platform
+{
+    private static Platform instance;
+
+    static synchronized Platform get()
+    {
+        if(instance == null)
+        {
+            try
+            {
+                instance = (Platform) Class.forName("org.openftc.easyopencv.AndroidPlatform").getDeclaredConstructor().newInstance();
+            }
+            catch (ClassNotFoundException | NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException | LinkageError e)
+            {
+                instance = new HostPlatform();
+            }
+        }
+
+        return instance;
+    }
+
+    /*
+     * How many bytes are currently allocated on the native heap,
+     * or -1 if that can't be determined
+     */
+    abstract long getNativeHeapAllocatedBytes();
+
+    /*
+     * What percentage of system RAM is currently available,
+     * or -1 if that can't be determined
+     */
+    abstract float getAvailableMemoryPercent();
+
+    /*
+     * Where OpenCvPipeline#saveMatToDisk() puts things
+     */
+    abstract String getDefaultSavePath();
+
+    /*
+     * Log a message, formatted as with String.format(), where whoever's
+     * watching the robot (or host) will see it. Not for per-frame use.
+     */
+    abstract void logInfo(String tag, String format, Object... args);
+
+    abstract void logWarning(String tag, String format, Object... args);
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*
+ * Reads back a replay file written by ReplayFileWriter (see there for the layout).
+ *
+ * The file is mapped read-only, MAPPING_FRAMES records at a time, and frames are
+ * copied straight out of the mapping into the caller's Mat. Only depends on plain
+ * Java and the OpenCV Java bindings, so it works on a desktop JVM as well.
+ *
+ * Not thread safe.
+ */
+class ReplayFileReader
+{
+    private static final int MAPPING_FRAMES = 16;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    private final int width;
+    private final int height;
+    private final int type;
+    private final int frameSize;
+    private final int recordSize;
+    private final long frameCount;
+
+    private MappedByteBuffer mapping;
+    private final Mat[] mappingFrames = new Mat[MAPPING_FRAMES];
+    private long mappingFirstFrame = -1;
+    private int mappingFrameCount;
+
+    ReplayFileReader(File file) throws IOException
+    {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(ReplayFileWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            while (header.hasRemaining())
+            {
+                if(channel.read(header, header.position()) < 0)
+                {
+                    throw new IOException(file.getAbsolutePath() + " is not a replay file (truncated header)");
+                }
+            }
+
+            header.flip();
+
+            byte[] magic = new byte[ReplayFileWriter.FILE_MAGIC.length];
+            header.get(magic);
+
+            if(!Arrays.equals(magic, ReplayFileWriter.FILE_MAGIC))
+            {
+                throw new IOException(file.getAbsolutePath() + " is not a replay file");
+            }
+
+            int version = header.getInt();
+
+            if(version != ReplayFileWriter.FILE_VERSION)
+            {
+                throw new IOException(String.format("Unsupported replay file version %d", version));
+            }
+
+            width = header.getInt();
+            height = header.getInt();
+            type = header.getInt();
+            frameSize = header.getInt();
+            recordSize = header.getInt();
+
+            long countInHeader = header.getLong();
+            long countFromLength = recordSize > 0 ? (channel.size() - ReplayFileWriter.HEADER_SIZE) / recordSize : 0;
+
+            /*
+             * If the recording wasn't closed cleanly the count will be 0, but every complete
+             * record is still there. The last one may have been cut off part way though, so
+             * count records up to the first one which wasn't marked complete.
+             */
+            frameCount = countInHeader > 0 ? Math.min(countInHeader, countFromLength) : countCompleteRecords(countFromLength);
+        }
+        catch (IOException e)
+        {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private long countCompleteRecords(long maxRecords) throws IOException
+    {
+        ByteBuffer sequence = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        for(long i = 0; i < maxRecords; i++)
+        {
+            sequence.clear();
+            long position = ReplayFileWriter.HEADER_SIZE + i * recordSize + ReplayFileWriter.RECORD_SEQUENCE_OFFSET;
+
+            while (sequence.hasRemaining())
+            {
+                if(channel.read(sequence, position + sequence.position()) < 0)
+                {
+                    return i;
+                }
+            }
+
+            if(sequence.getLong(0) != i + 1)
+            {
+                return i;
+            }
+        }
+
+        return maxRecords;
+    }
+
+    int getWidth()
+    {
+        return width;
+    }
+
+    int getHeight()
+    {
+        return height;
+    }
+
+    int getType()
+    {
+        return type;
+    }
+
+    long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    long getTimestamp(long frame) throws IOException
+    {
+        ensureMapped(frame);
+        return mapping.getLong((int) (frame - mappingFirstFrame) * recordSize);
+    }
+
+    long getFrameNumber(long frame) throws IOException
+    {
+        ensureMapped(frame);
+        return mapping.getLong((int) (frame - mappingFirstFrame) * recordSize + 8);
+    }
+
+    /*
+     * Copies the given frame into dst, (re)allocating it if it isn't already the right size/type
+     */
+    void readFrame(long frame, Mat dst) throws IOException
+    {
+        ensureMapped(frame);
+        mappingFrames[(int) (frame - mappingFirstFrame)].copyTo(dst);
+    }
+
+    void close() throws IOException
+    {
+        releaseMappingFrames();
+        mapping = null;
+        randomAccessFile.close();
+    }
+
+    private void ensureMapped(long frame) throws IOException
+    {
+        if(frame < 0 || frame >= frameCount)
+        {
+            throw new IndexOutOfBoundsException(String.format("Frame %d requested, but replay only has %d frames", frame, frameCount));
+        }
+
+        if(mapping != null && frame >= mappingFirstFrame && frame < mappingFirstFrame + mappingFrameCount)
+        {
+            return;
+        }
+
+        releaseMappingFrames();
+
+        mappingFirstFrame = frame;
+        mappingFrameCount = (int) Math.min(MAPPING_FRAMES, frameCount - frame);
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, ReplayFileWriter.HEADER_SIZE + frame * recordSize, (long) mappingFrameCount * recordSize);
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+        for(int i = 0; i < mappingFrameCount; i++)
+        {
+            mappingFrames[i] = new Mat(height, width, type, ReplayFileWriter.sliceOf(mapping, i * recordSize + ReplayFileWriter.RECORD_HEADER_SIZE, frameSize));
+        }
+    }
+
+    private void releaseMappingFrames()
+    {
+        for(int i = 0; i < MAPPING_FRAMES; i++)
+        {
+            if(mappingFrames[i] != null)
+            {
+                mappingFrames[i].release();
+                mappingFrames[i] = null;
+            }
+        }
+    }
+}
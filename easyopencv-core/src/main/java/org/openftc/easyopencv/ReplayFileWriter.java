@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ * Writes frames, exactly as they are handed to handleFrame() (i.e. already converted
+ * to RGBA, but not yet rotated), to a replay file which can be fed back
+ * through a camera later by OpenCvReplayCameraImpl (see ReplayFileReader).
+ *
+ * Layout (little endian, so the file can be mapped and read as-is on any host we care about):
+ *
+ *     byte[8] magic "EOCVRPLY"
+ *     int     format version
+ *     int     width
+ *     int     height
+ *     int     OpenCV type of the pixel data (e.g. CV_8UC4)
+ *     int     frame size in bytes (tightly packed rows)
+ *     int     record size in bytes
+ *     long    number of frames (written on close)
+ *     ...     padding up to HEADER_SIZE
+ *
+ * followed by fixed size records, each RECORD_ALIGNMENT aligned:
+ *
+ *     long    capture timestamp (ns, as handed to TimestampedOpenCvPipeline)
+ *     long    frame number
+ *     long    sequence number: the record's index + 1, written once the rest of the
+ *             record is; anything else means the record was never completed
+ *     ...     padding up to RECORD_HEADER_SIZE
+ *     ...     frame data
+ *
+ * Because every record has the same size, frame N can be located without any index.
+ * Each record is assembled in one direct buffer, allocated along with the header, and
+ * handed to the channel with a positional write; this runs on the frame thread, so it
+ * mustn't allocate anything per frame (nor leave a trail of mappings waiting on a GC to
+ * unmap them). All frames must have the size and type of the first one; any that don't
+ * are skipped.
+ *
+ * Not thread safe.
+ */
+class ReplayFileWriter
+{
+    static final byte[] FILE_MAGIC = {'E', 'O', 'C', 'V', 'R', 'P', 'L', 'Y'};
+    static final int FILE_VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_HEADER_SIZE = 32;
+    static final int RECORD_SEQUENCE_OFFSET = 16;
+    static final int RECORD_ALIGNMENT = 64;
+    static final int FRAME_COUNT_OFFSET = 32;
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+
+    private int width;
+    private int height;
+    private int type;
+    private int frameSize;
+    private int recordSize;
+
+    private ByteBuffer record;
+    private Mat recordFrame;
+    private ByteBuffer sequence;
+
+    private long framesWritten;
+    private long framesSkipped;
+
+    ReplayFileWriter(File file)
+    {
+        this.file = file;
+    }
+
+    static int recordSizeFor(int frameSize)
+    {
+        int size = RECORD_HEADER_SIZE + frameSize;
+        return (size + RECORD_ALIGNMENT - 1) / RECORD_ALIGNMENT * RECORD_ALIGNMENT;
+    }
+
+    void open() throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+
+        if(parent != null && !parent.exists() && !parent.mkdirs())
+        {
+            throw new IOException("Unable to create directory " + parent.getAbsolutePath());
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+    }
+
+    void write(Mat frame, long timestamp, long frameNumber) throws IOException
+    {
+        if(frameSize == 0)
+        {
+            writeHeader(frame);
+        }
+        else if(frame.cols() != width || frame.rows() != height || frame.type() != type)
+        {
+            framesSkipped++;
+            return;
+        }
+
+        long position = HEADER_SIZE + framesWritten * recordSize;
+
+        record.putLong(0, timestamp);
+        record.putLong(8, frameNumber);
+        frame.copyTo(recordFrame);
+        writeFully(record, position);
+
+        // Separately and last, so that a crash mid-record doesn't leave it looking complete
+        sequence.putLong(0, framesWritten + 1);
+        writeFully(sequence, position + RECORD_SEQUENCE_OFFSET);
+
+        framesWritten++;
+    }
+
+    void close() throws IOException
+    {
+        if(channel == null)
+        {
+            return;
+        }
+
+        try
+        {
+            if(recordFrame != null)
+            {
+                recordFrame.release();
+                recordFrame = null;
+            }
+
+            if(frameSize != 0)
+            {
+                sequence.putLong(0, framesWritten);
+                writeFully(sequence, FRAME_COUNT_OFFSET);
+            }
+
+            channel.force(true);
+        }
+        finally
+        {
+            randomAccessFile.close();
+            randomAccessFile = null;
+            channel = null;
+        }
+    }
+
+    long getFramesWritten()
+    {
+        return framesWritten;
+    }
+
+    long getFramesSkipped()
+    {
+        return framesSkipped;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    private void writeHeader(Mat frame) throws IOException
+    {
+        width = frame.cols();
+        height = frame.rows();
+        type = frame.type();
+        frameSize = (int) (frame.total() * frame.elemSize());
+        recordSize = recordSizeFor(frameSize);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(FILE_MAGIC);
+        header.putInt(FILE_VERSION);
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(type);
+        header.putInt(frameSize);
+        header.putInt(recordSize);
+        header.putLong(0);
+        writeFully(header, 0);
+
+        /*
+         * The sequence number is left 0 in here and written on its own afterwards
+         * (see write()), so it's only the frame data and padding that get copied
+         */
+        record = ByteBuffer.allocateDirect(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+        recordFrame = new Mat(height, width, type, sliceOf(record, RECORD_HEADER_SIZE, frameSize));
+        sequence = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException
+    {
+        buffer.clear();
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    static ByteBuffer sliceOf(ByteBuffer buffer, int offset, int length)
+    {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+ * Plays back a replay file (see ReplayFileWriter) with its original frame spacing
+ */
+class ReplayFrameSource implements OpenCvFrameSource
+{
+    private final String path;
+    private ReplayFileReader reader;
+    private long nextFrame;
+    private long firstTimestamp;
+
+    ReplayFrameSource(String path)
+    {
+        this.path = path;
+    }
+
+    @Override
+    public void open() throws IOException
+    {
+        reader = new ReplayFileReader(new File(path));
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return reader.getWidth();
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return reader.getHeight();
+    }
+
+    long getFrameCount()
+    {
+        return reader.getFrameCount();
+    }
+
+    @Override
+    public void rewind() throws IOException
+    {
+        nextFrame = 0;
+        firstTimestamp = reader.getFrameCount() > 0 ? reader.getTimestamp(0) : 0;
+    }
+
+    @Override
+    public long nextFrame(Mat dst) throws IOException
+    {
+        if(nextFrame >= reader.getFrameCount())
+        {
+            return -1;
+        }
+
+        reader.readFrame(nextFrame, dst);
+        long presentationTime = reader.getTimestamp(nextFrame) - firstTimestamp;
+        nextFrame++;
+
+        return Math.max(0, presentationTime);
+    }
+
+    @Override
+    public void close()
+    {
+        if(reader != null)
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/*
+ * Picks the scale at which frames should be handed to the pipeline in order to
+ * keep its run time within a budget. The ladder is a list of scales, largest first;
+ * we step down it when the pipeline runs over budget and back up when there's
+ * headroom.
+ *
+ * Pipeline time is judged over windows of frames, and the window starts over after
+ * every step, so frames processed at the old scale never count against the new one.
+ * Run time is assumed to be roughly proportional to the pixel count (i.e. the
+ * square of the scale), which lets us jump straight down several rungs when the
+ * pipeline is way over budget. Stepping back up only happens one rung at a time,
+ * and only when the step is predicted to leave some headroom. Without that, it
+ * would keep flapping between two rungs.
+ *
+ * Not thread safe; intended to be used from a single frame thread.
+ */
+class ResolutionLadder
+{
+    static final double[] DEFAULT_SCALES = {1, 0.75, 0.5, 0.375, 0.25};
+    static final int FRAMES_PER_DECISION = 10;
+
+    // Only step up if the pipeline is predicted to use less than this much of the budget afterwards
+    static final double STEP_UP_HEADROOM = 0.8;
+
+    private final long budgetNanos;
+    private final double[] scales;
+    private int rung;
+    private long windowNanos;
+    private int windowFrames;
+
+    ResolutionLadder(double budgetMs, double[] scales)
+    {
+        if(budgetMs <= 0)
+        {
+            throw new IllegalArgumentException("Time budget must be > 0");
+        }
+
+        if(scales.length == 0 || scales[0] > 1)
+        {
+            throw new IllegalArgumentException("The resolution ladder must have at least one scale, none of them more than 1");
+        }
+
+        for(int i = 0; i < scales.length; i++)
+        {
+            if(scales[i] <= 0 || (i > 0 && scales[i] >= scales[i-1]))
+            {
+                throw new IllegalArgumentException("The resolution ladder's scales must be > 0, and in decreasing order");
+            }
+        }
+
+        this.budgetNanos = (long) (budgetMs * 1e6);
+        this.scales = scales.clone();
+    }
+
+    /*
+     * Back to the top, e.g. for a new stream
+     */
+    void reset()
+    {
+        rung = 0;
+        windowNanos = 0;
+        windowFrames = 0;
+    }
+
+    double getScale()
+    {
+        return scales[rung];
+    }
+
+    /*
+     * Feed in how long the pipeline took on a frame at the current scale.
+     * Returns true if the scale changed.
+     */
+    boolean addSample(long pipelineNanos)
+    {
+        windowNanos += pipelineNanos;
+        windowFrames++;
+
+        if(windowFrames < FRAMES_PER_DECISION)
+        {
+            return false;
+        }
+
+        double meanNanos = (double) windowNanos / windowFrames;
+        windowNanos = 0;
+        windowFrames = 0;
+
+        int previousRung = rung;
+        double currentScale = scales[rung];
+
+        if(meanNanos > budgetNanos)
+        {
+            // Go down at least one rung, and further if that won't be enough (or to the bottom if nothing will)
+            int target = rung + 1;
+
+            while (target < scales.length-1 && predict(meanNanos, currentScale, scales[target]) > budgetNanos)
+            {
+                target++;
+            }
+
+            rung = Math.min(target, scales.length-1);
+        }
+        else if(rung > 0 && predict(meanNanos, currentScale, scales[rung-1]) < budgetNanos * STEP_UP_HEADROOM)
+        {
+            rung--;
+        }
+
+        return rung != previousRung;
+    }
+
+    /*
+     * How long the pipeline would take at another scale, given
+     * how long it's taking at the current one
+     */
+    private static double predict(double meanNanos, double currentScale, double otherScale)
+    {
+        double ratio = otherScale / currentScale;
+        return meanNanos * ratio * ratio;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * One pooled copy of the current frame from a source (the raw frames, or the pipeline
+ * output), shared by all of the consumers of that source (recorder, frame capture, black
+ * box), so that however many of them there are, the frame thread only copies it once.
+ *
+ * The frame thread calls begin() with the frame, offers it to each consumer, then calls
+ * end(). The first consumer to acquire() it triggers the copy; the rest get the same
+ * buffer. Each holds its reference for as long as it needs the pixels, on whichever thread,
+ * and then release()s it; the buffer goes back in the pool once everyone has let go. The
+ * pool grows to however many buffers the consumers keep in flight at once, and no further,
+ * so nothing is allocated per frame once it has warmed up.
+ */
+class SharedFrameCopy
+{
+    private final Object lock = new Object();
+    private Buffer[] free = new Buffer[4];
+    private int freeCount;
+
+    // Frame thread only
+    private Mat frame;
+    private Buffer current;
+
+    static class Buffer
+    {
+        final Mat mat = new Mat();
+        private final SharedFrameCopy owner;
+        private final AtomicInteger refs = new AtomicInteger();
+
+        private Buffer(SharedFrameCopy owner)
+        {
+            this.owner = owner;
+        }
+
+        /*
+         * Drop a reference obtained from acquire(). Any thread.
+         */
+        void release()
+        {
+            if(refs.decrementAndGet() == 0)
+            {
+                owner.recycle(this);
+            }
+        }
+    }
+
+    /*
+     * Start offering a frame to consumers. Frame thread only.
+     */
+    void begin(Mat frame)
+    {
+        this.frame = frame;
+    }
+
+    /*
+     * The frame currently being offered, for consumers to look at (e.g. its size) before
+     * deciding to acquire() it. Must not be held on to past the call it was passed in.
+     */
+    Mat getFrame()
+    {
+        return frame;
+    }
+
+    /*
+     * Get a reference to the copy of the current frame, copying it if no one else has
+     * yet. Each reference must be given back with Buffer.release(). Frame thread only.
+     */
+    Buffer acquire()
+    {
+        if(current == null)
+        {
+            current = obtain();
+
+            // Ours, until end(), so that it can't be recycled between consumers
+            current.refs.set(1);
+            frame.copyTo(current.mat);
+        }
+
+        current.refs.incrementAndGet();
+        return current;
+    }
+
+    /*
+     * Done offering the current frame. Frame thread only.
+     */
+    void end()
+    {
+        frame = null;
+
+        if(current != null)
+        {
+            Buffer buffer = current;
+            current = null;
+            buffer.release();
+        }
+    }
+
+    /*
+     * Free the pixels of the buffers not in use, once the source has no consumers left
+     */
+    void trim()
+    {
+        synchronized (lock)
+        {
+            for(int i = 0; i < freeCount; i++)
+            {
+                free[i].mat.release();
+            }
+        }
+    }
+
+    private Buffer obtain()
+    {
+        synchronized (lock)
+        {
+            if(freeCount > 0)
+            {
+                Buffer buffer = free[--freeCount];
+                free[freeCount] = null;
+                return buffer;
+            }
+        }
+
+        // Every buffer is in use; there's one more in flight than ever before
+        return new Buffer(this);
+    }
+
+    private void recycle(Buffer buffer)
+    {
+        synchronized (lock)
+        {
+            if(freeCount == free.length)
+            {
+                Buffer[] grown = new Buffer[free.length * 2];
+                System.arraycopy(free, 0, grown, 0, freeCount);
+                free = grown;
+            }
+
+            free[freeCount++] = buffer;
+        }
+    }
+}
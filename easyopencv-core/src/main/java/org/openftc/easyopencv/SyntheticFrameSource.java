@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * Generates a test pattern: color bars with a box moving across them and the frame
+ * number in the corner. Frame N always looks the same, so results are repeatable.
+ * Nothing is allocated per frame beyond what OpenCV does internally for putText().
+ */
+class SyntheticFrameSource implements OpenCvFrameSource
+{
+    private static final Scalar[] BAR_COLORS = {
+            new Scalar(255, 255, 255, 255),
+            new Scalar(255, 255, 0, 255),
+            new Scalar(0, 255, 255, 255),
+            new Scalar(0, 255, 0, 255),
+            new Scalar(255, 0, 255, 255),
+            new Scalar(255, 0, 0, 255),
+            new Scalar(0, 0, 255, 255),
+            new Scalar(0, 0, 0, 255),
+    };
+    private static final Scalar BOX_COLOR = new Scalar(255, 128, 0, 255);
+    private static final Scalar TEXT_COLOR = new Scalar(0, 0, 0, 255);
+    private static final Scalar TEXT_BACKGROUND_COLOR = new Scalar(255, 255, 255, 255);
+
+    private final int width;
+    private final int height;
+    private final long frameIntervalNanos;
+    private final long maxFrames;
+
+    private Mat background;
+    private final Point boxTopLeft = new Point();
+    private final Point boxBottomRight = new Point();
+    private final Point textOrigin = new Point();
+    private final Point textBackgroundBottomRight = new Point();
+    private long frameNumber;
+
+    SyntheticFrameSource(int width, int height, double fps, long maxFrames)
+    {
+        if(width <= 0 || height <= 0 || fps <= 0)
+        {
+            throw new IllegalArgumentException("Width, height and fps must be positive");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.frameIntervalNanos = (long) (1e9 / fps);
+        this.maxFrames = maxFrames;
+    }
+
+    @Override
+    public void open()
+    {
+        background = new Mat(height, width, CvType.CV_8UC4);
+
+        int barWidth = Math.max(1, width / BAR_COLORS.length);
+
+        for(int i = 0; i < BAR_COLORS.length; i++)
+        {
+            int x = i * barWidth;
+            int w = (i == BAR_COLORS.length - 1) ? width - x : barWidth;
+
+            if(w > 0 && x < width)
+            {
+                Mat bar = background.submat(new Rect(x, 0, w, height));
+                bar.setTo(BAR_COLORS[i]);
+                bar.release();
+            }
+        }
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    @Override
+    public void rewind()
+    {
+        frameNumber = 0;
+    }
+
+    @Override
+    public long nextFrame(Mat dst)
+    {
+        if(maxFrames > 0 && frameNumber >= maxFrames)
+        {
+            return -1;
+        }
+
+        background.copyTo(dst);
+
+        int boxSize = Math.max(4, Math.min(width, height) / 6);
+        int travel = Math.max(1, width - boxSize);
+        long phase = (frameNumber * 4) % (2L * travel);
+        int x = (int) (phase < travel ? phase : 2L * travel - phase);
+        int y = (height - boxSize) / 2;
+
+        boxTopLeft.x = x;
+        boxTopLeft.y = y;
+        boxBottomRight.x = x + boxSize;
+        boxBottomRight.y = y + boxSize;
+        Imgproc.rectangle(dst, boxTopLeft, boxBottomRight, BOX_COLOR, -1);
+
+        textOrigin.x = 0;
+        textOrigin.y = 0;
+        textBackgroundBottomRight.x = Math.min(width, 160);
+        textBackgroundBottomRight.y = Math.min(height, 30);
+        Imgproc.rectangle(dst, textOrigin, textBackgroundBottomRight, TEXT_BACKGROUND_COLOR, -1);
+
+        textOrigin.x = 4;
+        textOrigin.y = 22;
+        Imgproc.putText(dst, Long.toString(frameNumber), textOrigin, Imgproc.FONT_HERSHEY_SIMPLEX, 0.7, TEXT_COLOR, 2);
+
+        return frameNumber++ * frameIntervalNanos;
+    }
+
+    @Override
+    public void close()
+    {
+        if(background != null)
+        {
+            background.release();
+            background = null;
+        }
+    }
+}
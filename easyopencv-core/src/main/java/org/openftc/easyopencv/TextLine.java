@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/*
+ * A fixed capacity line of text which can be rebuilt every frame without
+ * allocating anything, unlike String.format() or a StringBuilder's toString().
+ * Meant for things like the FPS meter, which change on (nearly) every frame;
+ * Canvas#drawText(char[], int, int, float, float, Paint) draws it directly.
+ *
+ * Anything appended past the capacity is silently dropped.
+ */
+class TextLine
+{
+    private final char[] chars;
+    private int length;
+
+    // Scratch space for formatting numbers back-to-front; big enough for any long
+    private final char[] digits = new char[20];
+
+    TextLine(int capacity)
+    {
+        chars = new char[capacity];
+    }
+
+    TextLine clear()
+    {
+        length = 0;
+        return this;
+    }
+
+    TextLine append(char c)
+    {
+        if(length < chars.length)
+        {
+            chars[length++] = c;
+        }
+
+        return this;
+    }
+
+    TextLine append(String s)
+    {
+        int n = Math.min(s.length(), chars.length - length);
+        s.getChars(0, n, chars, length);
+        length += n;
+        return this;
+    }
+
+    TextLine append(long value)
+    {
+        if(value < 0)
+        {
+            append('-');
+        }
+
+        appendMagnitude(value);
+        return this;
+    }
+
+    /*
+     * Appends the value rounded to a fixed number of decimal places,
+     * the way String.format("%.Nf") would for the values we deal in
+     */
+    TextLine append(float value, int decimals)
+    {
+        if(Float.isNaN(value) || Float.isInfinite(value))
+        {
+            return append(Float.toString(value));
+        }
+
+        long scale = 1;
+        for(int i = 0; i < decimals; i++)
+        {
+            scale *= 10;
+        }
+
+        long scaled = Math.round(Math.abs((double) value) * scale);
+
+        // Sign bit rather than value < 0, since String.format() gives -0.00 for -0.0 and -0.001
+        if(Float.floatToRawIntBits(value) < 0)
+        {
+            append('-');
+        }
+
+        appendMagnitude(scaled / scale);
+
+        if(decimals > 0)
+        {
+            append('.');
+
+            long fraction = scaled % scale;
+            for(long place = scale / 10; place > 0; place /= 10)
+            {
+                append((char) ('0' + (fraction / place) % 10));
+            }
+        }
+
+        return this;
+    }
+
+    private void appendMagnitude(long value)
+    {
+        int n = 0;
+
+        do
+        {
+            // Work with negative remainders so that Long.MIN_VALUE doesn't overflow
+            digits[n++] = (char) ('0' + Math.abs(value % 10));
+            value /= 10;
+        }
+        while(value != 0);
+
+        while(n > 0)
+        {
+            append(digits[--n]);
+        }
+    }
+
+    char[] chars()
+    {
+        return chars;
+    }
+
+    int length()
+    {
+        return length;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/**
+ * What {@link OpenCvThermalMonitor} should do as the device heats up. There are three
+ * temperature thresholds (warm, hot, and critical), and for each of the levels they
+ * define you choose how hard to throttle the cameras:
+ *
+ *  - the maximum rate at which frames are run through the pipeline
+ *    (frames beyond that skip the pipeline, the viewport and anything recording its output)
+ *  - the maximum rate at which frames are sent to the viewport
+ *  - a factor by which to shrink frames in each dimension before the pipeline
+ *    sees them (1 for none). NB: the pipeline's input changes size when this kicks
+ *    in, so only use it with pipelines that don't assume a fixed frame size!
+ *
+ * Backing off a little before the kernel has to slam the CPU clocks down keeps the
+ * frame rate steady rather than having it fall off a cliff halfway through a match.
+ */
+public class ThermalThrottlingPolicy
+{
+    public final float warmCelsius;
+    public final float hotCelsius;
+    public final float criticalCelsius;
+    public final float hysteresisCelsius;
+
+    private final double[] maxPipelineFps;
+    private final double[] maxViewportFps;
+    private final int[] downscale;
+
+    /***
+     * The arrays are indexed by {@link OpenCvThermalMonitor.Level#ordinal()}, and
+     * must have an entry for every level. See {@link Builder} for the ranges.
+     */
+    public ThermalThrottlingPolicy(float warmCelsius, float hotCelsius, float criticalCelsius, float hysteresisCelsius, double[] maxPipelineFps, double[] maxViewportFps, int[] downscale)
+    {
+        // The Builder checks these too, but this constructor is public
+        checkThresholds(warmCelsius, hotCelsius, criticalCelsius);
+        checkHysteresis(hysteresisCelsius);
+        checkLevelCount(maxPipelineFps.length);
+        checkLevelCount(maxViewportFps.length);
+        checkLevelCount(downscale.length);
+
+        for(int i = 0; i < downscale.length; i++)
+        {
+            checkActions(maxPipelineFps[i], maxViewportFps[i], downscale[i]);
+        }
+
+        this.warmCelsius = warmCelsius;
+        this.hotCelsius = hotCelsius;
+        this.criticalCelsius = criticalCelsius;
+        this.hysteresisCelsius = hysteresisCelsius;
+        this.maxPipelineFps = maxPipelineFps.clone();
+        this.maxViewportFps = maxViewportFps.clone();
+        this.downscale = downscale.clone();
+    }
+
+    private static void checkThresholds(float warmCelsius, float hotCelsius, float criticalCelsius)
+    {
+        if(!(warmCelsius < hotCelsius && hotCelsius < criticalCelsius))
+        {
+            throw new IllegalArgumentException("Thresholds must be in increasing order");
+        }
+    }
+
+    private static void checkHysteresis(float hysteresisCelsius)
+    {
+        if(hysteresisCelsius < 0)
+        {
+            throw new IllegalArgumentException("Hysteresis must be >= 0");
+        }
+    }
+
+    /*
+     * These are looked up by level on every camera's frame thread, so a short one would blow up there
+     */
+    private static void checkLevelCount(int length)
+    {
+        if(length != OpenCvThermalMonitor.Level.values().length)
+        {
+            throw new IllegalArgumentException("Actions must be given for each of the " + OpenCvThermalMonitor.Level.values().length + " levels");
+        }
+    }
+
+    private static void checkActions(double maxPipelineFps, double maxViewportFps, int downscale)
+    {
+        if(maxPipelineFps < 0 || maxViewportFps < 0)
+        {
+            throw new IllegalArgumentException("Max frames per second must be >= 0");
+        }
+
+        if(downscale < 1)
+        {
+            throw new IllegalArgumentException("Downscale factor must be >= 1");
+        }
+    }
+
+    /***
+     * @return the maximum pipeline frame rate at the given level; 0 means no limit
+     */
+    public double getMaxPipelineFps(OpenCvThermalMonitor.Level level)
+    {
+        return maxPipelineFps[level.ordinal()];
+    }
+
+    /***
+     * @return the maximum viewport frame rate at the given level; 0 means no limit
+     */
+    public double getMaxViewportFps(OpenCvThermalMonitor.Level level)
+    {
+        return maxViewportFps[level.ordinal()];
+    }
+
+    /***
+     * @return how much frames are shrunk in each dimension at the given level; 1 means not at all
+     */
+    public int getDownscale(OpenCvThermalMonitor.Level level)
+    {
+        return downscale[level.ordinal()];
+    }
+
+    /*
+     * The lowest temperature at which a given level applies
+     */
+    float thresholdFor(OpenCvThermalMonitor.Level level)
+    {
+        switch (level)
+        {
+            case WARM:     return warmCelsius;
+            case HOT:      return hotCelsius;
+            case CRITICAL: return criticalCelsius;
+            default:       return Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    public static class Builder
+    {
+        private float warmCelsius = 65;
+        private float hotCelsius = 75;
+        private float criticalCelsius = 85;
+        private float hysteresisCelsius = 3;
+
+        // Indexed by level: NORMAL, WARM, HOT, CRITICAL
+        private final double[] maxPipelineFps = {0, 0, 15, 10};
+        private final double[] maxViewportFps = {0, 15, 10, 5};
+        private final int[] downscale = {1, 1, 1, 1};
+
+        /***
+         * @param warmCelsius     the temperature at which {@link OpenCvThermalMonitor.Level#WARM} begins
+         * @param hotCelsius      the temperature at which {@link OpenCvThermalMonitor.Level#HOT} begins
+         * @param criticalCelsius the temperature at which {@link OpenCvThermalMonitor.Level#CRITICAL} begins
+         */
+        public Builder setThresholds(float warmCelsius, float hotCelsius, float criticalCelsius)
+        {
+            checkThresholds(warmCelsius, hotCelsius, criticalCelsius);
+            this.warmCelsius = warmCelsius;
+            this.hotCelsius = hotCelsius;
+            this.criticalCelsius = criticalCelsius;
+            return this;
+        }
+
+        /***
+         * @param hysteresisCelsius how far below a threshold the temperature must fall
+         *                          before dropping back down a level, so that hovering
+         *                          right at a threshold doesn't flap between levels
+         */
+        public Builder setHysteresis(float hysteresisCelsius)
+        {
+            checkHysteresis(hysteresisCelsius);
+            this.hysteresisCelsius = hysteresisCelsius;
+            return this;
+        }
+
+        /***
+         * @param level          the level these actions apply at
+         * @param maxPipelineFps the maximum rate at which frames are run through the pipeline. 0 means no limit.
+         * @param maxViewportFps the maximum rate at which frames are sent to the viewport. 0 means no limit.
+         * @param downscale      the factor by which frames are shrunk in each dimension before
+         *                       the pipeline sees them. 1 means they aren't.
+         */
+        public Builder setActions(OpenCvThermalMonitor.Level level, double maxPipelineFps, double maxViewportFps, int downscale)
+        {
+            checkActions(maxPipelineFps, maxViewportFps, downscale);
+            this.maxPipelineFps[level.ordinal()] = maxPipelineFps;
+            this.maxViewportFps[level.ordinal()] = maxViewportFps;
+            this.downscale[level.ordinal()] = downscale;
+            return this;
+        }
+
+        public ThermalThrottlingPolicy build()
+        {
+            return new ThermalThrottlingPolicy(warmCelsius, hotCelsius, criticalCelsius, hysteresisCelsius, maxPipelineFps, maxViewportFps, downscale);
+        }
+    }
+}
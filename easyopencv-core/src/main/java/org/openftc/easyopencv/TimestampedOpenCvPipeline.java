@@ -26,6 +26,7 @@ import org.opencv.core.Mat;
 public abstract class TimestampedOpenCvPipeline extends OpenCvPipeline
 {
     private long timestamp;
+    private long clockOffsetNanos;
 
     @Override
     public final Mat processFrame(Mat input)
@@ -39,4 +40,19 @@ public abstract class TimestampedOpenCvPipeline extends OpenCvPipeline
     {
         this.timestamp = timestamp;
     }
+
+    /*
+     * What to add to the timestamps to put them on the System.nanoTime() clock. Zero
+     * except for cameras whose timestamps come from another clock, which pipelines
+     * comparing timestamps across cameras (OpenCvMultiCameraPipeline) need to allow for.
+     */
+    void setClockOffset(long clockOffsetNanos)
+    {
+        this.clockOffsetNanos = clockOffsetNanos;
+    }
+
+    long getClockOffsetNanos()
+    {
+        return clockOffsetNanos;
+    }
 }
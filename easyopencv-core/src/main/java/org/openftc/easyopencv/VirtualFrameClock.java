@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/***
+ * A clock which only moves when something waits on it (or it is advanced manually):
+ * sleeping until a point in the future simply jumps the clock there. With this clock,
+ * a frame source camera delivers frames as fast as the pipeline can take them, while
+ * the timestamps handed to the pipeline are exactly those the source asked for, so runs
+ * are repeatable regardless of how fast the machine is.
+ *
+ * May be shared between several cameras.
+ */
+public class VirtualFrameClock implements OpenCvFrameClock
+{
+    private long now;
+
+    public VirtualFrameClock()
+    {
+        this(0);
+    }
+
+    public VirtualFrameClock(long startNanos)
+    {
+        now = startNanos;
+    }
+
+    @Override
+    public synchronized long nanoTime()
+    {
+        return now;
+    }
+
+    @Override
+    public synchronized void sleepUntil(long nanoTime)
+    {
+        if(nanoTime > now)
+        {
+            now = nanoTime;
+        }
+    }
+
+    /***
+     * Move the clock forward
+     *
+     * @param nanos how far to move it
+     */
+    public synchronized void advance(long nanos)
+    {
+        if(nanos < 0)
+        {
+            throw new IllegalArgumentException("Time only goes forward");
+        }
+
+        now += nanos;
+    }
+}
@@ -23,6 +23,7 @@
 #include <opencv2/core.hpp>
 #include <opencv2/imgproc.hpp>
 #include <camera2_jni.h>
+#include "kernels.hpp"
 
 Camera2jni_context::Camera2jni_context(int width, int height)
 {
@@ -69,19 +70,5 @@ Java_org_openftc_easyopencv_OpenCvInternalCamera2Impl_colorConversion(JNIEnv *en
     context->uv_mat1.step = rowStride;
     context->uv_mat2.step = rowStride;
 
-    /*
-     * Actually do the color conversion. Found on the interwebs. I think what's going on here is that
-     * the data from the camera is sent as the Y plane and then the Cr and Cb planes interleaved.
-     */
-    long addr_diff = context->uv_mat2.data - context->uv_mat1.data;
-    if (addr_diff > 0)
-    {
-        //assert(addr_diff == 1);
-        cvtColorTwoPlane(context->y_mat, context->uv_mat1, *rgbFrame, COLOR_YUV2RGBA_NV12);
-    }
-    else
-    {
-        //assert(addr_diff == -1);
-        cvtColorTwoPlane(context->y_mat, context->uv_mat2, *rgbFrame, COLOR_YUV2RGBA_NV21);
-    }
+    eocv::semiPlanarYuvToRgba(context->y_mat, context->uv_mat1, context->uv_mat2, *rgbFrame);
 }
\ No newline at end of file
@@ -25,77 +25,42 @@
 #include <android/native_window.h>
 #include <android/native_window_jni.h>
 #include <android/log.h>
+#include "kernels.hpp"
 
 using namespace cv;
 
 extern "C" JNIEXPORT void JNICALL
-Java_org_openftc_easyopencv_OpenCvCameraBase_nativeCopyMatToSurface(JNIEnv *env, jobject thiz, jlong handle, jlong buf)
+Java_org_openftc_easyopencv_MediaRecorderPipelineRecorder_nativeCopyMatToSurface(JNIEnv *env, jclass clazz, jlong handle, jlong buf)
 {
     ANativeWindow* window = (ANativeWindow*)handle;
-    Mat* originalMat = (Mat*) buf;
-    Mat* mat = originalMat;
-    Mat converted = Mat();
-
-    /*
-     *  We must put RGBA data into the encoder buffer
-     */
-    if(originalMat->channels() == 1)
-    {
-        cvtColor(*originalMat, converted, COLOR_GRAY2RGBA);
-        mat = &converted;
-    }
-    else if(originalMat->channels() == 3)
-    {
-        cvtColor(*originalMat, converted, COLOR_RGB2RGBA);
-        mat = &converted;
-    }
-    else if(originalMat->channels() != 4)
+    Mat* mat = (Mat*) buf;
+
+    if(mat->depth() != CV_8U || (mat->channels() != 1 && mat->channels() != 3 && mat->channels() != 4))
     {
         __android_log_print(ANDROID_LOG_DEBUG, "camera_base_jni", "Aborting frame delivery due to unsupported Mat format");
         return;
     }
 
     ANativeWindow_Buffer nativeWindowBuffer;
-    ANativeWindow_lock(window, &nativeWindowBuffer, NULL);
+
+    if(ANativeWindow_lock(window, &nativeWindowBuffer, NULL) != 0)
+    {
+        __android_log_print(ANDROID_LOG_DEBUG, "camera_base_jni", "Aborting frame delivery due to failure to lock surface");
+        return;
+    }
 
     //__android_log_print(ANDROID_LOG_DEBUG, "Native", "Native buffer format %d [%dx%d] stride %d\n",
     //        nativeWindowBuffer.format, nativeWindowBuffer.width, nativeWindowBuffer.height, nativeWindowBuffer.stride);
 
-    if(nativeWindowBuffer.format != WINDOW_FORMAT_RGBA_8888)
+    if(nativeWindowBuffer.format != WINDOW_FORMAT_RGBA_8888 && nativeWindowBuffer.format != WINDOW_FORMAT_RGBX_8888)
     {
         __android_log_print(ANDROID_LOG_DEBUG, "camera_base_jni", "Aborting frame delivery due to surface format not being RGBA_8888");
-        goto exit;
-    }
-
-    /*
-     * If the stride of the encoder buffer is the same as the
-     * width of our Mat buffer, our life is easy, we can just
-     * do the copy in one go.
-     */
-    if(nativeWindowBuffer.stride == mat->cols)
-    {
-        memcpy(nativeWindowBuffer.bits, mat->data, mat->cols*mat->rows*4);
     }
-    /*
-     * Ugh, the stride doesn't match the width. So, we have to do
-     * a memcpy for each line of the source image, padding the dst
-     * pointer with the difference between the stride and width.
-     */
     else
     {
-        int width = mat->cols;
-        int height = mat->rows;
-        int bitsPerPixel = 4;
-        int scanline_length = width*bitsPerPixel;
-        int scanline_end_padding = (nativeWindowBuffer.stride - width) * bitsPerPixel;
-
-        for(int i = 0; i < height; i++)
-        {
-            memcpy((uint8_t*)nativeWindowBuffer.bits + i*(scanline_length+scanline_end_padding), mat->data+(i*scanline_length), scanline_length);
-        }
+        eocv::copyToRgbaBuffer(*mat, nativeWindowBuffer.bits, nativeWindowBuffer.width, nativeWindowBuffer.height, nativeWindowBuffer.stride);
     }
 
-    exit:
     ANativeWindow_unlockAndPost(window);
 }
 
@@ -110,14 +75,94 @@ void setAlphaChannelTo255(Mat* mat)
 }
 
 extern "C" JNIEXPORT jlong JNICALL
-Java_org_openftc_easyopencv_OpenCvCameraBase_nativeGetSurfaceHandle(JNIEnv *env, jobject thiz, jobject surface)
+Java_org_openftc_easyopencv_MediaRecorderPipelineRecorder_nativeGetSurfaceHandle(JNIEnv *env, jclass clazz, jobject surface)
 {
     ANativeWindow* nativeWindow = ANativeWindow_fromSurface(env, surface);
     return (jlong) nativeWindow;
 }
 
 extern "C" JNIEXPORT void JNICALL
-Java_org_openftc_easyopencv_OpenCvCameraBase_nativeReleaseSurfaceHandle(JNIEnv *env, jobject thiz, jlong handle)
+Java_org_openftc_easyopencv_MediaRecorderPipelineRecorder_nativeReleaseSurfaceHandle(JNIEnv *env, jclass clazz, jlong handle)
 {
     ANativeWindow_release((ANativeWindow*)handle);
-}
\ No newline at end of file
+}
+extern "C" JNIEXPORT jlong JNICALL
+Java_org_openftc_easyopencv_OpenCvSurfaceViewViewport_nativeGetSurfaceHandle(JNIEnv *env, jclass clazz, jobject surface)
+{
+    ANativeWindow* nativeWindow = ANativeWindow_fromSurface(env, surface);
+
+    // Keep the surface's size, but make sure we get buffers we can blit RGBA into
+    ANativeWindow_setBuffersGeometry(nativeWindow, 0, 0, WINDOW_FORMAT_RGBA_8888);
+
+    return (jlong) nativeWindow;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_org_openftc_easyopencv_OpenCvSurfaceViewViewport_nativeReleaseSurfaceHandle(JNIEnv *env, jclass clazz, jlong handle)
+{
+    ANativeWindow_release((ANativeWindow*)handle);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_org_openftc_easyopencv_OpenCvSurfaceViewViewport_nativeBlitMatToSurface(JNIEnv *env, jclass clazz, jlong handle, jlong buf,
+        jint rotation, jint backgroundColor)
+{
+    ANativeWindow* window = (ANativeWindow*)handle;
+    Mat* mat = (Mat*) buf;
+
+    if(mat->depth() != CV_8U || (mat->channels() != 1 && mat->channels() != 3 && mat->channels() != 4))
+    {
+        __android_log_print(ANDROID_LOG_DEBUG, "camera_base_jni", "Aborting viewport blit due to unsupported Mat format");
+        return JNI_FALSE;
+    }
+
+    ANativeWindow_Buffer nativeWindowBuffer;
+
+    if(ANativeWindow_lock(window, &nativeWindowBuffer, NULL) != 0)
+    {
+        __android_log_print(ANDROID_LOG_DEBUG, "camera_base_jni", "Aborting viewport blit due to failure to lock surface");
+        return JNI_FALSE;
+    }
+
+    bool ok = nativeWindowBuffer.format == WINDOW_FORMAT_RGBA_8888 || nativeWindowBuffer.format == WINDOW_FORMAT_RGBX_8888;
+
+    if(!ok)
+    {
+        __android_log_print(ANDROID_LOG_DEBUG, "camera_base_jni", "Aborting viewport blit due to surface format not being RGBA_8888");
+    }
+    else
+    {
+        /*
+         * Letterbox the frame into the middle of the surface, the same as
+         * OpenCvViewRenderer does when drawing through a Canvas
+         */
+        bool swapped = rotation == 90 || rotation == -90 || rotation == 270;
+        double imageAspect = swapped ? (double) mat->rows / mat->cols : (double) mat->cols / mat->rows;
+        double surfaceAspect = (double) nativeWindowBuffer.width / nativeWindowBuffer.height;
+
+        Rect dstRect;
+
+        if(imageAspect > surfaceAspect) /* Image is WIDER than surface */
+        {
+            dstRect.width = nativeWindowBuffer.width;
+            dstRect.height = (int) (nativeWindowBuffer.width / imageAspect + 0.5);
+        }
+        else /* Image is TALLER than surface */
+        {
+            dstRect.height = nativeWindowBuffer.height;
+            dstRect.width = (int) (nativeWindowBuffer.height * imageAspect + 0.5);
+        }
+
+        dstRect.x = (nativeWindowBuffer.width - dstRect.width) / 2;
+        dstRect.y = (nativeWindowBuffer.height - dstRect.height) / 2;
+
+        // Android color ints are ARGB
+        Scalar background((backgroundColor >> 16) & 0xFF, (backgroundColor >> 8) & 0xFF, backgroundColor & 0xFF, 255);
+
+        eocv::blitToRgbaBuffer(*mat, nativeWindowBuffer.bits, nativeWindowBuffer.width, nativeWindowBuffer.height,
+                               nativeWindowBuffer.stride, dstRect, rotation, background);
+    }
+
+    ANativeWindow_unlockAndPost(window);
+    return ok ? JNI_TRUE : JNI_FALSE;
+}
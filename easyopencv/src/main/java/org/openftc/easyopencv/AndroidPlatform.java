@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Debug;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+
+/*
+ * Found reflectively by Platform.get() when running on the robot
+ */
+class AndroidPlatform extends Platform
+{
+    private final ActivityManager activityManager = (ActivityManager) AppUtil.getDefContext().getSystemService(Context.ACTIVITY_SERVICE);
+    private final ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+
+    @Override
+    long getNativeHeapAllocatedBytes()
+    {
+        return Debug.getNativeHeapAllocatedSize();
+    }
+
+    @Override
+    synchronized float getAvailableMemoryPercent()
+    {
+        activityManager.getMemoryInfo(memoryInfo);
+        return ((float) memoryInfo.availMem / (float) memoryInfo.totalMem)*100;
+    }
+
+    @Override
+    String getDefaultSavePath()
+    {
+        return "/sdcard/EasyOpenCV";
+    }
+
+    @Override
+    void logInfo(String tag, String format, Object... args)
+    {
+        RobotLog.ii(tag, format, args);
+    }
+
+    @Override
+    void logWarning(String tag, String format, Object... args)
+    {
+        RobotLog.ww(tag, format, args);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/*
+ * Draws a pipeline's OpenCvAnnotations onto a Canvas, at whatever scale the frame
+ * is being displayed at. Reuses its Paint and Path, so it doesn't allocate per frame.
+ */
+class CanvasAnnotationRenderer
+{
+    private final Paint paint = new Paint();
+    private final Path path = new Path();
+
+    CanvasAnnotationRenderer()
+    {
+        paint.setAntiAlias(true);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+    }
+
+    void draw(Canvas canvas, OpenCvAnnotations annotations, float scaleFramePxToCanvasPx)
+    {
+        for(int i = 0; i < annotations.size(); i++)
+        {
+            float thickness = annotations.getThickness(i);
+
+            paint.setColor(Color.BLACK | annotations.getColor(i));
+            paint.setStyle(thickness < 0 ? Paint.Style.FILL : Paint.Style.STROKE);
+            paint.setStrokeWidth(Math.max(1, thickness * scaleFramePxToCanvasPx));
+
+            float x = annotations.getCoord(i, 0) * scaleFramePxToCanvasPx;
+            float y = annotations.getCoord(i, 1) * scaleFramePxToCanvasPx;
+
+            switch (annotations.getType(i))
+            {
+                case OpenCvAnnotations.RECT:
+                {
+                    canvas.drawRect(x, y,
+                            x + annotations.getCoord(i, 2) * scaleFramePxToCanvasPx,
+                            y + annotations.getCoord(i, 3) * scaleFramePxToCanvasPx,
+                            paint);
+                    break;
+                }
+
+                case OpenCvAnnotations.LINE:
+                {
+                    paint.setStyle(Paint.Style.STROKE);
+                    canvas.drawLine(x, y,
+                            annotations.getCoord(i, 2) * scaleFramePxToCanvasPx,
+                            annotations.getCoord(i, 3) * scaleFramePxToCanvasPx,
+                            paint);
+                    break;
+                }
+
+                case OpenCvAnnotations.CIRCLE:
+                {
+                    canvas.drawCircle(x, y, annotations.getCoord(i, 2) * scaleFramePxToCanvasPx, paint);
+                    break;
+                }
+
+                case OpenCvAnnotations.TEXT:
+                {
+                    /*
+                     * The requested size is the height of capitals, which
+                     * on Android is about 70% of the text size
+                     */
+                    paint.setStyle(Paint.Style.FILL);
+                    paint.setTextSize(annotations.getCoord(i, 2) * scaleFramePxToCanvasPx / 0.7f);
+                    canvas.drawText(annotations.getText(i), x, y, paint);
+                    break;
+                }
+
+                case OpenCvAnnotations.POLYGON:
+                {
+                    path.reset();
+                    path.moveTo(x, y);
+
+                    for(int n = 2; n < annotations.getCoordCount(i); n += 2)
+                    {
+                        path.lineTo(annotations.getCoord(i, n) * scaleFramePxToCanvasPx, annotations.getCoord(i, n+1) * scaleFramePxToCanvasPx);
+                    }
+
+                    path.close();
+                    canvas.drawPath(path, paint);
+                    break;
+                }
+            }
+        }
+    }
+}
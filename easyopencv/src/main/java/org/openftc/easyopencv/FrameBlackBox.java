@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Keeps the last few seconds of frames in memory so that they can be dumped to disk
+ * after the fact, e.g. when autonomous goes wrong.
+ *
+ * As with FrameCaptureSession, the frame thread only gives a free slot a reference to
+ * the shared copy of the frame; encoding happens on a background thread. Encoded frames are stored back-to-back in a
+ * single byte arena which is allocated up front, so memory usage is fixed no matter how
+ * long the black box runs. When space runs out, or a frame gets older than the configured
+ * duration, the oldest frames are overwritten.
+ *
+ * Dumps are written in the same archive format as FrameCaptureSession (see FrameArchiveWriter).
+ */
+class FrameBlackBox
+{
+    private static final String TAG = "EasyOpenCV-BlackBox";
+    private static final int NUM_SLOTS = 3;
+    private static final double MAX_EXPECTED_FPS = 60; // Used to size the entry table if not rate limited
+
+    final BlackBoxParameters parameters;
+    private final OpenCvCameraBase camera;
+    private final FrameRateLimiter rateLimiter;
+    private final long durationNanos;
+    private final FrameCaptureParameters.Compression compression;
+
+    private final Slot[] slots;
+    private final ArrayBlockingQueue<Slot> freeSlots;
+    private final ArrayBlockingQueue<Slot> pendingEncode;
+    private final Slot poison = new Slot();
+    private final Thread encoderThread;
+
+    // Encoder thread only
+    private final FrameEncoder encoder;
+    private final Mat subsampled = new Mat();
+    private final Size zeroSize = new Size();
+
+    // Guarded by ringLock
+    private final Object ringLock = new Object();
+    private final byte[] arena;
+    private final Entry[] entries;
+    private int oldestEntry = 0;
+    private int entryCount = 0;
+    private int writePos = 0;
+    private long nextEntrySeq = 0; // sequence number the next entry appended will get
+
+    // Guarded by dumpLock
+    private final Object dumpLock = new Object();
+    private boolean dumpRequested = false;
+    private Thread dumpThread;
+
+    private volatile boolean stopRequested = false;
+    private final AtomicInteger framesSkipped = new AtomicInteger(); // From both the frame and encoder threads
+    private volatile long exposureNanos = -1;
+    private volatile int gain = -1;
+
+    FrameBlackBox(OpenCvCameraBase camera, BlackBoxParameters parameters)
+    {
+        this.camera = camera;
+        this.parameters = parameters;
+        this.rateLimiter = new FrameRateLimiter(parameters.maxFramesPerSecond);
+        this.durationNanos = (long) (parameters.durationSeconds * 1e9);
+        this.compression = parameters.format == BlackBoxParameters.Format.JPEG ? FrameCaptureParameters.Compression.JPEG : FrameCaptureParameters.Compression.NONE;
+        this.encoder = new FrameEncoder(compression, parameters.jpegQuality);
+
+        arena = new byte[(int) parameters.maxMemoryBytes];
+
+        double fps = parameters.maxFramesPerSecond > 0 ? parameters.maxFramesPerSecond : MAX_EXPECTED_FPS;
+        entries = new Entry[(int) Math.ceil(parameters.durationSeconds * fps) + 1];
+
+        for(int i = 0; i < entries.length; i++)
+        {
+            entries[i] = new Entry();
+        }
+
+        slots = new Slot[NUM_SLOTS];
+        freeSlots = new ArrayBlockingQueue<>(NUM_SLOTS);
+        pendingEncode = new ArrayBlockingQueue<>(NUM_SLOTS + 1);
+
+        for(int i = 0; i < NUM_SLOTS; i++)
+        {
+            slots[i] = new Slot();
+            freeSlots.add(slots[i]);
+        }
+
+        encoderThread = new EncoderThread();
+    }
+
+    void start()
+    {
+        encoderThread.start();
+    }
+
+    /*
+     * Called from the frame thread. Never blocks.
+     */
+    void offer(SharedFrameCopy frames, long timestamp, int frameNumber, OpenCvCameraRotation rotation)
+    {
+        if(stopRequested)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        if(!rateLimiter.accept(now))
+        {
+            return;
+        }
+
+        Slot slot = freeSlots.poll();
+
+        if(slot == null)
+        {
+            framesSkipped.incrementAndGet();
+            return;
+        }
+
+        slot.frame = frames.acquire();
+        slot.arrivalNanos = now;
+        slot.timestamp = timestamp;
+        slot.frameNumber = frameNumber;
+        slot.rotation = rotation;
+
+        // Unless the camera reports this frame's own values by the time it's encoded
+        slot.exposureNanos = exposureNanos;
+        slot.gain = gain;
+        slot.exposureGainPolled = true;
+
+        pendingEncode.add(slot);
+    }
+
+    /*
+     * Must not be called concurrently with offer(). The ring itself isn't touched, so
+     * a dump already in flight (e.g. from dumpAsync() on an E-stop) still completes;
+     * but the camera drops its reference to a stopped black box, so it can't be
+     * dumped again through the public API.
+     */
+    void stop()
+    {
+        stopRequested = true;
+        pendingEncode.add(poison);
+        Util.joinUninterruptibly(encoderThread);
+
+        // Only left behind if the encoder thread was interrupted
+        Slot slot;
+
+        while ((slot = pendingEncode.poll()) != null)
+        {
+            if(slot.frame != null)
+            {
+                slot.frame.release();
+                slot.frame = null;
+            }
+        }
+
+        encoder.release();
+        subsampled.release();
+
+        int skipped = framesSkipped.get();
+
+        if(skipped > 0)
+        {
+            RobotLog.ww(TAG, "Black box skipped %d frames because the encoder could not keep up", skipped);
+        }
+    }
+
+    /*
+     * Write out everything currently in the black box. Only the range of entries to
+     * write is decided up front; each frame is then copied out of the arena under the
+     * lock and written without it, so the encoder keeps appending new frames while the
+     * dump is in progress. Frames overwritten before we get to them are left out.
+     *
+     * @return the directory the dump was written to
+     */
+    String dump() throws IOException
+    {
+        long firstSeq;
+        long endSeq;
+
+        synchronized (ringLock)
+        {
+            firstSeq = nextEntrySeq - entryCount;
+            endSeq = nextEntrySeq;
+        }
+
+        File directory = new File(parameters.dumpDirectory, "blackbox_" + new SimpleDateFormat("dd-MM-yyyy_HH:mm:ss.SSS", Locale.getDefault()).format(new Date()));
+        FrameArchiveWriter writer = new FrameArchiveWriter(directory, Long.MAX_VALUE);
+        writer.createDirectory();
+
+        long cutoff = System.nanoTime() - durationNanos;
+        Entry copy = new Entry();
+        byte[] buffer = new byte[0];
+        int framesLost = 0;
+
+        try
+        {
+            for(long seq = firstSeq; seq < endSeq; seq++)
+            {
+                synchronized (ringLock)
+                {
+                    long oldestSeq = nextEntrySeq - entryCount;
+
+                    if(seq < oldestSeq)
+                    {
+                        // Overwritten by newer frames while we were writing the ones before it
+                        framesLost++;
+                        continue;
+                    }
+
+                    Entry entry = entries[(int) ((oldestEntry + (seq - oldestSeq)) % entries.length)];
+
+                    if(entry.arrivalNanos < cutoff)
+                    {
+                        continue;
+                    }
+
+                    if(buffer.length < entry.length)
+                    {
+                        buffer = new byte[entry.length];
+                    }
+
+                    copy.copyFrom(entry);
+                    copy.length = entry.length;
+                    System.arraycopy(arena, entry.offset, buffer, 0, entry.length);
+                }
+
+                writer.write(copy, compression, buffer, 0, copy.length);
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        RobotLog.ii(TAG, "Dumped %d frames (%d bytes) from black box to %s%s", writer.getFramesWritten(), writer.getTotalBytes(), directory.getAbsolutePath(),
+                framesLost > 0 ? String.format(Locale.US, "; %d frames were overwritten before they could be written", framesLost) : "");
+
+        return directory.getAbsolutePath();
+    }
+
+    /*
+     * Kick off a dump in the background, for use from contexts that can't block.
+     * There's only ever one dump thread; requests made while it's busy are folded
+     * into a single dump once it's done with the current one.
+     */
+    void dumpAsync()
+    {
+        synchronized (dumpLock)
+        {
+            dumpRequested = true;
+
+            if(dumpThread == null)
+            {
+                dumpThread = new DumpThread();
+                dumpThread.start();
+            }
+        }
+    }
+
+    private void append(Slot slot, Mat encoded, byte[] payload, int len)
+    {
+        synchronized (ringLock)
+        {
+            // Age out anything past the configured duration
+            while (entryCount > 0 && slot.arrivalNanos - entries[oldestEntry].arrivalNanos > durationNanos)
+            {
+                evictOldest();
+            }
+
+            if(len > arena.length)
+            {
+                // Won't ever fit, no use nuking everything else for it
+                framesSkipped.incrementAndGet();
+                return;
+            }
+
+            if(entryCount == entries.length)
+            {
+                evictOldest();
+            }
+
+            if(entryCount == 0)
+            {
+                writePos = 0;
+            }
+
+            if(writePos + len > arena.length)
+            {
+                // Wrap around. Anything between the write head and the end of the arena
+                // is older than everything at the start of it, so that has to go first.
+                while (entryCount > 0 && entries[oldestEntry].offset >= writePos)
+                {
+                    evictOldest();
+                }
+
+                writePos = 0;
+            }
+
+            while (entryCount > 0 && overlaps(entries[oldestEntry], writePos, len))
+            {
+                evictOldest();
+            }
+
+            System.arraycopy(payload, 0, arena, writePos, len);
+
+            Entry entry = entries[(oldestEntry + entryCount) % entries.length];
+            entry.copyFrom(slot);
+            entry.width = encoded.cols();
+            entry.height = encoded.rows();
+            entry.type = encoded.type();
+            entry.arrivalNanos = slot.arrivalNanos;
+            entry.offset = writePos;
+            entry.length = len;
+            entryCount++;
+            nextEntrySeq++;
+
+            writePos += len;
+        }
+    }
+
+    private void evictOldest()
+    {
+        oldestEntry = (oldestEntry + 1) % entries.length;
+        entryCount--;
+    }
+
+    private static boolean overlaps(Entry entry, int offset, int len)
+    {
+        return entry.offset < offset + len && offset < entry.offset + entry.length;
+    }
+
+    private void refreshMetadata()
+    {
+        try
+        {
+            exposureNanos = camera.getExposureNanosForFrameCapture();
+            gain = camera.getGainForFrameCapture();
+        }
+        catch (RuntimeException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private class EncoderThread extends Thread
+    {
+        EncoderThread()
+        {
+            super("BlackBoxEncoderThread");
+        }
+
+        @Override
+        public void run()
+        {
+            long lastMetadataRefresh = 0;
+
+            while (true)
+            {
+                OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.ENCODER);
+
+                if(System.currentTimeMillis() - lastMetadataRefresh > 250)
+                {
+                    refreshMetadata();
+                    lastMetadataRefresh = System.currentTimeMillis();
+                }
+
+                Slot slot;
+
+                try
+                {
+                    slot = pendingEncode.take();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                if(slot == poison)
+                {
+                    break;
+                }
+
+                try
+                {
+                    Mat toEncode = slot.frame.mat;
+
+                    if(parameters.format == BlackBoxParameters.Format.RAW && parameters.rawSubsampling > 1)
+                    {
+                        double scale = 1.0 / parameters.rawSubsampling;
+                        Imgproc.resize(slot.frame.mat, subsampled, zeroSize, scale, scale, Imgproc.INTER_AREA);
+                        toEncode = subsampled;
+                    }
+
+                    int len = encoder.encode(toEncode);
+
+                    // By now the camera has had time to report what this frame was actually captured with
+                    if(camera.getCapturedFrameMetadata(slot.timestamp, slot))
+                    {
+                        slot.exposureGainPolled = false;
+                    }
+
+                    append(slot, toEncode, encoder.getPayload(), len);
+                }
+                catch (Exception e)
+                {
+                    e.printStackTrace();
+                }
+                finally
+                {
+                    slot.frame.release();
+                    slot.frame = null;
+                    freeSlots.add(slot);
+                }
+            }
+        }
+    }
+
+    private class DumpThread extends Thread
+    {
+        DumpThread()
+        {
+            super("BlackBoxDumpThread");
+        }
+
+        @Override
+        public void run()
+        {
+            OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.ENCODER);
+
+            while (true)
+            {
+                synchronized (dumpLock)
+                {
+                    if(!dumpRequested)
+                    {
+                        dumpThread = null;
+                        return;
+                    }
+
+                    dumpRequested = false;
+                }
+
+                try
+                {
+                    dump();
+                }
+                catch (IOException e)
+                {
+                    RobotLog.ee(TAG, e, "Failed to dump black box");
+                }
+            }
+        }
+    }
+
+    private static class Slot extends FrameArchiveWriter.FrameInfo
+    {
+        SharedFrameCopy.Buffer frame;
+        long arrivalNanos;
+    }
+
+    private static class Entry extends FrameArchiveWriter.FrameInfo
+    {
+        long arrivalNanos;
+        int offset;
+        int length;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2026 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+ * Writes frames to disk at camera rate, in the archive format described in FrameArchiveWriter.
+ *
+ * The only work done on the frame thread is giving a pre-allocated slot a reference to the
+ * shared copy of the frame (see SharedFrameCopy). Compression is done by a small pool of background threads, and a single writer thread
+ * puts the results on disk in the order they were captured (see OrderedCompressionPool). If all
+ * slots are busy (i.e. the disk or the compressors can't keep up) the frame is simply skipped
+ * rather than stalling the frame thread.
+ */
+class FrameCaptureSession
+{
+    private static final String TAG = "EasyOpenCV-FrameCapture";
+    private static final long METADATA_REFRESH_INTERVAL_MS = 250;
+    private static final int SLOTS_PER_COMPRESSION_THREAD = 2;
+
+    final FrameCaptureParameters parameters;
+    private final OpenCvCameraBase camera;
+    private final FrameArchiveWriter archiveWriter;
+
+    private final Slot[] slots;
+    private final OrderedCompressionPool<Slot, Void> pool;
+
+    private final FrameRateLimiter rateLimiter;
+
+    private volatile boolean diskCapReached = false;
+    private volatile boolean writeFailed = false;
+
+    private volatile long exposureNanos = -1;
+    private volatile int gain = -1;
+
+    FrameCaptureSession(OpenCvCameraBase camera, FrameCaptureParameters parameters)
+    {
+        this.camera = camera;
+        this.parameters = parameters;
+        this.archiveWriter = new FrameArchiveWriter(new File(parameters.directory), parameters.maxChunkSizeBytes);
+        this.rateLimiter = new FrameRateLimiter(parameters.maxFramesPerSecond);
+
+        slots = new Slot[parameters.compressionThreads * SLOTS_PER_COMPRESSION_THREAD + 1];
+
+        for(int i = 0; i < slots.length; i++)
+        {
+            slots[i] = new Slot(parameters);
+        }
+
+        pool = new OrderedCompressionPool<Slot, Void>("FrameCapture", slots, parameters.compressionThreads, METADATA_REFRESH_INTERVAL_MS)
+        {
+            private long lastMetadataRefresh = 0;
+
+            @Override
+            protected void compress(Slot slot, Void threadState)
+            {
+                try
+                {
+                    Mat frame = slot.frame.mat;
+                    slot.width = frame.cols();
+                    slot.height = frame.rows();
+                    slot.type = frame.type();
+                    slot.payloadLength = slot.encoder.encode(frame);
+                }
+                finally
+                {
+                    slot.frame.release();
+                    slot.frame = null;
+                }
+            }
+
+            @Override
+            protected void write(Slot slot)
+            {
+                if(writeFailed || slot.payloadLength < 0)
+                {
+                    return;
+                }
+
+                // By now the camera has had time to report what this frame was actually captured with
+                if(camera.getCapturedFrameMetadata(slot.timestamp, slot))
+                {
+                    slot.exposureGainPolled = false;
+                }
+
+                try
+                {
+                    writeToArchive(slot);
+                }
+                catch (IOException e)
+                {
+                    RobotLog.ee(TAG, e, "Error writing frame capture archive; no further frames will be captured");
+                    writeFailed = true;
+                }
+            }
+
+            @Override
+            protected void onWriterTick()
+            {
+                if(System.currentTimeMillis() - lastMetadataRefresh > METADATA_REFRESH_INTERVAL_MS)
+                {
+                    refreshMetadata();
+                    lastMetadataRefresh = System.currentTimeMillis();
+                }
+            }
+
+            @Override
+            protected void onWriterExit()
+            {
+                archiveWriter.close();
+            }
+        };
+    }
+
+    void start() throws IOException
+    {
+        archiveWriter.createDirectory();
+        pool.start();
+    }
+
+    /*
+     * Called from the frame thread. Never blocks.
+     */
+    void offer(SharedFrameCopy frames, long timestamp, int frameNumber, OpenCvCameraRotation rotation)
+    {
+        if(diskCapReached || writeFailed)
+        {
+            return;
+        }
+
+        if(!rateLimiter.accept(System.nanoTime()))
+        {
+            return;
+        }
+
+        // Null if the compressors or disk can't keep up; skip rather than stall the frame thread
+        OrderedCompressionPool.Job<Slot> job = pool.obtain();
+
+        if(job == null)
+        {
+            return;
+        }
+
+        Slot slot = job.payload;
+        slot.frame = frames.acquire();
+        slot.timestamp = timestamp;
+        slot.frameNumber = frameNumber;
+        slot.rotation = rotation;
+
+        // Unless the camera reports this frame's own values later (see write())
+        slot.exposureNanos = exposureNanos;
+        slot.gain = gain;
+        slot.exposureGainPolled = true;
+
+        pool.submit(job);
+    }
+
+    /*
+     * Stops accepting new frames, waits for everything already
+     * captured to make it to disk, and then closes the archive.
+     * Must not be called concurrently with offer().
+     */
+    void stop()
+    {
+        pool.stop();
+
+        for(Slot slot : slots)
+        {
+            slot.release();
+        }
+
+        RobotLog.ii(TAG, "Frame capture to %s finished: %d frames written (%d bytes in %d chunks), %d frames skipped because the capture could not keep up%s",
+                archiveWriter.getDirectory().getAbsolutePath(), archiveWriter.getFramesWritten(), archiveWriter.getTotalBytes(), archiveWriter.getChunkCount(), pool.getFramesDropped(),
+                diskCapReached ? "; disk usage cap was reached" : "");
+    }
+
+    private void writeToArchive(Slot slot) throws IOException
+    {
+        if(parameters.maxDiskUsageBytes > 0 && archiveWriter.getTotalBytes() + archiveWriter.bytesRequiredFor(slot.payloadLength) > parameters.maxDiskUsageBytes)
+        {
+            if(!diskCapReached)
+            {
+                RobotLog.ww(TAG, "Frame capture disk usage cap of %d bytes reached; no further frames will be captured", parameters.maxDiskUsageBytes);
+                diskCapReached = true;
+            }
+            return;
+        }
+
+        archiveWriter.write(slot, parameters.compression, slot.encoder.getPayload(), slot.payloadLength);
+    }
+
+    private void refreshMetadata()
+    {
+        try
+        {
+            exposureNanos = camera.getExposureNanosForFrameCapture();
+            gain = camera.getGainForFrameCapture();
+        }
+        catch (RuntimeException e)
+        {
+            // Not worth killing the capture over
+            e.printStackTrace();
+        }
+    }
+
+    private static class Slot extends FrameArchiveWriter.FrameInfo
+    {
+        SharedFrameCopy.Buffer frame;
+        final FrameEncoder encoder;
+        int payloadLength;
+
+        Slot(FrameCaptureParameters parameters)
+        {
+            encoder = new FrameEncoder(parameters.compression, parameters.jpegQuality);
+        }
+
+        void release()
+        {
+            encoder.release();
+        }
+    }
+}
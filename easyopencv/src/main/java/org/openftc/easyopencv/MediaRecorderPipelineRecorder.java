@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import android.media.MediaCodec;
+import android.media.MediaRecorder;
+import android.view.Surface;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.firstinspires.ftc.robotcore.external.function.Consumer;
+import org.firstinspires.ftc.robotcore.internal.collections.EvictingBlockingQueue;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * Feeds frames to a MediaRecorder from a dedicated encoder thread.
+ *
+ * The frame thread only decimates the frame, and drops a pooled Mat with the shared
+ * copy of it pending into a small evicting queue; downscaling it into the Mat, locking
+ * the encoder surface and converting into it happens on the encoder thread. If the encoder can't keep up, the oldest queued frame
+ * is dropped rather than stalling the frame thread.
+ */
+class MediaRecorderPipelineRecorder extends PipelineRecorder
+{
+    private static final String TAG = "EasyOpenCV-Recorder";
+    private static final int FRAME_QUEUE_CAPACITY = 2;
+    private static final int FRAMEBUFFER_RECYCLER_CAPACITY = FRAME_QUEUE_CAPACITY + 2; //So that the evicting queue can be full, and the encoder thread has one checked out (+1) and offer() can still take one (+1).
+
+    private final EvictingBlockingQueue<MatRecycler.RecyclableMat> frameQueue = new EvictingBlockingQueue<>(new ArrayBlockingQueue<MatRecycler.RecyclableMat>(FRAME_QUEUE_CAPACITY));
+    private final MatRecycler framebufferRecycler = new MatRecycler(FRAMEBUFFER_RECYCLER_CAPACITY);
+
+    private MediaRecorder mediaRecorder;
+    private Surface surface;
+    private long surfaceNativeHandle;
+    private EncoderThread encoderThread;
+
+    private volatile long framesEncoded;
+    private volatile long framesDropped;
+
+    MediaRecorderPipelineRecorder(PipelineRecordingParameters parameters, int frameWidth, int frameHeight)
+    {
+        super(parameters, frameWidth, frameHeight);
+
+        frameQueue.setEvictAction(new Consumer<MatRecycler.RecyclableMat>()
+        {
+            @Override
+            public void accept(MatRecycler.RecyclableMat value)
+            {
+                /*
+                 * If a Mat is evicted from the queue, we need
+                 * to make sure to return it to the Mat recycler
+                 */
+                framesDropped++;
+                ((PendingFrame) value.getContext()).discard();
+                framebufferRecycler.returnMat(value);
+            }
+        });
+    }
+
+    @Override
+    void start() throws IOException
+    {
+        try
+        {
+            surface = MediaCodec.createPersistentInputSurface();
+            surfaceNativeHandle = nativeGetSurfaceHandle(surface);
+
+            mediaRecorder = new MediaRecorder();
+            mediaRecorder.setInputSurface(surface);
+            mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+            mediaRecorder.setOutputFormat(parameters.outputFormat.format);
+            mediaRecorder.setVideoSize(outputWidth, outputHeight);
+            mediaRecorder.setVideoEncoder(parameters.encoder.format);
+            mediaRecorder.setVideoEncodingBitRate(parameters.bitrate);
+            mediaRecorder.setOutputFile(parameters.path);
+            mediaRecorder.setCaptureRate(parameters.frameRate);
+            mediaRecorder.prepare();
+            mediaRecorder.start();
+
+            encoderThread = new EncoderThread();
+            encoderThread.start();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            abort();
+            throw e;
+        }
+    }
+
+    @Override
+    void abort()
+    {
+        stopEncoderThread();
+        releaseResources();
+    }
+
+    @Override
+    protected Mat obtainFrameBuffer()
+    {
+        try
+        {
+            return framebufferRecycler.takeMat();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    protected void submitFrameBuffer(Mat buffer)
+    {
+        frameQueue.offer((MatRecycler.RecyclableMat) buffer);
+    }
+
+    @Override
+    protected PendingFrame pendingFrameFor(Mat buffer)
+    {
+        MatRecycler.RecyclableMat mat = (MatRecycler.RecyclableMat) buffer;
+        PendingFrame pending = (PendingFrame) mat.getContext();
+
+        // Buffers are recycled, so this only happens the first few frames
+        if(pending == null)
+        {
+            pending = new PendingFrame();
+            mat.setContext(pending);
+        }
+
+        return pending;
+    }
+
+    @Override
+    void stop()
+    {
+        stopEncoderThread();
+
+        try
+        {
+            mediaRecorder.stop();
+        }
+        finally
+        {
+            releaseResources();
+            RobotLog.dd(TAG, "Recording stopped: %d frames encoded, %d dropped", framesEncoded, framesDropped);
+        }
+    }
+
+    private void stopEncoderThread()
+    {
+        if(encoderThread != null)
+        {
+            encoderThread.interrupt();
+            Util.joinUninterruptibly(encoderThread);
+            encoderThread = null;
+        }
+    }
+
+    private void releaseResources()
+    {
+        if(mediaRecorder != null)
+        {
+            mediaRecorder.release();
+            mediaRecorder = null;
+        }
+
+        if(surfaceNativeHandle != 0)
+        {
+            nativeReleaseSurfaceHandle(surfaceNativeHandle);
+            surfaceNativeHandle = 0;
+        }
+
+        if(surface != null)
+        {
+            surface.release();
+            surface = null;
+        }
+
+        // Let go of the shared copies of the frames we never got to
+        MatRecycler.RecyclableMat mat;
+
+        while ((mat = frameQueue.poll()) != null)
+        {
+            ((PendingFrame) mat.getContext()).discard();
+            framebufferRecycler.returnMat(mat);
+        }
+    }
+
+    class EncoderThread extends Thread
+    {
+        EncoderThread()
+        {
+            super("PipelineRecorderEncoderThread");
+        }
+
+        @Override
+        public void run()
+        {
+            while (!isInterrupted())
+            {
+                MatRecycler.RecyclableMat mat;
+
+                try
+                {
+                    mat = frameQueue.take();
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+
+                OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.ENCODER);
+                render(mat, (PendingFrame) mat.getContext());
+                nativeCopyMatToSurface(surfaceNativeHandle, mat.nativeObj);
+                framesEncoded++;
+
+                //We're done with that Mat object; return it to the Mat recycler so it can be used again later
+                framebufferRecycler.returnMat(mat);
+            }
+        }
+    }
+
+    private static native long nativeGetSurfaceHandle(Surface surface);
+    private static native void nativeReleaseSurfaceHandle(long handle);
+    private static native void nativeCopyMatToSurface(long handle, long matPtr);
+}
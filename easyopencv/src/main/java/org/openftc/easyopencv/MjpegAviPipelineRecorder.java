@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+ * Software recording backend: compresses frames to JPEG with libjpeg-turbo and
+ * writes them to an MJPEG AVI (see AviMjpegWriter).
+ *
+ * Same threading model as FrameCaptureSession (see OrderedCompressionPool): the frame
+ * thread hands a free slot the shared copy of the frame, a pool of compression threads
+ * scale it into their slots (see PipelineRecorder.render()) and compress them in
+ * parallel (each directly into the slot's own pre-allocated direct buffer), and a writer
+ * thread appends them to the file in the order they were captured. If no slot is free
+ * the frame is dropped.
+ */
+class MjpegAviPipelineRecorder extends PipelineRecorder
+{
+    private static final String TAG = "EasyOpenCV-MjpegRecorder";
+    private static final int SLOTS_PER_ENCODER_THREAD = 2;
+
+    private final File file;
+    private final AviMjpegWriter aviWriter;
+    private final Slot[] slots;
+    private final OrderedCompressionPool<Slot, Long> pool;
+
+    private volatile boolean fileFull = false;
+    private volatile boolean writeFailed = false;
+
+    MjpegAviPipelineRecorder(final PipelineRecordingParameters parameters, int frameWidth, int frameHeight)
+    {
+        super(parameters, frameWidth, frameHeight);
+
+        file = new File(parameters.path);
+        aviWriter = new AviMjpegWriter(file, outputWidth, outputHeight, parameters.frameRate);
+
+        slots = new Slot[parameters.encoderThreads * SLOTS_PER_ENCODER_THREAD + 1];
+
+        for(int i = 0; i < slots.length; i++)
+        {
+            slots[i] = new Slot();
+        }
+
+        pool = new OrderedCompressionPool<Slot, Long>("MjpegRecorder", slots, parameters.encoderThreads, 250)
+        {
+            @Override
+            protected Long createThreadState()
+            {
+                return NativeKernels.createJpegCompressor(parameters.jpegQuality);
+            }
+
+            @Override
+            protected void destroyThreadState(Long compressor)
+            {
+                if(compressor != 0)
+                {
+                    NativeKernels.destroyJpegCompressor(compressor);
+                }
+            }
+
+            @Override
+            protected void compress(Slot slot, Long compressor)
+            {
+                render(slot, slot.pending);
+                slot.jpeg.clear();
+                slot.length = compressor != 0 ? NativeKernels.compressJpeg(compressor, slot.nativeObj, slot.jpeg) : -1;
+            }
+
+            @Override
+            protected void write(Slot slot)
+            {
+                if(writeFailed || fileFull || slot.length <= 0)
+                {
+                    return;
+                }
+
+                try
+                {
+                    slot.jpeg.limit(slot.length);
+                    slot.jpeg.position(0);
+
+                    if(!aviWriter.write(slot.jpeg))
+                    {
+                        RobotLog.ww(TAG, "MJPEG recording reached the maximum AVI file size; no further frames will be recorded");
+                        fileFull = true;
+                    }
+                }
+                catch (IOException e)
+                {
+                    RobotLog.ee(TAG, e, "Error writing MJPEG recording; no further frames will be recorded");
+                    writeFailed = true;
+                }
+            }
+
+            @Override
+            protected void onWriterExit()
+            {
+                try
+                {
+                    aviWriter.close();
+                }
+                catch (IOException e)
+                {
+                    RobotLog.ee(TAG, e, "Error finalizing MJPEG recording");
+                }
+            }
+        };
+    }
+
+    /*
+     * If anything goes wrong, everything allocated or opened so far is
+     * released again (and the partial file deleted) before rethrowing
+     */
+    @Override
+    void start() throws IOException
+    {
+        boolean opened = false;
+
+        try
+        {
+            int maxCompressedSize = NativeKernels.maxJpegSize(outputWidth, outputHeight);
+
+            for(Slot slot : slots)
+            {
+                slot.jpeg = ByteBuffer.allocateDirect(maxCompressedSize);
+            }
+
+            // Closes the file again itself if it fails
+            aviWriter.open();
+            opened = true;
+
+            // Likewise, via the pool's onWriterExit()
+            pool.start();
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            if(opened && !file.delete())
+            {
+                RobotLog.ww(TAG, "Unable to delete partial recording %s", file.getAbsolutePath());
+            }
+
+            releaseSlots();
+            throw e;
+        }
+    }
+
+    @Override
+    protected Mat obtainFrameBuffer()
+    {
+        if(fileFull || writeFailed)
+        {
+            return null;
+        }
+
+        // Null if the compressors or disk can't keep up; drop rather than stall the frame thread
+        OrderedCompressionPool.Job<Slot> job = pool.obtain();
+
+        if(job == null)
+        {
+            return null;
+        }
+
+        job.payload.job = job;
+        return job.payload;
+    }
+
+    @Override
+    protected void submitFrameBuffer(Mat buffer)
+    {
+        pool.submit(((Slot) buffer).job);
+    }
+
+    @Override
+    protected PendingFrame pendingFrameFor(Mat buffer)
+    {
+        return ((Slot) buffer).pending;
+    }
+
+    /*
+     * Stops accepting new frames, waits for everything already
+     * captured to make it to disk, and then finalizes the file.
+     * Must not be called concurrently with offer().
+     */
+    @Override
+    void stop()
+    {
+        pool.stop();
+        releaseSlots();
+
+        RobotLog.ii(TAG, "MJPEG recording to %s finished: %d frames (%d bytes), %d frames dropped because the encoder could not keep up%s",
+                parameters.path, aviWriter.getFrameCount(), aviWriter.getSize(), pool.getFramesDropped(),
+                fileFull ? "; maximum file size was reached" : "");
+    }
+
+    /*
+     * start() already closed and deleted the file on its way out
+     */
+    @Override
+    void abort()
+    {
+        releaseSlots();
+    }
+
+    private void releaseSlots()
+    {
+        for(Slot slot : slots)
+        {
+            slot.release();
+
+            // Direct buffers are only freed once unreachable
+            slot.jpeg = null;
+        }
+    }
+
+    private static class Slot extends Mat
+    {
+        final PendingFrame pending = new PendingFrame();
+        OrderedCompressionPool.Job<Slot> job;
+        ByteBuffer jpeg;
+        int length;
+    }
+}
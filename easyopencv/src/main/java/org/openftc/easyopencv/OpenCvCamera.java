@@ -22,6 +22,7 @@
 package org.openftc.easyopencv;
 
 import org.firstinspires.ftc.robotcore.external.stream.CameraStreamSource;
+import org.opencv.core.Mat;
 
 public interface OpenCvCamera extends CameraStreamSource
 {
@@ -119,6 +120,15 @@ public interface OpenCvCamera extends CameraStreamSource
      */
     void showFpsMeterOnViewport(boolean show);
 
+    /***
+     * Whether to show this camera's CPU usage (and that of the whole system) on the
+     * viewport, above the other statistics. Only shown while {@link OpenCvCpuMonitor}
+     * is running.
+     *
+     * @param show whether to show CPU usage on top of the camera feed
+     */
+    void showCpuUsageOnViewport(boolean show);
+
     /***
      * If a viewport container ID was passed to the constructor of
      * the implementing class, this method will "pause" the viewport
@@ -201,7 +211,16 @@ public interface OpenCvCamera extends CameraStreamSource
         /**
          * Renders using the native Android view (which is hardware accelerated).
          */
-        NATIVE_VIEW
+        NATIVE_VIEW,
+
+        /**
+         * Copies frames straight into the viewport's surface in native code, scaling,
+         * letterboxing and rotating them on the way, rather than converting each frame
+         * to a Bitmap and drawing that with a Canvas. Only the statistics box and your
+         * pipeline's onDrawFrame() annotations are drawn with a Canvas, on top. This
+         * takes the least CPU time of the renderers, especially at high resolutions.
+         */
+        NATIVE_SURFACE
     }
 
     /***
@@ -317,6 +336,16 @@ public interface OpenCvCamera extends CameraStreamSource
      */
     int getCurrentPipelineMaxFps();
 
+    /***
+     * Get how much CPU the threads delivering this camera's frames and running its
+     * pipeline are using, as a percentage of one core (so it can exceed 100% if they're
+     * busy on several). Updated about once a second while {@link OpenCvCpuMonitor} is
+     * running. If this is near 100% per thread, you're CPU bound.
+     *
+     * @return this camera's CPU usage, or -1 if {@link OpenCvCpuMonitor} isn't running
+     */
+    float getCpuPercent();
+
     /***
      * Start recording the output of the camera's current pipeline
      * (If no pipeline is set, then the plain camera image is recorded)
@@ -324,17 +353,186 @@ public interface OpenCvCamera extends CameraStreamSource
      * The recording will be automatically stopped when the streaming
      * session is stopped (whether that be manually or automatically at
      * the end of the OpMode), but can also be stopped independently by
-     * calling {@link #stopRecordingPipeline()}
+     * calling {@link #stopRecordingPipeline()}, or {@link #stopRecordingPipeline(FrameCaptureParameters.Source)}
+     * for just one source
+     *
+     * By setting the source in the parameters, the raw camera frames may be recorded
+     * instead. One recording of the raw frames and one of the pipeline output may be
+     * running at the same time, each with its own resolution, frame rate, and bitrate.
      *
      * @param parameters the parameters which define how the recording should done
      * @throws IllegalStateException if called before streaming is started
-     * @throws IllegalStateException if recording was started previously
+     * @throws IllegalStateException if a recording of the same source was started previously
      */
     void startRecordingPipeline(PipelineRecordingParameters parameters);
 
     /***
-     * Stops recording the output of the camera's current pipeline,
-     * if a recording session is currently active.
+     * Stops recording the output of the camera's current pipeline (and the
+     * raw camera frames), if a recording session is currently active.
      */
     void stopRecordingPipeline();
+
+    /***
+     * Stops recording one source (the raw camera frames, or the pipeline output),
+     * if a recording of it is currently active, leaving the other recording running.
+     *
+     * @param source which recording to stop
+     */
+    void stopRecordingPipeline(FrameCaptureParameters.Source source);
+
+    /***
+     * Start capturing frames to disk, e.g. for building a training or tuning dataset.
+     * Unlike calling {@link OpenCvPipeline#saveMatToDisk(Mat, String)} from a pipeline,
+     * this is designed to keep up with the camera: frames are compressed on background
+     * threads and appended to chunked archive files along with their capture timestamp,
+     * frame number, rotation, and (where the camera can report it) exposure and gain.
+     * The internal camera (Camera2) reports the exposure and gain of each frame; for
+     * other cameras they're polled a few times a second, and marked as approximate.
+     * If the background threads can't keep up, frames are skipped rather than slowing
+     * down the frame thread.
+     *
+     * A streaming session must be in flight before this can be called. Capture is
+     * automatically stopped when the streaming session is stopped, but can also be
+     * stopped independently by calling {@link #stopFrameCapture()}
+     *
+     * @param parameters the parameters which define how frames should be captured
+     * @throws IllegalStateException if called before streaming is started
+     * @throws IllegalStateException if frame capture was started previously
+     */
+    void startFrameCapture(FrameCaptureParameters parameters);
+
+    /***
+     * Stops capturing frames to disk, if a frame capture session is currently
+     * active. Blocks until all frames which have already been captured have
+     * been written out.
+     */
+    void stopFrameCapture();
+
+    /***
+     * Start keeping the last few seconds of frames in memory, so that they can be
+     * written to disk after something has gone wrong (see {@link #dumpBlackBox()}).
+     * Unlike {@link #startRecordingPipeline(PipelineRecordingParameters)}, nothing
+     * is written to disk unless asked for, and memory usage is capped at a fixed
+     * amount which is reserved up-front. Frames are compressed on a background thread.
+     *
+     * By default, the black box is also dumped automatically if the pipeline throws
+     * an exception (see {@link BlackBoxParameters.Builder#setDumpOnEStop(boolean)}).
+     *
+     * A streaming session must be in flight before this can be called. The black box
+     * is automatically stopped when the streaming session is stopped, but can also be
+     * stopped independently by calling {@link #stopBlackBox()}
+     *
+     * @param parameters the parameters which define how the black box should operate
+     * @throws IllegalStateException if called before streaming is started
+     * @throws IllegalStateException if the black box was started previously
+     */
+    void startBlackBox(BlackBoxParameters parameters);
+
+    /***
+     * Stops the black box and frees its memory, if it is running. Its contents
+     * can no longer be dumped afterwards, so call {@link #dumpBlackBox()} first
+     * if you want them. (A dump which is already in progress still completes.)
+     */
+    void stopBlackBox();
+
+    /***
+     * Write the current contents of the black box to disk. Blocks until done,
+     * but does not stall the frame thread.
+     *
+     * @return the directory which the frames were written to
+     * @throws IllegalStateException if the black box is not running
+     */
+    String dumpBlackBox();
+
+    /***
+     * Start recording the frames coming from the camera, exactly as they are
+     * handed to the pipeline machinery (before rotation), to an uncompressed
+     * replay file along with their capture timestamps. The file can be played
+     * back through the whole frame path later using a replay camera
+     * (see {@link OpenCvCameraFactory#createReplayCamera(String)}), e.g. to
+     * benchmark pipeline changes against exactly the frames the robot saw.
+     *
+     * Frames are written straight to the file on the frame thread, so this
+     * is cheap in CPU time, but uses a lot of disk space (width*height*4 bytes
+     * per frame).
+     *
+     * A streaming session must be in flight before this can be called. The
+     * recording is automatically stopped when the streaming session is stopped,
+     * but can also be stopped independently by calling {@link #stopReplayRecording()}
+     *
+     * @param path where to write the replay file
+     * @throws IllegalStateException if called before streaming is started
+     * @throws IllegalStateException if a replay recording was started previously
+     */
+    void startReplayRecording(String path);
+
+    /***
+     * Stops recording a replay file, if one is being recorded.
+     */
+    void stopReplayRecording();
+
+    /***
+     * Run this camera's pipeline on the process-wide {@link OpenCvScheduler} worker
+     * pool rather than on the camera's own frame thread. Useful with several cameras:
+     * the pool caps how many pipelines run at once, and when they contend for it, the
+     * higher priority camera's frames go first. Frames are copied off the frame thread,
+     * and if the pipeline can't keep up, stale frames are dropped rather than queued.
+     *
+     * May be called at any time, including to change the priority or frame rate of a
+     * camera which is already using the scheduler. Reverts to the frame thread when the
+     * camera is closed.
+     *
+     * @param priority how important this camera is relative to the others using the
+     *                 scheduler; higher goes first
+     * @param maxFps the most frames per second to run the pipeline on; others are
+     *               dropped before being copied. 0 means no limit.
+     */
+    void runPipelineOnSharedScheduler(int priority, double maxFps);
+
+    /***
+     * Go back to running this camera's pipeline on its own frame thread (the default),
+     * after a call to {@link #runPipelineOnSharedScheduler(int, double)}
+     */
+    void runPipelineOnFrameThread();
+
+    /***
+     * Restrict the thread which delivers this camera's frames (and runs its pipeline,
+     * unless it's on the shared scheduler, whose workers are shared between cameras)
+     * to the given CPU cores, so that each camera's latency doesn't depend on what
+     * the others are doing. Takes effect from the next frame. Call with no cores to
+     * let the thread run anywhere again.
+     *
+     * OpenCV's own worker threads aren't affected; see {@link OpenCvThreadPolicy}
+     * for limiting how many of those there are.
+     *
+     * @param cores the indices of the cores to run on, 0 to (number of cores - 1)
+     */
+    void setCpuAffinity(int... cores);
+
+    /***
+     * Give the pipeline a time budget per frame. When it runs over budget (e.g. because
+     * the field got visually busy), frames are shrunk before the pipeline sees them,
+     * stepping down a ladder of scales (100%, 75%, 50%, 37.5%, 25%) as far as needed;
+     * when there's headroom again they step back up. That way detection degrades
+     * gracefully rather than your whole loop slowing down.
+     *
+     * The viewport and recordings show the pipeline's output at whatever size it was
+     * processed at, scaled up to fill the same area (frame captures and the black box
+     * get it scaled back up to full size). Use {@link OpenCvPipeline#getInputScale()} to map coordinates in the
+     * shrunken frame back to full resolution. Each time the scale changes, the pipeline's
+     * {@link OpenCvPipeline#init(Mat)} is called again with a frame of the new size, so
+     * re-make any submats of the input there.
+     *
+     * @param budgetMs how long the pipeline may take per frame; 0 to turn this off
+     */
+    void setPipelineTimeBudget(double budgetMs);
+
+    /***
+     * Same as {@link #setPipelineTimeBudget(double)}, with your own ladder of scales
+     *
+     * @param budgetMs how long the pipeline may take per frame; 0 to turn this off
+     * @param scales the scales to step through, in decreasing order, none more than 1
+     *               (e.g. 1, 0.5, 0.25)
+     */
+    void setPipelineTimeBudget(double budgetMs, double... scales);
 }
@@ -25,8 +25,6 @@ import android.content.ComponentCallbacks;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.media.MediaCodec;
-import android.media.MediaRecorder;
 import android.util.Log;
 import android.view.Surface;
 import android.view.View;
@@ -39,9 +37,7 @@ import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerImpl;
 import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerNotifier;
 import com.qualcomm.robotcore.robocol.Command;
 import com.qualcomm.robotcore.robot.RobotState;
-import com.qualcomm.robotcore.util.ElapsedTime;
 import com.qualcomm.robotcore.util.GlobalWarningSource;
-import com.qualcomm.robotcore.util.MovingStatistics;
 import com.qualcomm.robotcore.util.RobotLog;
 
 import org.firstinspires.ftc.robotcore.external.android.util.Size;
@@ -55,12 +51,9 @@ import org.firstinspires.ftc.robotcore.internal.network.RobotCoreCommandList;
 import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
 import org.opencv.android.Utils;
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
-import org.opencv.imgproc.Imgproc;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -70,39 +63,61 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
 {
     private OpenCvPipeline pipeline = null;
     private LinearLayout viewportContainerLayout;
-    private MovingStatistics msFrameIntervalRollingAverage;
-    private MovingStatistics msUserPipelineRollingAverage;
-    private MovingStatistics msTotalFrameProcessingTimeRollingAverage;
-    private ElapsedTime timer;
+    private final FrameDispatcher dispatcher = new FrameDispatcher();
+    private final FrameStatistics statistics = dispatcher.getStatistics();
     private OpenCvViewport viewport;
     private int containerLayoutId;
     private OpenCvCameraRotation rotation;
     private int frameCount = 0;
-    private float avgFps;
-    private int avgPipelineTime;
-    private int avgOverheadTime;
-    private int avgTotalFrameTime;
-    private long currentFrameStartTime;
     private final Object bitmapFrameLock = new Object();
     private Continuation<? extends Consumer<Bitmap>> bitmapContinuation;
-    private Mat rotatedMat = new Mat();
-    private Mat matToUseIfPipelineReturnedCropped;
-    private Mat croppedColorCvtedMat = new Mat();
-    private Scalar brown = new Scalar(82, 61, 46, 255);
     private OpModeNotificationsForOrientation opModeNotificationsForOrientation= new OpModeNotificationsForOrientation();
     private ComponentCallbacksForRotation componentCallbacksForRotation = new ComponentCallbacksForRotation();
     private volatile boolean hasBeenCleanedUp = false;
     private final Object pipelineChangeLock = new Object();
     private final Object viewportLock = new Object();
-    private MediaRecorder mediaRecorder;
-    private Surface mediaRecorderSurface;
-    private long mediaRecorderSurfaceNativeHandle;
+    /*
+     * The raw frame taps are fed on the frame thread, even when the pipeline runs on the
+     * scheduler, so that they see every frame from the camera. They're guarded by
+     * rawTapLock rather than our own lock, which a scheduler worker may be holding for
+     * the whole pipeline run. Lock order: ours, then rawTapLock.
+     */
+    private final Object rawTapLock = new Object();
+    private volatile PipelineRecorder rawRecorder;
+    private PipelineRecorder pipelineOutputRecorder;
+    private final CanvasAnnotationRenderer annotationRenderer = new CanvasAnnotationRenderer();
+    private volatile FrameCaptureSession frameCaptureSession;
+    private volatile FrameBlackBox blackBox;
+    private volatile ReplayFileWriter replayWriter;
+    private volatile int rotateCode = -1;
+    private final Mat rawTapRotatedMat = new Mat();
+
+    // One copy of each frame per source, however many of the recorders / capture / black box want it
+    private final SharedFrameCopy rawFrameCopy = new SharedFrameCopy();
+    private final SharedFrameCopy outputFrameCopy = new SharedFrameCopy();
+    private int rawFrameNumber;
+    private volatile OpenCvScheduler.Client schedulerClient;
+    private boolean acceptingScheduledFrames;
+    private boolean countedByThreadPolicy;
+    private volatile long cpuAffinityMask;
+    // Frame thread only
+    private final FrameRateLimiter pipelineRateLimiter = new FrameRateLimiter();
+    private double appliedPipelineMaxFps;
+    private int framesSinceAccepted;
+
+    // What acceptFrame() decided about the pipeline for the frame being handled. Frame thread only.
+    private boolean pipelineAcceptedCurrentFrame = true;
+    private final FrameRateLimiter thermalPipelineLimiter = new FrameRateLimiter();
+    private double appliedThermalPipelineFps;
+    private final FrameRateLimiter thermalViewportLimiter = new FrameRateLimiter();
+    private double appliedThermalViewportFps;
     private int width;
     private int height;
 
     ViewportRenderer desiredViewportRenderer = ViewportRenderer.SOFTWARE;
     ViewportRenderingPolicy desiredRenderingPolicy = ViewportRenderingPolicy.MAXIMIZE_EFFICIENCY;
     boolean fpsMeterDesired = true;
+    volatile boolean cpuUsageDesired = false;
 
     /*
      * NOTE: We cannot simply pass `new OpModeNotifications()` inline to the call
@@ -144,6 +159,8 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
 
     public final void cleanupForClosingCamera()
     {
+        runPipelineOnFrameThread();
+
         synchronized (viewportLock)
         {
             if(viewport != null)
@@ -171,16 +188,23 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
     public synchronized final void prepareForStartStreaming(int width, int height, OpenCvCameraRotation rotation)
     {
         this.rotation = rotation;
-        msFrameIntervalRollingAverage = new MovingStatistics(30);
-        msUserPipelineRollingAverage = new MovingStatistics(30);
-        msTotalFrameProcessingTimeRollingAverage = new MovingStatistics(30);
-        timer = new ElapsedTime();
+        rotateCode = mapRotationEnumToOpenCvRotateCode(rotation);
+        dispatcher.reset(rotateCode);
+        rawFrameNumber = 0;
 
         Size sizeAfterRotation = getFrameSizeAfterRotation(width, height, rotation);
 
         this.width = sizeAfterRotation.getWidth();
         this.height = sizeAfterRotation.getHeight();
 
+        acceptingScheduledFrames = true;
+
+        if(!countedByThreadPolicy)
+        {
+            OpenCvThreadPolicy.cameraStarted();
+            countedByThreadPolicy = true;
+        }
+
         if(viewport != null)
         {
             viewport.setSize(width, height);
@@ -191,12 +215,44 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
 
     public synchronized final void cleanupForEndStreaming()
     {
-        if(mediaRecorder != null)
+        /*
+         * We can't wait for a frame that's running on the scheduler here, since it needs
+         * our lock, so instead make sure it's ignored if it gets it after we're done
+         */
+        acceptingScheduledFrames = false;
+
+        if(countedByThreadPolicy)
+        {
+            OpenCvThreadPolicy.cameraStopped();
+            countedByThreadPolicy = false;
+        }
+
+        OpenCvScheduler.Client client = schedulerClient;
+
+        if(client != null)
+        {
+            client.discardPending();
+        }
+
+        if(rawRecorder != null || pipelineOutputRecorder != null)
         {
             stopRecordingPipeline();
         }
 
-        matToUseIfPipelineReturnedCropped = null;
+        if(frameCaptureSession != null)
+        {
+            stopFrameCapture();
+        }
+
+        if(blackBox != null)
+        {
+            stopBlackBox();
+        }
+
+        if(replayWriter != null)
+        {
+            stopReplayRecording();
+        }
 
         if(viewport != null)
         {
@@ -228,6 +284,12 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
         }
     }
 
+    @Override
+    public final void showCpuUsageOnViewport(boolean show)
+    {
+        cpuUsageDesired = show;
+    }
+
     @Override
     public final void showFpsMeterOnViewport(boolean show)
     {
@@ -304,6 +366,13 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
                                 break;
                             }
 
+                            case NATIVE_SURFACE:
+                            {
+                                viewport = new OpenCvSurfaceViewViewport(AppUtil.getInstance().getActivity(), onClickListener);
+                                ((OpenCvSurfaceViewViewport)viewport).setUseNativeBlit(true);
+                                break;
+                            }
+
                             case NATIVE_VIEW:
                             {
                                 viewport = new OpenCvNativeViewViewport(AppUtil.getInstance().getActivity(), onClickListener);
@@ -330,6 +399,7 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
                                     // thread so a crash would otherwise take down the entire app.
                                     try
                                     {
+                                        annotationRenderer.draw(canvas, frameContext.annotations, scaleBmpPxToCanvasPx);
                                         frameContext.generatingPipeline.onDrawFrame(
                                                 canvas, onscreenWidth, onscreenHeight, scaleBmpPxToCanvasPx, scaleCanvasDensity, frameContext.userContext);
                                     }
@@ -401,7 +471,7 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
 
     protected void notifyStartOfFrameProcessing()
     {
-        currentFrameStartTime = System.currentTimeMillis();
+        statistics.markFrameProcessingStart();
     }
 
     @Override
@@ -416,50 +486,42 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
                 throw new IllegalStateException("A recording session may only be started once a streaming session is already in flight");
             }
 
-            if(mediaRecorder != null)
+            boolean raw = parameters.source == FrameCaptureParameters.Source.RAW;
+
+            if((raw ? rawRecorder : pipelineOutputRecorder) != null)
             {
-                throw new IllegalStateException("A recording session is already ongoing!");
+                throw new IllegalStateException("A recording session for that source is already ongoing!");
             }
 
-            mediaRecorderSurface = MediaCodec.createPersistentInputSurface();
-            mediaRecorderSurfaceNativeHandle = nativeGetSurfaceHandle(mediaRecorderSurface);
-
-            mediaRecorder = new MediaRecorder();
-            mediaRecorder.setInputSurface(mediaRecorderSurface);
-            mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-            mediaRecorder.setOutputFormat(parameters.outputFormat.format);
-            mediaRecorder.setVideoSize(width, height);
-            mediaRecorder.setVideoEncoder(parameters.encoder.format);
-            mediaRecorder.setVideoEncodingBitRate(parameters.bitrate);
-            mediaRecorder.setOutputFile(parameters.path);
-            mediaRecorder.setCaptureRate(parameters.frameRate);
-            mediaRecorder.prepare();
-            mediaRecorder.start();
+            PipelineRecorder recorder = PipelineRecorder.create(parameters, width, height);
 
-            if(viewport != null)
+            try
             {
-                viewport.setRecording(true);
+                recorder.start();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // e.g. MediaRecorder throws IllegalStateException for all sorts of things
+                recorder.abort();
+                throw new OpenCvCameraException("Unable to begin recording", e);
             }
-        }
-        catch (IOException e)
-        {
-            nativeReleaseSurfaceHandle(mediaRecorderSurfaceNativeHandle);
-            mediaRecorderSurfaceNativeHandle = 0;
-            mediaRecorderSurface.release();
-            mediaRecorderSurface = null;
-            mediaRecorder = null;
 
-            throw new OpenCvCameraException("Unable to begin recording");
-        }
-        catch (Exception e)
-        {
-            nativeReleaseSurfaceHandle(mediaRecorderSurfaceNativeHandle);
-            mediaRecorderSurfaceNativeHandle = 0;
-            mediaRecorderSurface.release();
-            mediaRecorderSurface = null;
-            mediaRecorder = null;
+            synchronized (rawTapLock)
+            {
+                if(raw)
+                {
+                    rawRecorder = recorder;
+                }
+                else
+                {
+                    pipelineOutputRecorder = recorder;
+                }
+            }
 
-            throw e;
+            if(viewport != null)
+            {
+                viewport.setRecording(true);
+            }
         }
         finally
         {
@@ -469,20 +531,61 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
 
     @Override
     public synchronized void stopRecordingPipeline()
+    {
+        stopRecording(true, true);
+    }
+
+    @Override
+    public synchronized void stopRecordingPipeline(FrameCaptureParameters.Source source)
+    {
+        boolean raw = source == FrameCaptureParameters.Source.RAW;
+        stopRecording(raw, !raw);
+    }
+
+    private void stopRecording(boolean stopRaw, boolean stopOutput)
     {
         System.out.println("stopRecordingPipeline()");
         try
         {
-            if(mediaRecorder != null)
+            if((stopRaw && rawRecorder != null) || (stopOutput && pipelineOutputRecorder != null))
             {
-                mediaRecorder.stop();
-                nativeReleaseSurfaceHandle(mediaRecorderSurfaceNativeHandle);
-                mediaRecorderSurfaceNativeHandle = 0;
-                mediaRecorderSurface.release();
-                mediaRecorderSurface = null;
-                mediaRecorder = null;
+                PipelineRecorder raw = null;
+                PipelineRecorder output = null;
 
-                if(viewport != null)
+                // Once these are cleared, the frame thread can't be using them
+                synchronized (rawTapLock)
+                {
+                    if(stopRaw)
+                    {
+                        raw = rawRecorder;
+                        rawRecorder = null;
+                    }
+
+                    if(stopOutput)
+                    {
+                        output = pipelineOutputRecorder;
+                        pipelineOutputRecorder = null;
+                    }
+                }
+
+                try
+                {
+                    if(raw != null)
+                    {
+                        raw.stop();
+                    }
+                }
+                finally
+                {
+                    if(output != null)
+                    {
+                        output.stop();
+                    }
+
+                    trimFrameCopies();
+                }
+
+                if(viewport != null && rawRecorder == null && pipelineOutputRecorder == null)
                 {
                     viewport.setRecording(false);
                 }
@@ -498,176 +601,588 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
         }
     }
 
-    protected synchronized void handleFrame(Mat frame, long timestamp)
+    @Override
+    public synchronized void startFrameCapture(FrameCaptureParameters parameters)
     {
+        if(!isStreaming())
+        {
+            throw new IllegalStateException("A frame capture session may only be started once a streaming session is already in flight");
+        }
+
+        if(frameCaptureSession != null)
+        {
+            throw new IllegalStateException("A frame capture session is already ongoing!");
+        }
+
+        FrameCaptureSession session = new FrameCaptureSession(this, parameters);
+
         try
         {
-            handleFrameUserCrashable(frame, timestamp);
+            session.start();
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            emulateEStop(e);
+            throw new OpenCvCameraException("Unable to begin frame capture", e);
+        }
+
+        synchronized (rawTapLock)
+        {
+            frameCaptureSession = session;
         }
+
+        onFrameCaptureMetadataWanted(true);
     }
 
-    protected synchronized void handleFrameUserCrashable(Mat frame, long timestamp)
+    @Override
+    public synchronized void stopFrameCapture()
     {
-        msFrameIntervalRollingAverage.add(timer.milliseconds());
-        timer.reset();
-        double secondsPerFrame = msFrameIntervalRollingAverage.getMean() / 1000d;
-        avgFps = (float) (1d/secondsPerFrame);
-        Mat userProcessedFrame = null;
+        FrameCaptureSession session;
 
-        int rotateCode = mapRotationEnumToOpenCvRotateCode(rotation);
+        synchronized (rawTapLock)
+        {
+            session = frameCaptureSession;
+            frameCaptureSession = null;
+        }
 
-        if(rotateCode != -1)
+        if(session != null)
         {
-            /*
-             * Rotate onto another Mat rather than doing so in-place.
-             *
-             * This does two things:
-             *     1) It seems that rotating by 90 or 270 in-place
-             *        causes the backing buffer to be re-allocated
-             *        since the width/height becomes swapped. This
-             *        causes a problem for user code which makes a
-             *        submat from the input Mat, because after the
-             *        parent Mat is re-allocated the submat is no
-             *        longer tied to it. Thus, by rotating onto
-             *        another Mat (which is never re-allocated) we
-             *        remove that issue.
-             *
-             *     2) Since the backing buffer does need need to be
-             *        re-allocated for each frame, we reduce overhead
-             *        time by about 1ms.
-             */
-            Core.rotate(frame, rotatedMat, rotateCode);
-            frame = rotatedMat;
+            session.stop();
+            onFrameCaptureMetadataWanted(blackBox != null);
+            trimFrameCopies();
         }
+    }
 
-        final OpenCvPipeline pipelineSafe;
+    @Override
+    public synchronized void startBlackBox(BlackBoxParameters parameters)
+    {
+        if(!isStreaming())
+        {
+            throw new IllegalStateException("The black box may only be started once a streaming session is already in flight");
+        }
+
+        if(blackBox != null)
+        {
+            throw new IllegalStateException("The black box is already running!");
+        }
+
+        FrameBlackBox box = new FrameBlackBox(this, parameters);
+        box.start();
+
+        synchronized (rawTapLock)
+        {
+            blackBox = box;
+        }
+
+        onFrameCaptureMetadataWanted(true);
+    }
+
+    @Override
+    public synchronized void stopBlackBox()
+    {
+        FrameBlackBox box;
+
+        synchronized (rawTapLock)
+        {
+            box = blackBox;
+            blackBox = null;
+        }
+
+        if(box != null)
+        {
+            box.stop();
+            onFrameCaptureMetadataWanted(frameCaptureSession != null);
+            trimFrameCopies();
+        }
+    }
+
+    /*
+     * Give back the memory of the shared frame copies of sources no one's using any more
+     */
+    private void trimFrameCopies()
+    {
+        FrameCaptureSession session = frameCaptureSession;
+        FrameBlackBox box = blackBox;
+
+        if(rawRecorder == null
+                && (session == null || session.parameters.source != FrameCaptureParameters.Source.RAW)
+                && (box == null || box.parameters.source != FrameCaptureParameters.Source.RAW))
+        {
+            synchronized (rawTapLock)
+            {
+                rawFrameCopy.trim();
+            }
+        }
+
+        if(pipelineOutputRecorder == null
+                && (session == null || session.parameters.source != FrameCaptureParameters.Source.PIPELINE_OUTPUT)
+                && (box == null || box.parameters.source != FrameCaptureParameters.Source.PIPELINE_OUTPUT))
+        {
+            outputFrameCopy.trim();
+        }
+    }
+
+    @Override
+    public synchronized void startReplayRecording(String path)
+    {
+        if(!isStreaming())
+        {
+            throw new IllegalStateException("A replay recording may only be started once a streaming session is already in flight");
+        }
+
+        if(replayWriter != null)
+        {
+            throw new IllegalStateException("A replay recording is already ongoing!");
+        }
+
+        ReplayFileWriter writer = new ReplayFileWriter(new File(path));
+
+        try
+        {
+            writer.open();
+        }
+        catch (IOException e)
+        {
+            throw new OpenCvCameraException("Unable to begin replay recording", e);
+        }
+
+        synchronized (rawTapLock)
+        {
+            replayWriter = writer;
+        }
+    }
+
+    @Override
+    public synchronized void stopReplayRecording()
+    {
+        ReplayFileWriter writer;
+
+        synchronized (rawTapLock)
+        {
+            writer = replayWriter;
+            replayWriter = null;
+        }
+
+        if(writer != null)
+        {
+            finishReplayRecording(writer);
+        }
+    }
+
+    private static void finishReplayRecording(ReplayFileWriter writer)
+    {
+        try
+        {
+            writer.close();
+            RobotLog.ii("OpenCvCamera", "Replay recording to %s finished: %d frames written, %d skipped due to a change in frame size",
+                    writer.getFile().getAbsolutePath(), writer.getFramesWritten(), writer.getFramesSkipped());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Override // NOT synchronized so as not to block the frame thread while writing
+    public String dumpBlackBox()
+    {
+        FrameBlackBox box = blackBox;
+
+        if(box == null)
+        {
+            throw new IllegalStateException("The black box is not running!");
+        }
+
+        try
+        {
+            return box.dump();
+        }
+        catch (IOException e)
+        {
+            throw new OpenCvCameraException("Unable to dump black box", e);
+        }
+    }
+
+    /*
+     * For implementations which are told the exposure and gain each frame was actually
+     * captured with: fills those in on 'info' for the frame with the given timestamp (as
+     * passed to handleFrame()) and returns true, or returns false if they aren't known
+     * for that frame. Called from frame capture and black box background threads, a
+     * little while after the frame, so the values have had time to be reported.
+     */
+    protected boolean getCapturedFrameMetadata(long timestamp, FrameArchiveWriter.FrameInfo info)
+    {
+        return false;
+    }
+
+    /*
+     * Exposure and gain values which are stamped onto frames written by a frame capture
+     * session or the black box when getCapturedFrameMetadata() doesn't know them, and
+     * are marked as approximate. These are polled at a low rate from a background thread,
+     * NOT the frame thread, so implementations are free to do something slow-ish here
+     * (e.g. a UVC control transfer). Return -1 if unknown.
+     */
+    protected long getExposureNanosForFrameCapture()
+    {
+        return -1;
+    }
+
+    protected int getGainForFrameCapture()
+    {
+        return -1;
+    }
+
+    /*
+     * Called when a frame capture session or the black box starts, and when the last of
+     * them stops, so that implementations which have to do per-frame work to be able to
+     * answer the methods above only do it while someone is going to ask. Called with
+     * our lock held, so implementations mustn't block on anything the frame thread holds.
+     */
+    protected void onFrameCaptureMetadataWanted(boolean wanted)
+    {
+
+    }
+
+    /*
+     * Implementations whose frame timestamps aren't on the System.nanoTime() clock call
+     * this with what to add to them to put them on it. Pipelines still get the timestamps
+     * as they are; only those comparing timestamps across cameras apply the offset.
+     */
+    protected final void setTimestampClockOffset(long clockOffsetNanos)
+    {
+        dispatcher.setClockOffset(clockOffsetNanos);
+    }
+
+    /*
+     * Implementations call this as soon as a frame arrives from the camera, BEFORE
+     * spending any time converting it, and skip the frame entirely (not calling
+     * handleFrame() for it) if this returns false. That happens when the pipeline
+     * has asked for a lower rate or only every Nth frame, or when we're running hot.
+     *
+     * While something is tapping the raw frames (a replay recording, raw recording,
+     * or RAW frame capture / black box), every frame has to be converted for them,
+     * so this always returns true, and handleFrame() only skips the pipeline
+     * itself for the frames it doesn't want. Either way, the pipeline is asked
+     * exactly once per frame, here, so its decimation / rate cap stay in step
+     * even if a tap starts or stops before handleFrame().
+     * Frame thread only.
+     */
+    protected final boolean acceptFrame()
+    {
+        pipelineAcceptedCurrentFrame = pipelineWantsFrame();
+        return pipelineAcceptedCurrentFrame || hasRawFrameTaps();
+    }
+
+    private boolean hasRawFrameTaps()
+    {
+        FrameCaptureSession session = frameCaptureSession;
+        FrameBlackBox box = blackBox;
+
+        return replayWriter != null || rawRecorder != null
+                || (session != null && session.parameters.source == FrameCaptureParameters.Source.RAW)
+                || (box != null && box.parameters.source == FrameCaptureParameters.Source.RAW);
+    }
+
+    /*
+     * Whether the pipeline should run on the frame which just arrived, applying its
+     * decimation / rate cap and the thermal cap. Only called from acceptFrame(), once
+     * per frame, since it counts frames. Frame thread only.
+     */
+    private boolean pipelineWantsFrame()
+    {
+        OpenCvPipeline pipelineSafe;
 
-        // Grab a safe reference to what the pipeline currently is,
-        // since the user is allowed to change it at any time
         synchronized (pipelineChangeLock)
         {
             pipelineSafe = pipeline;
         }
 
+        long now = System.nanoTime();
+
         if(pipelineSafe != null)
         {
-            if(pipelineSafe instanceof TimestampedOpenCvPipeline)
+            framesSinceAccepted++;
+
+            if(framesSinceAccepted < pipelineSafe.getFrameDecimation())
             {
-                ((TimestampedOpenCvPipeline) pipelineSafe).setTimestamp(timestamp);
+                return false;
             }
 
-            long pipelineStart = System.currentTimeMillis();
-            userProcessedFrame = pipelineSafe.processFrameInternal(frame);
-            msUserPipelineRollingAverage.add(System.currentTimeMillis() - pipelineStart);
-        }
+            double maxFps = pipelineSafe.getMaxFps();
 
-        // Will point to whatever mat we end up deciding to send to the screen
-        final Mat matForDisplay;
+            if(maxFps != appliedPipelineMaxFps)
+            {
+                pipelineRateLimiter.setMaxFps(maxFps);
+                appliedPipelineMaxFps = maxFps;
+            }
 
-        if (pipelineSafe == null)
-        {
-            matForDisplay = frame;
+            if(!pipelineRateLimiter.accept(now))
+            {
+                return false;
+            }
         }
-        else if(userProcessedFrame == null)
+
+        double thermalFps = OpenCvThermalMonitor.getPipelineFpsCap();
+
+        if(thermalFps != appliedThermalPipelineFps)
         {
-            throw new OpenCvCameraException("User pipeline returned null");
+            thermalPipelineLimiter.setMaxFps(thermalFps);
+            appliedThermalPipelineFps = thermalFps;
         }
-        else if(userProcessedFrame.empty())
+
+        if(!thermalPipelineLimiter.accept(now))
         {
-            throw new OpenCvCameraException("User pipeline returned empty mat");
+            OpenCvThermalMonitor.notePipelineFrameSkipped();
+            return false;
         }
-        else if(userProcessedFrame.cols() != frame.cols() || userProcessedFrame.rows() != frame.rows())
+
+        framesSinceAccepted = 0;
+        return true;
+    }
+
+    protected void handleFrame(Mat frame, long timestamp)
+    {
+        OpenCvScheduler.Client client = schedulerClient;
+
+        // Only makes a syscall if something changed
+        OpenCvThreadPolicy.enterThreadClass(client != null ? OpenCvThreadPolicy.ThreadClass.CONVERSION : OpenCvThreadPolicy.ThreadClass.PIPELINE, cpuAffinityMask, this);
+
+        if(client != null)
         {
             /*
-             * The user didn't return the same size image from their pipeline as we gave them,
-             * ugh. This makes our lives interesting because we can't just send an arbitrary
-             * frame size to the viewport. It re-uses framebuffers that are of a fixed resolution.
-             * So, we copy the user's Mat onto a Mat of the correct size, and then send that other
-             * Mat to the viewport.
+             * The scheduler only keeps the latest frame, so the raw taps have to be fed
+             * here if they're to see every frame. acceptFrame() may have let this frame
+             * through only for them.
              */
+            if(hasRawFrameTaps())
+            {
+                synchronized (rawTapLock)
+                {
+                    feedRawTaps(frame, rotateCode != -1 ? rotateForRawTaps(frame) : frame, timestamp);
+                }
+            }
 
-            if(userProcessedFrame.cols() > frame.cols() || userProcessedFrame.rows() > frame.rows())
+            if(!pipelineAcceptedCurrentFrame)
             {
-                /*
-                 * What on earth was this user thinking?! They returned a Mat that's BIGGER in
-                 * a dimension than the one we gave them!
-                 */
+                return;
+            }
 
-                throw new OpenCvCameraException("User pipeline returned frame of unexpected size");
+            // NOT synchronized up here, so we don't block the frame thread while a worker runs the pipeline
+            client.submit(frame, timestamp);
+        }
+        else
+        {
+            handleFrameSafely(frame, timestamp, false);
+        }
+    }
+
+    private synchronized void handleScheduledFrame(Mat frame, long timestamp)
+    {
+        if(acceptingScheduledFrames)
+        {
+            handleFrameSafely(frame, timestamp, true);
+        }
+    }
+
+    private synchronized void handleFrameSafely(Mat frame, long timestamp, boolean scheduled)
+    {
+        try
+        {
+            if(scheduled)
+            {
+                // The raw taps already had this frame, on the frame thread
+                processRotatedFrame(dispatcher.rotate(frame), timestamp);
             }
+            else
+            {
+                handleFrameUserCrashable(frame, timestamp);
+            }
+        }
+        catch (Exception e)
+        {
+            emulateEStop(e);
+        }
+    }
 
-            //We re-use this buffer, only create if needed
-            if(matToUseIfPipelineReturnedCropped == null)
+    protected synchronized void handleFrameUserCrashable(Mat frame, long timestamp)
+    {
+        Mat rotated = dispatcher.rotate(frame);
+
+        if(hasRawFrameTaps())
+        {
+            synchronized (rawTapLock)
             {
-                matToUseIfPipelineReturnedCropped = frame.clone();
+                feedRawTaps(frame, rotated, timestamp);
             }
+        }
 
-            //Set to brown to indicate to the user the areas which they cropped off
-            matToUseIfPipelineReturnedCropped.setTo(brown);
+        // acceptFrame() may have let this frame through only so the taps would see it
+        if(!pipelineAcceptedCurrentFrame)
+        {
+            return;
+        }
+
+        processRotatedFrame(rotated, timestamp);
+    }
 
-            int usrFrmTyp = userProcessedFrame.type();
+    private Mat rotateForRawTaps(Mat frame)
+    {
+        // Not the dispatcher's buffer, which a scheduler worker may be using
+        Core.rotate(frame, rawTapRotatedMat, rotateCode);
+        return rawTapRotatedMat;
+    }
+
+    /*
+     * Called with rawTapLock held, on the frame thread
+     */
+    private void feedRawTaps(Mat frame, Mat rotated, long timestamp)
+    {
+        int frameNumber = rawFrameNumber++;
+
+        if(replayWriter != null)
+        {
+            try
+            {
+                replayWriter.write(frame, timestamp, frameNumber);
+            }
+            catch (IOException e)
+            {
+                // Don't take the frame thread down with it
+                RobotLog.ee("OpenCvCamera", e, "Error writing replay recording; stopping it");
+                ReplayFileWriter writer = replayWriter;
+                replayWriter = null;
+                finishReplayRecording(writer);
+            }
+        }
+
+        /*
+         * Whichever of these wants the frame first copies it, before the pipeline has a
+         * chance to draw on it; the others share that copy. Encoding happens elsewhere.
+         */
+        rawFrameCopy.begin(rotated);
+
+        try
+        {
+            if(rawRecorder != null)
+            {
+                rawRecorder.offer(rawFrameCopy, null);
+            }
 
-            if(usrFrmTyp == CvType.CV_8UC1)
+            if(frameCaptureSession != null && frameCaptureSession.parameters.source == FrameCaptureParameters.Source.RAW)
             {
-                /*
-                 * Handle 8UC1 returns (masks and single channels of images);
-                 *
-                 * We have to color convert onto a different mat (rather than
-                 * doing so in place) to avoid breaking any of the user's submats
-                 */
-                Imgproc.cvtColor(userProcessedFrame, croppedColorCvtedMat, Imgproc.COLOR_GRAY2RGBA);
-                userProcessedFrame = croppedColorCvtedMat; //Doesn't affect user's handle, only ours
+                frameCaptureSession.offer(rawFrameCopy, timestamp, frameNumber, rotation);
             }
-            else if(usrFrmTyp != CvType.CV_8UC4 && usrFrmTyp != CvType.CV_8UC3)
+
+            if(blackBox != null && blackBox.parameters.source == FrameCaptureParameters.Source.RAW)
             {
-                /*
-                 * Oof, we don't know how to handle the type they gave us
-                 */
-                throw new OpenCvCameraException("User pipeline returned a frame of an illegal type. Valid types are CV_8UC1, CV_8UC3, and CV_8UC4");
+                blackBox.offer(rawFrameCopy, timestamp, frameNumber, rotation);
             }
+        }
+        finally
+        {
+            rawFrameCopy.end();
+        }
+    }
+
+    /*
+     * Everything from the pipeline on, for a frame the pipeline wants
+     */
+    private void processRotatedFrame(Mat frame, long timestamp)
+    {
+        statistics.markFrameArrival();
 
-            //Copy the user's frame onto a Mat of the correct size
-            userProcessedFrame.copyTo(matToUseIfPipelineReturnedCropped.submat(
-                    new Rect(0,0,userProcessedFrame.cols(), userProcessedFrame.rows())));
+        final OpenCvPipeline pipelineSafe;
 
-            //Send that correct size Mat to the viewport
-            matForDisplay = matToUseIfPipelineReturnedCropped;
+        // Grab a safe reference to what the pipeline currently is,
+        // since the user is allowed to change it at any time
+        synchronized (pipelineChangeLock)
+        {
+            pipelineSafe = pipeline;
         }
-        else
+
+        if(pipelineSafe != null)
         {
-            /*
-             * Yay, smart user! They gave us the frame size we were expecting!
-             * Go ahead and send it right on over to the viewport.
-             */
-            matForDisplay = userProcessedFrame;
+            // Annotations are only worth recording if something is going to draw them
+            pipelineSafe.getAnnotations().setEnabled(viewport != null || pipelineOutputRecorder != null || bitmapContinuation != null);
         }
 
-        if(mediaRecorder != null)
+        dispatcher.setDownscale(OpenCvThermalMonitor.getDownscale());
+
+        // Will point to whatever mat we end up deciding to send to the screen
+        final Mat matForDisplay = dispatcher.process(pipelineSafe, frame, timestamp);
+
+        boolean outputCaptured = frameCaptureSession != null && frameCaptureSession.parameters.source == FrameCaptureParameters.Source.PIPELINE_OUTPUT;
+        boolean outputBlackBoxed = blackBox != null && blackBox.parameters.source == FrameCaptureParameters.Source.PIPELINE_OUTPUT;
+
+        if(pipelineOutputRecorder != null || outputCaptured || outputBlackBoxed)
         {
-            nativeCopyMatToSurface(mediaRecorderSurfaceNativeHandle, matForDisplay.nativeObj);
+            /*
+             * Frame capture and the black box want the output at full size; if only the
+             * recorder wants it, it may as well scale up from the shrunk one itself.
+             */
+            outputFrameCopy.begin(outputCaptured || outputBlackBoxed ? dispatcher.getFullSizeOutput() : matForDisplay);
+
+            try
+            {
+                if(pipelineOutputRecorder != null)
+                {
+                    pipelineOutputRecorder.offer(outputFrameCopy, pipelineSafe != null ? pipelineSafe.getAnnotations() : null);
+                }
+
+                if(outputCaptured)
+                {
+                    frameCaptureSession.offer(outputFrameCopy, timestamp, frameCount, rotation);
+                }
+
+                if(outputBlackBoxed)
+                {
+                    blackBox.offer(outputFrameCopy, timestamp, frameCount, rotation);
+                }
+            }
+            finally
+            {
+                outputFrameCopy.end();
+            }
         }
 
         if (viewport != null)
         {
-            viewport.post(matForDisplay, new OpenCvViewport.FrameContext(pipelineSafe, pipelineSafe != null ? pipelineSafe.getUserContextForDrawHook() : null));
+            double thermalViewportFps = OpenCvThermalMonitor.getViewportFpsCap();
+
+            if(thermalViewportFps != appliedThermalViewportFps)
+            {
+                thermalViewportLimiter.setMaxFps(thermalViewportFps);
+                appliedThermalViewportFps = thermalViewportFps;
+            }
+
+            if(thermalViewportLimiter.accept(System.nanoTime()))
+            {
+                viewport.post(matForDisplay, pipelineSafe, pipelineSafe != null ? pipelineSafe.getUserContextForDrawHook() : null);
+            }
+            else
+            {
+                OpenCvThermalMonitor.noteViewportFrameSkipped();
+            }
         }
 
-        avgPipelineTime = (int) Math.round(msUserPipelineRollingAverage.getMean());
-        avgTotalFrameTime = (int) Math.round(msTotalFrameProcessingTimeRollingAverage.getMean());
-        avgOverheadTime = avgTotalFrameTime - avgPipelineTime;
+        statistics.updateAverages();
 
         if(viewport != null)
         {
-            viewport.notifyStatistics(avgFps, avgPipelineTime, avgOverheadTime);
+            viewport.notifyStatistics(statistics.getFps(), statistics.getPipelineTimeMs(), statistics.getOverheadTimeMs(), pipelineSafe != null ? pipelineSafe.getProfiler() : null);
+
+            if(cpuUsageDesired)
+            {
+                viewport.notifyCpuUsage(OpenCvCpuMonitor.getCpuPercent(this), OpenCvCpuMonitor.getSystemCpuPercent(), OpenCvCpuMonitor.getLoadAverage());
+            }
+            else
+            {
+                viewport.notifyCpuUsage(-1, -1, -1);
+            }
         }
 
         frameCount++;
 
-        msTotalFrameProcessingTimeRollingAverage.add(System.currentTimeMillis() - currentFrameStartTime);
+        statistics.markFrameProcessingEnd();
 
         /*
          * For stream preview on DS
@@ -680,7 +1195,7 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
                 OpenCvViewport.OptimizedRotation optimizedRotation = getOptimizedViewportRotation(rotation, AppUtil.getInstance().getActivity().getWindowManager().getDefaultDisplay().getRotation());
                 renderer.setOptimizedViewRotation(optimizedRotation);
 
-                renderer.notifyStatistics(avgFps, avgPipelineTime, avgOverheadTime);
+                renderer.notifyStatistics(statistics.getFps(), statistics.getPipelineTimeMs(), statistics.getOverheadTimeMs(), pipelineSafe != null ? pipelineSafe.getProfiler() : null);
                 renderer.setRenderingPolicy(desiredRenderingPolicy);
 
                 final Bitmap bitmapForDs;
@@ -720,6 +1235,7 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
                     renderer.setFpsMeterEnabled(fpsMeterDesired);
 
                     Canvas canvas = new Canvas(bitmapForDs);
+                    final CanvasAnnotationRenderer dsAnnotationRenderer = new CanvasAnnotationRenderer();
 
                     renderer.render(
                             matForDisplay,
@@ -729,6 +1245,7 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
                                 @Override
                                 public void onDrawFrame(Canvas canvas, int onscreenWidth, int onscreenHeight, float scaleBmpPxToCanvasPx, float canvasDensityScale, Object userContext)
                                 {
+                                    dsAnnotationRenderer.draw(canvas, pipelineSafe.getAnnotations(), scaleBmpPxToCanvasPx);
                                     pipelineSafe.onDrawFrame(canvas, onscreenWidth, onscreenHeight, scaleBmpPxToCanvasPx, canvasDensityScale, userContext);
                                 }
                             },
@@ -771,6 +1288,14 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
     {
         RobotLog.ee("OpenCvCamera", e, "User code threw an uncaught exception");
 
+        // Capture what the camera saw leading up to the crash. This has to happen
+        // in the background since we may well be on the frame thread right now.
+        FrameBlackBox box = blackBox;
+        if(box != null && box.parameters.dumpOnEStop)
+        {
+            box.dumpAsync();
+        }
+
         OpModeManagerImpl mgr = OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity());
         mgr.initOpMode(OpModeManagerImpl.DEFAULT_OP_MODE_NAME);
 
@@ -798,30 +1323,32 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
     @Override
     public float getFps()
     {
-        return avgFps;
+        return statistics.getFps();
     }
 
     @Override
     public int getPipelineTimeMs()
     {
-        return avgPipelineTime;
+        return statistics.getPipelineTimeMs();
     }
 
     @Override
     public int getOverheadTimeMs()
     {
-        return avgOverheadTime;
+        return statistics.getOverheadTimeMs();
     }
 
     @Override
     public int getTotalFrameTimeMs()
     {
-        return avgTotalFrameTime;
+        return statistics.getTotalFrameTimeMs();
     }
 
     @Override
     public int getCurrentPipelineMaxFps()
     {
+        int avgTotalFrameTime = statistics.getTotalFrameTimeMs();
+
         if(avgTotalFrameTime != 0)
         {
             return 1000/avgTotalFrameTime;
@@ -832,6 +1359,12 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
         }
     }
 
+    @Override
+    public float getCpuPercent()
+    {
+        return OpenCvCpuMonitor.getCpuPercent(this);
+    }
+
     @Override
     public void setViewportRenderingPolicy(ViewportRenderingPolicy policy)
     {
@@ -890,6 +1423,65 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
         }
     }
 
+    @Override
+    public void setCpuAffinity(int... cores)
+    {
+        cpuAffinityMask = OpenCvThreadPolicy.coresToMask(cores);
+    }
+
+    @Override
+    public void setPipelineTimeBudget(double budgetMs)
+    {
+        setPipelineTimeBudget(budgetMs, ResolutionLadder.DEFAULT_SCALES);
+    }
+
+    @Override
+    public synchronized void setPipelineTimeBudget(double budgetMs, double... scales)
+    {
+        if(budgetMs < 0)
+        {
+            throw new IllegalArgumentException("Time budget must be positive, or 0 for none");
+        }
+
+        dispatcher.setResolutionLadder(budgetMs > 0 ? new ResolutionLadder(budgetMs, scales) : null);
+    }
+
+    @Override
+    public synchronized void runPipelineOnSharedScheduler(int priority, double maxFps)
+    {
+        if(maxFps < 0)
+        {
+            throw new IllegalArgumentException("maxFps must be positive, or 0 for no limit");
+        }
+
+        if(schedulerClient == null)
+        {
+            schedulerClient = OpenCvScheduler.get().register(this, priority, maxFps, new OpenCvScheduler.FrameHandler()
+            {
+                @Override
+                public void handleFrame(Mat frame, long timestamp)
+                {
+                    handleScheduledFrame(frame, timestamp);
+                }
+            });
+        }
+        else
+        {
+            schedulerClient.setPriority(priority);
+            schedulerClient.setMaxFps(maxFps);
+        }
+    }
+
+    @Override
+    public synchronized void runPipelineOnFrameThread()
+    {
+        if(schedulerClient != null)
+        {
+            schedulerClient.close();
+            schedulerClient = null;
+        }
+    }
+
     @Override
     public String getGlobalWarning()
     {
@@ -1062,10 +1654,6 @@ public abstract class OpenCvCameraBase implements OpenCvCamera, CameraStreamSour
     protected abstract boolean cameraOrientationIsTiedToDeviceOrientation();
     protected abstract boolean isStreaming();
 
-    private native long nativeGetSurfaceHandle(Surface surface);
-    private native void nativeReleaseSurfaceHandle(long handle);
-    private native void nativeCopyMatToSurface(long handle, long matPtr);
-
     static
     {
         System.loadLibrary("EasyOpenCV");
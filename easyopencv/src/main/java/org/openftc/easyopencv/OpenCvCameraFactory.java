@@ -52,6 +52,18 @@ public abstract class OpenCvCameraFactory
     public abstract OpenCvSwitchableWebcam createSwitchableWebcam(WebcamName... names);
     public abstract OpenCvSwitchableWebcam createSwitchableWebcam(int viewportContainerId, WebcamName... names);
 
+    /*
+     * Replay
+     */
+    public abstract OpenCvReplayCamera createReplayCamera(String path);
+    public abstract OpenCvReplayCamera createReplayCamera(String path, int viewportContainerId);
+
+    /*
+     * Frame source (see OpenCvFrameSources for built-in sources)
+     */
+    public abstract OpenCvFrameSourceCamera createFrameSourceCamera(OpenCvFrameSource source);
+    public abstract OpenCvFrameSourceCamera createFrameSourceCamera(OpenCvFrameSource source, int viewportContainerId);
+
     public enum ViewportSplitMethod
     {
         VERTICALLY,
@@ -122,6 +122,34 @@ class OpenCvCameraFactoryImpl extends OpenCvCameraFactory
         return new OpenCvSwitchableWebcamImpl(cameraName, viewportContainerId);
     }
 
+    @Override
+    public OpenCvReplayCamera createReplayCamera(String path)
+    {
+        throwIfIncompatibleSdkVersion();
+        return new OpenCvReplayCameraImpl(path);
+    }
+
+    @Override
+    public OpenCvReplayCamera createReplayCamera(String path, int viewportContainerId)
+    {
+        throwIfIncompatibleSdkVersion();
+        return new OpenCvReplayCameraImpl(path, viewportContainerId);
+    }
+
+    @Override
+    public OpenCvFrameSourceCamera createFrameSourceCamera(OpenCvFrameSource source)
+    {
+        throwIfIncompatibleSdkVersion();
+        return new OpenCvFrameSourceCameraImpl(source);
+    }
+
+    @Override
+    public OpenCvFrameSourceCamera createFrameSourceCamera(OpenCvFrameSource source, int viewportContainerId)
+    {
+        throwIfIncompatibleSdkVersion();
+        return new OpenCvFrameSourceCameraImpl(source, viewportContainerId);
+    }
+
     @Override
     public int[] splitLayoutForMultipleViewports(final int containerId, final int numViewports, final ViewportSplitMethod viewportSplitMethod)
     {
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/***
+ * A "camera" which gets its frames from an {@link OpenCvFrameSource} rather than
+ * camera hardware, and feeds them through exactly the same frame path (rotation,
+ * pipeline, viewport, statistics, recording) as a real camera would. Useful for
+ * testing and benchmarking pipelines without a device.
+ *
+ * The resolution passed to startStreaming() must match the resolution of the source.
+ */
+public interface OpenCvFrameSourceCamera extends OpenCvCamera
+{
+    /***
+     * Set the clock used to pace frame delivery and to generate the timestamps
+     * handed to the pipeline. May be changed at any time.
+     * Defaults to {@link OpenCvFrameClock#SYSTEM}
+     *
+     * @param clock see above
+     */
+    void setClock(OpenCvFrameClock clock);
+
+    /***
+     * Set whether to start over from the first frame once the source runs
+     * out of frames, rather than stopping. Defaults to false.
+     *
+     * @param loop see above
+     */
+    void setLooping(boolean loop);
+
+    /***
+     * Get the resolution of the source, which must be passed to startStreaming()
+     * Only valid once the camera has been opened.
+     *
+     * @return see above
+     */
+    int getSourceWidth();
+    int getSourceHeight();
+
+    /***
+     * Block until the source has run out of frames and the last one has been
+     * processed (never returns while looping, other than by interruption or
+     * streaming being stopped)
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void waitForEndOfSource() throws InterruptedException;
+}
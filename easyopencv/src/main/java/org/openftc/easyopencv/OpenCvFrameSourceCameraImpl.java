@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+
+class OpenCvFrameSourceCameraImpl extends OpenCvCameraBase implements OpenCvFrameSourceCamera
+{
+    protected final OpenCvFrameSource source;
+    private final FrameSourcePump pump;
+    private boolean sourceOpened = false;
+
+    public OpenCvFrameSourceCameraImpl(OpenCvFrameSource source)
+    {
+        this.source = source;
+        this.pump = createPump();
+    }
+
+    public OpenCvFrameSourceCameraImpl(OpenCvFrameSource source, int containerLayoutId)
+    {
+        super(containerLayoutId);
+        this.source = source;
+        this.pump = createPump();
+    }
+
+    private FrameSourcePump createPump()
+    {
+        return new FrameSourcePump(source, this, new FrameSourcePump.Sink()
+        {
+            @Override
+            public void onFrame(Mat frame, long timestamp)
+            {
+                /*
+                 * The source has to decode every frame to keep its place, so
+                 * skipping here only saves the pipeline, not the decoding
+                 */
+                if(acceptFrame())
+                {
+                    notifyStartOfFrameProcessing();
+                    handleFrame(frame, timestamp);
+                }
+            }
+        }, "FrameSourceCameraThread");
+    }
+
+    @Override
+    public OpenCvCameraRotation getDefaultRotation()
+    {
+        return OpenCvCameraRotation.SENSOR_NATIVE;
+    }
+
+    @Override
+    protected int mapRotationEnumToOpenCvRotateCode(OpenCvCameraRotation rotation)
+    {
+        // Same as when driving a source on the desktop
+        return OpenCvFrameSourceDriver.rotateCodeFor(rotation);
+    }
+
+    @Override
+    protected boolean cameraOrientationIsTiedToDeviceOrientation()
+    {
+        return false;
+    }
+
+    @Override
+    protected boolean isStreaming()
+    {
+        return pump.isRunning();
+    }
+
+    @Override
+    public synchronized int openCameraDevice()
+    {
+        if(hasBeenCleanedUp())
+        {
+            return CAMERA_OPEN_ERROR_POSTMORTEM_OPMODE;// We're running on a zombie thread post-mortem of the OpMode GET OUT OF DODGE NOW
+        }
+
+        prepareForOpenCameraDevice();
+
+        try
+        {
+            if(!sourceOpened)
+            {
+                source.open();
+                sourceOpened = true;
+            }
+
+            return 0;
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return CAMERA_OPEN_ERROR_FAILURE_TO_OPEN_CAMERA_DEVICE;
+        }
+    }
+
+    @Override
+    public void openCameraDeviceAsync(final AsyncCameraOpenListener asyncCameraOpenListener)
+    {
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (OpenCvFrameSourceCameraImpl.this)
+                {
+                    try
+                    {
+                        int retCode = openCameraDevice();
+
+                        if(retCode < 0)
+                        {
+                            asyncCameraOpenListener.onError(retCode);
+                        }
+                        else
+                        {
+                            asyncCameraOpenListener.onOpened();
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        if(!hasBeenCleanedUp())
+                        {
+                            emulateEStop(e);
+                        }
+                        else
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public synchronized void closeCameraDevice()
+    {
+        cleanupForClosingCamera();
+
+        if(sourceOpened)
+        {
+            if(pump.isRunning())
+            {
+                stopStreaming();
+            }
+
+            source.close();
+            sourceOpened = false;
+        }
+    }
+
+    @Override
+    public void closeCameraDeviceAsync(final AsyncCameraCloseListener asyncCameraCloseListener)
+    {
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (OpenCvFrameSourceCameraImpl.this)
+                {
+                    try
+                    {
+                        closeCameraDevice();
+                        asyncCameraCloseListener.onClose();
+                    }
+                    catch (Exception e)
+                    {
+                        if(!hasBeenCleanedUp())
+                        {
+                            emulateEStop(e);
+                        }
+                        else
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public synchronized void startStreaming(int width, int height)
+    {
+        startStreaming(width, height, getDefaultRotation());
+    }
+
+    @Override
+    public synchronized void startStreaming(int width, int height, OpenCvCameraRotation rotation)
+    {
+        if(!sourceOpened)
+        {
+            throw new OpenCvCameraException("startStreaming() called, but camera is not opened!");
+        }
+
+        if(width != source.getWidth() || height != source.getHeight())
+        {
+            throw new OpenCvCameraException(String.format("Frame source produces [%dx%d] frames, cannot stream at [%dx%d]", source.getWidth(), source.getHeight(), width, height));
+        }
+
+        /*
+         * If we're already streaming, then that's OK, but we need to stop
+         * streaming in the old mode before we can restart in the new one.
+         */
+        if(pump.isRunning())
+        {
+            stopStreaming();
+        }
+
+        prepareForStartStreaming(width, height, rotation);
+
+        try
+        {
+            pump.start();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            throw new OpenCvCameraException("Unable to rewind frame source");
+        }
+    }
+
+    @Override
+    public synchronized void stopStreaming()
+    {
+        if(!sourceOpened)
+        {
+            throw new OpenCvCameraException("stopStreaming() called, but camera is not opened!");
+        }
+
+        // Doesn't wait for the pump thread; see FrameSourcePump
+        pump.stop();
+        cleanupForEndStreaming();
+    }
+
+    @Override
+    public void setClock(OpenCvFrameClock clock)
+    {
+        pump.setClock(clock);
+    }
+
+    @Override
+    public void setLooping(boolean loop)
+    {
+        pump.setLooping(loop);
+    }
+
+    @Override
+    public synchronized int getSourceWidth()
+    {
+        throwIfNotOpened();
+        return source.getWidth();
+    }
+
+    @Override
+    public synchronized int getSourceHeight()
+    {
+        throwIfNotOpened();
+        return source.getHeight();
+    }
+
+    @Override
+    public void waitForEndOfSource() throws InterruptedException
+    {
+        // Pipeline crashes are handled by the camera base (E-stop), so there's nothing to rethrow
+        pump.waitForEndOfSource();
+    }
+
+    protected void throwIfNotOpened()
+    {
+        if(!sourceOpened)
+        {
+            throw new OpenCvCameraException("Camera is not opened!");
+        }
+    }
+}
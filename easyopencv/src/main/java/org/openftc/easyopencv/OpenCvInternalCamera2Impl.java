@@ -30,10 +30,13 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
@@ -81,6 +84,69 @@ public class OpenCvInternalCamera2Impl extends OpenCvCameraBase implements OpenC
 
     private boolean sensorTimestampsAreRealtime = false;
 
+    // Re-measure the realtime clock offset this often; see updateRealtimeClockOffset()
+    private static final long CLOCK_OFFSET_REMEASURE_INTERVAL_NANOS = 1000000000L;
+    private boolean realtimeClockOffsetMeasured;
+    private long realtimeClockOffsetNanos;
+    private long lastClockOffsetMeasurementNanos;
+
+    // Reported by the HAL for each frame, so these are accurate even when AE is running
+    private volatile long lastSensorExposureNanos = -1;
+    private volatile int lastSensorSensitivity = -1;
+
+    /*
+     * The last few frames' capture results, keyed by sensor timestamp, so that frame capture
+     * and the black box can stamp each frame with its own exposure and gain. Frames are
+     * handed on with their callback timestamp unless sensor timestamps are realtime, so the
+     * sensor timestamp of each is noted down too. All guarded by captureResultHistoryLock.
+     */
+    private static final int CAPTURE_RESULT_HISTORY = 32;
+    private final Object captureResultHistoryLock = new Object();
+    private final long[] resultSensorTimestamps = new long[CAPTURE_RESULT_HISTORY];
+    private final long[] resultExposures = new long[CAPTURE_RESULT_HISTORY];
+    private final int[] resultSensitivities = new int[CAPTURE_RESULT_HISTORY];
+    private int nextResult;
+    private final long[] frameTimestamps = new long[CAPTURE_RESULT_HISTORY];
+    private final long[] frameSensorTimestamps = new long[CAPTURE_RESULT_HISTORY];
+    private int nextFrame;
+
+    /*
+     * Whether captureResultCallback should be attached to the repeating request; it's only
+     * needed while a frame capture or the black box is stamping frames with exposure and gain.
+     * The request is changed from the frame thread, which holds 'sync', to pick this up.
+     */
+    private volatile boolean captureResultsWanted;
+    private boolean captureResultsAttached;
+
+    private final CameraCaptureSession.CaptureCallback captureResultCallback = new CameraCaptureSession.CaptureCallback()
+    {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result)
+        {
+            Long exposure = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+
+            long exposureNanos = exposure != null ? exposure : -1;
+            int gain = sensitivity != null ? sensitivity : -1;
+
+            lastSensorExposureNanos = exposureNanos;
+            lastSensorSensitivity = gain;
+
+            Long sensorTimestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+
+            if(sensorTimestamp != null)
+            {
+                synchronized (captureResultHistoryLock)
+                {
+                    resultSensorTimestamps[nextResult] = sensorTimestamp;
+                    resultExposures[nextResult] = exposureNanos;
+                    resultSensitivities[nextResult] = gain;
+                    nextResult = (nextResult + 1) % CAPTURE_RESULT_HISTORY;
+                }
+            }
+        }
+    };
+
     @SuppressLint("WrongConstant")
     public OpenCvInternalCamera2Impl(OpenCvInternalCamera2.CameraDirection direction)
     {
@@ -351,6 +417,8 @@ public class OpenCvInternalCamera2Impl extends OpenCvCameraBase implements OpenC
             }
 
             prepareForStartStreaming(width, height, rotation);
+            realtimeClockOffsetMeasured = false;
+            setTimestampClockOffset(0);
 
             StreamConfigurationMap streamConfigurationMap = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
             Size[] sizes = streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888);
@@ -404,9 +472,9 @@ public class OpenCvInternalCamera2Impl extends OpenCvCameraBase implements OpenC
                             return; // camera is already closed
                         }
                         cameraCaptureSession = session;
+                        captureResultsAttached = captureResultsWanted;
 
-
-                        cameraCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, cameraHardwareHandler);
+                        apply();
                     }
                     catch (CameraAccessException e)
                     {
@@ -524,6 +592,20 @@ public class OpenCvInternalCamera2Impl extends OpenCvCameraBase implements OpenC
     /* CALLED WITH 'sync' held!! */
     private void onPreviewFrame(Image image, long callbackTimestamp)
     {
+        if(captureResultsAttached != captureResultsWanted && cameraCaptureSession != null)
+        {
+            captureResultsAttached = captureResultsWanted;
+            lastSensorExposureNanos = -1;
+            lastSensorSensitivity = -1;
+            apply();
+        }
+
+        if(!acceptFrame())
+        {
+            image.close();
+            return;
+        }
+
         notifyStartOfFrameProcessing();
 
         if(ptrNativeContext == 0)
@@ -538,7 +620,77 @@ public class OpenCvInternalCamera2Impl extends OpenCvCameraBase implements OpenC
         long imgTimestamp = image.getTimestamp();
         image.close();
 
-        handleFrame(rgbMat, sensorTimestampsAreRealtime ? imgTimestamp : callbackTimestamp);
+        if(sensorTimestampsAreRealtime)
+        {
+            updateRealtimeClockOffset(callbackTimestamp);
+        }
+
+        long frameTimestamp = sensorTimestampsAreRealtime ? imgTimestamp : callbackTimestamp;
+
+        if(captureResultsAttached)
+        {
+            synchronized (captureResultHistoryLock)
+            {
+                frameTimestamps[nextFrame] = frameTimestamp;
+                frameSensorTimestamps[nextFrame] = imgTimestamp;
+                nextFrame = (nextFrame + 1) % CAPTURE_RESULT_HISTORY;
+            }
+        }
+
+        handleFrame(rgbMat, frameTimestamp);
+    }
+
+    /*
+     * Realtime sensor timestamps are on the elapsedRealtime() clock, which keeps counting
+     * during deep sleep, rather than the System.nanoTime() clock other cameras' timestamps
+     * are on. Pipelines get them as they are, but we work out the difference between the
+     * clocks so that OpenCvMultiCameraPipeline can match our frames against other cameras'.
+     * It's measured when streaming starts, then re-measured now and again and smoothed, so
+     * that the odd slow measurement doesn't make the matched timestamps jitter.
+     */
+    private void updateRealtimeClockOffset(long now)
+    {
+        if(!realtimeClockOffsetMeasured)
+        {
+            realtimeClockOffsetNanos = measureRealtimeClockOffset();
+            realtimeClockOffsetMeasured = true;
+        }
+        else if(now - lastClockOffsetMeasurementNanos >= CLOCK_OFFSET_REMEASURE_INTERVAL_NANOS)
+        {
+            realtimeClockOffsetNanos += (measureRealtimeClockOffset() - realtimeClockOffsetNanos) / 8;
+        }
+        else
+        {
+            return;
+        }
+
+        lastClockOffsetMeasurementNanos = now;
+        setTimestampClockOffset(realtimeClockOffsetNanos);
+    }
+
+    /*
+     * System.nanoTime() minus elapsedRealtimeNanos(), taking whichever of a few readings
+     * was most tightly bracketed, so a preemption in the middle of one doesn't skew it
+     */
+    private static long measureRealtimeClockOffset()
+    {
+        long bestOffset = 0;
+        long bestWindow = Long.MAX_VALUE;
+
+        for(int i = 0; i < 3; i++)
+        {
+            long before = System.nanoTime();
+            long realtime = SystemClock.elapsedRealtimeNanos();
+            long after = System.nanoTime();
+
+            if(after - before < bestWindow)
+            {
+                bestWindow = after - before;
+                bestOffset = before + bestWindow / 2 - realtime;
+            }
+        }
+
+        return bestOffset;
     }
 
     private void startFrameWorkerHandlerThread()
@@ -586,7 +738,15 @@ public class OpenCvInternalCamera2Impl extends OpenCvCameraBase implements OpenC
 
         try
         {
-            cameraHardwareHandlerThread = new FixedHandlerThread("CameraHardwareHandlerThread");
+            cameraHardwareHandlerThread = new FixedHandlerThread("CameraHardwareHandlerThread")
+            {
+                @Override
+                protected void onLooperPrepared()
+                {
+                    // Only does occasional work, so only picks up its class settings when started
+                    OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.CAPTURE, 0, OpenCvInternalCamera2Impl.this);
+                }
+            };
             cameraHardwareHandlerThread.start();
             cameraHardwareHandler = new Handler(cameraHardwareHandlerThread.getLooper());
         }
@@ -1125,11 +1285,61 @@ public class OpenCvInternalCamera2Impl extends OpenCvCameraBase implements OpenC
         }
     }
 
+    @Override
+    protected boolean getCapturedFrameMetadata(long timestamp, FrameArchiveWriter.FrameInfo info)
+    {
+        synchronized (captureResultHistoryLock)
+        {
+            for(int i = 0; i < CAPTURE_RESULT_HISTORY; i++)
+            {
+                if(frameTimestamps[i] != timestamp)
+                {
+                    continue;
+                }
+
+                long sensorTimestamp = frameSensorTimestamps[i];
+
+                for(int j = 0; j < CAPTURE_RESULT_HISTORY; j++)
+                {
+                    if(resultSensorTimestamps[j] == sensorTimestamp)
+                    {
+                        info.exposureNanos = resultExposures[j];
+                        info.gain = resultSensitivities[j];
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    protected long getExposureNanosForFrameCapture()
+    {
+        return lastSensorExposureNanos;
+    }
+
+    @Override
+    protected int getGainForFrameCapture()
+    {
+        return lastSensorSensitivity;
+    }
+
+    @Override
+    protected void onFrameCaptureMetadataWanted(boolean wanted)
+    {
+        // Not applied here: the frame thread holds 'sync' while it waits for our lock
+        captureResultsWanted = wanted;
+    }
+
     private void apply()
     {
         try
         {
-            cameraCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), null, cameraHardwareHandler);
+            cameraCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), captureResultsAttached ? captureResultCallback : null, cameraHardwareHandler);
         }
         catch (CameraAccessException e)
         {
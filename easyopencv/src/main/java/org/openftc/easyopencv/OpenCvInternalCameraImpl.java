@@ -424,10 +424,13 @@ class OpenCvInternalCameraImpl extends OpenCvCameraBase implements Camera.Previe
          */
         if(rawSensorMat != null)
         {
-            rawSensorMat.put(0,0,data);
+            if(acceptFrame())
+            {
+                rawSensorMat.put(0,0,data);
 
-            Imgproc.cvtColor(rawSensorMat, rgbMat, Imgproc.COLOR_YUV2RGBA_NV21, 4);
-            handleFrame(rgbMat, callbackTimestamp);
+                Imgproc.cvtColor(rawSensorMat, rgbMat, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                handleFrame(rgbMat, callbackTimestamp);
+            }
 
             if(camera != null)
             {
@@ -100,9 +100,15 @@ public class OpenCvNativeViewViewport extends View implements OpenCvViewport
     }
 
     @Override
-    public void notifyStatistics(float fps, int pipelineMs, int overheadMs)
+    public void notifyStatistics(float fps, int pipelineMs, int overheadMs, PipelineProfiler profiler)
     {
-        renderer.notifyStatistics(fps, pipelineMs, overheadMs);
+        renderer.notifyStatistics(fps, pipelineMs, overheadMs, profiler);
+    }
+
+    @Override
+    public void notifyCpuUsage(float cameraCpuPercent, float systemCpuPercent, float loadAverage)
+    {
+        renderer.notifyCpuUsage(cameraCpuPercent, systemCpuPercent, loadAverage);
     }
 
     @Override
@@ -112,7 +118,7 @@ public class OpenCvNativeViewViewport extends View implements OpenCvViewport
     }
 
     @Override
-    public void post(Mat frame, Object context)
+    public void post(Mat frame, OpenCvPipeline generatingPipeline, Object userContext)
     {
         // Synchronized with activation/deactivation, but NOT with
         // anything else (we don't want to be blocked by onDraw() or something)
@@ -139,7 +145,7 @@ public class OpenCvNativeViewViewport extends View implements OpenCvViewport
                      */
                     MatRecycler.RecyclableMat matToCopyTo = framebufferRecycler.takeMat();
                     frame.copyTo(matToCopyTo);
-                    matToCopyTo.setContext(context);
+                    OpenCvViewport.FrameContext.attach(matToCopyTo, generatingPipeline, userContext);
                     visionPreviewFrameQueue.offer(matToCopyTo);
 
                     handler.post(invalidateRunnable);
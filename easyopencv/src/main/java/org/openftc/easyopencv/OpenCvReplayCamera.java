@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+/***
+ * A "camera" which plays back a replay file recorded with
+ * {@link OpenCvCamera#startReplayRecording(String)}, feeding the recorded
+ * frames through exactly the same frame path (rotation, pipeline, viewport,
+ * statistics) as a real camera would. Useful for running a pipeline against
+ * the exact frames the robot saw, e.g. to benchmark pipeline changes.
+ *
+ * The resolution passed to startStreaming() must match the resolution of the
+ * recording.
+ *
+ * To play a recording back through a pipeline on a desktop JVM instead, use an
+ * {@link OpenCvFrameSourceDriver} with {@link OpenCvFrameSources#replayFile(String)};
+ * that drives frames through the same code as this camera does.
+ */
+public interface OpenCvReplayCamera extends OpenCvFrameSourceCamera
+{
+    enum PlaybackMode
+    {
+        /*
+         * Frames are delivered with the same spacing as when they were recorded
+         * (or as fast as the pipeline can keep up, if that's slower)
+         */
+        ORIGINAL_CADENCE,
+
+        /*
+         * The next frame is delivered as soon as the previous one is done
+         */
+        AS_FAST_AS_POSSIBLE
+    }
+
+    /***
+     * Set how quickly frames should be delivered. May be changed at any time.
+     * Defaults to {@link PlaybackMode#ORIGINAL_CADENCE}. This is shorthand for
+     * {@link #setClock(OpenCvFrameClock)} with either the system clock or a
+     * {@link VirtualFrameClock}.
+     *
+     * @param playbackMode see above
+     */
+    void setPlaybackMode(PlaybackMode playbackMode);
+
+    /***
+     * Get the resolution of the recording, which must be passed to startStreaming()
+     * Only valid once the camera has been opened.
+     *
+     * @return see above
+     */
+    int getReplayWidth();
+    int getReplayHeight();
+
+    /***
+     * Get the number of frames in the recording.
+     * Only valid once the camera has been opened.
+     *
+     * @return see above
+     */
+    long getReplayFrameCount();
+
+    /***
+     * Block until every frame in the recording has been delivered (never returns
+     * while looping, other than by interruption or streaming being stopped)
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void waitForReplayToFinish() throws InterruptedException;
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+class OpenCvReplayCameraImpl extends OpenCvFrameSourceCameraImpl implements OpenCvReplayCamera
+{
+    public OpenCvReplayCameraImpl(String path)
+    {
+        super(new ReplayFrameSource(path));
+    }
+
+    public OpenCvReplayCameraImpl(String path, int containerLayoutId)
+    {
+        super(new ReplayFrameSource(path), containerLayoutId);
+    }
+
+    @Override
+    public void setPlaybackMode(PlaybackMode playbackMode)
+    {
+        setClock(playbackMode == PlaybackMode.AS_FAST_AS_POSSIBLE ? new VirtualFrameClock(System.nanoTime()) : OpenCvFrameClock.SYSTEM);
+    }
+
+    @Override
+    public int getReplayWidth()
+    {
+        return getSourceWidth();
+    }
+
+    @Override
+    public int getReplayHeight()
+    {
+        return getSourceHeight();
+    }
+
+    @Override
+    public synchronized long getReplayFrameCount()
+    {
+        throwIfNotOpened();
+        return ((ReplayFrameSource) source).getFrameCount();
+    }
+
+    @Override
+    public void waitForReplayToFinish() throws InterruptedException
+    {
+        waitForEndOfSource();
+    }
+}
@@ -28,7 +28,9 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.PixelFormat;
 import android.util.Log;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
@@ -56,6 +58,19 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
     private boolean needToDeactivateRegardlessOfUser = false;
     private boolean surfaceExistsAndIsReady = false;
     private volatile boolean useGpuCanvas;
+    private volatile boolean useNativeBlit;
+
+    /*
+     * In native blit mode, the render thread puts the frame on the surface itself, and
+     * the overlays (user annotations and stats) for it are drawn by onDraw() on the UI
+     * thread, on top of the surface. This is what the latest frame's overlays need.
+     */
+    private final Object overlayLock = new Object();
+    private final OpenCvViewport.FrameContext overlayContext = new OpenCvViewport.FrameContext(null, null);
+    private final OpenCvViewport.FrameContext overlayDrawContext = new OpenCvViewport.FrameContext(null, null);
+    private int overlayFrameWidth;
+    private int overlayFrameHeight;
+    private boolean overlayValid;
 
     private final OpenCvViewRenderer renderer;
     private volatile RenderHook renderHook;
@@ -108,6 +123,35 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
         }
     }
 
+    /*
+     * Blit frames straight from the Mat into the surface's buffers in native code,
+     * (scaled, letterboxed and rotated just like the Canvas path) instead of going
+     * through a Bitmap and a Canvas. Only the stats and the user's onDrawFrame()
+     * annotations are drawn with a Canvas, layered over the top.
+     */
+    public void setUseNativeBlit(boolean useNativeBlit) throws IllegalStateException
+    {
+        synchronized (syncObj)
+        {
+            if(internalRenderingState != RenderingState.STOPPED)
+            {
+                throw new IllegalStateException();
+            }
+            else
+            {
+                this.useNativeBlit = useNativeBlit;
+
+                // The overlays are drawn by onDraw(), which a SurfaceView normally skips
+                setWillNotDraw(!useNativeBlit);
+
+                if(useNativeBlit)
+                {
+                    getHolder().setFormat(PixelFormat.RGBA_8888);
+                }
+            }
+        }
+    }
+
     @Override
     public void setSize(int width, int height)
     {
@@ -126,7 +170,7 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
         }
     }
 
-    public void post(Mat mat, Object context)
+    public void post(Mat mat, OpenCvPipeline generatingPipeline, Object userContext)
     {
         synchronized (syncObj)
         {
@@ -155,7 +199,7 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
                      */
                     MatRecycler.RecyclableMat matToCopyTo = framebufferRecycler.takeMat();
                     mat.copyTo(matToCopyTo);
-                    matToCopyTo.setContext(context);
+                    OpenCvViewport.FrameContext.attach(matToCopyTo, generatingPipeline, userContext);
                     visionPreviewFrameQueue.offer(matToCopyTo);
                 }
                 catch (InterruptedException e)
@@ -282,6 +326,17 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
                 renderThread.interrupt();
             }
         }
+
+        if(useNativeBlit && internalRenderingState != RenderingState.ACTIVE)
+        {
+            // Don't leave the last frame's overlays hanging over the paused / stopped view
+            synchronized (overlayLock)
+            {
+                overlayValid = false;
+            }
+
+            postInvalidate();
+        }
     }
 
     /***
@@ -315,9 +370,15 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
     }
 
     @Override
-    public void notifyStatistics(float fps, int pipelineMs, int overheadMs)
+    public void notifyStatistics(float fps, int pipelineMs, int overheadMs, PipelineProfiler profiler)
+    {
+        renderer.notifyStatistics(fps, pipelineMs, overheadMs, profiler);
+    }
+
+    @Override
+    public void notifyCpuUsage(float cameraCpuPercent, float systemCpuPercent, float loadAverage)
     {
-        renderer.notifyStatistics(fps, pipelineMs, overheadMs);
+        renderer.notifyCpuUsage(cameraCpuPercent, systemCpuPercent, loadAverage);
     }
 
     @Override
@@ -362,6 +423,33 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
         }
     }
 
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        // Only native blit mode draws here; the frame itself is on the surface, under this
+        if(!useNativeBlit || internalRenderingState != RenderingState.ACTIVE)
+        {
+            return;
+        }
+
+        int frameWidth;
+        int frameHeight;
+
+        synchronized (overlayLock)
+        {
+            if(!overlayValid)
+            {
+                return;
+            }
+
+            frameWidth = overlayFrameWidth;
+            frameHeight = overlayFrameHeight;
+            overlayDrawContext.set(overlayContext);
+        }
+
+        renderer.renderOverlay(frameWidth, frameHeight, canvas, renderHook, overlayDrawContext);
+    }
+
     @Override
     public void surfaceCreated(SurfaceHolder holder)
     {
@@ -414,6 +502,7 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
     {
         boolean shouldPaintOrange = true;
         volatile boolean exitRequested = false;
+        private long surfaceHandle;
         private String TAG = "OpenCvViewportRenderThread";
 
         public void notifyExitRequested()
@@ -421,6 +510,30 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
             exitRequested = true;
         }
 
+        /*
+         * Native blit mode: put the frame straight onto the surface, then have the
+         * UI thread draw the overlays that go with it
+         */
+        private void blitAndUpdateOverlay(MatRecycler.RecyclableMat mat)
+        {
+            if(!nativeBlitMatToSurface(surfaceHandle, mat.nativeObj, renderer.getFrameRotationDegrees(), renderer.getBackgroundColor()))
+            {
+                return;
+            }
+
+            OpenCvViewport.FrameContext frameContext = (OpenCvViewport.FrameContext) mat.getContext();
+
+            synchronized (overlayLock)
+            {
+                overlayFrameWidth = mat.width();
+                overlayFrameHeight = mat.height();
+                overlayContext.set(frameContext);
+                overlayValid = true;
+            }
+
+            postInvalidate();
+        }
+
         private Canvas lockCanvas()
         {
             if(useGpuCanvas)
@@ -463,12 +576,19 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
 
             Log.d(TAG, "Render thread is up!");
 
+            if(useNativeBlit)
+            {
+                surfaceHandle = nativeGetSurfaceHandle(getHolder().getSurface());
+            }
+
             Canvas canvas = lockCanvas();
             canvas.drawColor(Color.BLUE);
             swapBuffer(canvas);
 
             while (!exitRequested)
             {
+                OpenCvThreadPolicy.enterThreadClass(OpenCvThreadPolicy.ThreadClass.RENDER);
+
                 switch (internalRenderingState)
                 {
                     case ACTIVE:
@@ -493,24 +613,31 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
                             break;
                         }
 
-                        //Get canvas object for rendering on
-                        canvas = lockCanvas();
-
-                        /*
-                         * For some reason, the canvas will very occasionally be null upon closing.
-                         * Stack Overflow seems to suggest this means the canvas has been destroyed.
-                         * However, surfaceDestroyed(), which is called right before the surface is
-                         * destroyed, calls checkState(), which *SHOULD* block until we die. This
-                         * works most of the time, but not always? We don't yet understand...
-                         */
-                        if(canvas != null)
+                        if(useNativeBlit)
                         {
-                            renderer.render(mat, canvas, renderHook, mat.getContext());
-                            swapBuffer(canvas);
+                            blitAndUpdateOverlay(mat);
                         }
                         else
                         {
-                            Log.d(TAG, "Canvas was null");
+                            //Get canvas object for rendering on
+                            canvas = lockCanvas();
+
+                            /*
+                             * For some reason, the canvas will very occasionally be null upon closing.
+                             * Stack Overflow seems to suggest this means the canvas has been destroyed.
+                             * However, surfaceDestroyed(), which is called right before the surface is
+                             * destroyed, calls checkState(), which *SHOULD* block until we die. This
+                             * works most of the time, but not always? We don't yet understand...
+                             */
+                            if(canvas != null)
+                            {
+                                renderer.render(mat, canvas, renderHook, mat.getContext());
+                                swapBuffer(canvas);
+                            }
+                            else
+                            {
+                                Log.d(TAG, "Canvas was null");
+                            }
                         }
 
                         //We're done with that Mat object; return it to the Mat recycler so it can be used again later
@@ -559,7 +686,17 @@ public class OpenCvSurfaceViewViewport extends SurfaceView implements SurfaceHol
                 }
             }
 
+            if(surfaceHandle != 0)
+            {
+                nativeReleaseSurfaceHandle(surfaceHandle);
+                surfaceHandle = 0;
+            }
+
             Log.d(TAG, "About to exit");
         }
     }
-}
\ No newline at end of file
+
+    private static native long nativeGetSurfaceHandle(Surface surface);
+    private static native void nativeReleaseSurfaceHandle(long handle);
+    private static native boolean nativeBlitMatToSurface(long handle, long matPtr, int rotationDegrees, int backgroundColor);
+}
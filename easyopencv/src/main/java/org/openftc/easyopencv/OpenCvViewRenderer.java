@@ -32,6 +32,8 @@ import com.qualcomm.robotcore.util.Device;
 
 import org.opencv.android.Utils;
 import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
 
 public class OpenCvViewRenderer
 {
@@ -56,6 +58,10 @@ public class OpenCvViewRenderer
     private float fps = 0;
     private int pipelineMs = 0;
     private int overheadMs = 0;
+    private volatile PipelineProfiler profiler;
+    private volatile float cameraCpuPercent = -1;
+    private volatile float systemCpuPercent = -1;
+    private volatile float loadAverage = -1;
 
     private int width;
     private int height;
@@ -69,6 +75,30 @@ public class OpenCvViewRenderer
 
     private Bitmap bitmapFromMat;
 
+    /*
+     * The frame scaled down to the size it's shown at onscreen, when that's
+     * smaller than the frame itself (which it usually is). Scaling in OpenCV
+     * first means the bitmap conversion and the blit only touch as many pixels
+     * as actually end up onscreen, rather than the full camera resolution.
+     */
+    private final Mat downscaledMat = new Mat();
+    private final Size downscaledSize = new Size();
+
+    /*
+     * Everything drawn per frame is drawn with these, so that rendering
+     * doesn't allocate (and eventually cause a GC pause) on every frame
+     */
+    private static final String VERSION_TEXT = "OpenFTC EasyOpenCV v" + BuildConfig._VERSION_NAME;
+    private final Rect bmpRect = new Rect();
+    private final Rect statsRect = new Rect();
+    private final Rect profileRect = new Rect();
+    private final Rect cpuRect = new Rect();
+    private final Rect pausedRect = new Rect();
+    private final TextLine fpsText = new TextLine(64);
+    private final TextLine timingText = new TextLine(64);
+    private final TextLine profileText = new TextLine(64);
+    private final TextLine cpuText = new TextLine(64);
+
     public OpenCvViewRenderer(Context context, boolean renderingOffsceen)
     {
         offscreen = renderingOffsceen;
@@ -114,7 +144,7 @@ public class OpenCvViewRenderer
         paintBlackBackground.setStyle(Paint.Style.FILL);
     }
 
-    private void unifiedDraw(Canvas canvas, int onscreenWidth, int onscreenHeight, OpenCvViewport.RenderHook userHook, Object userCtx)
+    private void unifiedDraw(Mat mat, Canvas canvas, int onscreenWidth, int onscreenHeight, OpenCvViewport.RenderHook userHook, Object userCtx)
     {
         int x_offset_statbox = 0;
         int y_offset_statbox = 0;
@@ -153,25 +183,35 @@ public class OpenCvViewRenderer
             x_offset_statbox = topLeftX;
         }
 
+        if (mat != null)
+        {
+            prepareBitmap(mat, scaledWidth, scaledHeight);
+        }
+
         //Draw the bitmap, scaling it to the maximum size that will fit in the viewport
-        Rect bmpRect = createRect(
+        createRect(
+                bmpRect,
                 topLeftX,
                 topLeftY,
                 scaledWidth,
                 scaledHeight);
 
-        // Draw black behind the bitmap to avoid alpha issues if usercode tries to draw
-        // annotations and doesn't specify alpha 255. This wasn't an issue when we just
-        // painted black behind the entire view, but now that we paint the RC background
-        // color, it is an issue...
-        canvas.drawRect(bmpRect, paintBlackBackground);
-
-        canvas.drawBitmap(
-                bitmapFromMat,
-                null,
-                bmpRect,
-                null
-        );
+        // No frame means it's been blitted to the surface already, and we're just drawing the overlays
+        if (mat != null)
+        {
+            // Draw black behind the bitmap to avoid alpha issues if usercode tries to draw
+            // annotations and doesn't specify alpha 255. This wasn't an issue when we just
+            // painted black behind the entire view, but now that we paint the RC background
+            // color, it is an issue...
+            canvas.drawRect(bmpRect, paintBlackBackground);
+
+            canvas.drawBitmap(
+                    bitmapFromMat,
+                    null,
+                    bmpRect,
+                    null
+            );
+        }
 
         // We need to save the canvas translation/rotation and such before we hand off to the user,
         // because if they don't put it back how they found it and then we go to draw the FPS meter,
@@ -182,7 +222,8 @@ public class OpenCvViewRenderer
         if (userHook != null)
         {
             // Can either use width or height I guess ¯\_(ツ)_/¯
-            float scaleBitmapPxToCanvasPx = (float) scaledWidth / bitmapFromMat.getWidth();
+            // NB: relative to the frame, not the bitmap, since the bitmap may have been scaled down
+            float scaleBitmapPxToCanvasPx = (float) scaledWidth / width;
 
             // To make the user's life easy, we teleport the origin to the top
             // left corner of the bitmap we painted
@@ -195,7 +236,8 @@ public class OpenCvViewRenderer
 
         if (fpsMeterEnabled)
         {
-            Rect statsRect = createRect(
+            createRect(
+                    statsRect,
                     x_offset_statbox,
                     onscreenHeight-y_offset_statbox-statBoxH,
                     statBoxW,
@@ -224,15 +266,88 @@ public class OpenCvViewRenderer
         int textLine2Y = textLine1Y + statBoxTextLineSpacing;
         int textLine3Y = textLine2Y + statBoxTextLineSpacing;
 
+        // Refill the stats text in place
+        fpsText.clear().append("FPS@").append(width).append('x').append(height).append(": ").append(fps, 2);
+        timingText.clear().append("Pipeline: ").append(pipelineMs).append("ms - Overhead: ").append(overheadMs).append("ms");
+
         // Draw the 3 text lines
-        canvas.drawText(String.format("OpenFTC EasyOpenCV v%s", BuildConfig._VERSION_NAME),        statBoxLTxtStart, textLine1Y, fpsMeterTextPaint);
-        canvas.drawText(String.format("FPS@%dx%d: %.2f", width, height, fps), statBoxLTxtStart, textLine2Y, fpsMeterTextPaint);
-        canvas.drawText(String.format("Pipeline: %dms - Overhead: %dms", pipelineMs, overheadMs), statBoxLTxtStart, textLine3Y, fpsMeterTextPaint);
+        canvas.drawText(VERSION_TEXT, statBoxLTxtStart, textLine1Y, fpsMeterTextPaint);
+        canvas.drawText(fpsText.chars(), 0, fpsText.length(), statBoxLTxtStart, textLine2Y, fpsMeterTextPaint);
+        canvas.drawText(timingText.chars(), 0, timingText.length(), statBoxLTxtStart, textLine3Y, fpsMeterTextPaint);
+
+        // Anything else is stacked on top of the stats box
+        Rect top = rect;
+
+        if(cameraCpuPercent >= 0)
+        {
+            top = drawCpuUsage(canvas, top);
+        }
+
+        PipelineProfiler profilerSafe = profiler;
+
+        if(profilerSafe != null && profilerSafe.isEnabled() && profilerSafe.getSectionCount() > 0)
+        {
+            drawProfile(canvas, top, profilerSafe);
+        }
+    }
+
+    /*
+     * One line of CPU usage, in a box on top of the given one
+     */
+    private Rect drawCpuUsage(Canvas canvas, Rect below)
+    {
+        int boxH = statBoxTextLineSpacing + statBoxTextLineSpacing/3;
+
+        createRect(cpuRect, below.left, below.top-boxH, statBoxW, boxH);
+        canvas.drawRect(cpuRect, fpsMeterNormalBgPaint);
+
+        cpuText.clear().append("CPU: ").append(cameraCpuPercent, 0).append('%');
+
+        if(systemCpuPercent >= 0)
+        {
+            cpuText.append(" - System: ").append(systemCpuPercent, 0).append('%');
+        }
+
+        if(loadAverage >= 0)
+        {
+            cpuText.append(" - Load: ").append(loadAverage, 2);
+        }
+
+        canvas.drawText(cpuText.chars(), 0, cpuText.length(), cpuRect.left+statBoxLTxtMargin, cpuRect.top + statBoxTextLineSpacing, fpsMeterTextPaint);
+
+        return cpuRect;
+    }
+
+    /*
+     * The pipeline's profiler sections, one per line, in a box stacked on top of the stats box
+     */
+    private void drawProfile(Canvas canvas, Rect statsBoxRect, PipelineProfiler pipelineProfiler)
+    {
+        int sectionCount = pipelineProfiler.getSectionCount();
+        int boxH = sectionCount*statBoxTextLineSpacing + statBoxTextLineSpacing/3;
+
+        createRect(profileRect, statsBoxRect.left, statsBoxRect.top-boxH, statBoxW, boxH);
+        canvas.drawRect(profileRect, fpsMeterNormalBgPaint);
+
+        int statBoxLTxtStart = profileRect.left+statBoxLTxtMargin;
+
+        for(int i = 0; i < sectionCount; i++)
+        {
+            PipelineProfiler.Section section = pipelineProfiler.getSection(i);
+
+            profileText.clear()
+                    .append(section.getName()).append(": ")
+                    .append(section.getAverageNanos() / 1e6f, 2).append("ms (max ")
+                    .append(section.getMaxNanos() / 1e6f, 2).append(')');
+
+            canvas.drawText(profileText.chars(), 0, profileText.length(), statBoxLTxtStart, profileRect.top + (i+1)*statBoxTextLineSpacing, fpsMeterTextPaint);
+        }
     }
 
-    Rect createRect(int tlx, int tly, int w, int h)
+    Rect createRect(Rect rect, int tlx, int tly, int w, int h)
     {
-        return new Rect(tlx, tly, tlx+w, tly+h);
+        rect.set(tlx, tly, tlx+w, tly+h);
+        return rect;
     }
 
     public void setFpsMeterEnabled(boolean fpsMeterEnabled)
@@ -247,6 +362,26 @@ public class OpenCvViewRenderer
         this.overheadMs = overheadMs;
     }
 
+    /*
+     * As above, plus the profiler of the pipeline which produced the
+     * frame, whose section times are shown above the stats if it's enabled
+     */
+    public void notifyStatistics(float fps, int pipelineMs, int overheadMs, PipelineProfiler profiler)
+    {
+        notifyStatistics(fps, pipelineMs, overheadMs);
+        this.profiler = profiler;
+    }
+
+    /*
+     * CPU usage to show on top of the stats; -1 for the camera's hides it
+     */
+    public void notifyCpuUsage(float cameraCpuPercent, float systemCpuPercent, float loadAverage)
+    {
+        this.cameraCpuPercent = cameraCpuPercent;
+        this.systemCpuPercent = systemCpuPercent;
+        this.loadAverage = loadAverage;
+    }
+
     public void setRecording(boolean recording)
     {
         isRecording = recording;
@@ -257,23 +392,40 @@ public class OpenCvViewRenderer
         this.optimizedViewRotation = optimizedViewRotation;
     }
 
-    public void render(Mat mat, Canvas canvas, OpenCvViewport.RenderHook userHook, Object userCtx)
+    /*
+     * Convert the frame into bitmapFromMat, scaling it down to the size
+     * it's going to be drawn at first if that's smaller than the frame
+     */
+    private void prepareBitmap(Mat mat, int drawnWidth, int drawnHeight)
     {
-        if (bitmapFromMat == null || bitmapFromMat.getWidth() != mat.width() || bitmapFromMat.getHeight() != mat.height())
+        Mat matToConvert = mat;
+
+        if (drawnWidth > 0 && drawnHeight > 0 && drawnWidth < mat.width() && drawnHeight < mat.height())
+        {
+            downscaledSize.width = drawnWidth;
+            downscaledSize.height = drawnHeight;
+            Imgproc.resize(mat, downscaledMat, downscaledSize, 0, 0, Imgproc.INTER_AREA);
+            matToConvert = downscaledMat;
+        }
+
+        if (bitmapFromMat == null || bitmapFromMat.getWidth() != matToConvert.width() || bitmapFromMat.getHeight() != matToConvert.height())
         {
             if (bitmapFromMat != null)
             {
                 bitmapFromMat.recycle();
             }
 
-            bitmapFromMat = Bitmap.createBitmap(mat.width(), mat.height(), Bitmap.Config.ARGB_8888);
+            bitmapFromMat = Bitmap.createBitmap(matToConvert.width(), matToConvert.height(), Bitmap.Config.ARGB_8888);
         }
 
         //Convert that Mat to a bitmap we can render
-        Utils.matToBitmap(mat, bitmapFromMat);
+        Utils.matToBitmap(matToConvert, bitmapFromMat);
+    }
 
-        width = bitmapFromMat.getWidth();
-        height = bitmapFromMat.getHeight();
+    public void render(Mat mat, Canvas canvas, OpenCvViewport.RenderHook userHook, Object userCtx)
+    {
+        width = mat.width();
+        height = mat.height();
         aspectRatio = (float) width / height;
 
         if (!offscreen)
@@ -282,12 +434,53 @@ public class OpenCvViewRenderer
             canvas.drawColor(RC_ACTIVITY_BG_COLOR);
         }
 
+        drawWithRenderingPolicy(mat, canvas, userHook, userCtx);
+    }
+
+    /*
+     * For when the frame itself has been blitted straight to the surface (see
+     * OpenCvSurfaceViewViewport's native mode): draw just the user's annotations
+     * and the stats, in the same place render() would have put them, onto a
+     * transparent canvas layered over the surface.
+     */
+    public void renderOverlay(int frameWidth, int frameHeight, Canvas canvas, OpenCvViewport.RenderHook userHook, Object userCtx)
+    {
+        width = frameWidth;
+        height = frameHeight;
+        aspectRatio = (float) width / height;
+
+        drawWithRenderingPolicy(null, canvas, userHook, userCtx);
+    }
+
+    /*
+     * How far (clockwise, in degrees) render() currently rotates frames
+     * to match the rendering policy; for drawing frames without a Canvas
+     */
+    public int getFrameRotationDegrees()
+    {
+        OpenCvViewport.OptimizedRotation optimizedRotationSafe = optimizedViewRotation;
+
+        if(renderingPolicy == OpenCvCamera.ViewportRenderingPolicy.OPTIMIZE_VIEW && optimizedRotationSafe != null)
+        {
+            return optimizedRotationSafe.val;
+        }
+
+        return 0;
+    }
+
+    public int getBackgroundColor()
+    {
+        return RC_ACTIVITY_BG_COLOR;
+    }
+
+    private void drawWithRenderingPolicy(Mat mat, Canvas canvas, OpenCvViewport.RenderHook userHook, Object userCtx)
+    {
         // Cache current state, can change behind our backs
         OpenCvViewport.OptimizedRotation optimizedRotationSafe = optimizedViewRotation;
 
         if(renderingPolicy == OpenCvCamera.ViewportRenderingPolicy.MAXIMIZE_EFFICIENCY || optimizedRotationSafe == OpenCvViewport.OptimizedRotation.NONE)
         {
-            unifiedDraw(canvas, canvas.getWidth(), canvas.getHeight(), userHook, userCtx);
+            unifiedDraw(mat, canvas, canvas.getWidth(), canvas.getHeight(), userHook, userCtx);
         }
         else if(renderingPolicy == OpenCvCamera.ViewportRenderingPolicy.OPTIMIZE_VIEW)
         {
@@ -295,7 +488,7 @@ public class OpenCvViewRenderer
             {
                 // 180 is easy, just rotate canvas 180 about center and draw as usual
                 canvas.rotate(optimizedRotationSafe.val, canvas.getWidth()/2, canvas.getHeight()/2);
-                unifiedDraw(canvas, canvas.getWidth(), canvas.getHeight(), userHook, userCtx);
+                unifiedDraw(mat, canvas, canvas.getWidth(), canvas.getHeight(), userHook, userCtx);
             }
             else // 90 either way
             {
@@ -308,7 +501,7 @@ public class OpenCvViewRenderer
                 canvas.translate(origin_x, origin_y);
 
                 // Now draw as normal, but, the onscreen width and height are swapped
-                unifiedDraw(canvas, canvas.getHeight(), canvas.getWidth(), userHook, userCtx);
+                unifiedDraw(mat, canvas, canvas.getHeight(), canvas.getWidth(), userHook, userCtx);
             }
         }
     }
@@ -323,6 +516,7 @@ public class OpenCvViewRenderer
         canvas.drawColor(PAUSED_COLOR);
 
         Rect rect = createRect(
+                pausedRect,
                 0,
                 canvas.getHeight()-statBoxH,
                 statBoxW,
@@ -339,7 +533,7 @@ public class OpenCvViewRenderer
         int textLine3Y = textLine2Y + statBoxTextLineSpacing;
 
         // Draw the 3 text lines
-        canvas.drawText(String.format("OpenFTC EasyOpenCV v%s", BuildConfig._VERSION_NAME), statBoxLTxtStart, textLine1Y, fpsMeterTextPaint);
+        canvas.drawText(VERSION_TEXT, statBoxLTxtStart, textLine1Y, fpsMeterTextPaint);
         canvas.drawText("VIEWPORT PAUSED", statBoxLTxtStart, textLine2Y, fpsMeterTextPaint);
         //canvas.drawText("Hi", statBoxLTxtStart, textLine3Y, fpsMeterTextPaint);
     }
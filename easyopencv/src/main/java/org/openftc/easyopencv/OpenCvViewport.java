@@ -54,21 +54,64 @@ interface OpenCvViewport
     void deactivate();
     void setSize(int width, int height);
     void setOptimizedViewRotation(OptimizedRotation rotation);
-    void notifyStatistics(float fps, int pipelineMs, int overheadMs);
+    void notifyStatistics(float fps, int pipelineMs, int overheadMs, PipelineProfiler profiler);
+    void notifyCpuUsage(float cameraCpuPercent, float systemCpuPercent, float loadAverage);
     void setRecording(boolean recording);
-    void post(Mat frame, Object userContext);
+    void post(Mat frame, OpenCvPipeline generatingPipeline, Object userContext);
     void setRenderingPolicy(OpenCvCamera.ViewportRenderingPolicy policy);
     void setRenderHook(RenderHook renderHook);
 
+    /*
+     * Rides along with a framebuffer to the render thread. Viewports keep one of
+     * these per recycled framebuffer and refill it on each post(), rather than
+     * allocating a new one for every frame.
+     */
     class FrameContext
     {
         OpenCvPipeline generatingPipeline;
         Object userContext;
+        final OpenCvAnnotations annotations = new OpenCvAnnotations();
 
         public FrameContext(OpenCvPipeline generatingPipeline, Object userContext)
+        {
+            set(generatingPipeline, userContext);
+        }
+
+        void set(OpenCvPipeline generatingPipeline, Object userContext)
         {
             this.generatingPipeline = generatingPipeline;
             this.userContext = userContext;
+
+            /*
+             * Take a copy of the annotations the pipeline recorded for this frame,
+             * since it'll have moved on to the next one by the time we're drawn
+             */
+            annotations.copyFrom(generatingPipeline != null ? generatingPipeline.getAnnotations() : null);
+        }
+
+        void set(FrameContext other)
+        {
+            this.generatingPipeline = other.generatingPipeline;
+            this.userContext = other.userContext;
+            annotations.copyFrom(other.annotations);
+        }
+
+        /*
+         * Fills in the context attached to a framebuffer, attaching one first if
+         * this is the first time the framebuffer has been posted
+         */
+        static void attach(MatRecycler.RecyclableMat framebuffer, OpenCvPipeline generatingPipeline, Object userContext)
+        {
+            FrameContext context = (FrameContext) framebuffer.getContext();
+
+            if(context == null)
+            {
+                framebuffer.setContext(new FrameContext(generatingPipeline, userContext));
+            }
+            else
+            {
+                context.set(generatingPipeline, userContext);
+            }
         }
     }
 }
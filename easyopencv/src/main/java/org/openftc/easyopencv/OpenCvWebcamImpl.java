@@ -80,6 +80,7 @@ class OpenCvWebcamImpl extends OpenCvCameraBase implements OpenCvWebcam, CameraC
     protected Camera camera = null;
     private CameraCaptureSession cameraCaptureSession = null;
     private Mat rgbaMat;
+    private long jpegDecompressor;
     private volatile boolean isStreaming = false;
     protected final Object cameraDeviceStateSync = new Object();
     private final Object newFrameSync = new Object();
@@ -512,6 +513,12 @@ class OpenCvWebcamImpl extends OpenCvCameraBase implements OpenCvWebcam, CameraC
                 cleanupForEndStreaming();
 
                 rgbaMat = null;
+
+                if(jpegDecompressor != 0)
+                {
+                    NativeKernels.destroyJpegDecompressor(jpegDecompressor);
+                    jpegDecompressor = 0;
+                }
             }
 
             if (cameraCaptureSession != null)
@@ -569,6 +576,11 @@ class OpenCvWebcamImpl extends OpenCvCameraBase implements OpenCvWebcam, CameraC
                 return;
             }
 
+            if(!acceptFrame())
+            {
+                return;
+            }
+
             notifyStartOfFrameProcessing();
 
             if(rgbaMat == null)
@@ -578,11 +590,17 @@ class OpenCvWebcamImpl extends OpenCvCameraBase implements OpenCvWebcam, CameraC
 
             if (cameraFrame.getUvcFrameFormat() == UvcFrameFormat.YUY2)
             {
-                yuy2BufToRgbaMat(cameraFrame.getImageBuffer(), cameraFrame.getSize().getWidth(), cameraFrame.getSize().getHeight(), rgbaMat.nativeObj);
+                NativeKernels.yuy2ToRgba(cameraFrame.getImageBuffer(), rgbaMat.cols(), rgbaMat.rows(), rgbaMat.nativeObj);
             }
             else if (cameraFrame.getUvcFrameFormat() == UvcFrameFormat.MJPEG)
             {
-                mjpegBufToRgbaMat(cameraFrame.getImageBuffer(), cameraFrame.getImageSize(), cameraFrame.getSize().getWidth(), cameraFrame.getSize().getHeight(), rgbaMat.nativeObj);
+                // Hang on to the decompressor for the life of the stream rather than making one per frame
+                if(jpegDecompressor == 0)
+                {
+                    jpegDecompressor = NativeKernels.createJpegDecompressor();
+                }
+
+                NativeKernels.mjpegToRgba(jpegDecompressor, cameraFrame.getImageBuffer(), cameraFrame.getImageSize(), rgbaMat.nativeObj);
             }
 
             handleFrame(rgbaMat, cameraFrame.getCaptureTime());
@@ -679,6 +697,20 @@ class OpenCvWebcamImpl extends OpenCvCameraBase implements OpenCvWebcam, CameraC
         return camera.getControl(controlType);
     }
 
+    @Override
+    protected long getExposureNanosForFrameCapture()
+    {
+        ExposureControl control = exposureControl;
+        return control != null ? control.getExposure(TimeUnit.NANOSECONDS) : -1;
+    }
+
+    @Override
+    protected int getGainForFrameCapture()
+    {
+        GainControl control = gainControl;
+        return control != null ? control.getGain() : -1;
+    }
+
     @Override
     public CameraCalibrationIdentity getCalibrationIdentity()
     {
@@ -693,8 +725,24 @@ class OpenCvWebcamImpl extends OpenCvCameraBase implements OpenCvWebcam, CameraC
         }
     }
 
-    public static native void yuy2BufToRgbaMat(long rawDataPtr, int width, int height, long rgbaPtr);
-    public static native void mjpegBufToRgbaMat(long rawDataPtr, int bufSize, int width, int height, long rgbPtr);
+    public static void yuy2BufToRgbaMat(long rawDataPtr, int width, int height, long rgbaPtr)
+    {
+        NativeKernels.yuy2ToRgba(rawDataPtr, width, height, rgbaPtr);
+    }
+
+    public static void mjpegBufToRgbaMat(long rawDataPtr, int bufSize, int width, int height, long rgbPtr)
+    {
+        long decompressor = NativeKernels.createJpegDecompressor();
+
+        try
+        {
+            NativeKernels.mjpegToRgba(decompressor, rawDataPtr, bufSize, rgbPtr);
+        }
+        finally
+        {
+            NativeKernels.destroyJpegDecompressor(decompressor);
+        }
+    }
 
     static
     {
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2019 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc.easyopencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+
+/*
+ * Base class for the recording backends. Handles the work which is done on
+ * the frame thread: decimation, and taking a reference to the source's shared
+ * copy of the frame for a buffer owned by the backend. Scaling it into that
+ * buffer and everything else is up to the backend's own threads.
+ */
+abstract class PipelineRecorder
+{
+    final PipelineRecordingParameters parameters;
+    protected final int outputWidth;
+    protected final int outputHeight;
+    private final Size outputSize;
+
+    private long framesSeen;
+
+    static PipelineRecorder create(PipelineRecordingParameters parameters, int frameWidth, int frameHeight)
+    {
+        if(parameters.encoder == PipelineRecordingParameters.Encoder.MJPEG)
+        {
+            return new MjpegAviPipelineRecorder(parameters, frameWidth, frameHeight);
+        }
+        else
+        {
+            return new MediaRecorderPipelineRecorder(parameters, frameWidth, frameHeight);
+        }
+    }
+
+    protected PipelineRecorder(PipelineRecordingParameters parameters, int frameWidth, int frameHeight)
+    {
+        this.parameters = parameters;
+
+        /*
+         * Hardware encoders are generally unhappy with odd dimensions
+         */
+        if(parameters.outputScale == 1.0)
+        {
+            outputWidth = frameWidth;
+            outputHeight = frameHeight;
+        }
+        else
+        {
+            outputWidth = Math.max(2, (int) (frameWidth * parameters.outputScale) & ~1);
+            outputHeight = Math.max(2, (int) (frameHeight * parameters.outputScale) & ~1);
+        }
+
+        outputSize = new Size(outputWidth, outputHeight);
+    }
+
+    abstract void start() throws IOException;
+
+    abstract void stop();
+
+    /*
+     * Throws away everything the recorder holds after start() failed. Must be
+     * safe to call no matter how far start() got.
+     */
+    abstract void abort();
+
+    /*
+     * Returns a buffer for the next frame to be rendered into,
+     * or null if the frame should be dropped. Must not block.
+     */
+    protected abstract Mat obtainFrameBuffer();
+
+    /*
+     * Hands a buffer previously obtained from obtainFrameBuffer() (now with
+     * a frame pending) off to the backend. Must not block.
+     */
+    protected abstract void submitFrameBuffer(Mat buffer);
+
+    /*
+     * The frame waiting to be rendered into a buffer from obtainFrameBuffer(). The
+     * backend calls render() with it on its own encoder thread just before encoding
+     * the buffer, or discard() if it drops the buffer instead; either way, exactly once
+     * per submitFrameBuffer().
+     */
+    protected abstract PendingFrame pendingFrameFor(Mat buffer);
+
+    static class PendingFrame
+    {
+        final OpenCvAnnotations annotations = new OpenCvAnnotations();
+        SharedFrameCopy.Buffer source;
+        double scale;
+
+        void discard()
+        {
+            if(source != null)
+            {
+                source.release();
+                source = null;
+            }
+        }
+    }
+
+    /*
+     * Called from the frame thread, with the source's shared copy of the frame.
+     * Never blocks on the encoder. The annotations (if any) are burned into the
+     * recording at the recording's resolution rather than the frame's, later on.
+     */
+    void offer(SharedFrameCopy frames, OpenCvAnnotations annotations)
+    {
+        if(framesSeen++ % parameters.frameDecimation != 0)
+        {
+            return;
+        }
+
+        Mat buffer = obtainFrameBuffer();
+
+        if(buffer == null)
+        {
+            return;
+        }
+
+        PendingFrame pending = pendingFrameFor(buffer);
+        pending.source = frames.acquire();
+        pending.annotations.copyFrom(annotations);
+        pending.scale = (double) outputWidth / frames.getFrame().cols();
+
+        submitFrameBuffer(buffer);
+    }
+
+    /*
+     * Called from the backend's encoder thread: scales the pending frame into the buffer,
+     * lets go of the shared copy, and burns in the annotations
+     */
+    protected void render(Mat buffer, PendingFrame pending)
+    {
+        Mat frame = pending.source.mat;
+
+        try
+        {
+            if(frame.cols() == outputWidth && frame.rows() == outputHeight)
+            {
+                frame.copyTo(buffer);
+            }
+            else
+            {
+                // The frame is smaller than the recording if it was shrunk for the pipeline
+                Imgproc.resize(frame, buffer, outputSize, 0, 0, frame.cols() < outputWidth ? Imgproc.INTER_LINEAR : Imgproc.INTER_AREA);
+            }
+        }
+        finally
+        {
+            pending.discard();
+        }
+
+        if(pending.annotations.size() > 0)
+        {
+            pending.annotations.drawOnto(buffer, pending.scale);
+        }
+    }
+}
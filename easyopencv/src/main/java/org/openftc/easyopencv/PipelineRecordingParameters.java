@@ -36,13 +36,25 @@ public class PipelineRecordingParameters
     public final OutputFormat outputFormat;
     public final int bitrate;
     public final int frameRate;
+    public final double outputScale;
+    public final int frameDecimation;
+    public final FrameCaptureParameters.Source source;
+    public final int jpegQuality;
+    public final int encoderThreads;
 
     public enum Encoder
     {
         H264(MediaRecorder.VideoEncoder.H264),
         H263(MediaRecorder.VideoEncoder.H263),
         VP8(MediaRecorder.VideoEncoder.VP8),
-        MPEG_4_SP(MediaRecorder.VideoEncoder.MPEG_4_SP);
+        MPEG_4_SP(MediaRecorder.VideoEncoder.MPEG_4_SP),
+
+        /*
+         * Software MJPEG encoder (libjpeg-turbo) which doesn't go through MediaRecorder
+         * at all, so it behaves identically on every device. Must be used with
+         * OutputFormat.AVI. Frames are compressed in parallel on a small thread pool.
+         */
+        MJPEG(-1);
 
         final int format;
 
@@ -56,7 +68,12 @@ public class PipelineRecordingParameters
     {
         MPEG_4(MediaRecorder.OutputFormat.MPEG_4),
         THREE_GPP(MediaRecorder.OutputFormat.THREE_GPP),
-        WEBM(MediaRecorder.OutputFormat.WEBM);
+        WEBM(MediaRecorder.OutputFormat.WEBM),
+
+        /*
+         * Only valid for Encoder.MJPEG
+         */
+        AVI(-1);
 
         final int format;
 
@@ -81,21 +98,36 @@ public class PipelineRecordingParameters
     }
 
     public PipelineRecordingParameters(OutputFormat outputFormat, Encoder encoder, int frameRate, int bitrate, String path)
+    {
+        this(outputFormat, encoder, frameRate, bitrate, path, 1.0, 1, FrameCaptureParameters.Source.PIPELINE_OUTPUT, 85, 2);
+    }
+
+    public PipelineRecordingParameters(OutputFormat outputFormat, Encoder encoder, int frameRate, int bitrate, String path, double outputScale, int frameDecimation, FrameCaptureParameters.Source source, int jpegQuality, int encoderThreads)
     {
         this.outputFormat = outputFormat;
         this.encoder = encoder;
         this.frameRate = frameRate;
         this.bitrate = bitrate;
         this.path = path;
+        this.outputScale = outputScale;
+        this.frameDecimation = frameDecimation;
+        this.source = source;
+        this.jpegQuality = jpegQuality;
+        this.encoderThreads = encoderThreads;
     }
 
     public static class Builder
     {
-        private String path = "/sdcard/EasyOpenCV/pipeline_recording_"+new SimpleDateFormat("dd-MM-yyyy_HH:mm:ss", Locale.getDefault()).format(new Date())+".mp4";
+        private String path = null;
         private Encoder encoder = Encoder.H264;
         private OutputFormat outputFormat = OutputFormat.MPEG_4;
         private int bitrate = 4000000;
         private int frameRate = 30;
+        private double outputScale = 1.0;
+        private int frameDecimation = 1;
+        private FrameCaptureParameters.Source source = FrameCaptureParameters.Source.PIPELINE_OUTPUT;
+        private int jpegQuality = 85;
+        private int encoderThreads = 2;
 
         public Builder setPath(String path)
         {
@@ -127,9 +159,94 @@ public class PipelineRecordingParameters
             return this;
         }
 
+        /*
+         * Scale factor applied to each frame before it is handed to the encoder,
+         * e.g. 0.5 to record at half resolution. The resulting dimensions are
+         * rounded down to even numbers, as required by most hardware encoders.
+         */
+        public Builder setOutputScale(double outputScale)
+        {
+            if(outputScale <= 0 || outputScale > 1)
+            {
+                throw new IllegalArgumentException("Output scale must be in the range (0, 1]");
+            }
+
+            this.outputScale = outputScale;
+            return this;
+        }
+
+        /*
+         * Only record every Nth frame, e.g. 2 to record at half the rate the
+         * camera is streaming at. You'll probably want to reduce the frame rate
+         * passed to setFrameRate() by the same factor.
+         */
+        public Builder setFrameDecimation(int frameDecimation)
+        {
+            if(frameDecimation < 1)
+            {
+                throw new IllegalArgumentException("Frame decimation must be >= 1");
+            }
+
+            this.frameDecimation = frameDecimation;
+            return this;
+        }
+
+        /*
+         * Whether to record the raw camera frames (after rotation, before the pipeline
+         * gets its hands on them) or the output of the pipeline. One recording of each
+         * kind may be running at the same time.
+         */
+        public Builder setSource(FrameCaptureParameters.Source source)
+        {
+            this.source = source;
+            return this;
+        }
+
+        /*
+         * Only applies to Encoder.MJPEG
+         */
+        public Builder setJpegQuality(int jpegQuality)
+        {
+            if(jpegQuality < 1 || jpegQuality > 100)
+            {
+                throw new IllegalArgumentException("JPEG quality must be in the range [1, 100]");
+            }
+
+            this.jpegQuality = jpegQuality;
+            return this;
+        }
+
+        /*
+         * Number of threads compressing frames in parallel. Only applies to Encoder.MJPEG
+         */
+        public Builder setEncoderThreads(int encoderThreads)
+        {
+            if(encoderThreads < 1)
+            {
+                throw new IllegalArgumentException("Must use at least one encoder thread");
+            }
+
+            this.encoderThreads = encoderThreads;
+            return this;
+        }
+
         public PipelineRecordingParameters build()
         {
-            return new PipelineRecordingParameters(outputFormat, encoder, frameRate, bitrate, path);
+            if((encoder == Encoder.MJPEG) != (outputFormat == OutputFormat.AVI))
+            {
+                throw new IllegalArgumentException("The MJPEG encoder must be used with the AVI output format (and vice versa)");
+            }
+
+            String path = this.path;
+
+            if(path == null)
+            {
+                String prefix = source == FrameCaptureParameters.Source.RAW ? "raw_recording_" : "pipeline_recording_";
+                String extension = outputFormat == OutputFormat.AVI ? ".avi" : ".mp4";
+                path = "/sdcard/EasyOpenCV/"+prefix+new SimpleDateFormat("dd-MM-yyyy_HH:mm:ss", Locale.getDefault()).format(new Date())+extension;
+            }
+
+            return new PipelineRecordingParameters(outputFormat, encoder, frameRate, bitrate, path, outputScale, frameDecimation, source, jpegQuality, encoderThreads);
         }
     }
 }
@@ -55,6 +55,14 @@ public class AutonomousInitDetectionExample extends LinearOpMode
         int cameraMonitorViewId = hardwareMap.appContext.getResources().getIdentifier("cameraMonitorViewId", "id", hardwareMap.appContext.getPackageName());
         webcam = OpenCvCameraFactory.getInstance().createWebcam(hardwareMap.get(WebcamName.class, "Webcam 1"), cameraMonitorViewId);
         pipeline = new SkystoneDeterminationExample.SkystoneDeterminationPipeline();
+
+        /*
+         * We only need a fresh analysis a few times a second while waiting for START,
+         * so don't waste CPU on the rest of the frames. Frames beyond 10 per second are
+         * dropped as soon as they arrive, before even being converted to RGB.
+         */
+        pipeline.setMaxFps(10);
+
         webcam.setPipeline(pipeline);
 
         webcam.openCameraDeviceAsync(new OpenCvCamera.AsyncCameraOpenListener()